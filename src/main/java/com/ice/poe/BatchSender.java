@@ -0,0 +1,420 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.ice.poe;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Sends or stores messages listed in a file, without any dialogs: the
+ * command-line counterpart of the message flow in {@link POE}.
+ *
+ * Each input line is one message, either CSV ({@code recipient,message[,action]},
+ * with the usual double-quote escaping) or an NDJSON object with
+ * {@code Recipient}, {@code Message} and an optional {@code Action} of
+ * {@code send} or {@code store}. The two can be mixed; a CSV header line is
+ * skipped. Every record goes through the same checks as a message typed into
+ * the dialogs, gets a new ID and a hash from {@link Message#createMessageHash},
+ * and is then sent through the {@link SendHandler} or stored.
+ *
+ * The input is streamed in chunks. Chunks are parsed, validated and hashed in
+ * parallel, while sends, stores and results are done one chunk at a time in
+ * input order, so messages to one recipient keep their order. Only a few
+ * chunks per worker are in memory at once, whatever the size of the input.
+ * One result line is written per record, with its line number and outcome.
+ *
+ * @author Simphiwe Jijana
+ */
+public class BatchSender {
+
+    /**
+     * What to do with a message.
+     */
+    public enum Action {
+        SEND,
+        STORE
+    }
+
+    /**
+     * The send path for a batch. A batch that throws is reported as failed.
+     */
+    public interface SendHandler {
+
+        void send(String sender, List<Message> batch) throws IOException;
+    }
+
+    private final MessageStore store;
+    private final SendHandler handler;
+    private final Options options;
+
+    /**
+     * Creates a batch sender.
+     *
+     * @param store The store messages with the store action go to.
+     * @param handler The send path for messages with the send action.
+     * @param options The chunking and parallelism options.
+     */
+    public BatchSender(MessageStore store, SendHandler handler, Options options) {
+        this.store = store;
+        this.handler = handler;
+        this.options = options;
+    }
+
+    /**
+     * Processes every message in a file.
+     *
+     * @param input The CSV or NDJSON file.
+     * @param resultFile Where to write one result line per record.
+     * @param sender The user the messages are sent as.
+     * @return A report of what was sent, stored and rejected.
+     * @throws IOException If the input, result file or store cannot be used.
+     */
+    public Report run(Path input, Path resultFile, String sender) throws IOException {
+        try (InputStream in = Files.newInputStream(input)) {
+            return run(in, resultFile, sender);
+        }
+    }
+
+    /**
+     * Processes every message in a stream, for example standard input.
+     *
+     * @param in The CSV or NDJSON lines.
+     * @param resultFile Where to write one result line per record.
+     * @param sender The user the messages are sent as.
+     * @return A report of what was sent, stored and rejected.
+     * @throws IOException If the input, result file or store cannot be used.
+     */
+    public Report run(InputStream in, Path resultFile, String sender) throws IOException {
+        long start = System.nanoTime();
+        Report report = new Report();
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(options.parallelism, task -> {
+            Thread thread = new Thread(task, "batch-sender-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16);
+             BufferedWriter results = Files.newBufferedWriter(resultFile, StandardCharsets.UTF_8)) {
+            // Chunks are finished in the order they were read; reading waits once enough are in flight
+            Deque<Future<Chunk>> inFlight = new ArrayDeque<>();
+            long lineNumber = 0;
+            int recordIndex = 0;
+            boolean end = false;
+            while (!end) {
+                Chunk chunk = new Chunk();
+                String line;
+                while (chunk.lines.size() < options.chunkSize && (line = reader.readLine()) != null) {
+                    lineNumber++;
+                    if (line.isBlank() || (lineNumber == 1 && isHeader(line))) {
+                        continue;
+                    }
+                    chunk.lines.add(line);
+                    chunk.lineNumbers.add(lineNumber);
+                }
+                end = chunk.lines.size() < options.chunkSize;
+                if (chunk.lines.isEmpty()) {
+                    break;
+                }
+                chunk.firstIndex = recordIndex;
+                recordIndex += chunk.lines.size();
+                inFlight.add(pool.submit(() -> prepare(chunk)));
+                if (inFlight.size() >= options.parallelism * 2) {
+                    finish(await(inFlight.poll()), sender, results, report);
+                }
+            }
+            while (!inFlight.isEmpty()) {
+                finish(await(inFlight.poll()), sender, results, report);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        report.elapsedNanos = System.nanoTime() - start;
+        return report;
+    }
+
+    private static Chunk await(Future<Chunk> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Batch was interrupted.", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Batch chunk could not be prepared.", e.getCause());
+        }
+    }
+
+    // --- Parallel stage: parse, validate and hash ---
+
+    private Chunk prepare(Chunk chunk) {
+        int count = chunk.lines.size();
+        chunk.records = new Record[count];
+        for (int i = 0; i < count; i++) {
+            Record record = parse(chunk.lines.get(i), options.defaultAction);
+            record.lineNumber = chunk.lineNumbers.get(i);
+            if (record.error == null) {
+                record.error = build(record, chunk.firstIndex + i);
+            }
+            chunk.records[i] = record;
+        }
+        chunk.lines = null; // The parsed records are all that is needed from here on
+        chunk.lineNumbers = null;
+        return chunk;
+    }
+
+    /**
+     * Applies the checks of the message dialogs and creates the message.
+     *
+     * @return The reason the record is rejected, or null if it is valid.
+     */
+    private static String build(Record record, int index) {
+        if (!POE.isValidCellPhoneNumber(record.recipient)) {
+            return "Recipient must start with '+27' and be followed by 9 digits";
+        }
+        Message message = new Message(index);
+        if (!message.checkMessageLength(record.content)) {
+            return "Message is missing or longer than 250 characters";
+        }
+        message.setRecipientCell(record.recipient);
+        message.setMessageContent(record.content);
+        if ("INVALID_HASH".equals(message.createMessageHash(message.getMessageID(), index, record.content))) {
+            return "Message has no words to hash";
+        }
+        record.message = message;
+        return null;
+    }
+
+    private static Record parse(String line, Action defaultAction) {
+        Record record = new Record();
+        record.action = defaultAction;
+        String action = null;
+        if (line.stripLeading().startsWith("{")) {
+            try {
+                JSONObject json = new JSONObject(line);
+                record.recipient = json.optString("Recipient", null);
+                record.content = json.optString("Message", null);
+                action = json.optString("Action", null);
+            } catch (JSONException e) {
+                record.error = "Malformed JSON: " + e.getMessage();
+                return record;
+            }
+        } else {
+            List<String> fields = splitCsv(line);
+            if (fields == null) {
+                record.error = "Unterminated quote";
+                return record;
+            }
+            if (fields.size() < 2 || fields.size() > 3) {
+                record.error = "Expected recipient,message[,action]";
+                return record;
+            }
+            record.recipient = fields.get(0).trim();
+            record.content = fields.get(1);
+            action = fields.size() == 3 ? fields.get(2).trim() : null;
+        }
+        if (action != null && !action.isEmpty()) {
+            try {
+                record.action = Action.valueOf(action.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                record.error = "Action must be send or store";
+            }
+        }
+        return record;
+    }
+
+    /**
+     * Splits one CSV line into fields. A quoted field may hold commas, and a
+     * doubled quote inside it stands for one quote.
+     *
+     * @return The fields, or null if a quote is not closed.
+     */
+    private static List<String> splitCsv(String line) {
+        List<String> fields = new ArrayList<>(3);
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    field.append(c);
+                } else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) {
+            return null;
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    private static boolean isHeader(String line) {
+        return line.regionMatches(true, 0, "recipient,", 0, "recipient,".length())
+                || line.regionMatches(true, 0, "\"recipient\",", 0, "\"recipient\",".length());
+    }
+
+    // --- Ordered stage: send, store and report ---
+
+    private void finish(Chunk chunk, String sender, Writer results, Report report) throws IOException {
+        List<Message> toSend = new ArrayList<>();
+        List<Message> toStore = new ArrayList<>();
+        for (Record record : chunk.records) {
+            if (record.error == null) {
+                (record.action == Action.SEND ? toSend : toStore).add(record.message);
+            }
+        }
+        String sendError = null;
+        if (!toSend.isEmpty()) {
+            try {
+                handler.send(sender, toSend);
+            } catch (IOException | RuntimeException e) {
+                sendError = "Send failed: " + e.getMessage();
+            }
+        }
+        String storeError = null;
+        if (!toStore.isEmpty()) {
+            try {
+                store.appendAll(toStore);
+            } catch (IOException e) {
+                storeError = "Store failed: " + e.getMessage();
+            }
+        }
+
+        StringBuilder out = new StringBuilder(128);
+        for (Record record : chunk.records) {
+            out.setLength(0);
+            out.append("{\"Line\":").append(record.lineNumber).append(",\"Status\":");
+            String failure = record.action == Action.SEND ? sendError : storeError;
+            if (record.error != null) {
+                out.append("\"REJECTED\",\"Reason\":").append(JSONObject.quote(record.error));
+                report.rejected++;
+            } else if (failure != null) {
+                out.append("\"FAILED\",\"Reason\":").append(JSONObject.quote(failure));
+                report.failed++;
+            } else {
+                out.append(record.action == Action.SEND ? "\"SENT\"" : "\"STORED\"")
+                        .append(",\"MessageID\":").append(JSONObject.quote(record.message.getMessageID()))
+                        .append(",\"MessageHash\":").append(JSONObject.quote(record.message.getMessageHash()));
+                if (record.action == Action.SEND) {
+                    report.sent++;
+                } else {
+                    report.stored++;
+                }
+            }
+            out.append("}\n");
+            results.append(out);
+        }
+        report.records += chunk.records.length;
+    }
+
+    // --- Records ---
+
+    private static final class Chunk {
+        List<String> lines = new ArrayList<>();
+        List<Long> lineNumbers = new ArrayList<>();
+        int firstIndex;
+        Record[] records;
+    }
+
+    private static final class Record {
+        long lineNumber;
+        String recipient;
+        String content;
+        Action action;
+        Message message;
+        String error;
+    }
+
+    // --- Options and report ---
+
+    /**
+     * Options for a batch. Every setter returns this object so that options can
+     * be chained.
+     */
+    public static final class Options {
+        private int chunkSize = 10_000;
+        private int parallelism = Runtime.getRuntime().availableProcessors();
+        private Action defaultAction = Action.SEND;
+
+        public Options chunkSize(int records) { this.chunkSize = records; return this; }
+        public Options parallelism(int threads) { this.parallelism = threads; return this; }
+
+        /**
+         * The action for records that do not name one.
+         */
+        public Options defaultAction(Action action) { this.defaultAction = action; return this; }
+    }
+
+    /**
+     * The outcome of a batch.
+     */
+    public static final class Report {
+        long records;
+        long sent;
+        long stored;
+        long rejected;
+        long failed;
+        long elapsedNanos;
+
+        public long getRecords() {
+            return records;
+        }
+
+        public long getSent() {
+            return sent;
+        }
+
+        public long getStored() {
+            return stored;
+        }
+
+        public long getRejected() {
+            return rejected;
+        }
+
+        public long getFailed() {
+            return failed;
+        }
+
+        public double getRecordsPerSecond() {
+            return elapsedNanos == 0 ? 0 : records * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "Processed %d records: %d sent, %d stored, %d rejected, %d failed in %.2f s, %.0f records/s",
+                    records, sent, stored, rejected, failed, elapsedNanos / 1e9, getRecordsPerSecond());
+        }
+    }
+}
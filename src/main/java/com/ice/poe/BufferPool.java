@@ -0,0 +1,79 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.ice.poe;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of equally sized direct byte buffers. Direct buffers are expensive to
+ * allocate and are only freed by the garbage collector, so network code borrows
+ * them from the pool and returns them instead of allocating one per request.
+ *
+ * @author Simphiwe Jijana
+ */
+public class BufferPool {
+
+    private final int bufferSize;
+    private final int maxPooled;
+    private final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger();
+    private final AtomicInteger allocated = new AtomicInteger();
+
+    /**
+     * Creates a buffer pool.
+     *
+     * @param bufferSize The capacity of every buffer in the pool.
+     * @param maxPooled The most idle buffers kept for reuse; extra returned buffers are dropped.
+     */
+    public BufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+
+    /**
+     * Borrows a cleared buffer, allocating a new one if none are free.
+     *
+     * @return A buffer ready for writing.
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = free.poll();
+        if (buffer == null) {
+            allocated.incrementAndGet();
+            return ByteBuffer.allocateDirect(bufferSize);
+        }
+        pooled.decrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer to the pool.
+     *
+     * @param buffer A buffer previously obtained from {@link #acquire()}.
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer.capacity() == bufferSize && pooled.incrementAndGet() <= maxPooled) {
+            free.offer(buffer);
+        } else if (buffer.capacity() == bufferSize) {
+            pooled.decrementAndGet();
+        }
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Returns how many buffers this pool has ever allocated. A steady value under
+     * load shows that buffers are being reused.
+     *
+     * @return The number of buffers allocated.
+     */
+    public int getAllocatedCount() {
+        return allocated.get();
+    }
+}
@@ -0,0 +1,476 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.ice.poe;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Imports legacy {@code messages.json} archives into a {@link PartitionedMessageStore}.
+ *
+ * The archive is never parsed as one JSON array. Instead the file is streamed and
+ * split into individual top-level {@code {...}} records by tracking braces outside
+ * of strings, so it does not matter whether the records are wrapped in an array,
+ * separated by stray commas, or followed by a truncated record. A record whose
+ * string quotes are broken is cut off at the end of its line. Records are
+ * grouped into chunks; each group of chunks is parsed and validated in parallel on
+ * a fork-join pool and then written to the store in batches, in file order.
+ *
+ * Malformed or invalid records are written to a reject log and skipped. After
+ * every chunk the byte offset reached is saved to a checkpoint file, so an
+ * interrupted import resumes where it stopped. A chunk written just before a
+ * crash may be imported twice on resume.
+ *
+ * @author Simphiwe Jijana
+ */
+public class BulkImporter {
+
+    private static final int SEQUENTIAL_THRESHOLD = 256;
+
+    private final PartitionedMessageStore store;
+    private final Options options;
+
+    /**
+     * Creates an importer writing to the given store.
+     *
+     * @param store The store to import into.
+     * @param options The chunking and parallelism options.
+     */
+    public BulkImporter(PartitionedMessageStore store, Options options) {
+        this.store = store;
+        this.options = options;
+    }
+
+    /**
+     * Imports an archive, resuming from its checkpoint if an earlier run was
+     * interrupted.
+     *
+     * @param archive The legacy JSON archive to import.
+     * @return A report of how many records were imported and rejected.
+     * @throws IOException If the archive, checkpoint or store cannot be used.
+     */
+    public Report importFile(Path archive) throws IOException {
+        long start = System.nanoTime();
+        long size = Files.size(archive);
+        Path checkpointFile = checkpointFor(archive);
+        Checkpoint checkpoint = Checkpoint.load(checkpointFile, archive, size);
+        long resumedFrom = checkpoint.offset;
+        long importedBefore = checkpoint.imported;
+
+        Report report = new Report();
+        report.resumedFromOffset = resumedFrom;
+        ForkJoinPool pool = new ForkJoinPool(options.parallelism);
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(archive), 1 << 16);
+             BufferedWriter rejects = Files.newBufferedWriter(rejectLogFor(archive), StandardCharsets.UTF_8,
+                     StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            RecordScanner scanner = new RecordScanner(in, resumedFrom);
+            int chunksDone = 0;
+            while (chunksDone < options.maxChunks) {
+                // Read one chunk per worker, then parse them all at once
+                List<Chunk> group = new ArrayList<>();
+                while (group.size() < options.parallelism && chunksDone + group.size() < options.maxChunks) {
+                    Chunk chunk = scanner.nextChunk(options.chunkSize);
+                    if (chunk.records.isEmpty() && chunk.endOffset == chunk.startOffset) {
+                        break;
+                    }
+                    group.add(chunk);
+                }
+                if (group.isEmpty()) {
+                    report.complete = true;
+                    break;
+                }
+
+                List<RawRecord> all = new ArrayList<>();
+                for (Chunk chunk : group) {
+                    all.addAll(chunk.records);
+                }
+                pool.invoke(new ParseTask(all, 0, all.size()));
+
+                for (Chunk chunk : group) {
+                    List<Message> batch = new ArrayList<>(chunk.records.size());
+                    for (RawRecord record : chunk.records) {
+                        if (record.message != null) {
+                            batch.add(record.message);
+                        } else {
+                            logReject(rejects, record);
+                            checkpoint.rejected++;
+                        }
+                    }
+                    store.appendAll(batch);
+                    checkpoint.imported += batch.size();
+                    checkpoint.offset = chunk.endOffset;
+                    rejects.flush();
+                    checkpoint.save(checkpointFile);
+                    chunksDone++;
+                }
+            }
+            if (!report.complete && scanner.atEnd()) {
+                report.complete = true;
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        report.importedThisRun = checkpoint.imported - importedBefore;
+        report.imported = checkpoint.imported;
+        report.rejected = checkpoint.rejected;
+        report.bytesRead = checkpoint.offset - resumedFrom;
+        report.elapsedNanos = System.nanoTime() - start;
+        return report;
+    }
+
+    /**
+     * Returns the checkpoint file used for an archive.
+     *
+     * @param archive The archive being imported.
+     * @return The path of its checkpoint file.
+     */
+    public static Path checkpointFor(Path archive) {
+        return archive.resolveSibling(archive.getFileName() + ".import-checkpoint");
+    }
+
+    /**
+     * Returns the reject log used for an archive.
+     *
+     * @param archive The archive being imported.
+     * @return The path of its reject log.
+     */
+    public static Path rejectLogFor(Path archive) {
+        return archive.resolveSibling(archive.getFileName() + ".import-rejects");
+    }
+
+    // --- Parsing and validation ---
+
+    /**
+     * Parses and validates a range of raw records, splitting the range in half
+     * until it is small enough to handle on one thread.
+     */
+    private static final class ParseTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final transient List<RawRecord> records; // Tasks are never serialized
+        private final int from;
+        private final int to;
+
+        ParseTask(List<RawRecord> records, int from, int to) {
+            this.records = records;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SEQUENTIAL_THRESHOLD) {
+                for (int i = from; i < to; i++) {
+                    parse(records.get(i));
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new ParseTask(records, from, middle), new ParseTask(records, middle, to));
+        }
+    }
+
+    private static void parse(RawRecord record) {
+        if (record.error != null) {
+            return; // Already rejected by the scanner (e.g. a truncated record)
+        }
+        try {
+            Message message = Message.fromJson(new JSONObject(new String(record.bytes, StandardCharsets.UTF_8)));
+            record.error = validate(message);
+            if (record.error == null) {
+                record.message = message;
+            }
+        } catch (JSONException e) {
+            record.error = "Malformed JSON: " + e.getMessage();
+        }
+    }
+
+    /**
+     * Applies the same rules the application applies to new messages. Recipients
+     * in the older "+ and up to 10 characters" format are still accepted so that
+     * legacy archives can be migrated.
+     *
+     * @return The reason the message is invalid, or null if it is valid.
+     */
+    static String validate(Message message) {
+        String id = message.getMessageID();
+        if (id == null || !id.matches("\\d{10}")) {
+            return "MessageID must be 10 digits";
+        }
+        String recipient = message.getRecipientCell();
+        if (recipient == null || !(POE.checkCellPhone(recipient) || message.checkRecipientCell(recipient))) {
+            return "Recipient is not a valid cell number";
+        }
+        if (!message.checkMessageLength(message.getMessageContent())) {
+            return "Message is missing or longer than 250 characters";
+        }
+        if (message.getNumMessagesSent() < 1) {
+            return "NumMessagesSent must be positive";
+        }
+        return null;
+    }
+
+    private static void logReject(BufferedWriter rejects, RawRecord record) throws IOException {
+        JSONObject entry = new JSONObject();
+        entry.put("Offset", record.offset);
+        entry.put("Reason", record.error);
+        String raw = new String(record.bytes, StandardCharsets.UTF_8);
+        entry.put("Record", raw.length() > 1000 ? raw.substring(0, 1000) : raw);
+        rejects.write(entry.toString());
+        rejects.newLine();
+    }
+
+    // --- Streaming record scanner ---
+
+    /**
+     * Splits a byte stream into top-level JSON objects. Braces, quotes and
+     * backslashes are all ASCII, so scanning UTF-8 bytes directly is safe.
+     */
+    private static final class RecordScanner {
+        private final InputStream in;
+        private long offset;
+        private boolean end;
+
+        RecordScanner(InputStream in, long startOffset) throws IOException {
+            this.in = in;
+            long skipped = 0;
+            while (skipped < startOffset) {
+                long n = in.skip(startOffset - skipped);
+                if (n <= 0) {
+                    break;
+                }
+                skipped += n;
+            }
+            this.offset = skipped;
+        }
+
+        boolean atEnd() {
+            return end;
+        }
+
+        Chunk nextChunk(int maxRecords) throws IOException {
+            Chunk chunk = new Chunk(offset);
+            ByteArrayOutputStream current = new ByteArrayOutputStream(256);
+            int depth = 0;
+            boolean inString = false;
+            boolean escaped = false;
+            long recordStart = -1;
+
+            while (chunk.records.size() < maxRecords) {
+                int b = in.read();
+                if (b < 0) {
+                    end = true;
+                    if (depth > 0) {
+                        RawRecord truncated = new RawRecord(recordStart, current.toByteArray());
+                        truncated.error = "Truncated record at end of file";
+                        chunk.records.add(truncated);
+                    }
+                    break;
+                }
+                offset++;
+                if (depth == 0) {
+                    if (b == '{') {
+                        depth = 1;
+                        recordStart = offset - 1;
+                        current.reset();
+                        current.write(b);
+                    }
+                    continue; // Array brackets, commas and whitespace between records are ignored
+                }
+                current.write(b);
+                if (inString) {
+                    if (b == '\n') {
+                        // JSON strings cannot span lines, so the quotes are broken; resynchronise on the next record
+                        RawRecord broken = new RawRecord(recordStart, current.toByteArray());
+                        broken.error = "Unterminated string";
+                        chunk.records.add(broken);
+                        depth = 0;
+                        inString = false;
+                        escaped = false;
+                    } else if (escaped) {
+                        escaped = false;
+                    } else if (b == '\\') {
+                        escaped = true;
+                    } else if (b == '"') {
+                        inString = false;
+                    }
+                } else if (b == '"') {
+                    inString = true;
+                } else if (b == '{') {
+                    depth++;
+                } else if (b == '}' && --depth == 0) {
+                    chunk.records.add(new RawRecord(recordStart, current.toByteArray()));
+                }
+            }
+            chunk.endOffset = offset;
+            return chunk;
+        }
+    }
+
+    private static final class Chunk {
+        final long startOffset;
+        long endOffset;
+        final List<RawRecord> records = new ArrayList<>();
+
+        Chunk(long startOffset) {
+            this.startOffset = startOffset;
+            this.endOffset = startOffset;
+        }
+    }
+
+    private static final class RawRecord {
+        final long offset;
+        final byte[] bytes;
+        Message message;
+        String error;
+
+        RawRecord(long offset, byte[] bytes) {
+            this.offset = offset;
+            this.bytes = bytes;
+        }
+    }
+
+    // --- Checkpoint ---
+
+    private static final class Checkpoint {
+        String source;
+        long offset;
+        long imported;
+        long rejected;
+
+        static Checkpoint load(Path file, Path archive, long archiveSize) throws IOException {
+            Checkpoint checkpoint = new Checkpoint();
+            checkpoint.source = archive.toAbsolutePath().toString();
+            if (!Files.exists(file)) {
+                return checkpoint;
+            }
+            try {
+                JSONObject json = new JSONObject(Files.readString(file, StandardCharsets.UTF_8));
+                // A checkpoint only applies to the same archive; if it has shrunk, start again
+                if (json.getString("Source").equals(checkpoint.source)
+                        && json.getLong("Offset") <= archiveSize) {
+                    checkpoint.offset = json.getLong("Offset");
+                    checkpoint.imported = json.getLong("Imported");
+                    checkpoint.rejected = json.getLong("Rejected");
+                }
+            } catch (JSONException e) {
+                // Unreadable checkpoint: start from the beginning
+            }
+            return checkpoint;
+        }
+
+        void save(Path file) throws IOException {
+            JSONObject json = new JSONObject();
+            json.put("Source", source);
+            json.put("Offset", offset);
+            json.put("Imported", imported);
+            json.put("Rejected", rejected);
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.writeString(temp, json.toString(4), StandardCharsets.UTF_8);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    // --- Options and report ---
+
+    /**
+     * Options for an import. Every setter returns this object so that options can
+     * be chained.
+     */
+    public static final class Options {
+        private int chunkSize = 10_000;
+        private int parallelism = Runtime.getRuntime().availableProcessors();
+        private int maxChunks = Integer.MAX_VALUE;
+
+        public Options chunkSize(int records) { this.chunkSize = records; return this; }
+        public Options parallelism(int threads) { this.parallelism = threads; return this; }
+
+        /**
+         * Stops after this many chunks, so a very large archive can be imported in
+         * slices across several runs.
+         */
+        public Options maxChunks(int chunks) { this.maxChunks = chunks; return this; }
+    }
+
+    /**
+     * The outcome of one import run. Counts are cumulative across resumed runs.
+     */
+    public static final class Report {
+        long imported;
+        long importedThisRun;
+        long rejected;
+        long bytesRead;
+        long resumedFromOffset;
+        long elapsedNanos;
+        boolean complete;
+
+        public long getImported() {
+            return imported;
+        }
+
+        public long getRejected() {
+            return rejected;
+        }
+
+        public boolean isComplete() {
+            return complete;
+        }
+
+        public long getResumedFromOffset() {
+            return resumedFromOffset;
+        }
+
+        public double getRecordsPerSecond() {
+            return elapsedNanos == 0 ? 0 : importedThisRun * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "Imported %d records (%d rejected), %d bytes in %.2f s, %.0f records/s%s",
+                    imported, rejected, bytesRead, elapsedNanos / 1e9, getRecordsPerSecond(),
+                    complete ? "" : " - not finished, run again to resume");
+        }
+    }
+
+    /**
+     * Command-line entry point: {@code BulkImporter <archive> [storeDir] [chunkSize] [parallelism]}.
+     *
+     * @param args The command-line arguments.
+     * @throws IOException If the import fails.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: BulkImporter <archive.json> [storeDir] [chunkSize] [parallelism]");
+            return;
+        }
+        Options options = new Options();
+        if (args.length > 2) {
+            options.chunkSize(Integer.parseInt(args[2]));
+        }
+        if (args.length > 3) {
+            options.parallelism(Integer.parseInt(args[3]));
+        }
+        try (PartitionedMessageStore store = new PartitionedMessageStore(args.length > 1 ? args[1] : "messages")) {
+            System.out.println(new BulkImporter(store, options).importFile(Paths.get(args[0])));
+        }
+    }
+}
@@ -0,0 +1,313 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.ice.poe;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The stored messages of each conversation in the order they were stored, so
+ * that one conversation can be shown a page at a time without reading and
+ * filtering the whole archive.
+ *
+ * The messages are kept once, in a {@link MessageTable}. Each recipient has a
+ * list of the rows sent to it, which is in sequence number order because rows
+ * are added in the order the store accepts them. The newest messages, or the
+ * page before a cursor, are found with a binary search of that list, so a page
+ * costs O(log n + page size) however large the archive is. Deleted and expired
+ * messages are skipped as the page is collected, and the table is compacted
+ * once more than half of its rows are gone.
+ *
+ * A cursor is the sequence number of the oldest message on the previous page.
+ * Records stored before messages had sequence numbers are given stand-in
+ * numbers, below every real one, in the order they were read; cursors into
+ * them only hold until the timeline is built again.
+ *
+ * The timeline is built from the store when it is created and then kept up to
+ * date as a {@link MessageStoreListener}. It is thread-safe.
+ *
+ * @author Simphiwe Jijana
+ */
+public final class ConversationTimeline implements MessageStoreListener {
+
+    /** The cursor of a page that has nothing older after it. */
+    public static final long NO_MORE = Long.MIN_VALUE;
+
+    private static final int COMPACT_MIN_ROWS = 1024;
+    private static final int INITIAL_ROWS = 16;
+
+    private final PartitionedMessageStore store;
+    private final Clock clock;
+
+    private MessageTable rows;
+    private long[] sequences; // Per row: the sequence number, or a stand-in for older records
+    private long[] storedAt; // Per row: when it was stored, or its partition's start for older records
+    private BitSet deleted;
+    private LongHashMap<RowList> byRecipient; // Keyed by packed recipient
+    private Map<String, RowList> byRecipientText; // Recipients that are not "+" and digits
+    private LongHashMap<Integer> rowsById; // Keyed by packed ID
+    private Map<String, Integer> rowsByIdText; // IDs that are not ten digits
+    private int liveFrom; // Rows before this belong to dropped partitions
+    private int deletedRows; // Deleted rows at or after liveFrom
+    private long standInSequences; // Stand-in numbers given out so far
+
+    /**
+     * Builds the timeline of every message in a store, and keeps it up to date.
+     *
+     * @param store The message store.
+     * @throws IOException If a partition cannot be read.
+     */
+    public ConversationTimeline(PartitionedMessageStore store) throws IOException {
+        this(store, Clock.systemUTC());
+    }
+
+    /**
+     * Builds the timeline of every message in a store, and keeps it up to date.
+     *
+     * @param store The message store.
+     * @param clock The clock used to leave out expired messages.
+     * @throws IOException If a partition cannot be read.
+     */
+    public ConversationTimeline(PartitionedMessageStore store, Clock clock) throws IOException {
+        this.store = store;
+        this.clock = clock;
+        clear();
+        synchronized (store) { // Nothing can be stored between reading the partitions and registering
+            for (PartitionedMessageStore.Partition partition : store.snapshotPartitions()) {
+                for (Message message : store.readFrom(partition, 0)) {
+                    add(message, partition.start);
+                }
+            }
+            store.addListener(this);
+        }
+    }
+
+    /**
+     * Returns the newest messages of a conversation.
+     *
+     * @param recipient The recipient's cell number.
+     * @param limit The most messages to return.
+     * @return The page, oldest message first.
+     */
+    public Page latest(String recipient, int limit) {
+        return pageBefore(recipient, Long.MAX_VALUE, limit);
+    }
+
+    /**
+     * Returns the messages of a conversation stored just before a cursor.
+     *
+     * @param recipient The recipient's cell number.
+     * @param cursor The cursor of the previous page, see {@link Page#getNextCursor()}.
+     * @param limit The most messages to return.
+     * @return The page, oldest message first.
+     */
+    public synchronized Page pageBefore(String recipient, long cursor, int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Page size must be positive.");
+        }
+        long packed = PhoneNumberCodec.encode(recipient);
+        RowList list = packed != MessageEncoding.NO_RECIPIENT ? byRecipient.get(packed) : byRecipientText.get(recipient);
+        if (list == null || cursor == NO_MORE) {
+            return new Page(Collections.emptyList(), NO_MORE);
+        }
+        while (list.start < list.count && list.rows[list.start] < liveFrom) {
+            list.start++; // Rows of dropped partitions
+        }
+
+        // The list is in sequence order, so the first row at or after the cursor is found by binary search
+        int low = list.start;
+        int high = list.count;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (sequences[list.rows[middle]] < cursor) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        long now = clock.millis();
+        List<Message> page = new ArrayList<>(Math.min(limit, low - list.start));
+        int oldest = -1;
+        int i = low - 1;
+        for (; i >= list.start && page.size() < limit; i--) {
+            int row = list.rows[i];
+            if (isLive(row, now)) {
+                page.add(rows.get(row));
+                oldest = row;
+            }
+        }
+        while (i >= list.start && !isLive(list.rows[i], now)) {
+            i--;
+        }
+        Collections.reverse(page);
+        return new Page(page, i >= list.start ? sequences[oldest] : NO_MORE);
+    }
+
+    /**
+     * Returns the number of rows held, including deleted and expired ones that
+     * have not been compacted away yet.
+     *
+     * @return The number of rows.
+     */
+    public synchronized int size() {
+        return rows.size() - liveFrom;
+    }
+
+    @Override
+    public synchronized void onStored(Message message) {
+        add(message, clock.millis());
+    }
+
+    @Override
+    public synchronized void onDeleted(String messageId) {
+        long packed = MessageEncoding.packId(messageId);
+        Integer row = packed != MessageEncoding.NO_ID ? rowsById.remove(packed) : rowsByIdText.remove(messageId);
+        if (row != null && row >= liveFrom && !deleted.get(row)) {
+            deleted.set(row);
+            deletedRows++;
+            compactIfSparse();
+        }
+    }
+
+    @Override
+    public synchronized void onPartitionDropped(String partitionName) {
+        // Retention drops the oldest partitions, so their rows are the ones stored before the oldest partition left
+        long floor = store.oldestPartitionStart();
+        while (liveFrom < rows.size() && storedAt[liveFrom] < floor) {
+            if (deleted.get(liveFrom)) {
+                deletedRows--;
+            }
+            liveFrom++;
+        }
+        compactIfSparse();
+    }
+
+    // --- Internal helpers ---
+
+    private void add(Message message, long fallbackTime) {
+        long sequence = message.getSequence();
+        long time = message.timestampMillis();
+        if (sequence == MessageEncoding.NO_SEQUENCE) {
+            sequence = NO_MORE + 1 + standInSequences++;
+            time = fallbackTime;
+        }
+        add(message, sequence, time);
+    }
+
+    private void add(Message message, long sequence, long time) {
+        int row = rows.add(message);
+        if (row == sequences.length) {
+            sequences = Arrays.copyOf(sequences, row + (row >> 1));
+            storedAt = Arrays.copyOf(storedAt, sequences.length);
+        }
+        sequences[row] = sequence;
+        storedAt[row] = time;
+
+        RowList list = message.packedRecipient() != MessageEncoding.NO_RECIPIENT
+                ? byRecipient.computeIfAbsent(message.packedRecipient(), key -> new RowList())
+                : byRecipientText.computeIfAbsent(message.recipientText(), key -> new RowList());
+        list.add(row);
+        if (message.packedId() != MessageEncoding.NO_ID) {
+            rowsById.put(message.packedId(), row);
+        } else if (message.idText() != null) {
+            rowsByIdText.put(message.idText(), row);
+        }
+    }
+
+    private boolean isLive(int row, long now) {
+        return row >= liveFrom && !deleted.get(row) && rows.expiresAtMillis(row) > now;
+    }
+
+    /**
+     * Copies the live rows into fresh structures once most rows are gone, so
+     * the memory and the rows skipped by a page stay in proportion to what is
+     * still there.
+     */
+    private void compactIfSparse() {
+        if (rows.size() < COMPACT_MIN_ROWS || liveFrom + deletedRows <= rows.size() / 2) {
+            return;
+        }
+        MessageTable oldRows = rows;
+        long[] oldSequences = sequences;
+        long[] oldStoredAt = storedAt;
+        BitSet oldDeleted = deleted;
+        int oldLiveFrom = liveFrom;
+        clear();
+        long now = clock.millis();
+        for (int row = oldLiveFrom; row < oldRows.size(); row++) {
+            if (!oldDeleted.get(row) && oldRows.expiresAtMillis(row) > now) {
+                add(oldRows.get(row), oldSequences[row], oldStoredAt[row]);
+            }
+        }
+    }
+
+    private void clear() {
+        rows = new MessageTable();
+        sequences = new long[INITIAL_ROWS];
+        storedAt = new long[INITIAL_ROWS];
+        deleted = new BitSet();
+        byRecipient = new LongHashMap<>();
+        byRecipientText = new HashMap<>();
+        rowsById = new LongHashMap<>();
+        rowsByIdText = new HashMap<>();
+        liveFrom = 0;
+        deletedRows = 0;
+    }
+
+    /**
+     * The rows of one conversation, oldest first.
+     */
+    private static final class RowList {
+        int[] rows = new int[4];
+        int start; // Entries before this are rows of dropped partitions
+        int count;
+
+        void add(int row) {
+            if (count == rows.length) {
+                rows = Arrays.copyOf(rows, count * 2);
+            }
+            rows[count++] = row;
+        }
+    }
+
+    /**
+     * One page of a conversation.
+     */
+    public static final class Page {
+        final List<Message> messages;
+        final long nextCursor;
+
+        Page(List<Message> messages, long nextCursor) {
+            this.messages = Collections.unmodifiableList(messages);
+            this.nextCursor = nextCursor;
+        }
+
+        /**
+         * @return The messages on the page, oldest first.
+         */
+        public List<Message> getMessages() {
+            return messages;
+        }
+
+        /**
+         * @return The cursor to pass to {@link ConversationTimeline#pageBefore} for the older page, or {@link ConversationTimeline#NO_MORE}.
+         */
+        public long getNextCursor() {
+            return nextCursor;
+        }
+
+        public boolean hasMore() {
+            return nextCursor != NO_MORE;
+        }
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.ice.poe;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Detects repeated submissions of the same (recipient, content) pair within a
+ * time window, for example when a user retries after a slow dialog or a client
+ * resends a request.
+ *
+ * Recent pairs are remembered in two rotating Bloom filters: the current window
+ * and the one before it. A Bloom filter never misses a pair it has seen, but can
+ * report a pair it has not seen (a false positive), so a filter hit is confirmed
+ * with an exact {@link Verifier} check. The exact check only runs on a hit; the
+ * common case of a new message costs a few hash probes and no extra memory per
+ * message.
+ *
+ * @author Simphiwe Jijana
+ */
+public class DuplicateDetector {
+
+    /**
+     * Confirms a suspected duplicate against the messages actually sent or stored.
+     */
+    public interface Verifier {
+
+        /**
+         * Checks whether a message with this recipient and content was really
+         * submitted recently by this sender.
+         *
+         * @param sender The sending user, or null if submissions are not per sender.
+         * @param recipientCell The recipient's cell number.
+         * @param content The message content.
+         * @return True if it is a real duplicate.
+         */
+        boolean isDuplicate(String sender, String recipientCell, String content);
+    }
+
+    private final int bitCount;
+    private final int hashCount;
+    private final long windowNanos;
+    private final Verifier verifier;
+    private final LongSupplier nanoClock;
+
+    private volatile AtomicLongArray current;
+    private volatile AtomicLongArray previous;
+    private volatile long currentStartNanos;
+
+    private final LongAdder checks = new LongAdder();
+    private final LongAdder filterHits = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+
+    /**
+     * Creates a detector using the system nano clock.
+     *
+     * @param expectedPerWindow The number of messages expected in one window.
+     * @param falsePositiveRate The acceptable filter false-positive rate, e.g. 0.01.
+     * @param window How long a submission is remembered (between one and two windows).
+     * @param verifier The exact check run on a filter hit, or null to trust the filter.
+     */
+    public DuplicateDetector(int expectedPerWindow, double falsePositiveRate, Duration window, Verifier verifier) {
+        this(expectedPerWindow, falsePositiveRate, window, verifier, System::nanoTime);
+    }
+
+    /**
+     * Creates a detector.
+     *
+     * @param expectedPerWindow The number of messages expected in one window.
+     * @param falsePositiveRate The acceptable filter false-positive rate, e.g. 0.01.
+     * @param window How long a submission is remembered (between one and two windows).
+     * @param verifier The exact check run on a filter hit, or null to trust the filter.
+     * @param nanoClock The source of the current time in nanoseconds.
+     */
+    public DuplicateDetector(int expectedPerWindow, double falsePositiveRate, Duration window, Verifier verifier, LongSupplier nanoClock) {
+        // Standard Bloom filter sizing: m = -n ln(p) / (ln 2)^2 bits and k = (m / n) ln 2 hashes
+        double bits = -expectedPerWindow * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+        this.bitCount = (int) Math.min(Integer.MAX_VALUE - 63, Math.max(64, Math.ceil(bits / 64) * 64));
+        this.hashCount = Math.max(1, (int) Math.round(bitCount / (double) expectedPerWindow * Math.log(2)));
+        this.windowNanos = window.toNanos();
+        this.verifier = verifier;
+        this.nanoClock = nanoClock;
+        this.current = new AtomicLongArray(bitCount / 64);
+        this.previous = new AtomicLongArray(bitCount / 64);
+        this.currentStartNanos = nanoClock.getAsLong();
+    }
+
+    /**
+     * Checks whether a submission repeats a recent one, and remembers it either way.
+     *
+     * @param recipientCell The recipient's cell number.
+     * @param content The message content.
+     * @return True if the submission is a duplicate.
+     */
+    public boolean checkAndRecord(String recipientCell, String content) {
+        boolean duplicate = isDuplicate(null, recipientCell, content);
+        record(null, recipientCell, content);
+        return duplicate;
+    }
+
+    /**
+     * Checks whether a sender's submission repeats one they recently made,
+     * without remembering it. Callers that can still fail after the check
+     * call {@link #record} once the message has gone through, so that a retry
+     * after a failure is not taken for a duplicate.
+     *
+     * @param sender The sending user, or null if submissions are not per sender.
+     * @param recipientCell The recipient's cell number.
+     * @param content The message content.
+     * @return True if the submission is a duplicate.
+     */
+    public boolean isDuplicate(String sender, String recipientCell, String content) {
+        rotateIfDue();
+        checks.increment();
+        long hash = hash(sender, recipientCell, content);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1; // Odd, so the probes never collapse onto one bit
+
+        if (!contains(current, h1, h2) && !contains(previous, h1, h2)) {
+            return false;
+        }
+        filterHits.increment();
+        boolean duplicate = verifier == null || verifier.isDuplicate(sender, recipientCell, content);
+        if (duplicate) {
+            duplicates.increment();
+        }
+        return duplicate;
+    }
+
+    /**
+     * Remembers a submission that went through.
+     *
+     * @param sender The sending user, or null if submissions are not per sender.
+     * @param recipientCell The recipient's cell number.
+     * @param content The message content.
+     */
+    public void record(String sender, String recipientCell, String content) {
+        rotateIfDue();
+        long hash = hash(sender, recipientCell, content);
+        add(current, (int) hash, (int) (hash >>> 32) | 1);
+    }
+
+    public long getCheckCount() {
+        return checks.sum();
+    }
+
+    public long getFilterHitCount() {
+        return filterHits.sum();
+    }
+
+    public long getDuplicateCount() {
+        return duplicates.sum();
+    }
+
+    /**
+     * Returns how many filter hits turned out not to be duplicates.
+     *
+     * @return The false-positive count.
+     */
+    public long getFalsePositiveCount() {
+        return filterHits.sum() - duplicates.sum();
+    }
+
+    /**
+     * Returns the memory used by both filters, which does not grow with the
+     * number of messages checked.
+     *
+     * @return The filter size in bytes.
+     */
+    public long getFilterBytes() {
+        return 2L * bitCount / 8;
+    }
+
+    // --- Bloom filter ---
+
+    private void rotateIfDue() {
+        long now = nanoClock.getAsLong();
+        if (now - currentStartNanos < windowNanos) {
+            return;
+        }
+        synchronized (this) {
+            if (now - currentStartNanos < windowNanos) {
+                return;
+            }
+            // Two full windows with no rotation means both filters are stale
+            previous = now - currentStartNanos >= 2 * windowNanos ? new AtomicLongArray(bitCount / 64) : current;
+            current = new AtomicLongArray(bitCount / 64);
+            currentStartNanos = now;
+        }
+    }
+
+    private boolean contains(AtomicLongArray bits, int h1, int h2) {
+        for (int i = 0; i < hashCount; i++) {
+            int bit = index(h1 + i * h2);
+            if ((bits.get(bit >>> 6) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void add(AtomicLongArray bits, int h1, int h2) {
+        for (int i = 0; i < hashCount; i++) {
+            int bit = index(h1 + i * h2);
+            long mask = 1L << bit;
+            int word = bit >>> 6;
+            long value;
+            while (((value = bits.get(word)) & mask) == 0 && !bits.compareAndSet(word, value, value | mask)) {
+                // Retry; another thread set a different bit in the same word
+            }
+        }
+    }
+
+    private int index(int combinedHash) {
+        return (combinedHash & Integer.MAX_VALUE) % bitCount;
+    }
+
+    /**
+     * A 64-bit FNV-1a hash of the sender, recipient and content, finished with
+     * a MurmurHash3 mixing step so the two 32-bit halves are independent enough
+     * for double hashing.
+     */
+    static long hash(String sender, String recipientCell, String content) {
+        long h = 0xcbf29ce484222325L;
+        if (sender != null) {
+            h = mix(h, sender);
+            h = (h ^ 0x1F) * 0x100000001b3L;
+        }
+        h = mix(h, recipientCell);
+        h = (h ^ 0x1F) * 0x100000001b3L; // Separator, so ("+2782", "1 hi") differs from ("+27821", " hi")
+        h = mix(h, content);
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static long mix(long h, String value) {
+        if (value == null) {
+            return h;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            h = (h ^ value.charAt(i)) * 0x100000001b3L;
+        }
+        return h;
+    }
+}
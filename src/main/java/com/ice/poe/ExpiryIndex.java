@@ -0,0 +1,119 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.ice.poe;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Records which partitions of a {@link PartitionedMessageStore} hold messages
+ * that expire, bucketed by expiry time.
+ *
+ * Each bucket covers a fixed span of time and lists the partitions holding a
+ * message that expires within it. The partitions with something due are the
+ * ones in buckets that have started, found with one ordered-map lookup instead
+ * of reading any partition. Only partitions are indexed, not single messages,
+ * so the index stays small: reclaiming space means rewriting the partition
+ * anyway, and that pass finds the individual expired records.
+ *
+ * The index is not thread-safe; the store uses it under its lock.
+ *
+ * @author Simphiwe Jijana
+ */
+final class ExpiryIndex {
+
+    private final long bucketMillis;
+    private final TreeMap<Long, Set<String>> partitionsByBucket = new TreeMap<>();
+    private final Map<String, TreeSet<Long>> bucketsByPartition = new HashMap<>();
+
+    /**
+     * @param bucketMillis The span of time covered by one bucket.
+     */
+    ExpiryIndex(long bucketMillis) {
+        this.bucketMillis = bucketMillis;
+    }
+
+    /**
+     * Records that a partition holds a message expiring at the given time.
+     */
+    void add(String partition, long expiresAtMillis) {
+        addBucket(partition, Math.floorDiv(expiresAtMillis, bucketMillis));
+    }
+
+    /**
+     * Records a bucket read back from the manifest.
+     */
+    void addBucket(String partition, long bucket) {
+        if (bucketsByPartition.computeIfAbsent(partition, name -> new TreeSet<>()).add(bucket)) {
+            partitionsByBucket.computeIfAbsent(bucket, key -> new HashSet<>()).add(partition);
+        }
+    }
+
+    /**
+     * Replaces what is known about a partition, after it has been rewritten.
+     *
+     * @param expiries The expiry times of the messages left in the partition.
+     */
+    void replace(String partition, Collection<Long> expiries) {
+        removePartition(partition);
+        for (long expiresAt : expiries) {
+            add(partition, expiresAt);
+        }
+    }
+
+    void removePartition(String partition) {
+        TreeSet<Long> buckets = bucketsByPartition.remove(partition);
+        if (buckets == null) {
+            return;
+        }
+        for (long bucket : buckets) {
+            Set<String> names = partitionsByBucket.get(bucket);
+            names.remove(partition);
+            if (names.isEmpty()) {
+                partitionsByBucket.remove(bucket);
+            }
+        }
+    }
+
+    /**
+     * Returns the partitions that may hold an expired message: those with a
+     * bucket that has started by now.
+     *
+     * @param nowMillis The current time, in epoch milliseconds.
+     * @return The partition names, earliest bucket first.
+     */
+    List<String> duePartitions(long nowMillis) {
+        Set<String> due = new LinkedHashSet<>();
+        NavigableMap<Long, Set<String>> started = partitionsByBucket.headMap(Math.floorDiv(nowMillis, bucketMillis), true);
+        for (Set<String> names : started.values()) {
+            due.addAll(names);
+        }
+        return new ArrayList<>(due);
+    }
+
+    /**
+     * Returns the buckets of a partition, for the manifest.
+     */
+    Set<Long> bucketsOf(String partition) {
+        TreeSet<Long> buckets = bucketsByPartition.get(partition);
+        return buckets == null ? Set.of() : buckets;
+    }
+
+    /**
+     * Returns the number of partitions with expiring messages.
+     */
+    int partitionCount() {
+        return bucketsByPartition.size();
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.ice.poe;
+
+import java.util.List;
+
+/**
+ * Holds timers in a hierarchical timing wheel (Varghese and Lauck), so that
+ * adding and cancelling a timer take constant time however many are pending.
+ *
+ * Time moves in fixed ticks. There are four wheels of 256 slots: the first
+ * holds timers due within 256 ticks, one slot per tick; each wheel above it
+ * covers 256 times the range of the one below with correspondingly coarser
+ * slots. When the first wheel completes a turn, the next slot of the wheel above
+ * is emptied and its timers are spread over the wheels below, so each timer is
+ * moved at most three times before it fires. Timers further out than the top
+ * wheel covers wait in its furthest slot and are placed again on the way down.
+ *
+ * Each slot is an intrusive doubly linked list of {@link Timeout} nodes, so
+ * cancelling unlinks the node without searching. The wheel is not thread-safe.
+ *
+ * @param <T> The type of the payload carried by each timer.
+ * @author Simphiwe Jijana
+ */
+public class HierarchicalTimerWheel<T> {
+
+    private static final int LEVELS = 4;
+    private static final int SLOT_BITS = 8;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final long MAX_DELTA = (1L << (SLOT_BITS * LEVELS)) - 1;
+
+    private final long tickMillis;
+    private final long originMillis;
+    // Sentinel heads of the slot lists, one row per wheel
+    private final Timeout<T>[][] slots;
+    private final int[] levelCounts = new int[LEVELS];
+    private long currentTick;
+    private int size;
+
+    /**
+     * Creates an empty wheel.
+     *
+     * @param tickMillis The length of one tick, which is the timer resolution.
+     * @param startMillis The time the wheel starts at, in epoch milliseconds.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public HierarchicalTimerWheel(long tickMillis, long startMillis) {
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("Tick must be positive.");
+        }
+        this.tickMillis = tickMillis;
+        this.originMillis = startMillis;
+        this.slots = new Timeout[LEVELS][SLOTS];
+        for (int level = 0; level < LEVELS; level++) {
+            for (int slot = 0; slot < SLOTS; slot++) {
+                Timeout<T> head = new Timeout<>(null, 0);
+                head.next = head;
+                head.previous = head;
+                slots[level][slot] = head;
+            }
+        }
+    }
+
+    /**
+     * Adds a timer. A deadline that has already passed fires on the next tick.
+     *
+     * @param payload The value handed back when the timer fires.
+     * @param deadlineMillis When the timer is due, in epoch milliseconds.
+     * @return A handle for cancelling the timer.
+     */
+    public Timeout<T> schedule(T payload, long deadlineMillis) {
+        Timeout<T> timeout = new Timeout<>(payload, deadlineMillis);
+        place(timeout, currentTick + 1);
+        size++;
+        return timeout;
+    }
+
+    /**
+     * Removes a timer that has not fired yet.
+     *
+     * @param timeout The handle returned by {@link #schedule}.
+     * @return True if the timer was pending and is now cancelled.
+     */
+    public boolean cancel(Timeout<T> timeout) {
+        if (timeout.level < 0) {
+            return false; // Already fired or cancelled
+        }
+        unlink(timeout);
+        size--;
+        return true;
+    }
+
+    /**
+     * Moves the wheel forward to the given time and collects the payloads of
+     * every timer that fell due, in deadline order to within one tick.
+     *
+     * @param nowMillis The current time, in epoch milliseconds.
+     * @param due Receives the payloads of the timers that fired.
+     * @return The number of timers that fired.
+     */
+    public int advanceTo(long nowMillis, List<T> due) {
+        long targetTick = Math.max(0, Math.floorDiv(nowMillis - originMillis, tickMillis));
+        int fired = 0;
+        while (currentTick < targetTick) {
+            int emptyLevels = 0;
+            while (emptyLevels < LEVELS && levelCounts[emptyLevels] == 0) {
+                emptyLevels++;
+            }
+            if (emptyLevels == LEVELS) {
+                currentTick = targetTick;
+                break;
+            }
+            if (emptyLevels > 0) {
+                // Nothing can fire before the lowest occupied wheel cascades, so skip to the end of the turn before it
+                long endOfTurn = Math.min(targetTick, currentTick | ((1L << (SLOT_BITS * emptyLevels)) - 1));
+                if (endOfTurn > currentTick) {
+                    currentTick = endOfTurn;
+                    continue;
+                }
+            }
+            currentTick++;
+            cascade();
+            Timeout<T> head = slots[0][(int) (currentTick & SLOT_MASK)];
+            while (head.next != head) {
+                Timeout<T> timeout = head.next;
+                unlink(timeout);
+                size--;
+                due.add(timeout.payload);
+                fired++;
+            }
+        }
+        return fired;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns the time the wheel has advanced to.
+     *
+     * @return The start of the current tick, in epoch milliseconds.
+     */
+    public long getCurrentMillis() {
+        return originMillis + currentTick * tickMillis;
+    }
+
+    // --- Internal helpers ---
+
+    /**
+     * The first tick that starts at or after the deadline, so a timer never
+     * fires early.
+     */
+    private long deadlineTick(long deadlineMillis) {
+        return Math.max(0, Math.floorDiv(deadlineMillis - originMillis + tickMillis - 1, tickMillis));
+    }
+
+    /**
+     * At the end of each turn of a wheel, the next slot of the wheel above is
+     * emptied into the wheels below. Higher wheels go first so their timers can
+     * fall all the way down in one step.
+     */
+    private void cascade() {
+        int highest = 0;
+        for (int level = 1; level < LEVELS && (currentTick & ((1L << (SLOT_BITS * level)) - 1)) == 0; level++) {
+            highest = level;
+        }
+        for (int level = highest; level >= 1; level--) {
+            Timeout<T> head = slots[level][(int) ((currentTick >>> (SLOT_BITS * level)) & SLOT_MASK)];
+            while (head.next != head) {
+                Timeout<T> timeout = head.next;
+                unlink(timeout);
+                place(timeout, currentTick);
+            }
+        }
+    }
+
+    /**
+     * Puts a timer in the wheel whose range covers its deadline.
+     *
+     * @param earliestTick The first tick whose slot has not been emptied yet.
+     */
+    private void place(Timeout<T> timeout, long earliestTick) {
+        long tick = Math.max(deadlineTick(timeout.deadlineMillis), earliestTick);
+        long delta = Math.min(tick - currentTick, MAX_DELTA);
+        tick = currentTick + delta;
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= (1L << (SLOT_BITS * (level + 1)))) {
+            level++;
+        }
+        Timeout<T> head = slots[level][(int) ((tick >>> (SLOT_BITS * level)) & SLOT_MASK)];
+        timeout.level = level;
+        timeout.previous = head.previous;
+        timeout.next = head;
+        head.previous.next = timeout;
+        head.previous = timeout;
+        levelCounts[level]++;
+    }
+
+    private void unlink(Timeout<T> timeout) {
+        timeout.previous.next = timeout.next;
+        timeout.next.previous = timeout.previous;
+        timeout.previous = null;
+        timeout.next = null;
+        levelCounts[timeout.level]--;
+        timeout.level = -1;
+    }
+
+    /**
+     * A pending timer, used to cancel it.
+     *
+     * @param <T> The type of the payload.
+     */
+    public static final class Timeout<T> {
+        private final T payload;
+        private final long deadlineMillis;
+        private Timeout<T> previous;
+        private Timeout<T> next;
+        private int level = -1;
+
+        private Timeout(T payload, long deadlineMillis) {
+            this.payload = payload;
+            this.deadlineMillis = deadlineMillis;
+        }
+
+        public T getPayload() {
+            return payload;
+        }
+
+        public long getDeadlineMillis() {
+            return deadlineMillis;
+        }
+
+        public boolean isPending() {
+            return level >= 0;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.ice.poe;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link Transport} that "delivers" messages by keeping them in memory. It can
+ * simulate a slow or unreliable downstream system by adding latency and failing
+ * a number of attempts, which makes it useful for tests and load runs.
+ *
+ * @author Simphiwe Jijana
+ */
+public class InProcessTransport implements Transport {
+
+    private final ConcurrentLinkedQueue<Message> delivered = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger attempts = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private final AtomicInteger failuresRemaining;
+    private final long latencyMillis;
+
+    /**
+     * Creates a transport that delivers every message immediately.
+     */
+    public InProcessTransport() {
+        this(0, 0);
+    }
+
+    /**
+     * Creates a transport that simulates a slow, unreliable downstream system.
+     *
+     * @param latencyMillis How long each delivery attempt takes.
+     * @param failingAttempts How many attempts fail before deliveries start succeeding.
+     */
+    public InProcessTransport(long latencyMillis, int failingAttempts) {
+        this.latencyMillis = latencyMillis;
+        this.failuresRemaining = new AtomicInteger(failingAttempts);
+    }
+
+    @Override
+    public void deliver(Message message) throws IOException {
+        attempts.incrementAndGet();
+        int current = inFlight.incrementAndGet();
+        maxInFlight.accumulateAndGet(current, Math::max);
+        try {
+            if (latencyMillis > 0) {
+                Thread.sleep(latencyMillis);
+            }
+            if (failuresRemaining.getAndUpdate(n -> n > 0 ? n - 1 : 0) > 0) {
+                throw new IOException("Simulated delivery failure");
+            }
+            delivered.add(message);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Delivery interrupted", e);
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    /**
+     * Returns the messages delivered so far, in delivery order.
+     *
+     * @return The delivered messages.
+     */
+    public List<Message> getDelivered() {
+        return new ArrayList<>(delivered);
+    }
+
+    /**
+     * Returns the number of delivery attempts, including failed ones.
+     *
+     * @return The attempt count.
+     */
+    public int getAttempts() {
+        return attempts.get();
+    }
+
+    /**
+     * Returns the highest number of deliveries that were in progress at once.
+     *
+     * @return The peak concurrent delivery count.
+     */
+    public int getMaxInFlight() {
+        return maxInFlight.get();
+    }
+}
@@ -0,0 +1,421 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.ice.poe;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Checks every record of a {@link PartitionedMessageStore} against its
+ * checksum, so bit rot and torn writes are found before a reader trips over
+ * them.
+ *
+ * Partitions are verified in parallel, one task per partition, from a snapshot
+ * of the manifest; the store lock is never held while reading, so appends carry
+ * on while a scrub runs. Reads are throttled to a shared byte rate so a scrub
+ * does not starve the application of disk bandwidth. Damaged records are
+ * reported and, if enabled, moved to {@code quarantine/<partition>.bad} in the
+ * store directory.
+ *
+ * @author Simphiwe Jijana
+ */
+public class IntegrityScrubber implements AutoCloseable {
+
+    public static final String CHECKSUM_MISMATCH = "Checksum mismatch";
+    public static final String MALFORMED_RECORD = "Malformed record";
+    public static final String TORN_WRITE = "Torn write";
+
+    private static final int CHUNK_BYTES = 64 * 1024;
+
+    private final PartitionedMessageStore store;
+    private final Options options;
+    private final ExecutorService workers;
+    private final Throttle throttle;
+    private ScheduledExecutorService scheduler;
+    private volatile Report lastReport;
+
+    /**
+     * Creates a scrubber with one worker per core, no throttle and quarantine enabled.
+     *
+     * @param store The store to verify.
+     */
+    public IntegrityScrubber(PartitionedMessageStore store) {
+        this(store, new Options());
+    }
+
+    /**
+     * Creates a scrubber.
+     *
+     * @param store The store to verify.
+     * @param options The worker count, read rate and quarantine setting.
+     */
+    public IntegrityScrubber(PartitionedMessageStore store, Options options) {
+        if (options.threads < 1 || options.maxBytesPerSecond < 1) {
+            throw new IllegalArgumentException("Threads and byte rate must be positive.");
+        }
+        this.store = store;
+        this.options = options;
+        this.throttle = new Throttle(options.maxBytesPerSecond);
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(options.threads, task -> {
+            Thread worker = new Thread(task, "integrity-scrubber-" + threadNumber.incrementAndGet());
+            worker.setDaemon(true);
+            return worker;
+        });
+    }
+
+    /**
+     * Verifies every partition currently in the store and quarantines the
+     * damaged records if the options allow it.
+     *
+     * @return What was checked and what was found.
+     * @throws IOException If a partition cannot be read or quarantined.
+     */
+    public Report scrub() throws IOException {
+        long started = System.nanoTime();
+        List<PartitionedMessageStore.Partition> snapshot = store.snapshotPartitions();
+        List<Future<Report>> results = new ArrayList<>(snapshot.size());
+        for (PartitionedMessageStore.Partition partition : snapshot) {
+            results.add(workers.submit(() -> scan(partition)));
+        }
+
+        Report report = new Report();
+        for (Future<Report> result : results) {
+            try {
+                report.add(result.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Scrub interrupted.", e);
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+            }
+        }
+
+        if (options.quarantine && !report.problems.isEmpty()) {
+            Path quarantineDirectory = store.getDirectory().resolve("quarantine");
+            Files.createDirectories(quarantineDirectory);
+            for (String partition : report.damagedPartitions()) {
+                report.quarantined += store.quarantine(partition, quarantineDirectory.resolve(partition + ".bad"));
+            }
+        }
+        report.elapsedNanos = System.nanoTime() - started;
+        lastReport = report;
+        return report;
+    }
+
+    /**
+     * Runs a scrub in the background every interval until the scrubber is closed.
+     * A failed run is skipped and the next one goes ahead as scheduled.
+     *
+     * @param interval The time between the end of one scrub and the start of the next.
+     */
+    public synchronized void start(Duration interval) {
+        if (scheduler != null) {
+            throw new IllegalStateException("The scrubber is already running.");
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "integrity-scrubber-schedule");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                scrub();
+            } catch (IOException e) {
+                System.err.println("Integrity scrub failed: " + e.getMessage());
+            }
+        }, 0, interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the report of the most recent scrub.
+     *
+     * @return The last report, or null if no scrub has finished yet.
+     */
+    public Report getLastReport() {
+        return lastReport;
+    }
+
+    /**
+     * Stops background scrubs and the worker threads.
+     */
+    @Override
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+        workers.shutdownNow();
+    }
+
+    // --- Verification ---
+
+    private Report scan(PartitionedMessageStore.Partition partition) throws IOException {
+        Report report = new Report();
+        report.partitions = 1;
+        Path file = store.getDirectory().resolve(partition.fileName);
+        if (!Files.exists(file)) {
+            return report; // Dropped by retention after the snapshot was taken
+        }
+        byte[] chunk = new byte[CHUNK_BYTES];
+        byte[] carry = new byte[1024]; // A record split across two chunks
+        int carryLength = 0;
+        long offset = 0;
+        try (InputStream in = Files.newInputStream(file)) {
+            // Only the bytes in the snapshot: later appends may still be in progress
+            long remaining = partition.bytes;
+            while (remaining > 0) {
+                int wanted = (int) Math.min(chunk.length, remaining);
+                throttle.acquire(wanted);
+                int read = in.readNBytes(chunk, 0, wanted);
+                if (read == 0) {
+                    break; // Rewritten shorter since the snapshot
+                }
+                remaining -= read;
+                report.bytes += read;
+
+                int lineStart = 0;
+                for (int i = 0; i < read; i++) {
+                    if (chunk[i] != '\n') {
+                        continue;
+                    }
+                    if (carryLength == 0) {
+                        check(report, partition.fileName, offset + lineStart, chunk, lineStart, i - lineStart, false);
+                    } else {
+                        carry = append(carry, carryLength, chunk, lineStart, i - lineStart);
+                        carryLength += i - lineStart;
+                        check(report, partition.fileName, offset - carryLength + i, carry, 0, carryLength, false);
+                        carryLength = 0;
+                    }
+                    lineStart = i + 1;
+                }
+                carry = append(carry, carryLength, chunk, lineStart, read - lineStart);
+                carryLength += read - lineStart;
+                offset += read;
+            }
+        }
+        if (carryLength > 0) {
+            check(report, partition.fileName, offset - carryLength, carry, 0, carryLength, true);
+        }
+        return report;
+    }
+
+    private static void check(Report report, String partition, long offset, byte[] data, int start, int length, boolean unterminated) {
+        if (isBlank(data, start, length)) {
+            return;
+        }
+        report.records++;
+        RecordChecksum.Status status = RecordChecksum.verify(data, start, length);
+        if (status == RecordChecksum.Status.VALID) {
+            report.valid++;
+        } else if (status == RecordChecksum.Status.UNCHECKED && RecordChecksum.decode(data, start, length) != null) {
+            report.unchecked++;
+        } else if (unterminated) {
+            report.problems.add(new Problem(partition, offset, TORN_WRITE));
+        } else {
+            report.problems.add(new Problem(partition, offset,
+                    status == RecordChecksum.Status.CORRUPT ? CHECKSUM_MISMATCH : MALFORMED_RECORD));
+        }
+    }
+
+    private static byte[] append(byte[] carry, int carryLength, byte[] data, int start, int length) {
+        if (carryLength + length > carry.length) {
+            carry = Arrays.copyOf(carry, Math.max(carryLength + length, carry.length * 2));
+        }
+        System.arraycopy(data, start, carry, carryLength, length);
+        return carry;
+    }
+
+    private static boolean isBlank(byte[] data, int start, int length) {
+        for (int i = start; i < start + length; i++) {
+            if (data[i] != ' ' && data[i] != '\t' && data[i] != '\r') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Limits the combined read rate of all workers. Each read reserves its share
+     * of time on a single timeline (the same arrival-time idea as
+     * {@link RateLimiter}) and then sleeps, outside any lock, until that share begins.
+     */
+    private static final class Throttle {
+        private final double nanosPerByte;
+        private final AtomicLong nextFreeNanos = new AtomicLong(System.nanoTime());
+
+        Throttle(long maxBytesPerSecond) {
+            this.nanosPerByte = maxBytesPerSecond == Long.MAX_VALUE ? 0 : 1e9 / maxBytesPerSecond;
+        }
+
+        void acquire(int bytes) throws IOException {
+            if (nanosPerByte == 0) {
+                return;
+            }
+            long cost = (long) (bytes * nanosPerByte);
+            long now = System.nanoTime();
+            long start;
+            long next;
+            do {
+                start = nextFreeNanos.get();
+                next = Math.max(start, now) + cost;
+            } while (!nextFreeNanos.compareAndSet(start, next));
+            long wait = Math.max(start, now) - now;
+            if (wait > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Scrub interrupted.", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Settings for a scrubber.
+     */
+    public static final class Options {
+        private int threads = Runtime.getRuntime().availableProcessors();
+        private long maxBytesPerSecond = Long.MAX_VALUE;
+        private boolean quarantine = true;
+
+        public Options threads(int threads) { this.threads = threads; return this; }
+
+        /**
+         * Caps the combined read rate of all workers. Unlimited by default.
+         */
+        public Options maxBytesPerSecond(long bytes) { this.maxBytesPerSecond = bytes; return this; }
+
+        /**
+         * Whether damaged records are moved out of the store, or only reported.
+         */
+        public Options quarantine(boolean enabled) { this.quarantine = enabled; return this; }
+    }
+
+    /**
+     * One damaged record: the partition holding it, its byte offset in the
+     * partition file and why it failed.
+     */
+    public static final class Problem {
+        private final String partition;
+        private final long offset;
+        private final String reason;
+
+        Problem(String partition, long offset, String reason) {
+            this.partition = partition;
+            this.offset = offset;
+            this.reason = reason;
+        }
+
+        public String getPartition() {
+            return partition;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+
+        @Override
+        public String toString() {
+            return partition + "@" + offset + ": " + reason;
+        }
+    }
+
+    /**
+     * The outcome of one scrub.
+     */
+    public static final class Report {
+        int partitions;
+        long records;
+        long valid;
+        long unchecked;
+        long bytes;
+        int quarantined;
+        long elapsedNanos;
+        final List<Problem> problems = new ArrayList<>();
+
+        public int getPartitions() {
+            return partitions;
+        }
+
+        public long getRecords() {
+            return records;
+        }
+
+        public long getValid() {
+            return valid;
+        }
+
+        /**
+         * Records without a checksum that still parse, such as records written
+         * before checksums were added.
+         */
+        public long getUnchecked() {
+            return unchecked;
+        }
+
+        public List<Problem> getProblems() {
+            return Collections.unmodifiableList(problems);
+        }
+
+        public int getQuarantined() {
+            return quarantined;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public double getBytesPerSecond() {
+            return elapsedNanos == 0 ? 0 : bytes * 1e9 / elapsedNanos;
+        }
+
+        private void add(Report partition) {
+            partitions += partition.partitions;
+            records += partition.records;
+            valid += partition.valid;
+            unchecked += partition.unchecked;
+            bytes += partition.bytes;
+            problems.addAll(partition.problems);
+        }
+
+        private List<String> damagedPartitions() {
+            List<String> names = new ArrayList<>();
+            for (Problem problem : problems) {
+                if (!names.contains(problem.partition)) {
+                    names.add(problem.partition);
+                }
+            }
+            return names;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "Scrubbed %d partitions, %d records (%d valid, %d unchecked, %d damaged, %d quarantined), %d bytes in %.2f s",
+                    partitions, records, valid, unchecked, problems.size(), quarantined, bytes, elapsedNanos / 1e9);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.ice.poe;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A fixed-size, thread-safe latency histogram with log-linear buckets. Values are
+ * recorded in nanoseconds with about 3% relative precision, so percentiles can be
+ * reported for millions of samples without keeping the samples themselves.
+ *
+ * @author Simphiwe Jijana
+ */
+public class LatencyHistogram {
+
+    private static final int LINEAR_BUCKETS = 64; // Values below this are counted exactly
+    private static final int SUB_BUCKETS = 32;    // Buckets per power of two above that
+    private static final int BUCKET_COUNT = LINEAR_BUCKETS + 57 * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder totalCount = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+
+    /**
+     * Records one latency sample.
+     *
+     * @param nanos The latency in nanoseconds. Negative values are recorded as zero.
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(bucketIndex(value));
+        totalCount.increment();
+        totalNanos.add(value);
+    }
+
+    /**
+     * Returns the number of recorded samples.
+     *
+     * @return The sample count.
+     */
+    public long getCount() {
+        return totalCount.sum();
+    }
+
+    /**
+     * Returns the mean of the recorded samples.
+     *
+     * @return The mean latency in nanoseconds, or 0 if nothing was recorded.
+     */
+    public double getMeanNanos() {
+        long count = totalCount.sum();
+        return count == 0 ? 0 : (double) totalNanos.sum() / count;
+    }
+
+    /**
+     * Returns the latency at the given percentile.
+     *
+     * @param percentile The percentile, from 0 to 100.
+     * @return The upper bound of the bucket holding that percentile, in nanoseconds.
+     */
+    public long getPercentileNanos(double percentile) {
+        long count = totalCount.sum();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return bucketUpperBound(i);
+            }
+        }
+        return bucketUpperBound(BUCKET_COUNT - 1);
+    }
+
+    /**
+     * Returns the largest recorded latency, to bucket precision.
+     *
+     * @return The maximum latency in nanoseconds.
+     */
+    public long getMaxNanos() {
+        for (int i = BUCKET_COUNT - 1; i >= 0; i--) {
+            if (counts.get(i) > 0) {
+                return bucketUpperBound(i);
+            }
+        }
+        return 0;
+    }
+
+    static int bucketIndex(long value) {
+        if (value < LINEAR_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - 5; // Keep the top six bits
+        return (int) (LINEAR_BUCKETS + (shift - 1) * SUB_BUCKETS + ((value >>> shift) - SUB_BUCKETS));
+    }
+
+    static long bucketUpperBound(int index) {
+        if (index < LINEAR_BUCKETS) {
+            return index;
+        }
+        int offset = index - LINEAR_BUCKETS;
+        int shift = offset / SUB_BUCKETS + 1;
+        long mantissa = offset % SUB_BUCKETS + SUB_BUCKETS;
+        return ((mantissa + 1) << shift) - 1;
+    }
+}
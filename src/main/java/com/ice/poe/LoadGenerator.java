@@ -0,0 +1,623 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.ice.poe;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import org.json.JSONObject;
+
+/**
+ * Generates synthetic QuickChat traffic so the core login, send and store paths
+ * can be measured under load. Users, recipients and message bodies are generated
+ * to pass the same validation as the interactive application.
+ *
+ * Three modes are supported:
+ * <ul>
+ * <li>closed loop: each thread issues its next operation as soon as the previous one completes;</li>
+ * <li>open loop: operations are issued at a fixed target rate, and latency is measured from the
+ * intended start time so that a stalled system is not hidden by a slower request rate;</li>
+ * <li>replay: operations are read from a workload file recorded by an earlier run.</li>
+ * </ul>
+ *
+ * @author Simphiwe Jijana
+ */
+public class LoadGenerator {
+
+    /**
+     * The kinds of operation the generator can issue.
+     */
+    public enum Operation {
+        LOGIN, SEND, STORE
+    }
+
+    /**
+     * How the generator paces its operations.
+     */
+    public enum Mode {
+        CLOSED_LOOP, OPEN_LOOP, REPLAY
+    }
+
+    private static final String[] WORDS = {
+        "hello", "thanks", "meeting", "tonight", "call", "me", "later", "when", "you", "can",
+        "running", "late", "see", "you", "soon", "okay", "lunch", "tomorrow", "at", "noon",
+        "please", "confirm", "the", "booking", "sent", "the", "file", "check", "your", "email"
+    };
+    private static final char[] USERNAME_CHARS = "abcdefghijklmnopqrstuvwxyz0123456789".toCharArray();
+
+    private final Options options;
+    private final Map<Operation, LatencyHistogram> latencies = new ConcurrentHashMap<>();
+    private final LongAdder errors = new LongAdder();
+
+    // Generated (or replayed) users, keyed by username
+    private final Map<String, UserDetails> users = new HashMap<>();
+    private final List<String> usernames = new ArrayList<>();
+    private final Map<String, String> passwords = new HashMap<>(); // Only hashes are kept in the user details
+    private final List<String> recipients = new ArrayList<>();
+
+    private PoeLogin login;
+    private MessageStore store;
+    private BufferedWriter recorder;
+
+    /**
+     * Creates a load generator.
+     *
+     * @param options The workload options.
+     */
+    public LoadGenerator(Options options) {
+        this.options = options;
+        for (Operation operation : Operation.values()) {
+            latencies.put(operation, new LatencyHistogram());
+        }
+    }
+
+    /**
+     * Runs the configured workload to completion.
+     *
+     * @return A report of throughput and latency per operation.
+     * @throws IOException If the message store or a workload file cannot be used.
+     * @throws InterruptedException If the run is interrupted.
+     */
+    public Report run() throws IOException, InterruptedException {
+        List<WorkloadOp> replayOps = null;
+        if (options.mode == Mode.REPLAY) {
+            replayOps = readWorkload(options.replayFile);
+            for (WorkloadOp op : replayOps) {
+                registerUser(op.user, op.password);
+            }
+        } else {
+            generateUsers(new Random(options.seed));
+        }
+        login = new PoeLogin(users, 3);
+        store = options.shards > 0
+                ? new ShardedMessageStore(options.storeDir, new ShardedMessageStore.Options().shards(options.shards))
+                : new PartitionedMessageStore(options.storeDir);
+        if (options.recordFile != null) {
+            recorder = Files.newBufferedWriter(Paths.get(options.recordFile), StandardCharsets.UTF_8);
+        }
+
+        AtomicLong issued = new AtomicLong();
+        CountDownLatch done = new CountDownLatch(options.threads);
+        long startNanos = System.nanoTime();
+        List<WorkloadOp> workload = replayOps;
+        for (int t = 0; t < options.threads; t++) {
+            int threadIndex = t;
+            Thread worker = new Thread(() -> {
+                try {
+                    runWorker(threadIndex, startNanos, issued, workload);
+                } finally {
+                    done.countDown();
+                }
+            }, "loadgen-" + t);
+            worker.setDaemon(true);
+            worker.start();
+        }
+        done.await();
+        long elapsedNanos = System.nanoTime() - startNanos;
+
+        store.close();
+        if (recorder != null) {
+            recorder.close();
+        }
+        return new Report(elapsedNanos, latencies, errors.sum());
+    }
+
+    // --- Workers ---
+
+    private void runWorker(int threadIndex, long startNanos, AtomicLong issued, List<WorkloadOp> replayOps) {
+        Random random = new Random(options.seed * 31 + threadIndex);
+        long deadline = options.durationSeconds > 0 ? startNanos + options.durationSeconds * 1_000_000_000L : Long.MAX_VALUE;
+        double intervalNanos = options.targetRate > 0 ? 1_000_000_000.0 / options.targetRate : 0;
+        int messageIndex = 0;
+
+        while (true) {
+            long sequence = issued.getAndIncrement();
+            WorkloadOp op;
+            long intendedStart;
+            if (replayOps != null) {
+                if (sequence >= replayOps.size()) {
+                    return;
+                }
+                op = replayOps.get((int) sequence);
+                intendedStart = options.replaySpeed > 0
+                        ? startNanos + (long) (op.offsetMillis * 1_000_000L / options.replaySpeed)
+                        : System.nanoTime();
+            } else {
+                if (sequence >= options.maxOperations) {
+                    return;
+                }
+                op = nextOperation(random);
+                intendedStart = options.mode == Mode.OPEN_LOOP
+                        ? startNanos + (long) (sequence * intervalNanos)
+                        : System.nanoTime();
+            }
+            if (intendedStart > deadline || System.nanoTime() > deadline) {
+                return;
+            }
+            waitUntil(intendedStart);
+
+            boolean ok = execute(op, messageIndex++);
+            latencies.get(op.operation).record(System.nanoTime() - intendedStart);
+            if (!ok) {
+                errors.increment();
+            }
+            if (recorder != null) {
+                op.offsetMillis = (intendedStart - startNanos) / 1_000_000L;
+                recordOperation(op);
+            }
+        }
+    }
+
+    private boolean execute(WorkloadOp op, int messageIndex) {
+        try {
+            switch (op.operation) {
+                case LOGIN:
+                    return login.validateLogin(op.user, op.password);
+                case SEND:
+                    Message sent = buildMessage(op, messageIndex);
+                    return sent != null && "Message sent".equals(sent.sendMessage());
+                case STORE:
+                    Message stored = buildMessage(op, messageIndex);
+                    if (stored == null) {
+                        return false;
+                    }
+                    store.append(stored);
+                    return true;
+                default:
+                    return false;
+            }
+        } catch (IOException | RuntimeException e) {
+            return false;
+        }
+    }
+
+    private static Message buildMessage(WorkloadOp op, int messageIndex) {
+        Message message = new Message(messageIndex);
+        if (!POE.checkCellPhone(op.recipient) || !message.checkMessageLength(op.message)) {
+            return null;
+        }
+        message.setRecipientCell(op.recipient);
+        message.setMessageContent(op.message);
+        message.createMessageHash(message.getMessageID(), messageIndex, op.message);
+        return message;
+    }
+
+    private static void waitUntil(long deadlineNanos) {
+        long remaining;
+        while ((remaining = deadlineNanos - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    private synchronized void recordOperation(WorkloadOp op) {
+        try {
+            recorder.write(op.toJson().toString());
+            recorder.newLine();
+        } catch (IOException e) {
+            errors.increment();
+        }
+    }
+
+    // --- Workload generation ---
+
+    private WorkloadOp nextOperation(Random random) {
+        int total = options.loginWeight + options.sendWeight + options.storeWeight;
+        int pick = random.nextInt(total);
+        Operation operation = pick < options.loginWeight ? Operation.LOGIN
+                : pick < options.loginWeight + options.sendWeight ? Operation.SEND : Operation.STORE;
+
+        WorkloadOp op = new WorkloadOp();
+        op.operation = operation;
+        op.user = usernames.get(random.nextInt(usernames.size()));
+        op.password = passwords.get(op.user);
+        if (operation != Operation.LOGIN) {
+            op.recipient = recipients.get(random.nextInt(recipients.size()));
+            op.message = generateMessage(random, options.lengthDistribution.nextLength(random));
+        }
+        return op;
+    }
+
+    private void generateUsers(Random random) {
+        for (int i = 0; i < options.userCount; i++) {
+            registerUser(generateUsername(i), generatePassword(random));
+        }
+        for (int i = 0; i < options.recipientCount; i++) {
+            recipients.add(generateRecipient(random));
+        }
+    }
+
+    private void registerUser(String username, String password) {
+        if (!users.containsKey(username)) {
+            users.put(username, new UserDetails("Load", "User", password));
+            passwords.put(username, password);
+            usernames.add(username);
+        }
+    }
+
+    /**
+     * Generates a username that passes {@link POE#isValidUsername(String)}: an
+     * underscore followed by up to four characters unique to the index.
+     *
+     * @param index The user number (0 to 1,679,615).
+     * @return The generated username.
+     */
+    public static String generateUsername(int index) {
+        StringBuilder sb = new StringBuilder("_");
+        int value = index;
+        for (int i = 0; i < 4; i++) {
+            sb.append(USERNAME_CHARS[value % USERNAME_CHARS.length]);
+            value /= USERNAME_CHARS.length;
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Generates a password that passes {@link POE#isValidPassword(String)}.
+     *
+     * @param random The source of randomness.
+     * @return The generated password.
+     */
+    public static String generatePassword(Random random) {
+        StringBuilder sb = new StringBuilder("Lg#");
+        sb.append(random.nextInt(10));
+        for (int i = 0; i < 5; i++) {
+            sb.append((char) ('a' + random.nextInt(26)));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Generates a recipient number that passes {@link POE#checkCellPhone(String)}.
+     *
+     * @param random The source of randomness.
+     * @return The generated cell number.
+     */
+    public static String generateRecipient(Random random) {
+        return String.format("+27%09d", random.nextInt(1_000_000_000));
+    }
+
+    /**
+     * Generates a message body of exactly the given length from a small vocabulary.
+     *
+     * @param random The source of randomness.
+     * @param length The length of the body, from 1 to 250 characters.
+     * @return The generated message body.
+     */
+    public static String generateMessage(Random random, int length) {
+        StringBuilder sb = new StringBuilder(length + 16);
+        while (sb.length() < length) {
+            if (sb.length() > 0) {
+                sb.append(' ');
+            }
+            sb.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        sb.setLength(length);
+        // A trailing space would be trimmed away by the hash, so end on a letter
+        if (sb.charAt(length - 1) == ' ') {
+            sb.setCharAt(length - 1, '.');
+        }
+        return sb.toString();
+    }
+
+    // --- Workload files ---
+
+    private static List<WorkloadOp> readWorkload(String file) throws IOException {
+        List<WorkloadOp> ops = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isBlank()) {
+                    ops.add(WorkloadOp.fromJson(new JSONObject(line)));
+                }
+            }
+        }
+        return ops;
+    }
+
+    /**
+     * One recorded operation of a workload file.
+     */
+    static final class WorkloadOp {
+        Operation operation;
+        String user;
+        String password;
+        String recipient;
+        String message;
+        long offsetMillis;
+
+        JSONObject toJson() {
+            JSONObject json = new JSONObject();
+            json.put("Op", operation.name());
+            json.put("User", user);
+            json.put("Password", password);
+            json.put("Recipient", recipient);
+            json.put("Message", message);
+            json.put("OffsetMillis", offsetMillis);
+            return json;
+        }
+
+        static WorkloadOp fromJson(JSONObject json) {
+            WorkloadOp op = new WorkloadOp();
+            op.operation = Operation.valueOf(json.getString("Op").toUpperCase(Locale.ROOT));
+            op.user = json.getString("User");
+            op.password = json.getString("Password");
+            op.recipient = json.optString("Recipient", null);
+            op.message = json.optString("Message", null);
+            op.offsetMillis = json.optLong("OffsetMillis", 0);
+            return op;
+        }
+    }
+
+    // --- Options and report ---
+
+    /**
+     * Distribution of generated message body lengths, capped at the 250-character limit.
+     */
+    public static final class LengthDistribution {
+        private final String kind;
+        private final int a;
+        private final int b;
+
+        private LengthDistribution(String kind, int a, int b) {
+            this.kind = kind;
+            this.a = a;
+            this.b = b;
+        }
+
+        /**
+         * Parses a distribution such as "fixed:120", "uniform:1:250" or "normal:80:40".
+         *
+         * @param spec The distribution specification.
+         * @return The parsed distribution.
+         */
+        public static LengthDistribution parse(String spec) {
+            String[] parts = spec.split(":");
+            switch (parts[0]) {
+                case "fixed":
+                    return new LengthDistribution("fixed", Integer.parseInt(parts[1]), 0);
+                case "uniform":
+                    return new LengthDistribution("uniform", Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+                case "normal":
+                    return new LengthDistribution("normal", Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+                default:
+                    throw new IllegalArgumentException("Unknown length distribution: " + spec);
+            }
+        }
+
+        int nextLength(Random random) {
+            int length;
+            switch (kind) {
+                case "fixed":
+                    length = a;
+                    break;
+                case "uniform":
+                    length = a + random.nextInt(Math.max(1, b - a + 1));
+                    break;
+                default:
+                    length = (int) Math.round(a + random.nextGaussian() * b);
+                    break;
+            }
+            return Math.max(1, Math.min(250, length));
+        }
+    }
+
+    /**
+     * Options for a load generator run. Every setter returns this object so that
+     * options can be chained.
+     */
+    public static final class Options {
+        private Mode mode = Mode.CLOSED_LOOP;
+        private int threads = 4;
+        private double targetRate = 1000;
+        private long durationSeconds = 10;
+        private long maxOperations = Long.MAX_VALUE;
+        private int userCount = 100;
+        private int recipientCount = 1000;
+        private int loginWeight = 1;
+        private int sendWeight = 8;
+        private int storeWeight = 1;
+        private LengthDistribution lengthDistribution = LengthDistribution.parse("uniform:1:250");
+        private long seed = 42;
+        private String storeDir = "loadgen-messages";
+        private int shards; // 0 for a single, unsharded store
+        private String recordFile;
+        private String replayFile;
+        private double replaySpeed = 1.0;
+
+        public Options mode(Mode mode) { this.mode = mode; return this; }
+        public Options threads(int threads) { this.threads = threads; return this; }
+        public Options targetRate(double opsPerSecond) { this.targetRate = opsPerSecond; return this; }
+        public Options durationSeconds(long seconds) { this.durationSeconds = seconds; return this; }
+        public Options maxOperations(long operations) { this.maxOperations = operations; return this; }
+        public Options users(int count) { this.userCount = count; return this; }
+        public Options recipients(int count) { this.recipientCount = count; return this; }
+        public Options mix(int login, int send, int store) {
+            this.loginWeight = login;
+            this.sendWeight = send;
+            this.storeWeight = store;
+            return this;
+        }
+        public Options lengthDistribution(String spec) { this.lengthDistribution = LengthDistribution.parse(spec); return this; }
+        public Options seed(long seed) { this.seed = seed; return this; }
+        public Options storeDir(String directory) { this.storeDir = directory; return this; }
+
+        /**
+         * Stores through a {@link ShardedMessageStore} with this many shards, or
+         * through a single store for 0.
+         */
+        public Options shards(int count) { this.shards = count; return this; }
+        public Options recordTo(String file) { this.recordFile = file; return this; }
+        public Options replayFrom(String file) { this.replayFile = file; this.mode = Mode.REPLAY; return this; }
+
+        /**
+         * Sets the replay speed. 1.0 replays at the recorded pace, 2.0 twice as fast,
+         * and 0 replays as fast as possible.
+         */
+        public Options replaySpeed(double speed) { this.replaySpeed = speed; return this; }
+    }
+
+    /**
+     * Throughput and latency percentiles for one run.
+     */
+    public static final class Report {
+        private final long elapsedNanos;
+        private final Map<Operation, LatencyHistogram> latencies;
+        private final long errors;
+
+        Report(long elapsedNanos, Map<Operation, LatencyHistogram> latencies, long errors) {
+            this.elapsedNanos = elapsedNanos;
+            this.latencies = latencies;
+            this.errors = errors;
+        }
+
+        public long getTotalOperations() {
+            long total = 0;
+            for (LatencyHistogram histogram : latencies.values()) {
+                total += histogram.getCount();
+            }
+            return total;
+        }
+
+        public long getOperations(Operation operation) {
+            return latencies.get(operation).getCount();
+        }
+
+        public LatencyHistogram getLatency(Operation operation) {
+            return latencies.get(operation);
+        }
+
+        public long getErrors() {
+            return errors;
+        }
+
+        public double getThroughput() {
+            return elapsedNanos == 0 ? 0 : getTotalOperations() * 1_000_000_000.0 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format(Locale.ROOT, "Operations: %d in %.2f s (%.0f ops/s), errors: %d%n",
+                    getTotalOperations(), elapsedNanos / 1e9, getThroughput(), errors));
+            sb.append(String.format(Locale.ROOT, "%-6s %10s %10s %10s %10s %10s %10s%n",
+                    "op", "count", "p50 us", "p90 us", "p99 us", "p99.9 us", "max us"));
+            for (Operation operation : Operation.values()) {
+                LatencyHistogram h = latencies.get(operation);
+                sb.append(String.format(Locale.ROOT, "%-6s %10d %10.1f %10.1f %10.1f %10.1f %10.1f%n",
+                        operation.name().toLowerCase(Locale.ROOT), h.getCount(),
+                        h.getPercentileNanos(50) / 1e3, h.getPercentileNanos(90) / 1e3,
+                        h.getPercentileNanos(99) / 1e3, h.getPercentileNanos(99.9) / 1e3,
+                        h.getMaxNanos() / 1e3));
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Command-line entry point. Example:
+     * <pre>
+     * --mode open --rate 5000 --threads 8 --duration 30 --lengths normal:80:40 --record workload.ndjson
+     * --replay workload.ndjson --speed 2
+     * --threads 16 --mix 0,0,1 --shards 8
+     * </pre>
+     *
+     * @param args The command-line options.
+     * @throws Exception If the run fails.
+     */
+    public static void main(String[] args) throws Exception {
+        Options options = new Options();
+        for (int i = 0; i < args.length; i++) {
+            String value = i + 1 < args.length ? args[i + 1] : null;
+            switch (args[i]) {
+                case "--mode":
+                    options.mode("open".equals(value) ? Mode.OPEN_LOOP : Mode.CLOSED_LOOP);
+                    break;
+                case "--threads":
+                    options.threads(Integer.parseInt(value));
+                    break;
+                case "--rate":
+                    options.targetRate(Double.parseDouble(value));
+                    break;
+                case "--duration":
+                    options.durationSeconds(Long.parseLong(value));
+                    break;
+                case "--ops":
+                    options.maxOperations(Long.parseLong(value));
+                    break;
+                case "--users":
+                    options.users(Integer.parseInt(value));
+                    break;
+                case "--recipients":
+                    options.recipients(Integer.parseInt(value));
+                    break;
+                case "--mix": {
+                    String[] weights = value.split(",");
+                    options.mix(Integer.parseInt(weights[0]), Integer.parseInt(weights[1]), Integer.parseInt(weights[2]));
+                    break;
+                }
+                case "--lengths":
+                    options.lengthDistribution(value);
+                    break;
+                case "--seed":
+                    options.seed(Long.parseLong(value));
+                    break;
+                case "--store-dir":
+                    options.storeDir(value);
+                    break;
+                case "--shards":
+                    options.shards(Integer.parseInt(value));
+                    break;
+                case "--record":
+                    options.recordTo(value);
+                    break;
+                case "--replay":
+                    options.replayFrom(value);
+                    break;
+                case "--speed":
+                    options.replaySpeed(Double.parseDouble(value));
+                    break;
+                default:
+                    System.err.println("Unknown option: " + args[i]);
+                    return;
+            }
+            i++;
+        }
+        System.out.print(new LoadGenerator(options).run());
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.ice.poe;
+
+import java.util.Arrays;
+import java.util.function.LongFunction;
+
+/**
+ * A hash map from primitive {@code long} keys to values, for example packed
+ * recipient numbers from {@link PhoneNumberCodec}.
+ *
+ * Keys and values are held in two parallel arrays with open addressing and
+ * linear probing, so there is no boxed key, no entry object and no string hash
+ * per mapping: about 24 bytes per entry at the default load factor, against
+ * roughly 100 bytes for a {@code HashMap<String, V>} keyed by phone number
+ * strings. Removal shifts the following entries back instead of leaving
+ * tombstones, so lookups stay short after many removals.
+ *
+ * Null values are not allowed. The map is not thread-safe.
+ *
+ * @param <V> The type of the values.
+ * @author Simphiwe Jijana
+ */
+public class LongHashMap<V> {
+
+    /**
+     * Receives the entries of the map.
+     *
+     * @param <V> The type of the values.
+     */
+    public interface EntryConsumer<V> {
+
+        void accept(long key, V value);
+    }
+
+    private static final float LOAD_FACTOR = 0.6f;
+    private static final long FREE_KEY = 0; // Marks an empty slot; a real 0 key is kept apart
+
+    private long[] keys;
+    private Object[] values;
+    private int mask;
+    private int size; // Entries in the arrays, not counting the 0 key
+    private int resizeAt;
+
+    private boolean hasZeroKey;
+    private Object zeroValue;
+
+    public LongHashMap() {
+        this(16);
+    }
+
+    /**
+     * Creates a map sized for the expected number of entries.
+     *
+     * @param expectedSize The number of entries expected.
+     */
+    public LongHashMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, (int) Math.ceil(expectedSize / LOAD_FACTOR)) - 1) << 1;
+        allocate(capacity);
+    }
+
+    public int size() {
+        return size + (hasZeroKey ? 1 : 0);
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Returns the value for a key.
+     *
+     * @param key The key.
+     * @return The value, or null if the key is not in the map.
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        if (key == FREE_KEY) {
+            return hasZeroKey ? (V) zeroValue : null;
+        }
+        int slot = slot(key);
+        long k;
+        while ((k = keys[slot]) != FREE_KEY) {
+            if (k == key) {
+                return (V) values[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * Maps a key to a value.
+     *
+     * @param key The key.
+     * @param value The value, not null.
+     * @return The previous value, or null if the key was not in the map.
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if (value == null) {
+            throw new NullPointerException("LongHashMap does not allow null values");
+        }
+        if (key == FREE_KEY) {
+            V previous = hasZeroKey ? (V) zeroValue : null;
+            hasZeroKey = true;
+            zeroValue = value;
+            return previous;
+        }
+        int slot = slot(key);
+        long k;
+        while ((k = keys[slot]) != FREE_KEY) {
+            if (k == key) {
+                V previous = (V) values[slot];
+                values[slot] = value;
+                return previous;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size >= resizeAt) {
+            rehash(keys.length << 1);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the value for a key, creating and adding it first if the key is
+     * not in the map.
+     *
+     * @param key The key.
+     * @param create Creates the value for a missing key.
+     * @return The existing or new value.
+     */
+    public V computeIfAbsent(long key, LongFunction<V> create) {
+        V value = get(key);
+        if (value == null) {
+            value = create.apply(key);
+            put(key, value);
+        }
+        return value;
+    }
+
+    /**
+     * Removes a key.
+     *
+     * @param key The key.
+     * @return The removed value, or null if the key was not in the map.
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        if (key == FREE_KEY) {
+            V previous = hasZeroKey ? (V) zeroValue : null;
+            hasZeroKey = false;
+            zeroValue = null;
+            return previous;
+        }
+        int slot = slot(key);
+        long k;
+        while ((k = keys[slot]) != FREE_KEY) {
+            if (k == key) {
+                V previous = (V) values[slot];
+                shiftBack(slot);
+                size--;
+                return previous;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, FREE_KEY);
+        Arrays.fill(values, null);
+        size = 0;
+        hasZeroKey = false;
+        zeroValue = null;
+    }
+
+    /**
+     * Calls the consumer for every entry, in no particular order. The map must
+     * not be changed while this runs.
+     *
+     * @param consumer Receives each key and value.
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(EntryConsumer<? super V> consumer) {
+        if (hasZeroKey) {
+            consumer.accept(FREE_KEY, (V) zeroValue);
+        }
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] != FREE_KEY) {
+                consumer.accept(keys[slot], (V) values[slot]);
+            }
+        }
+    }
+
+    /**
+     * Estimates the heap used by the map itself, not counting the values.
+     *
+     * @return The estimated size in bytes.
+     */
+    public long estimateHeapBytes() {
+        return 48 + MessageEncoding.arrayBytes(keys.length * 8) + MessageEncoding.arrayBytes(values.length * 4);
+    }
+
+    // --- Open addressing ---
+
+    /**
+     * Closes the gap left by a removed entry: later entries in the same probe run
+     * move back into it if that is no further from their home slot.
+     */
+    private void shiftBack(int gap) {
+        int slot = gap;
+        while (true) {
+            slot = (slot + 1) & mask;
+            long k = keys[slot];
+            if (k == FREE_KEY) {
+                break;
+            }
+            int home = slot(k);
+            // Move k if its home slot is not within (gap, slot], taking wrap-around into account
+            boolean movable = gap <= slot ? (home <= gap || home > slot) : (home <= gap && home > slot);
+            if (movable) {
+                keys[gap] = k;
+                values[gap] = values[slot];
+                gap = slot;
+            }
+        }
+        keys[gap] = FREE_KEY;
+        values[gap] = null;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            long key = oldKeys[i];
+            if (key != FREE_KEY) {
+                int slot = slot(key);
+                while (keys[slot] != FREE_KEY) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = key;
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+        resizeAt = Math.min(capacity - 1, (int) (capacity * LOAD_FACTOR));
+    }
+
+    /**
+     * Spreads the key bits (MurmurHash3 finaliser) so that packed phone numbers,
+     * which differ mostly in their low digits, land in different slots.
+     */
+    private int slot(long key) {
+        long h = key;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return (int) h & mask;
+    }
+}
@@ -4,37 +4,104 @@
  */
 package com.ice.poe;
 
-import java.io.File;
-import java.io.FileReader;
+import java.io.Reader;
 import org.json.JSONObject;
 
-import java.io.FileWriter;
 import java.io.IOException;
-import java.util.Random;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.security.SecureRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.swing.JOptionPane;
 import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONTokener;
 
 /**
+ * A chat message.
+ *
+ * Messages are held in a compact form because sessions, caches and indexes can
+ * keep very many of them: the ID and recipient are packed into longs, the content
+ * is kept as Latin-1 (or UTF-8) bytes, and the hash is rebuilt from the other
+ * fields when asked for rather than stored. Values that do not fit the compact
+ * form, such as a hash that was not built from this message's fields, are kept
+ * as text. The getters return the same strings as before.
  *
  * @author Simphiwe Jijana
  */
 public class Message {
-    private String messageID;
+    private long id = MessageEncoding.NO_ID;
+    private String idText; // Only when the ID is not ten digits
     private int numMessagesSent;
-    private String recipientCell;
-    private String messageContent;
-    private String messageHash;
-    private static int totalMessagesSent = 0; // Static to track across all Message instances
+    private long recipient = MessageEncoding.NO_RECIPIENT;
+    private String recipientText; // Only when the recipient is not "+" and digits
+    private byte[] content; // Null when there is no content
+    private boolean contentUtf8;
+    private int hashIndex = MessageEncoding.NO_HASH; // Index the hash is derived with
+    private String hashText; // Only when the hash cannot be derived from the fields
+    private long expiresAt = MessageEncoding.NO_EXPIRY; // Epoch milliseconds, for messages with a time to live
+    private long sequence = MessageEncoding.NO_SEQUENCE; // Assigned by the message store
+    private long timestamp = MessageEncoding.NO_TIMESTAMP; // Epoch milliseconds, when the message store accepted it
+    private static volatile int totalMessagesSent = 0; // Static to track across all Message instances
+
+    private static final long ID_SPACE = 10_000_000_000L;
+    private static final long ID_STEP = 3_819_660_113L; // Close to the golden ratio of the ID space, so consecutive IDs look unrelated
+    private static final AtomicLong ID_SEQUENCE = new AtomicLong(new SecureRandom().nextLong(ID_SPACE));
+    // One lock per JSON file, so stores to the same file from different threads do not overwrite each other
+    private static final ConcurrentHashMap<Path, Object> STORE_FILE_LOCKS = new ConcurrentHashMap<>();
 
     public Message(int messageIndex) {
-        this.messageID = generateMessageID();
+        this.id = nextId();
         this.numMessagesSent = messageIndex + 1; // Correctly reflects the current message number
     }
 
+    /**
+     * Recreates a message from previously stored fields, for example when it is
+     * read back from a message store. No new ID is generated.
+     *
+     * @param messageID The stored message ID.
+     * @param numMessagesSent The stored message number.
+     * @param recipientCell The recipient's cell number.
+     * @param messageContent The content of the message.
+     * @param messageHash The stored message hash.
+     */
+    public Message(String messageID, int numMessagesSent, String recipientCell, String messageContent, String messageHash) {
+        setMessageID(messageID);
+        this.numMessagesSent = numMessagesSent;
+        assignRecipientCell(recipientCell);
+        assignMessageContent(messageContent);
+        if (messageHash != null) {
+            this.hashIndex = MessageEncoding.derivableIndex(messageHash, messageID, messageContent);
+            this.hashText = hashIndex == MessageEncoding.NO_HASH ? messageHash : null;
+        }
+    }
+
+    /**
+     * Recreates a message from its compact fields, for example a row of a
+     * {@link MessageTable}. The content array is used as is.
+     */
+    Message(long id, String idText, int numMessagesSent, long recipient, String recipientText,
+            byte[] content, boolean contentUtf8, int hashIndex, String hashText) {
+        this.id = id;
+        this.idText = idText;
+        this.numMessagesSent = numMessagesSent;
+        this.recipient = recipient;
+        this.recipientText = recipientText;
+        this.content = content;
+        this.contentUtf8 = contentUtf8;
+        this.hashIndex = hashIndex;
+        this.hashText = hashText;
+    }
+
     // --- Getters ---
     public String getMessageID() {
-        return messageID;
+        return id != MessageEncoding.NO_ID ? MessageEncoding.formatId(id) : idText;
     }
 
     public int getNumMessagesSent() {
@@ -42,44 +109,194 @@ public class Message {
     }
 
     public String getRecipientCell() {
-        return recipientCell;
+        return recipient != MessageEncoding.NO_RECIPIENT ? PhoneNumberCodec.decode(recipient) : recipientText;
     }
 
     public String getMessageContent() {
-        return messageContent;
+        return content == null ? null : MessageEncoding.decodeContent(content, 0, content.length, contentUtf8);
     }
 
     public String getMessageHash() {
-        return messageHash;
+        if (hashText != null || hashIndex == MessageEncoding.NO_HASH) {
+            return hashText;
+        }
+        return MessageEncoding.deriveHash(getMessageID(), hashIndex, getMessageContent());
+    }
+
+    /**
+     * Returns when this message expires.
+     *
+     * @return The expiry time, or null if the message does not expire.
+     */
+    public Instant getExpiresAt() {
+        return expiresAt == MessageEncoding.NO_EXPIRY ? null : Instant.ofEpochMilli(expiresAt);
+    }
+
+    /**
+     * Checks whether this message has expired.
+     *
+     * @param now The current time.
+     * @return True if the message has a time to live and it has run out.
+     */
+    public boolean isExpired(Instant now) {
+        return expiresAt != MessageEncoding.NO_EXPIRY && !now.isBefore(Instant.ofEpochMilli(expiresAt));
+    }
+
+    /**
+     * Returns the message's sequence number. A message store numbers the
+     * messages it accepts from 1 upwards, so a later message always has a
+     * higher number, even when the clock does not move between them.
+     *
+     * @return The sequence number, or 0 if the message has not been stored.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Returns when a message store accepted this message.
+     *
+     * @return The time the message was stored, or null if it has not been stored.
+     */
+    public Instant getTimestamp() {
+        return timestamp == MessageEncoding.NO_TIMESTAMP ? null : Instant.ofEpochMilli(timestamp);
     }
 
     public static int getTotalMessagesSent() {
         return totalMessagesSent;
     }
 
+    // --- Compact fields, for MessageTable ---
+    long packedId() {
+        return id;
+    }
+
+    String idText() {
+        return idText;
+    }
+
+    long packedRecipient() {
+        return recipient;
+    }
+
+    String recipientText() {
+        return recipientText;
+    }
+
+    byte[] contentBytes() {
+        return content;
+    }
+
+    boolean isContentUtf8() {
+        return contentUtf8;
+    }
+
+    int hashIndex() {
+        return hashIndex;
+    }
+
+    String hashText() {
+        return hashText;
+    }
+
+    long expiresAtMillis() {
+        return expiresAt;
+    }
+
+    void setExpiresAtMillis(long expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+
+    long timestampMillis() {
+        return timestamp;
+    }
+
+    /**
+     * Sets the sequence number and timestamp, when a message store accepts the
+     * message or a stored one is read back.
+     */
+    void stamp(long sequence, long timestamp) {
+        this.sequence = sequence;
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * Estimates the heap this message uses, for caches that are bounded by size.
+     *
+     * @return The estimated size in bytes.
+     */
+    long estimateHeapBytes() {
+        long bytes = 80; // Object header and fields
+        bytes += content == null ? 0 : MessageEncoding.arrayBytes(content.length);
+        bytes += MessageEncoding.stringBytes(idText);
+        bytes += MessageEncoding.stringBytes(recipientText);
+        bytes += MessageEncoding.stringBytes(hashText);
+        return bytes;
+    }
+
     // --- Setters ---
+    private void setMessageID(String messageID) {
+        this.id = MessageEncoding.packId(messageID);
+        this.idText = id == MessageEncoding.NO_ID ? messageID : null;
+    }
+
+    /**
+     * Gives the message a time to live, counted from now. Once it runs out the
+     * message is no longer returned by a message store and its space is reclaimed.
+     *
+     * @param timeToLive How long the message lives.
+     */
+    public void setTimeToLive(Duration timeToLive) {
+        setExpiresAt(Instant.now().plus(timeToLive));
+    }
+
+    /**
+     * Sets when the message expires.
+     *
+     * @param expiresAt The expiry time, or null for a message that does not expire.
+     */
+    public void setExpiresAt(Instant expiresAt) {
+        this.expiresAt = expiresAt == null ? MessageEncoding.NO_EXPIRY : expiresAt.toEpochMilli();
+    }
+
     public void setRecipientCell(String recipientCell) {
-        this.recipientCell = recipientCell;
+        assignRecipientCell(recipientCell);
     }
 
     public void setMessageContent(String messageContent) {
-        this.messageContent = messageContent;
+        if (hashText == null && hashIndex != MessageEncoding.NO_HASH) {
+            // The hash was made from the old content, so keep it as it was
+            hashText = getMessageHash();
+            hashIndex = MessageEncoding.NO_HASH;
+        }
+        assignMessageContent(messageContent);
+    }
+
+    // The constructors use these rather than the public setters, which a subclass could override
+    private void assignRecipientCell(String recipientCell) {
+        this.recipient = PhoneNumberCodec.encode(recipientCell);
+        this.recipientText = recipient == MessageEncoding.NO_RECIPIENT ? recipientCell : null;
+    }
+
+    private void assignMessageContent(String messageContent) {
+        this.content = messageContent == null ? null : MessageEncoding.encodeContent(messageContent);
+        this.contentUtf8 = messageContent != null && !MessageEncoding.isLatin1(messageContent);
     }
 
     // --- Core Methods ---
 
     /**
-     * Generates a random ten-digit unique message ID.
+     * Generates a ten-digit message ID that is unique within this process.
      *
      * @return A ten-digit string representing the message ID.
      */
     public String generateMessageID() {
-        Random random = new Random();
-        StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < 10; i++) {
-            sb.append(random.nextInt(10));
-        }
-        return sb.toString();
+        return MessageEncoding.formatId(nextId());
+    }
+
+    private static long nextId() {
+        // The step shares no factor with the ID space, so the sequence visits every ten-digit value before any repeats
+        return ID_SEQUENCE.updateAndGet(previous -> (previous + ID_STEP) % ID_SPACE);
     }
 
     /**
@@ -116,32 +333,20 @@ public class Message {
      * @return The generated message hash.
      */
     public String createMessageHash(String messageId, int messageIndex, String messageContent) {
-        if (messageId == null || messageId.length() < 2 || messageContent == null || messageContent.trim().isEmpty()) {
+        String hash = MessageEncoding.deriveHash(messageId, messageIndex, messageContent);
+        if (hash == null) {
             return "INVALID_HASH";
         }
 
-        String firstTwoId = messageId.substring(0, 2);
-        // Split by one or more whitespace characters and filter out empty strings
-        String[] words = messageContent.trim().split("\\s+");
-
-        String firstWord = "";
-        String lastWord = "";
-
-        if (words.length > 0) {
-            firstWord = words[0].toUpperCase();
-            if (words.length > 1) {
-                lastWord = words[words.length - 1].toUpperCase();
-            } else {
-                lastWord = firstWord; // If only one word, first and last are the same
-            }
+        // A hash of this message's own fields is rebuilt on demand instead of being kept
+        if (messageId.equals(getMessageID()) && messageContent.equals(getMessageContent())) {
+            this.hashIndex = messageIndex;
+            this.hashText = null;
         } else {
-            // This case should ideally be caught by messageContent.trim().isEmpty() above,
-            // but as a safeguard, if words array is empty, hash should reflect this.
-            return "INVALID_HASH"; // Or handle as per requirements
+            this.hashIndex = MessageEncoding.NO_HASH;
+            this.hashText = hash;
         }
-
-        this.messageHash = String.format("%s:%d:%s%s", firstTwoId, messageIndex, firstWord, lastWord);
-        return this.messageHash;
+        return hash;
     }
 
     /**
@@ -150,10 +355,15 @@ public class Message {
      * @return A message indicating successful sending.
      */
     public String sendMessage() {
-        totalMessagesSent++;
+        incrementTotalMessagesSent();
         return "Message sent";
     }
 
+    // Messages can be sent from several threads (e.g. outbox delivery), so the shared count is updated under a lock
+    private static synchronized void incrementTotalMessagesSent() {
+        totalMessagesSent++;
+    }
+
     /**
      * Stores the message details in a JSON file.
      * This method now correctly handles appending to a JSON array.
@@ -161,49 +371,117 @@ public class Message {
      * @param filePath The path to the JSON file.
      */
     public void storeMessage(String filePath) {
-        JSONObject messageJson = new JSONObject();
-        messageJson.put("MessageID", this.messageID);
-        messageJson.put("NumMessagesSent", this.numMessagesSent);
-        messageJson.put("Recipient", this.recipientCell);
-        messageJson.put("Message", this.messageContent);
-        messageJson.put("MessageHash", this.messageHash);
-
-        JSONArray jsonArray;
-        File file = new File(filePath);
-
-        // Read existing JSON array if file exists and is not empty/corrupted
-        if (file.exists() && file.length() > 0) {
-            try (FileReader reader = new FileReader(filePath)) {
-                // Use JSONTokener to correctly parse the file content as a JSONArray
-                jsonArray = new JSONArray(new JSONTokener(reader));
-            } catch (IOException | org.json.JSONException e) {
-                // If file is empty or corrupted, start with a new array
-                jsonArray = new JSONArray();
-                JOptionPane.showMessageDialog(null, "Warning: Existing JSON file was invalid or empty, starting new array.", "Warning", JOptionPane.WARNING_MESSAGE);
+        try {
+            Path backup = appendToJsonFile(filePath);
+            if (backup != null) {
+                JOptionPane.showMessageDialog(null, "Warning: Existing JSON file was invalid, starting new array. The old file was saved as "
+                        + backup.getFileName() + ".", "Warning", JOptionPane.WARNING_MESSAGE);
             }
-        } else {
-            jsonArray = new JSONArray();
-        }
-
-        jsonArray.put(messageJson); // Add the new message object
-
-        // Write the entire updated JSON array back to the file
-        try (FileWriter fileWriter = new FileWriter(filePath)) {
-            fileWriter.write(jsonArray.toString(4)); // Pretty print with 4 spaces indent
             JOptionPane.showMessageDialog(null, "Message stored in JSON file.");
         } catch (IOException e) {
             JOptionPane.showMessageDialog(null, "Error storing message: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
         }
     }
 
+    /**
+     * Appends this message to the JSON array in a file, without any dialogs.
+     *
+     * Stores to the same file are serialized within the application, and the
+     * file is replaced with a rename rather than rewritten in place, so two
+     * concurrent stores cannot lose each other's message and a reader never sees
+     * a half-written array. A file that is not a valid array is copied aside
+     * before a new array is started.
+     *
+     * @param filePath The path to the JSON file.
+     * @return The copy of the invalid file that was set aside, or null if the file was valid.
+     * @throws IOException If the file cannot be read or written, or it is invalid and cannot be copied aside.
+     */
+    public Path appendToJsonFile(String filePath) throws IOException {
+        Path path = Paths.get(filePath).toAbsolutePath().normalize();
+        synchronized (STORE_FILE_LOCKS.computeIfAbsent(path, key -> new Object())) {
+            JSONArray jsonArray = new JSONArray();
+            Path backup = null;
+            if (Files.exists(path) && Files.size(path) > 0) {
+                try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                    // Use JSONTokener to correctly parse the file content as a JSONArray
+                    jsonArray = new JSONArray(new JSONTokener(reader));
+                } catch (JSONException e) {
+                    // Keep a copy of the damaged file before starting a new array, so its messages can still be recovered
+                    backup = Paths.get(filePath + ".corrupt-" + System.currentTimeMillis());
+                    try {
+                        Files.copy(path, backup, StandardCopyOption.REPLACE_EXISTING);
+                    } catch (IOException copyError) {
+                        throw new IOException("the existing JSON file is invalid and could not be backed up ("
+                                + copyError.getMessage() + "), so it was left unchanged.", copyError);
+                    }
+                    jsonArray = new JSONArray();
+                }
+            }
+
+            jsonArray.put(toJson()); // Add the new message object
+
+            // Write the entire updated array to a temporary file, then swap it in
+            Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+            Files.writeString(temp, jsonArray.toString(4), StandardCharsets.UTF_8); // Pretty print with 4 spaces indent
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return backup;
+        }
+    }
+
+    /**
+     * Builds the JSON record used to store this message.
+     *
+     * @return A JSON object with the stored message fields, including the expiry
+     * time, sequence number and timestamp when the message has them.
+     */
+    public JSONObject toJson() {
+        JSONObject messageJson = new JSONObject();
+        messageJson.put("MessageID", getMessageID());
+        messageJson.put("NumMessagesSent", this.numMessagesSent);
+        messageJson.put("Recipient", getRecipientCell());
+        messageJson.put("Message", getMessageContent());
+        messageJson.put("MessageHash", getMessageHash());
+        if (expiresAt != MessageEncoding.NO_EXPIRY) {
+            messageJson.put("ExpiresAt", expiresAt);
+        }
+        if (sequence != MessageEncoding.NO_SEQUENCE) {
+            messageJson.put("Sequence", sequence);
+        }
+        if (timestamp != MessageEncoding.NO_TIMESTAMP) {
+            messageJson.put("Timestamp", timestamp);
+        }
+        return messageJson;
+    }
+
+    /**
+     * Recreates a message from a stored JSON record.
+     *
+     * @param messageJson The stored JSON record.
+     * @return The message described by the record.
+     * @throws org.json.JSONException If a required field is missing or has the wrong type.
+     */
+    public static Message fromJson(JSONObject messageJson) {
+        Message message = new Message(messageJson.getString("MessageID"),
+                messageJson.getInt("NumMessagesSent"),
+                messageJson.getString("Recipient"),
+                messageJson.getString("Message"),
+                messageJson.optString("MessageHash", null));
+        if (messageJson.has("ExpiresAt")) {
+            message.expiresAt = messageJson.getLong("ExpiresAt");
+        }
+        message.sequence = messageJson.optLong("Sequence", MessageEncoding.NO_SEQUENCE);
+        message.timestamp = messageJson.optLong("Timestamp", MessageEncoding.NO_TIMESTAMP);
+        return message;
+    }
+
     /**
      * Displays all message details using JOptionPane.
      */
     public void printMessages() {
-        String messageDetails = "Message ID: " + this.messageID + "\n" +
-                                "Message Hash: " + this.messageHash + "\n" +
-                                "Recipient: " + this.recipientCell + "\n" +
-                                "Message: " + this.messageContent;
+        String messageDetails = "Message ID: " + getMessageID() + "\n" +
+                                "Message Hash: " + getMessageHash() + "\n" +
+                                "Recipient: " + getRecipientCell() + "\n" +
+                                "Message: " + getMessageContent();
         JOptionPane.showMessageDialog(null, messageDetails, "Message Details", JOptionPane.INFORMATION_MESSAGE);
     }
     
@@ -0,0 +1,563 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.ice.poe;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Keeps message statistics up to date as messages are sent and stored, so that
+ * dashboard queries do not have to scan the message history.
+ *
+ * The engine tracks:
+ * <ul>
+ * <li>the most messaged recipients, with a Space-Saving heavy-hitters sketch of
+ * fixed size keyed by the packed recipient number;</li>
+ * <li>the longest messages, with a fixed-size min-heap;</li>
+ * <li>sends per user for each of the last 24 hours, in a small ring of counters
+ * per user;</li>
+ * <li>the distribution of message lengths. Messages are at most 250 characters,
+ * so one counter per length gives exact quantiles in constant space.</li>
+ * </ul>
+ * Every query costs time bounded by these fixed sizes, not by the number of
+ * messages seen.
+ *
+ * Sent messages are reported with {@link #recordSend(String, Message)}; stored
+ * messages arrive through the {@link MessageStoreListener} callbacks. The sketches
+ * only count up, so deleting a message or dropping a partition does not remove
+ * it from the statistics. {@link #backfill(Collection)} rebuilds the statistics
+ * of an existing archive in parallel. The state can be saved to a
+ * {@link SnapshotManager} snapshot and read back on startup instead.
+ *
+ * @author Simphiwe Jijana
+ */
+public class MessageAnalytics implements MessageStoreListener {
+
+    public static final int MAX_MESSAGE_LENGTH = 250;
+    public static final int DEFAULT_TRACKED_RECIPIENTS = 64;
+    public static final int DEFAULT_LONGEST_MESSAGES = 10;
+    private static final int HOURS_KEPT = 24;
+    private static final long MILLIS_PER_HOUR = TimeUnit.HOURS.toMillis(1);
+
+    private final int trackedRecipients;
+    private final int longestKept;
+    private final Clock clock;
+
+    private final Aggregates aggregates; // Guarded by itself
+    private final ConcurrentHashMap<String, HourlyCounts> sendsByUser = new ConcurrentHashMap<>();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder stored = new LongAdder();
+    private final LongAdder deleted = new LongAdder();
+
+    /**
+     * Creates an engine with the default sketch sizes and the system clock.
+     */
+    public MessageAnalytics() {
+        this(DEFAULT_TRACKED_RECIPIENTS, DEFAULT_LONGEST_MESSAGES, Clock.systemUTC());
+    }
+
+    /**
+     * Creates an engine.
+     *
+     * @param trackedRecipients How many recipients the heavy-hitters sketch tracks.
+     * @param longestKept How many of the longest messages are kept.
+     * @param clock The clock used to bucket sends by hour.
+     */
+    public MessageAnalytics(int trackedRecipients, int longestKept, Clock clock) {
+        this.trackedRecipients = trackedRecipients;
+        this.longestKept = longestKept;
+        this.clock = clock;
+        this.aggregates = new Aggregates(trackedRecipients, longestKept);
+    }
+
+    /**
+     * Records a message that a user has sent.
+     *
+     * @param sender The username of the sender.
+     * @param message The message that was sent.
+     */
+    public void recordSend(String sender, Message message) {
+        synchronized (aggregates) {
+            aggregates.add(message);
+        }
+        sendsByUser.computeIfAbsent(sender, user -> new HourlyCounts()).increment(currentHour());
+        sent.increment();
+    }
+
+    @Override
+    public void onStored(Message message) {
+        synchronized (aggregates) {
+            aggregates.add(message);
+        }
+        stored.increment();
+    }
+
+    @Override
+    public void onDeleted(String messageId) {
+        deleted.increment();
+    }
+
+    @Override
+    public void onPartitionDropped(String partitionName) {
+        // The statistics describe all messages ever seen, so expired partitions stay counted
+    }
+
+    /**
+     * Adds the statistics of previously stored messages, for example on startup
+     * before the engine is registered as a store listener. The messages are
+     * aggregated on parallel streams and the partial results merged.
+     *
+     * @param messages The archived messages.
+     */
+    public void backfill(Collection<Message> messages) {
+        Aggregates rebuilt = messages.parallelStream().collect(
+                () -> new Aggregates(trackedRecipients, longestKept), Aggregates::add, Aggregates::merge);
+        synchronized (aggregates) {
+            aggregates.merge(rebuilt);
+        }
+        stored.add(messages.size());
+    }
+
+    /**
+     * Adds the statistics of every message in a store.
+     *
+     * @param store The store to read.
+     * @throws IOException If the store cannot be read.
+     */
+    public void backfill(PartitionedMessageStore store) throws IOException {
+        backfill(store.readAll());
+    }
+
+    // --- Snapshots ---
+
+    /**
+     * Writes the statistics to a snapshot. The sketches are small and fixed in
+     * size, so this costs the same however many messages have been seen.
+     *
+     * @param out The snapshot being written.
+     * @throws IOException If the snapshot cannot be written.
+     */
+    void writeState(DataOutputStream out) throws IOException {
+        out.writeLong(sent.sum());
+        out.writeLong(stored.sum());
+        out.writeLong(deleted.sum());
+        synchronized (aggregates) {
+            for (long count : aggregates.lengthCounts) {
+                out.writeLong(count);
+            }
+            out.writeLong(aggregates.messages);
+            out.writeLong(aggregates.totalLength);
+            out.writeInt(aggregates.recipients.size());
+            List<RecipientCount> counters = new ArrayList<>();
+            aggregates.recipients.forEach((recipient, counter) -> counters.add(counter));
+            for (RecipientCount counter : counters) {
+                out.writeLong(counter.recipient);
+                out.writeLong(counter.count);
+                out.writeLong(counter.maxError);
+            }
+            out.writeInt(aggregates.longest.size());
+            for (Message message : aggregates.longest) {
+                SnapshotManager.writeString(out, message.toJson().toString());
+            }
+        }
+        List<String> users = new ArrayList<>(sendsByUser.keySet());
+        out.writeInt(users.size());
+        for (String user : users) {
+            SnapshotManager.writeString(out, user);
+            sendsByUser.get(user).writeTo(out);
+        }
+    }
+
+    /**
+     * Adds the statistics read back from a snapshot, the way {@link #backfill}
+     * adds those of an archive. Nothing is changed unless the whole state reads
+     * back cleanly.
+     *
+     * @param in The snapshot, positioned where {@link #writeState} started writing.
+     * @throws IllegalArgumentException If the state is damaged.
+     */
+    void readState(ByteBuffer in) {
+        try {
+            long sentCount = in.getLong();
+            long storedCount = in.getLong();
+            long deletedCount = in.getLong();
+            Aggregates restored = new Aggregates(trackedRecipients, longestKept);
+            for (int i = 0; i < restored.lengthCounts.length; i++) {
+                restored.lengthCounts[i] = in.getLong();
+            }
+            restored.messages = in.getLong();
+            restored.totalLength = in.getLong();
+            int recipientCount = in.getInt();
+            List<RecipientCount> counters = new ArrayList<>();
+            for (int i = 0; i < recipientCount; i++) {
+                counters.add(new RecipientCount(in.getLong(), in.getLong(), in.getLong()));
+            }
+            // Keep the largest counters if this engine tracks fewer recipients than the one that saved them
+            counters.sort(Comparator.comparingLong(RecipientCount::getCount).reversed());
+            for (RecipientCount counter : counters.subList(0, Math.min(trackedRecipients, counters.size()))) {
+                restored.recipients.put(counter.recipient, counter);
+            }
+            int longestCount = in.getInt();
+            for (int i = 0; i < longestCount; i++) {
+                restored.keepIfLongest(Message.fromJson(new JSONObject(SnapshotManager.readString(in))));
+            }
+            int userCount = in.getInt();
+            Map<String, HourlyCounts> hourly = new HashMap<>();
+            for (int i = 0; i < userCount; i++) {
+                hourly.put(SnapshotManager.readString(in), HourlyCounts.readFrom(in));
+            }
+
+            synchronized (aggregates) {
+                aggregates.merge(restored);
+            }
+            hourly.forEach((user, counts) -> sendsByUser.merge(user, counts, HourlyCounts::merge));
+            sent.add(sentCount);
+            stored.add(storedCount);
+            deleted.add(deletedCount);
+        } catch (BufferUnderflowException | JSONException e) {
+            throw new IllegalArgumentException("Saved statistics are damaged.", e);
+        }
+    }
+
+    // --- Queries ---
+
+    public long getSentCount() {
+        return sent.sum();
+    }
+
+    public long getStoredCount() {
+        return stored.sum();
+    }
+
+    public long getDeletedCount() {
+        return deleted.sum();
+    }
+
+    /**
+     * Returns the recipients that received the most messages, most first. Counts
+     * are estimates that may be too high by at most {@link RecipientCount#getMaxError()}.
+     *
+     * @param limit The most recipients to return.
+     * @return The top recipients.
+     */
+    public List<RecipientCount> getTopRecipients(int limit) {
+        List<RecipientCount> top = new ArrayList<>();
+        synchronized (aggregates) {
+            aggregates.recipients.forEach((recipient, counter) ->
+                    top.add(new RecipientCount(recipient, counter.count, counter.maxError)));
+        }
+        top.sort(Comparator.comparingLong(RecipientCount::getCount).reversed());
+        return top.size() > limit ? new ArrayList<>(top.subList(0, limit)) : top;
+    }
+
+    /**
+     * Returns the longest messages seen, longest first.
+     *
+     * @return The longest messages.
+     */
+    public List<Message> getLongestMessages() {
+        List<Message> longest = new ArrayList<>();
+        synchronized (aggregates) {
+            longest.addAll(aggregates.longest);
+        }
+        longest.sort(LONGEST_ORDER.reversed());
+        return longest;
+    }
+
+    /**
+     * Returns how many messages a user sent in each of the last 24 hours, oldest
+     * first; the last element is the current hour.
+     *
+     * @param username The sender.
+     * @return 24 hourly send counts.
+     */
+    public long[] getHourlySends(String username) {
+        HourlyCounts counts = sendsByUser.get(username);
+        return counts == null ? new long[HOURS_KEPT] : counts.snapshot(currentHour());
+    }
+
+    /**
+     * Returns how many messages have each length.
+     *
+     * @return Counts indexed by message length, 0 to 250.
+     */
+    public long[] getLengthHistogram() {
+        synchronized (aggregates) {
+            return aggregates.lengthCounts.clone();
+        }
+    }
+
+    /**
+     * Returns the exact length at the given percentile of all messages seen.
+     *
+     * @param percentile The percentile, between 0 and 100.
+     * @return The message length, or 0 if no messages were seen.
+     */
+    public int getLengthPercentile(double percentile) {
+        synchronized (aggregates) {
+            if (aggregates.messages == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * aggregates.messages));
+            long seen = 0;
+            for (int length = 0; length < aggregates.lengthCounts.length; length++) {
+                seen += aggregates.lengthCounts[length];
+                if (seen >= rank) {
+                    return length;
+                }
+            }
+            return MAX_MESSAGE_LENGTH;
+        }
+    }
+
+    public double getMeanLength() {
+        synchronized (aggregates) {
+            return aggregates.messages == 0 ? 0 : (double) aggregates.totalLength / aggregates.messages;
+        }
+    }
+
+    /**
+     * Returns a short multi-line summary for display.
+     *
+     * @return The summary text.
+     */
+    public String getSummary() {
+        StringBuilder summary = new StringBuilder();
+        summary.append("Messages sent: ").append(getSentCount())
+                .append("\nMessages stored: ").append(getStoredCount())
+                .append(String.format("%nMessage length: mean %.1f, median %d, 95th percentile %d, longest %d",
+                        getMeanLength(), getLengthPercentile(50), getLengthPercentile(95), getLengthPercentile(100)))
+                .append("\nTop recipients:");
+        for (RecipientCount top : getTopRecipients(5)) {
+            summary.append("\n  ").append(top.getRecipient()).append(": ").append(top.getCount());
+        }
+        return summary.toString();
+    }
+
+    private long currentHour() {
+        return clock.millis() / MILLIS_PER_HOUR;
+    }
+
+    /**
+     * An estimated message count for one recipient.
+     */
+    public static final class RecipientCount {
+        private final long recipient; // Packed with PhoneNumberCodec
+        private long count;
+        private long maxError;
+
+        RecipientCount(long recipient, long count, long maxError) {
+            this.recipient = recipient;
+            this.count = count;
+            this.maxError = maxError;
+        }
+
+        public String getRecipient() {
+            return PhoneNumberCodec.decode(recipient);
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Returns how much the count may overstate the real count.
+         *
+         * @return The largest possible overcount.
+         */
+        public long getMaxError() {
+            return maxError;
+        }
+    }
+
+    // --- Aggregates ---
+
+    private static final Comparator<Message> LONGEST_ORDER = Comparator
+            .comparingInt((Message message) -> length(message))
+            .thenComparing(Message::getMessageID, Comparator.nullsFirst(Comparator.naturalOrder()));
+
+    private static int length(Message message) {
+        String content = message.getMessageContent();
+        return content == null ? 0 : content.length();
+    }
+
+    /**
+     * The mergeable part of the statistics. Not thread-safe on its own.
+     */
+    private static final class Aggregates {
+        private final int trackedRecipients;
+        private final int longestKept;
+        final long[] lengthCounts = new long[MAX_MESSAGE_LENGTH + 1];
+        long messages;
+        long totalLength;
+        // Space-Saving sketch: at most trackedRecipients counters, keyed by packed recipient number
+        final LongHashMap<RecipientCount> recipients;
+        final PriorityQueue<Message> longest = new PriorityQueue<>(LONGEST_ORDER);
+
+        Aggregates(int trackedRecipients, int longestKept) {
+            this.trackedRecipients = trackedRecipients;
+            this.longestKept = longestKept;
+            this.recipients = new LongHashMap<>(trackedRecipients);
+        }
+
+        void add(Message message) {
+            int length = length(message);
+            lengthCounts[Math.min(length, MAX_MESSAGE_LENGTH)]++;
+            messages++;
+            totalLength += length;
+            countRecipient(PhoneNumberCodec.encode(message.getRecipientCell()));
+            keepIfLongest(message);
+        }
+
+        private void countRecipient(long recipient) {
+            if (recipient == PhoneNumberCodec.NOT_A_NUMBER) {
+                return; // Free-text recipients from old archives are not ranked
+            }
+            RecipientCount counter = recipients.get(recipient);
+            if (counter != null) {
+                counter.count++;
+            } else if (recipients.size() < trackedRecipients) {
+                recipients.put(recipient, new RecipientCount(recipient, 1, 0));
+            } else {
+                // Replace the smallest counter; the newcomer inherits its count as possible error
+                RecipientCount smallest = smallestRecipient();
+                recipients.remove(smallest.recipient);
+                recipients.put(recipient, new RecipientCount(recipient, smallest.count + 1, smallest.count));
+            }
+        }
+
+        private RecipientCount smallestRecipient() {
+            RecipientCount[] smallest = new RecipientCount[1];
+            recipients.forEach((recipient, counter) -> {
+                if (smallest[0] == null || counter.count < smallest[0].count) {
+                    smallest[0] = counter;
+                }
+            });
+            return smallest[0];
+        }
+
+        private void keepIfLongest(Message message) {
+            if (longest.size() < longestKept) {
+                longest.add(message);
+            } else if (longestKept > 0 && LONGEST_ORDER.compare(message, longest.peek()) > 0) {
+                longest.poll();
+                longest.add(message);
+            }
+        }
+
+        /**
+         * Merges another set of aggregates into this one. A recipient missing from
+         * a full sketch may have had up to that sketch's smallest count, so that
+         * amount is added to both its count and its error.
+         */
+        Aggregates merge(Aggregates other) {
+            for (int i = 0; i < lengthCounts.length; i++) {
+                lengthCounts[i] += other.lengthCounts[i];
+            }
+            messages += other.messages;
+            totalLength += other.totalLength;
+
+            long thisFloor = recipients.size() < trackedRecipients ? 0 : smallestRecipient().count;
+            long otherFloor = other.recipients.size() < other.trackedRecipients ? 0 : other.smallestRecipient().count;
+            List<RecipientCount> ranked = new ArrayList<>();
+            recipients.forEach((recipient, mine) -> {
+                RecipientCount theirs = other.recipients.get(recipient);
+                ranked.add(theirs == null
+                        ? new RecipientCount(recipient, mine.count + otherFloor, mine.maxError + otherFloor)
+                        : new RecipientCount(recipient, mine.count + theirs.count, mine.maxError + theirs.maxError));
+            });
+            other.recipients.forEach((recipient, theirs) -> {
+                if (!recipients.containsKey(recipient)) {
+                    ranked.add(new RecipientCount(recipient, theirs.count + thisFloor, theirs.maxError + thisFloor));
+                }
+            });
+            ranked.sort(Comparator.comparingLong(RecipientCount::getCount).reversed());
+            recipients.clear();
+            for (RecipientCount counter : ranked.subList(0, Math.min(trackedRecipients, ranked.size()))) {
+                recipients.put(counter.recipient, counter);
+            }
+
+            for (Message message : other.longest) {
+                keepIfLongest(message);
+            }
+            return this;
+        }
+    }
+
+    /**
+     * Send counts for the last 24 hours, kept in a ring indexed by hour.
+     */
+    private static final class HourlyCounts {
+        private final long[] hours = new long[HOURS_KEPT];
+        private final long[] counts = new long[HOURS_KEPT];
+
+        synchronized void increment(long hour) {
+            int slot = (int) (hour % HOURS_KEPT);
+            if (hours[slot] != hour) {
+                hours[slot] = hour; // The slot last held a day-old hour
+                counts[slot] = 0;
+            }
+            counts[slot]++;
+        }
+
+        synchronized void writeTo(DataOutputStream out) throws IOException {
+            for (int i = 0; i < HOURS_KEPT; i++) {
+                out.writeLong(hours[i]);
+                out.writeLong(counts[i]);
+            }
+        }
+
+        static HourlyCounts readFrom(ByteBuffer in) {
+            HourlyCounts restored = new HourlyCounts();
+            for (int i = 0; i < HOURS_KEPT; i++) {
+                restored.hours[i] = in.getLong();
+                restored.counts[i] = in.getLong();
+            }
+            return restored;
+        }
+
+        /**
+         * Adds another ring's counts, keeping the newer hour where the two disagree.
+         */
+        HourlyCounts merge(HourlyCounts other) {
+            synchronized (this) {
+                for (int slot = 0; slot < HOURS_KEPT; slot++) {
+                    if (other.hours[slot] == hours[slot]) {
+                        counts[slot] += other.counts[slot];
+                    } else if (other.hours[slot] > hours[slot]) {
+                        hours[slot] = other.hours[slot];
+                        counts[slot] = other.counts[slot];
+                    }
+                }
+            }
+            return this;
+        }
+
+        synchronized long[] snapshot(long currentHour) {
+            long[] result = new long[HOURS_KEPT];
+            for (int i = 0; i < HOURS_KEPT; i++) {
+                long hour = currentHour - (HOURS_KEPT - 1) + i;
+                int slot = (int) (hour % HOURS_KEPT);
+                result[i] = hours[slot] == hour ? counts[slot] : 0;
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,302 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.ice.poe;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A read-through cache of stored messages keyed by MessageID, placed in front of
+ * a {@link MessageStore}, partitioned or sharded, so that repeated reads of the
+ * same message do not re-read partition files.
+ *
+ * The cache is bounded both by entry count and by an estimate of the bytes the
+ * cached messages use. Eviction uses a segmented LRU: new entries start in a
+ * probationary segment and are only promoted to the protected segment when they
+ * are read again. A one-off scan over many messages therefore only churns the
+ * probationary segment and does not push out the hot messages.
+ *
+ * The cache registers itself as a listener on the store, and drops entries when
+ * a message is stored again, deleted, or its partition is dropped. A message
+ * whose time to live has run out is dropped when it is next read, and is not
+ * returned even though the store keeps it until it is purged.
+ *
+ * @author Simphiwe Jijana
+ */
+public final class MessageCache implements MessageStoreListener {
+
+    private static final double PROTECTED_SHARE = 0.8;
+
+    private final MessageStore store;
+    private final Clock clock;
+    private final int maxEntries;
+    private final long maxBytes;
+
+    // Insertion-ordered probationary segment and access-ordered protected segment; the eldest entry is evicted first
+    private final LinkedHashMap<String, Entry> probation = new LinkedHashMap<>(16, 0.75f, false);
+    private final LinkedHashMap<String, Entry> protectedSegment = new LinkedHashMap<>(16, 0.75f, true);
+    private long probationBytes;
+    private long protectedBytes;
+    // Loads in progress; an invalidation removes the key so a slow load cannot re-insert a stale message
+    private final HashMap<String, Object> loading = new HashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LatencyHistogram hitLatency = new LatencyHistogram();
+    private final LatencyHistogram missLatency = new LatencyHistogram();
+
+    /**
+     * Creates a cache in front of a store and registers it for store updates.
+     *
+     * @param store The store to read through to.
+     * @param maxEntries The most messages kept in the cache.
+     * @param maxBytes The most estimated bytes kept in the cache.
+     */
+    public MessageCache(MessageStore store, int maxEntries, long maxBytes) {
+        this(store, maxEntries, maxBytes, Clock.systemUTC());
+    }
+
+    /**
+     * Creates a cache in front of a store and registers it for store updates.
+     *
+     * @param store The store to read through to.
+     * @param maxEntries The most messages kept in the cache.
+     * @param maxBytes The most estimated bytes kept in the cache.
+     * @param clock The clock used to leave out expired messages.
+     */
+    public MessageCache(MessageStore store, int maxEntries, long maxBytes, Clock clock) {
+        this.store = store;
+        this.clock = clock;
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        store.addListener(this);
+    }
+
+    /**
+     * Returns a stored message, reading it from the store on a cache miss.
+     *
+     * @param messageId The ID of the message.
+     * @return The message, or null if it is not in the store or has expired.
+     * @throws IOException If the store cannot be read.
+     */
+    public Message get(String messageId) throws IOException {
+        long start = System.nanoTime();
+        long now = clock.millis();
+        Message cached = lookup(messageId, now);
+        if (cached != null) {
+            hits.increment();
+            hitLatency.record(System.nanoTime() - start);
+            return cached;
+        }
+        misses.increment();
+        Object loadToken = beginLoad(messageId);
+        Message loaded = store.findById(messageId); // Read outside the lock so other readers are not blocked
+        if (loaded != null && loaded.expiresAtMillis() <= now) {
+            loaded = null; // Kept in the store until it is purged, but no longer readable
+        }
+        finishLoad(messageId, loaded, loadToken);
+        missLatency.record(System.nanoTime() - start);
+        return loaded;
+    }
+
+    /**
+     * Removes one message from the cache.
+     *
+     * @param messageId The ID of the message.
+     */
+    public synchronized void invalidate(String messageId) {
+        loading.remove(messageId);
+        Entry entry = probation.remove(messageId);
+        if (entry != null) {
+            probationBytes -= entry.bytes;
+        }
+        entry = protectedSegment.remove(messageId);
+        if (entry != null) {
+            protectedBytes -= entry.bytes;
+        }
+    }
+
+    /**
+     * Removes every message from the cache.
+     */
+    public synchronized void invalidateAll() {
+        loading.clear();
+        probation.clear();
+        protectedSegment.clear();
+        probationBytes = 0;
+        protectedBytes = 0;
+    }
+
+    @Override
+    public void onStored(Message message) {
+        invalidate(message.getMessageID());
+    }
+
+    @Override
+    public void onDeleted(String messageId) {
+        invalidate(messageId);
+    }
+
+    @Override
+    public void onPartitionDropped(String partitionName) {
+        // Retention runs rarely, so clearing is cheaper than tracking the partition of every entry
+        invalidateAll();
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    public LatencyHistogram getHitLatency() {
+        return hitLatency;
+    }
+
+    public LatencyHistogram getMissLatency() {
+        return missLatency;
+    }
+
+    public synchronized int size() {
+        return probation.size() + protectedSegment.size();
+    }
+
+    public synchronized long getEstimatedBytes() {
+        return probationBytes + protectedBytes;
+    }
+
+    /**
+     * Returns a one-line summary of the cache counters and read latency.
+     *
+     * @return The cache statistics.
+     */
+    public String getStatistics() {
+        long h = getHitCount();
+        long m = getMissCount();
+        return String.format("hits=%d misses=%d hitRate=%.1f%% evictions=%d entries=%d bytes=%d "
+                + "hitP50=%.1fus missP50=%.1fus",
+                h, m, h + m == 0 ? 0 : 100.0 * h / (h + m), getEvictionCount(), size(), getEstimatedBytes(),
+                hitLatency.getPercentileNanos(50) / 1e3, missLatency.getPercentileNanos(50) / 1e3);
+    }
+
+    // --- Segmented LRU ---
+
+    private synchronized Message lookup(String messageId, long now) {
+        Entry entry = protectedSegment.get(messageId); // Refreshes its position in the access order
+        if (entry != null) {
+            if (entry.message.expiresAtMillis() <= now) {
+                protectedSegment.remove(messageId);
+                protectedBytes -= entry.bytes;
+                return null;
+            }
+            return entry.message;
+        }
+        entry = probation.remove(messageId);
+        if (entry == null) {
+            return null;
+        }
+        probationBytes -= entry.bytes;
+        if (entry.message.expiresAtMillis() <= now) {
+            return null;
+        }
+        // Second read: promote to the protected segment
+        protectedSegment.put(messageId, entry);
+        protectedBytes += entry.bytes;
+        demoteOverflow();
+        return entry.message;
+    }
+
+    private synchronized Object beginLoad(String messageId) {
+        Object token = new Object();
+        loading.put(messageId, token);
+        return token;
+    }
+
+    private synchronized void finishLoad(String messageId, Message message, Object loadToken) {
+        if (loading.get(messageId) != loadToken) {
+            return; // Invalidated (or loaded again) while this load was reading the store
+        }
+        loading.remove(messageId);
+        if (message == null) {
+            return;
+        }
+        if (probation.containsKey(messageId) || protectedSegment.containsKey(messageId)) {
+            return; // Another reader loaded it first
+        }
+        Entry entry = new Entry(message);
+        probation.put(messageId, entry);
+        probationBytes += entry.bytes;
+        evictOverflow();
+    }
+
+    /**
+     * Moves the least recently used protected entries back to probation while the
+     * protected segment is over its share of the cache.
+     */
+    private void demoteOverflow() {
+        int protectedEntryLimit = (int) (maxEntries * PROTECTED_SHARE);
+        long protectedByteLimit = (long) (maxBytes * PROTECTED_SHARE);
+        Iterator<Map.Entry<String, Entry>> eldest = protectedSegment.entrySet().iterator();
+        while (eldest.hasNext() && (protectedSegment.size() > protectedEntryLimit || protectedBytes > protectedByteLimit)) {
+            Map.Entry<String, Entry> demoted = eldest.next();
+            eldest.remove();
+            protectedBytes -= demoted.getValue().bytes;
+            probation.put(demoted.getKey(), demoted.getValue());
+            probationBytes += demoted.getValue().bytes;
+        }
+        evictOverflow();
+    }
+
+    private void evictOverflow() {
+        while (size() > maxEntries || probationBytes + protectedBytes > maxBytes) {
+            LinkedHashMap<String, Entry> victims = probation.isEmpty() ? protectedSegment : probation;
+            Iterator<Map.Entry<String, Entry>> eldest = victims.entrySet().iterator();
+            if (!eldest.hasNext()) {
+                return;
+            }
+            Entry evicted = eldest.next().getValue();
+            eldest.remove();
+            if (victims == probation) {
+                probationBytes -= evicted.bytes;
+            } else {
+                protectedBytes -= evicted.bytes;
+            }
+            evictions.increment();
+        }
+    }
+
+    /**
+     * A cached message and its estimated heap size.
+     */
+    private static final class Entry {
+        final Message message;
+        final long bytes;
+
+        Entry(Message message) {
+            this.message = message;
+            this.bytes = estimateBytes(message);
+        }
+    }
+
+    /**
+     * Roughly estimates the heap used by a cached message: its compact fields
+     * plus the cache entry and map node.
+     */
+    static long estimateBytes(Message message) {
+        return 40 + message.estimateHeapBytes();
+    }
+}
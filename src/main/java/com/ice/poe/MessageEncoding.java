@@ -0,0 +1,164 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.ice.poe;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Packs message fields into primitives and byte arrays, and unpacks them again.
+ * Shared by {@link Message} and {@link MessageTable} so that both use exactly the
+ * same compact layout.
+ *
+ * @author Simphiwe Jijana
+ */
+final class MessageEncoding {
+
+    /** Marks an ID that is not ten digits and is kept as text instead. */
+    static final long NO_ID = -1;
+    /** Marks a missing recipient, or one that is not "+" and digits and is kept as text instead. */
+    static final long NO_RECIPIENT = PhoneNumberCodec.NOT_A_NUMBER;
+    /** Marks a message without a derivable hash. */
+    static final int NO_HASH = Integer.MIN_VALUE;
+    /** Marks a message that never expires. */
+    static final long NO_EXPIRY = Long.MAX_VALUE;
+    /** Marks a message that has not been stored yet, so has no sequence number. Stores number from 1. */
+    static final long NO_SEQUENCE = 0;
+    /** Marks a message that has not been stored yet, so has no timestamp. */
+    static final long NO_TIMESTAMP = Long.MIN_VALUE;
+
+    private MessageEncoding() {
+    }
+
+    // --- Message ID ---
+
+    /**
+     * Packs a ten-digit message ID into a long.
+     *
+     * @return The ID as a number, or {@link #NO_ID} if it is not ten digits.
+     */
+    static long packId(String messageId) {
+        if (messageId == null || messageId.length() != 10) {
+            return NO_ID;
+        }
+        long value = 0;
+        for (int i = 0; i < 10; i++) {
+            char c = messageId.charAt(i);
+            if (c < '0' || c > '9') {
+                return NO_ID;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    static String formatId(long id) {
+        char[] digits = new char[10];
+        for (int i = 9; i >= 0; i--) {
+            digits[i] = (char) ('0' + id % 10);
+            id /= 10;
+        }
+        return new String(digits);
+    }
+
+    // --- Content ---
+
+    /**
+     * Returns true if every character fits in one Latin-1 byte.
+     */
+    static boolean isLatin1(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) > 0xFF) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Encodes content as Latin-1 when possible, which takes one byte per
+     * character, and as UTF-8 otherwise.
+     */
+    static byte[] encodeContent(String content) {
+        return content.getBytes(isLatin1(content) ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_8);
+    }
+
+    static String decodeContent(byte[] bytes, int offset, int length, boolean utf8) {
+        return new String(bytes, offset, length, utf8 ? StandardCharsets.UTF_8 : StandardCharsets.ISO_8859_1);
+    }
+
+    // --- Hash ---
+
+    /**
+     * Builds a message hash: the first two digits of the ID, the message index,
+     * and the first and last words of the content in capitals.
+     *
+     * @return The hash, or null if it cannot be built from these fields.
+     */
+    static String deriveHash(String messageId, int messageIndex, String messageContent) {
+        if (messageId == null || messageId.length() < 2 || messageContent == null) {
+            return null;
+        }
+        String trimmed = messageContent.trim();
+        if (trimmed.isEmpty()) {
+            return null;
+        }
+        // Same words as trim().split("\\s+"), found without a regular expression since hashes are rebuilt on every read
+        int firstEnd = 0;
+        while (firstEnd < trimmed.length() && !isRegexSpace(trimmed.charAt(firstEnd))) {
+            firstEnd++;
+        }
+        int lastStart = trimmed.length();
+        while (lastStart > 0 && !isRegexSpace(trimmed.charAt(lastStart - 1))) {
+            lastStart--;
+        }
+        String firstWord = trimmed.substring(0, firstEnd).toUpperCase();
+        String lastWord = firstEnd == trimmed.length() ? firstWord : trimmed.substring(lastStart).toUpperCase();
+        return new StringBuilder(messageId.length() + trimmed.length())
+                .append(messageId, 0, 2).append(':').append(messageIndex).append(':')
+                .append(firstWord).append(lastWord).toString();
+    }
+
+    /**
+     * Matches the characters of the regular expression class \\s.
+     */
+    private static boolean isRegexSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r';
+    }
+
+    /**
+     * Finds the message index a stored hash was built with, if the hash is
+     * exactly what {@link #deriveHash} builds from the other fields.
+     *
+     * @return The index, or {@link #NO_HASH} if the hash must be kept as text.
+     */
+    static int derivableIndex(String hash, String messageId, String messageContent) {
+        int first = hash.indexOf(':');
+        int second = first < 0 ? -1 : hash.indexOf(':', first + 1);
+        if (second < 0) {
+            return NO_HASH;
+        }
+        int index;
+        try {
+            index = Integer.parseInt(hash.substring(first + 1, second));
+        } catch (NumberFormatException e) {
+            return NO_HASH;
+        }
+        return hash.equals(deriveHash(messageId, index, messageContent)) ? index : NO_HASH;
+    }
+
+    // --- Footprint ---
+
+    /**
+     * Estimates the heap used by a string of the given length, assuming compact
+     * strings: object header and fields, plus the padded byte array.
+     */
+    static long stringBytes(String value) {
+        return value == null ? 0 : 24 + arrayBytes(value.length() * (isLatin1(value) ? 1 : 2));
+    }
+
+    static long arrayBytes(int length) {
+        return (16 + length + 7) & ~7L;
+    }
+}
@@ -0,0 +1,384 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.ice.poe;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Writes {@link Message} records as UTF-8 JSON straight into a reusable byte
+ * buffer, without building a {@code JSONObject} first.
+ *
+ * The output is byte for byte what {@code message.toJson().toString()} (compact
+ * mode) or {@code message.toJson().toString(4)} (pretty mode) produce: the same
+ * field order, the same escaping rules as {@code JSONObject.quote}, and null
+ * fields left out. Existing readers therefore parse it unchanged.
+ *
+ * The ID, recipient and Latin-1 content are written directly from the message's
+ * compact fields, so writing a record allocates nothing in the common case. A
+ * writer is not thread-safe; reuse one per thread or under a lock.
+ *
+ * @author Simphiwe Jijana
+ */
+public class MessageJsonWriter {
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] INDENT = "    ".getBytes(StandardCharsets.US_ASCII);
+
+    // Field names in the order JSONObject writes them
+    private static final byte[] MESSAGE = key("Message");
+    private static final byte[] NUM_MESSAGES_SENT = key("NumMessagesSent");
+    private static final byte[] RECIPIENT = key("Recipient");
+    private static final byte[] SEQUENCE = key("Sequence");
+    private static final byte[] MESSAGE_HASH = key("MessageHash");
+    private static final byte[] EXPIRES_AT = key("ExpiresAt");
+    private static final byte[] TIMESTAMP = key("Timestamp");
+    private static final byte[] MESSAGE_ID = key("MessageID");
+
+    private final boolean pretty;
+    private byte[] buffer = new byte[512];
+    private int count;
+    private int recordStart = -1;
+    private int fieldsInRecord;
+
+    /**
+     * Creates a writer.
+     *
+     * @param pretty True to indent each field on its own line, as {@code toString(4)} does.
+     */
+    public MessageJsonWriter(boolean pretty) {
+        this.pretty = pretty;
+    }
+
+    /**
+     * Appends one message record to the buffer.
+     *
+     * @param message The message to write.
+     * @return This writer.
+     */
+    public MessageJsonWriter write(Message message) {
+        recordStart = count;
+        fieldsInRecord = 0;
+        writeByte('{');
+
+        byte[] content = message.contentBytes();
+        if (content != null) {
+            beginField(MESSAGE);
+            if (message.isContentUtf8()) {
+                writeString(message.getMessageContent());
+            } else {
+                writeLatin1(content);
+            }
+        }
+
+        beginField(NUM_MESSAGES_SENT);
+        writeLong(message.getNumMessagesSent());
+
+        long recipient = message.packedRecipient();
+        if (recipient != PhoneNumberCodec.NOT_A_NUMBER) {
+            beginField(RECIPIENT);
+            writeByte('"');
+            writeByte('+');
+            writeDigits(PhoneNumberCodec.digitValue(recipient), PhoneNumberCodec.digitCount(recipient));
+            writeByte('"');
+        } else if (message.recipientText() != null) {
+            beginField(RECIPIENT);
+            writeString(message.recipientText());
+        }
+
+        if (message.getSequence() != MessageEncoding.NO_SEQUENCE) {
+            beginField(SEQUENCE);
+            writeLong(message.getSequence());
+        }
+
+        String hash = message.getMessageHash();
+        if (hash != null) {
+            beginField(MESSAGE_HASH);
+            writeString(hash);
+        }
+
+        long expiresAt = message.expiresAtMillis();
+        if (expiresAt != MessageEncoding.NO_EXPIRY) {
+            beginField(EXPIRES_AT);
+            writeLong(expiresAt);
+        }
+
+        long timestamp = message.timestampMillis();
+        if (timestamp != MessageEncoding.NO_TIMESTAMP) {
+            beginField(TIMESTAMP);
+            writeLong(timestamp);
+        }
+
+        long id = message.packedId();
+        if (id != MessageEncoding.NO_ID) {
+            beginField(MESSAGE_ID);
+            writeByte('"');
+            writeDigits(id, 10);
+            writeByte('"');
+        } else if (message.idText() != null) {
+            beginField(MESSAGE_ID);
+            writeString(message.idText());
+        }
+
+        if (pretty && fieldsInRecord == 1) {
+            collapseSingleField(recordStart);
+        } else if (pretty && fieldsInRecord > 1) {
+            writeByte('\n');
+        }
+        writeByte('}');
+        return this;
+    }
+
+    /**
+     * Adds a CRC32C checksum field to the record just written, covering the
+     * record as written so far. See {@link RecordChecksum}.
+     *
+     * @return This writer.
+     * @throws IllegalStateException If no record was just written, or the writer is in pretty mode.
+     */
+    public MessageJsonWriter appendChecksum() {
+        if (pretty || recordStart < 0 || count == 0 || buffer[count - 1] != '}') {
+            throw new IllegalStateException("A checksum can only follow a compact record.");
+        }
+        int checksum = RecordChecksum.compute(buffer, recordStart, count - recordStart);
+        ensure(RecordChecksum.SUFFIX_LENGTH);
+        count = RecordChecksum.writeSuffix(checksum, buffer, count - 1); // Replaces the closing brace
+        recordStart = -1;
+        return this;
+    }
+
+    /**
+     * Appends a line break, for example between NDJSON records.
+     *
+     * @return This writer.
+     */
+    public MessageJsonWriter newLine() {
+        recordStart = -1;
+        writeByte('\n');
+        return this;
+    }
+
+    /**
+     * Empties the buffer so the writer can be reused. The buffer keeps its size.
+     */
+    public void reset() {
+        count = 0;
+        recordStart = -1;
+    }
+
+    /**
+     * Returns the number of bytes written since the last reset.
+     *
+     * @return The buffer length in bytes.
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Copies the buffered bytes to a stream.
+     *
+     * @param out The stream to write to.
+     * @throws IOException If the stream cannot be written.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(buffer, 0, count);
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, count);
+    }
+
+    @Override
+    public String toString() {
+        return new String(buffer, 0, count, StandardCharsets.UTF_8);
+    }
+
+    // --- Structure ---
+
+    private void beginField(byte[] key) {
+        if (fieldsInRecord > 0) {
+            writeByte(',');
+        }
+        if (pretty) {
+            writeByte('\n');
+            writeBytes(INDENT);
+        }
+        writeBytes(key);
+        writeByte(':');
+        if (pretty) {
+            writeByte(' ');
+        }
+        fieldsInRecord++;
+    }
+
+    /**
+     * JSONObject writes an object with a single field on one line, without the
+     * line break and indent.
+     */
+    private void collapseSingleField(int recordStart) {
+        int fieldStart = recordStart + 1 + 1 + INDENT.length;
+        int fieldLength = count - fieldStart;
+        System.arraycopy(buffer, fieldStart, buffer, recordStart + 1, fieldLength);
+        count = recordStart + 1 + fieldLength;
+    }
+
+    private static byte[] key(String name) {
+        return ("\"" + name + "\"").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    // --- Values ---
+
+    private void writeLong(long value) {
+        if (value < 0) {
+            writeByte('-');
+            if (value == Long.MIN_VALUE) {
+                writeBytes("9223372036854775808".getBytes(StandardCharsets.US_ASCII));
+                return;
+            }
+            value = -value;
+        }
+        int digits = 1;
+        for (long rest = value / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        writeDigits(value, digits);
+    }
+
+    /**
+     * Writes a number as exactly the given number of digits, with leading zeros.
+     */
+    private void writeDigits(long value, int digits) {
+        ensure(digits);
+        for (int i = count + digits - 1; i >= count; i--) {
+            buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        count += digits;
+    }
+
+    /**
+     * Writes a quoted string from Latin-1 bytes, where each byte is one character.
+     */
+    private void writeLatin1(byte[] text) {
+        ensure(text.length * 2 + 2);
+        buffer[count++] = '"';
+        int previous = 0;
+        for (byte b : text) {
+            int c = b & 0xFF;
+            if (c >= 0xA0) {
+                // Two-byte UTF-8 sequence
+                ensure(2);
+                buffer[count++] = (byte) (0xC0 | (c >> 6));
+                buffer[count++] = (byte) (0x80 | (c & 0x3F));
+            } else if (needsEscape(c, previous)) {
+                writeEscape(c);
+            } else {
+                ensure(1);
+                buffer[count++] = (byte) c;
+            }
+            previous = c;
+        }
+        writeByte('"');
+    }
+
+    /**
+     * Writes a quoted string, escaping as {@code JSONObject.quote} does and
+     * encoding the rest as UTF-8.
+     */
+    private void writeString(String text) {
+        ensure(text.length() + 2);
+        buffer[count++] = '"';
+        int previous = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (needsEscape(c, previous)) {
+                writeEscape(c);
+            } else if (c < 0x80) {
+                ensure(1);
+                buffer[count++] = (byte) c;
+            } else if (c < 0x800) {
+                ensure(2);
+                buffer[count++] = (byte) (0xC0 | (c >> 6));
+                buffer[count++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                ensure(4);
+                buffer[count++] = (byte) (0xF0 | (codePoint >> 18));
+                buffer[count++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buffer[count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buffer[count++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                writeByte('?'); // Unpaired surrogate, replaced as String.getBytes(UTF_8) does
+            } else {
+                ensure(3);
+                buffer[count++] = (byte) (0xE0 | (c >> 12));
+                buffer[count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[count++] = (byte) (0x80 | (c & 0x3F));
+            }
+            previous = c;
+        }
+        writeByte('"');
+    }
+
+    private static boolean needsEscape(int c, int previous) {
+        return c == '"' || c == '\\' || (c == '/' && previous == '<') || c < ' '
+                || (c >= 0x80 && c < 0xA0) || (c >= 0x2000 && c < 0x2100);
+    }
+
+    private void writeEscape(int c) {
+        ensure(6);
+        buffer[count++] = '\\';
+        switch (c) {
+            case '"':
+            case '\\':
+            case '/':
+                buffer[count++] = (byte) c;
+                break;
+            case '\b':
+                buffer[count++] = 'b';
+                break;
+            case '\t':
+                buffer[count++] = 't';
+                break;
+            case '\n':
+                buffer[count++] = 'n';
+                break;
+            case '\f':
+                buffer[count++] = 'f';
+                break;
+            case '\r':
+                buffer[count++] = 'r';
+                break;
+            default:
+                buffer[count++] = 'u';
+                buffer[count++] = HEX[(c >> 12) & 0xF];
+                buffer[count++] = HEX[(c >> 8) & 0xF];
+                buffer[count++] = HEX[(c >> 4) & 0xF];
+                buffer[count++] = HEX[c & 0xF];
+        }
+    }
+
+    // --- Buffer ---
+
+    private void writeByte(int b) {
+        ensure(1);
+        buffer[count++] = (byte) b;
+    }
+
+    private void writeBytes(byte[] bytes) {
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, buffer, count, bytes.length);
+        count += bytes.length;
+    }
+
+    private void ensure(int extra) {
+        if (count + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(count + extra, buffer.length * 2));
+        }
+    }
+}
@@ -0,0 +1,395 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.ice.poe;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Holds messages that should be sent at a later time and hands them to the
+ * send path once they are due.
+ *
+ * Pending sends live in a {@link HierarchicalTimerWheel}, so scheduling and
+ * cancelling cost the same with a million sends pending as with one, and a
+ * single driver thread serves them all: there is no thread or executor task per
+ * message. Each tick, every send that fell due is handed to the
+ * {@link DeliveryHandler} in batches.
+ *
+ * The schedule is journaled the way the {@link Outbox} journals its queue:
+ * every schedule, cancel and completed send is appended to a journal before it
+ * takes effect, and the journal is replayed and compacted on startup, so pending
+ * sends survive a restart. Sends that came due while the application was down
+ * go out on the first tick.
+ *
+ * @author Simphiwe Jijana
+ */
+public class MessageScheduler implements AutoCloseable {
+
+    /**
+     * Receives the sends that fell due. A batch that throws is tried again after
+     * the retry delay.
+     */
+    public interface DeliveryHandler {
+
+        void deliver(List<ScheduledSend> batch) throws IOException;
+    }
+
+    private final DeliveryHandler handler;
+    private final Options options;
+    private final Clock clock;
+    private final Path journalPath;
+    private final HierarchicalTimerWheel<ScheduledSend> wheel;
+    private final LongHashMap<HierarchicalTimerWheel.Timeout<ScheduledSend>> pending = new LongHashMap<>();
+    private long nextId;
+
+    private final LongAdder dispatched = new LongAdder();
+    private final LongAdder failedBatches = new LongAdder();
+
+    private BufferedWriter journal;
+    private long journalRecords; // Records written since the journal was last compacted
+    private Thread driver;
+    private volatile boolean closed;
+
+    /**
+     * Creates a scheduler and reloads the sends still pending in its journal.
+     * Call {@link #start()} to begin dispatching.
+     *
+     * @param handler Receives the sends once they are due.
+     * @param options The journal, tick and batch options.
+     * @throws IOException If the journal cannot be read or written.
+     */
+    public MessageScheduler(DeliveryHandler handler, Options options) throws IOException {
+        this.handler = handler;
+        this.options = options;
+        this.clock = options.clock;
+        this.journalPath = Paths.get(options.journalPath);
+        this.wheel = new HierarchicalTimerWheel<>(options.tick.toMillis(), clock.millis());
+        recoverJournal();
+    }
+
+    /**
+     * Schedules a message to be sent at the given time.
+     *
+     * @param sender The user sending the message.
+     * @param message The message to send.
+     * @param sendAt When to send it. A time in the past sends it on the next tick.
+     * @return The ID of the scheduled send, for {@link #cancel(long)}.
+     * @throws IOException If the send cannot be journaled.
+     */
+    public synchronized long schedule(String sender, Message message, Instant sendAt) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("The scheduler is closed.");
+        }
+        ScheduledSend send = new ScheduledSend(nextId++, sender, message, sendAt.toEpochMilli());
+        JSONObject record = new JSONObject();
+        record.put("Op", "SCHEDULE");
+        record.put("Id", send.id);
+        record.put("SendAt", send.sendAtMillis);
+        record.put("Sender", sender);
+        record.put("Record", message.toJson());
+        writeJournal(record);
+        pending.put(send.id, wheel.schedule(send, send.sendAtMillis));
+        return send.id;
+    }
+
+    /**
+     * Cancels a scheduled send that has not been handed over yet.
+     *
+     * @param id The ID returned by {@link #schedule}.
+     * @return True if the send was pending and is now cancelled.
+     * @throws IOException If the cancellation cannot be journaled.
+     */
+    public synchronized boolean cancel(long id) throws IOException {
+        HierarchicalTimerWheel.Timeout<ScheduledSend> timeout = pending.get(id);
+        if (timeout == null || !timeout.isPending()) {
+            return false; // Unknown, or already being handed over
+        }
+        writeJournal(finishRecord("CANCEL", id));
+        wheel.cancel(timeout);
+        pending.remove(id);
+        return true;
+    }
+
+    /**
+     * Hands every send that is due to the handler, in batches. The driver thread
+     * calls this once per tick; it can also be called directly.
+     *
+     * @return The number of sends handed over.
+     */
+    public int dispatchDue() {
+        List<ScheduledSend> due = new ArrayList<>();
+        synchronized (this) {
+            wheel.advanceTo(clock.millis(), due);
+        }
+        int handed = 0;
+        for (int from = 0; from < due.size(); from += options.maxBatch) {
+            List<ScheduledSend> batch = due.subList(from, Math.min(due.size(), from + options.maxBatch));
+            try {
+                handler.deliver(batch);
+                complete(batch);
+                handed += batch.size();
+            } catch (IOException | RuntimeException e) {
+                failedBatches.increment();
+                retryLater(batch);
+            }
+        }
+        return handed;
+    }
+
+    /**
+     * Starts the driver thread, which dispatches due sends once per tick until
+     * the scheduler is closed.
+     */
+    public synchronized void start() {
+        if (driver != null) {
+            return;
+        }
+        driver = new Thread(this::driverLoop, "message-scheduler");
+        driver.setDaemon(true);
+        driver.start();
+    }
+
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    public long getDispatchedCount() {
+        return dispatched.sum();
+    }
+
+    public long getFailedBatchCount() {
+        return failedBatches.sum();
+    }
+
+    /**
+     * Stops the driver thread. Sends that were not handed over stay in the
+     * journal and are picked up by the next scheduler opened on it.
+     *
+     * @throws IOException If the journal cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        Thread running;
+        synchronized (this) {
+            running = driver;
+        }
+        if (running != null) {
+            running.interrupt();
+            try {
+                running.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            journal.close();
+        }
+    }
+
+    // --- Dispatch ---
+
+    private void driverLoop() {
+        long tickMillis = options.tick.toMillis();
+        while (!closed) {
+            dispatchDue();
+            try {
+                Thread.sleep(tickMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private synchronized void complete(List<ScheduledSend> batch) {
+        for (ScheduledSend send : batch) {
+            pending.remove(send.id);
+            dispatched.increment();
+            try {
+                writeJournal(finishRecord("DONE", send.id));
+            } catch (IOException e) {
+                // The send is repeated after a restart; delivery is at-least-once
+            }
+        }
+        compactIfNeeded();
+    }
+
+    private synchronized void retryLater(List<ScheduledSend> batch) {
+        long retryAt = clock.millis() + options.retryDelay.toMillis();
+        for (ScheduledSend send : batch) {
+            if (!closed) {
+                pending.put(send.id, wheel.schedule(send, retryAt));
+            }
+        }
+    }
+
+    // --- Journal ---
+
+    private static JSONObject finishRecord(String op, long id) {
+        JSONObject record = new JSONObject();
+        record.put("Op", op);
+        record.put("Id", id);
+        return record;
+    }
+
+    private void writeJournal(JSONObject record) throws IOException {
+        journal.write(record.toString());
+        journal.newLine();
+        journal.flush();
+        journalRecords++;
+    }
+
+    /**
+     * Finished sends leave two records behind in the journal. Once they outweigh
+     * the pending ones, the journal is rewritten with just the pending sends.
+     */
+    private void compactIfNeeded() {
+        if (journalRecords < options.compactAfter || journalRecords < 2L * pending.size()) {
+            return;
+        }
+        List<ScheduledSend> live = new ArrayList<>(pending.size());
+        pending.forEach((id, timeout) -> live.add(timeout.getPayload()));
+        try {
+            journal.close();
+            rewriteJournal(live);
+        } catch (IOException e) {
+            try {
+                journal = Files.newBufferedWriter(journalPath, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            } catch (IOException reopenError) {
+                throw new IllegalStateException("Scheduler journal cannot be reopened: " + journalPath, reopenError);
+            }
+        }
+    }
+
+    /**
+     * Replays the journal to find sends that were scheduled but never finished,
+     * rewrites it with just those sends and puts them back on the wheel.
+     */
+    private void recoverJournal() throws IOException {
+        Map<Long, ScheduledSend> unfinished = new LinkedHashMap<>();
+        if (Files.exists(journalPath)) {
+            try (BufferedReader reader = Files.newBufferedReader(journalPath, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    try {
+                        JSONObject record = new JSONObject(line);
+                        long id = record.getLong("Id");
+                        nextId = Math.max(nextId, id + 1);
+                        if ("SCHEDULE".equals(record.getString("Op"))) {
+                            unfinished.put(id, new ScheduledSend(id, record.optString("Sender", null),
+                                    Message.fromJson(record.getJSONObject("Record")), record.getLong("SendAt")));
+                        } else {
+                            unfinished.remove(id);
+                        }
+                    } catch (JSONException e) {
+                        // A torn final line from a crash; everything before it is intact
+                    }
+                }
+            }
+        }
+        List<ScheduledSend> live = new ArrayList<>(unfinished.values());
+        rewriteJournal(live);
+        for (ScheduledSend send : live) {
+            pending.put(send.id, wheel.schedule(send, send.sendAtMillis));
+        }
+    }
+
+    private void rewriteJournal(List<ScheduledSend> live) throws IOException {
+        Path compacted = journalPath.resolveSibling(journalPath.getFileName() + ".tmp");
+        journal = Files.newBufferedWriter(compacted, StandardCharsets.UTF_8);
+        journalRecords = 0;
+        for (ScheduledSend send : live) {
+            JSONObject record = new JSONObject();
+            record.put("Op", "SCHEDULE");
+            record.put("Id", send.id);
+            record.put("SendAt", send.sendAtMillis);
+            record.put("Sender", send.sender);
+            record.put("Record", send.message.toJson());
+            writeJournal(record);
+        }
+        journal.close();
+        Files.move(compacted, journalPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        journal = Files.newBufferedWriter(journalPath, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * A message waiting to be sent, with who is sending it and when.
+     */
+    public static final class ScheduledSend {
+        private final long id;
+        private final String sender;
+        private final Message message;
+        private final long sendAtMillis;
+
+        ScheduledSend(long id, String sender, Message message, long sendAtMillis) {
+            this.id = id;
+            this.sender = sender;
+            this.message = message;
+            this.sendAtMillis = sendAtMillis;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public String getSender() {
+            return sender;
+        }
+
+        public Message getMessage() {
+            return message;
+        }
+
+        public Instant getSendAt() {
+            return Instant.ofEpochMilli(sendAtMillis);
+        }
+    }
+
+    /**
+     * Options for a scheduler. Every setter returns this object so that options
+     * can be chained.
+     */
+    public static final class Options {
+        private String journalPath = "scheduled.journal";
+        private Duration tick = Duration.ofMillis(100);
+        private int maxBatch = 500;
+        private Duration retryDelay = Duration.ofSeconds(30);
+        private long compactAfter = 100_000;
+        private Clock clock = Clock.systemUTC();
+
+        public Options journalPath(String path) { this.journalPath = path; return this; }
+        public Options maxBatch(int sends) { this.maxBatch = sends; return this; }
+        public Options retryDelay(Duration delay) { this.retryDelay = delay; return this; }
+        public Options clock(Clock clock) { this.clock = clock; return this; }
+
+        /**
+         * The timer resolution: sends go out within one tick of their time.
+         */
+        public Options tick(Duration tick) { this.tick = tick; return this; }
+
+        /**
+         * How many journal records may pile up before finished sends are
+         * compacted away.
+         */
+        public Options compactAfter(long records) { this.compactAfter = records; return this; }
+    }
+}
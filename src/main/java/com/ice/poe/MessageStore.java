@@ -0,0 +1,93 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.ice.poe;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Stores messages and reads them back. Implemented by a single
+ * {@link PartitionedMessageStore} and by a {@link ShardedMessageStore} that
+ * spreads messages over several of them, so that senders such as the
+ * {@link QuickChatServer} and {@link BatchSender} work with either.
+ *
+ * @author Simphiwe Jijana
+ */
+public interface MessageStore extends AutoCloseable {
+
+    /**
+     * Stores a message. The message is given its sequence number and timestamp.
+     *
+     * @param message The message to store.
+     * @throws IOException If the record cannot be written.
+     */
+    void append(Message message) throws IOException;
+
+    /**
+     * Stores a batch of messages, in order.
+     *
+     * @param messages The messages to store.
+     * @throws IOException If a record cannot be written.
+     */
+    void appendAll(List<Message> messages) throws IOException;
+
+    /**
+     * Returns the stored messages whose partitions overlap a time range.
+     * Expired messages are left out.
+     *
+     * @param from The start of the range (inclusive).
+     * @param to The end of the range (exclusive).
+     * @return The stored messages, oldest first.
+     * @throws IOException If the store cannot be read.
+     */
+    List<Message> query(Instant from, Instant to) throws IOException;
+
+    /**
+     * Returns every stored message.
+     *
+     * @return All stored messages, oldest first.
+     * @throws IOException If the store cannot be read.
+     */
+    List<Message> readAll() throws IOException;
+
+    /**
+     * Finds a stored message by its ID.
+     *
+     * @param messageId The message ID to look for.
+     * @return The stored message, or null if it is not in the store.
+     * @throws IOException If the store cannot be read.
+     */
+    Message findById(String messageId) throws IOException;
+
+    /**
+     * Deletes a stored message.
+     *
+     * @param messageId The ID of the message to delete.
+     * @return True if the message was found and deleted.
+     * @throws IOException If the store cannot be updated.
+     */
+    boolean delete(String messageId) throws IOException;
+
+    /**
+     * Drops the stored messages older than the retention period.
+     *
+     * @param retention How long stored messages are kept.
+     * @return The number of partitions dropped.
+     * @throws IOException If the store cannot be updated.
+     */
+    int applyRetention(Duration retention) throws IOException;
+
+    /**
+     * Registers a listener for stores, deletes and dropped partitions.
+     *
+     * @param listener The listener to add.
+     */
+    void addListener(MessageStoreListener listener);
+
+    @Override
+    void close() throws IOException;
+}
@@ -0,0 +1,37 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Interface.java to edit this template
+ */
+package com.ice.poe;
+
+/**
+ * Receives notifications about changes to a {@link PartitionedMessageStore}, so
+ * that caches and indexes built on top of the store can stay up to date.
+ * Callbacks run on the writing thread while the store is locked and should be
+ * quick.
+ *
+ * @author Simphiwe Jijana
+ */
+public interface MessageStoreListener {
+
+    /**
+     * Called after a message has been appended to the store.
+     *
+     * @param message The stored message.
+     */
+    void onStored(Message message);
+
+    /**
+     * Called after a message has been deleted from the store.
+     *
+     * @param messageId The ID of the deleted message.
+     */
+    void onDeleted(String messageId);
+
+    /**
+     * Called after a whole partition has been dropped, for example by retention.
+     *
+     * @param partitionName The file name of the dropped partition.
+     */
+    void onPartitionDropped(String partitionName);
+}
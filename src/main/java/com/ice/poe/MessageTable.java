@@ -0,0 +1,236 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.ice.poe;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * An append-only list of messages stored column by column: one primitive array
+ * per field and a single shared byte array for all message contents. Holding a
+ * large number of messages this way costs a few dozen bytes per message plus
+ * the content, instead of one object per message and per string field.
+ *
+ * Rows are read back either field by field, which avoids creating a
+ * {@link Message}, or as a whole with {@link #get(int)}. The rare values that do
+ * not fit the compact columns (an ID that is not ten digits, a non-numeric
+ * recipient, a hash that cannot be derived) are kept in small side maps.
+ *
+ * The table is not thread-safe.
+ *
+ * @author Simphiwe Jijana
+ */
+public class MessageTable implements Iterable<Message> {
+
+    private static final int INITIAL_ROWS = 16;
+    private static final int MAX_CONTENT_BYTES = Integer.MAX_VALUE - 8; // Largest array most JVMs allow
+
+    private long[] ids = new long[INITIAL_ROWS];
+    private int[] numbers = new int[INITIAL_ROWS];
+    private long[] recipients = new long[INITIAL_ROWS];
+    private int[] hashIndexes = new int[INITIAL_ROWS];
+    private long[] sequences = new long[INITIAL_ROWS];
+    private long[] timestamps = new long[INITIAL_ROWS];
+    private int[] contentEnds = new int[INITIAL_ROWS]; // Row r's content runs from contentEnds[r - 1] to contentEnds[r]
+    private byte[] contents = new byte[INITIAL_ROWS * 64];
+    private final BitSet utf8Rows = new BitSet();
+    private final BitSet nullContentRows = new BitSet();
+    private final Map<Integer, String> idTexts = new HashMap<>();
+    private final Map<Integer, String> recipientTexts = new HashMap<>();
+    private final Map<Integer, String> hashTexts = new HashMap<>();
+    private final Map<Integer, Long> expiries = new HashMap<>(); // Only rows with a time to live
+    private int size;
+
+    /**
+     * Appends a message.
+     *
+     * @param message The message to add.
+     * @return The row number of the message.
+     */
+    public int add(Message message) {
+        if (size == ids.length) {
+            int capacity = size + (size >> 1);
+            ids = Arrays.copyOf(ids, capacity);
+            numbers = Arrays.copyOf(numbers, capacity);
+            recipients = Arrays.copyOf(recipients, capacity);
+            hashIndexes = Arrays.copyOf(hashIndexes, capacity);
+            sequences = Arrays.copyOf(sequences, capacity);
+            timestamps = Arrays.copyOf(timestamps, capacity);
+            contentEnds = Arrays.copyOf(contentEnds, capacity);
+        }
+        int row = size;
+        ids[row] = message.packedId();
+        numbers[row] = message.getNumMessagesSent();
+        recipients[row] = message.packedRecipient();
+        hashIndexes[row] = message.hashIndex();
+        sequences[row] = message.getSequence();
+        timestamps[row] = message.timestampMillis();
+        putIfPresent(idTexts, row, message.idText());
+        putIfPresent(recipientTexts, row, message.recipientText());
+        putIfPresent(hashTexts, row, message.hashText());
+        if (message.expiresAtMillis() != MessageEncoding.NO_EXPIRY) {
+            expiries.put(row, message.expiresAtMillis());
+        }
+
+        byte[] content = message.contentBytes();
+        int start = contentStart(row);
+        int length = content == null ? 0 : content.length;
+        if ((long) start + length > contents.length) {
+            long needed = Math.max((long) start + length, contents.length + (long) (contents.length >> 1));
+            if ((long) start + length > MAX_CONTENT_BYTES) {
+                throw new IllegalStateException("Message table is full: contents exceed " + MAX_CONTENT_BYTES + " bytes");
+            }
+            contents = Arrays.copyOf(contents, (int) Math.min(needed, MAX_CONTENT_BYTES));
+        }
+        if (content == null) {
+            nullContentRows.set(row);
+        } else {
+            System.arraycopy(content, 0, contents, start, length);
+        }
+        utf8Rows.set(row, message.isContentUtf8());
+        contentEnds[row] = start + length;
+        size++;
+        return row;
+    }
+
+    /**
+     * Returns a copy of the message in a row.
+     *
+     * @param row The row number.
+     * @return A message with the row's fields.
+     */
+    public Message get(int row) {
+        checkRow(row);
+        byte[] content = nullContentRows.get(row) ? null : Arrays.copyOfRange(contents, contentStart(row), contentEnds[row]);
+        Message message = new Message(ids[row], idTexts.get(row), numbers[row], recipients[row], recipientTexts.get(row),
+                content, utf8Rows.get(row), hashIndexes[row], hashTexts.get(row));
+        message.setExpiresAtMillis(expiries.getOrDefault(row, MessageEncoding.NO_EXPIRY));
+        message.stamp(sequences[row], timestamps[row]);
+        return message;
+    }
+
+    public String getMessageID(int row) {
+        checkRow(row);
+        return ids[row] != MessageEncoding.NO_ID ? MessageEncoding.formatId(ids[row]) : idTexts.get(row);
+    }
+
+    public int getNumMessagesSent(int row) {
+        checkRow(row);
+        return numbers[row];
+    }
+
+    public String getRecipientCell(int row) {
+        checkRow(row);
+        return recipients[row] != MessageEncoding.NO_RECIPIENT
+                ? PhoneNumberCodec.decode(recipients[row]) : recipientTexts.get(row);
+    }
+
+    public String getMessageContent(int row) {
+        checkRow(row);
+        if (nullContentRows.get(row)) {
+            return null;
+        }
+        int start = contentStart(row);
+        return MessageEncoding.decodeContent(contents, start, contentEnds[row] - start, utf8Rows.get(row));
+    }
+
+    public String getMessageHash(int row) {
+        checkRow(row);
+        String hashText = hashTexts.get(row);
+        if (hashText != null || hashIndexes[row] == MessageEncoding.NO_HASH) {
+            return hashText;
+        }
+        return MessageEncoding.deriveHash(getMessageID(row), hashIndexes[row], getMessageContent(row));
+    }
+
+    /**
+     * Returns the sequence number a message store gave the message in a row.
+     *
+     * @param row The row number.
+     * @return The sequence number, or 0 if the message had not been stored.
+     */
+    public long getSequence(int row) {
+        checkRow(row);
+        return sequences[row];
+    }
+
+    public Instant getTimestamp(int row) {
+        checkRow(row);
+        return timestamps[row] == MessageEncoding.NO_TIMESTAMP ? null : Instant.ofEpochMilli(timestamps[row]);
+    }
+
+    long expiresAtMillis(int row) {
+        checkRow(row);
+        return expiries.getOrDefault(row, MessageEncoding.NO_EXPIRY);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Estimates the heap used by the table's arrays and side maps.
+     *
+     * @return The estimated size in bytes.
+     */
+    public long estimateHeapBytes() {
+        long bytes = MessageEncoding.arrayBytes(ids.length * 8) * 4 // ids, recipients, sequences and timestamps
+                + MessageEncoding.arrayBytes(numbers.length * 4) * 3 // numbers, hash indexes and content ends
+                + MessageEncoding.arrayBytes(contents.length)
+                + 2L * (utf8Rows.size() / 8 + 16);
+        for (Map<Integer, String> side : Arrays.asList(idTexts, recipientTexts, hashTexts)) {
+            for (String value : side.values()) {
+                bytes += 64 + MessageEncoding.stringBytes(value); // Map node and boxed key
+            }
+        }
+        bytes += 80L * expiries.size(); // Map node, boxed key and boxed value
+        return bytes;
+    }
+
+    @Override
+    public Iterator<Message> iterator() {
+        return new Iterator<Message>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            @Override
+            public Message next() {
+                if (next >= size) {
+                    throw new NoSuchElementException();
+                }
+                return get(next++);
+            }
+        };
+    }
+
+    private int contentStart(int row) {
+        return row == 0 ? 0 : contentEnds[row - 1];
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Row " + row + " of " + size);
+        }
+    }
+
+    private static void putIfPresent(Map<Integer, String> side, int row, String value) {
+        if (value != null) {
+            side.put(row, value);
+        }
+    }
+}
@@ -0,0 +1,359 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.ice.poe;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Queues messages for delivery through a {@link Transport}. The outbox is bounded:
+ * when it is full, senders wait (or are turned away) instead of starting more
+ * work, so a sudden burst queues up rather than piling threads onto the
+ * downstream system.
+ *
+ * Every queued message is written to a journal before it is accepted, so pending
+ * deliveries survive a restart. A fixed number of delivery threads caps concurrent
+ * deliveries, and failed attempts are retried with exponential backoff and full
+ * jitter until the attempt limit is reached.
+ *
+ * @author Simphiwe Jijana
+ */
+public class Outbox implements AutoCloseable {
+
+    private final Transport transport;
+    private final Options options;
+    private final Path journalPath;
+    private final Semaphore capacity;
+    private final AtomicInteger overCapacity = new AtomicInteger(); // Recovered entries that hold no permit
+    private final DelayQueue<Entry> queue = new DelayQueue<>();
+    private final List<Thread> workers = new ArrayList<>();
+    private final AtomicLong nextSequence = new AtomicLong();
+
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder retried = new LongAdder();
+    private final LongAdder deadLettered = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final AtomicLong pending = new AtomicLong();
+
+    private BufferedWriter journal;
+    private volatile boolean closed;
+
+    /**
+     * Creates an outbox, re-queues any deliveries still pending in its journal and
+     * starts the delivery threads.
+     *
+     * @param transport The transport used to deliver messages.
+     * @param options The queue, concurrency and retry options.
+     * @throws IOException If the journal cannot be read or written.
+     */
+    public Outbox(Transport transport, Options options) throws IOException {
+        this.transport = transport;
+        this.options = options;
+        this.journalPath = Paths.get(options.journalPath);
+        this.capacity = new Semaphore(options.capacity);
+        recoverJournal();
+        for (int i = 0; i < options.maxConcurrentDeliveries; i++) {
+            Thread worker = new Thread(this::deliveryLoop, "outbox-delivery-" + i);
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+    }
+
+    /**
+     * Queues a message, waiting for space if the outbox is full.
+     *
+     * @param message The message to deliver.
+     * @throws IOException If the message cannot be journaled.
+     * @throws InterruptedException If interrupted while waiting for space.
+     */
+    public void submit(Message message) throws IOException, InterruptedException {
+        capacity.acquire();
+        enqueue(message);
+    }
+
+    /**
+     * Queues a message, waiting at most the given time for space.
+     *
+     * @param message The message to deliver.
+     * @param timeout How long to wait for space.
+     * @param unit The unit of the timeout.
+     * @return True if the message was queued, false if the outbox stayed full.
+     * @throws IOException If the message cannot be journaled.
+     * @throws InterruptedException If interrupted while waiting for space.
+     */
+    public boolean offer(Message message, long timeout, TimeUnit unit) throws IOException, InterruptedException {
+        if (!capacity.tryAcquire(timeout, unit)) {
+            rejected.increment();
+            return false;
+        }
+        enqueue(message);
+        return true;
+    }
+
+    /**
+     * Waits until every queued message has been delivered or dead-lettered.
+     *
+     * @param timeout The longest time to wait.
+     * @return True if the outbox drained, false if the timeout passed first.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public boolean awaitDrained(Duration timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        while (pending.get() > 0) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            Thread.sleep(5);
+        }
+        return true;
+    }
+
+    public long getPendingCount() {
+        return pending.get();
+    }
+
+    public long getDeliveredCount() {
+        return delivered.sum();
+    }
+
+    public long getRetryCount() {
+        return retried.sum();
+    }
+
+    public long getDeadLetterCount() {
+        return deadLettered.sum();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    /**
+     * Stops the delivery threads. Messages that were not delivered stay in the
+     * journal and are picked up by the next outbox opened on it.
+     *
+     * @throws IOException If the journal cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+        for (Thread worker : workers) {
+            try {
+                worker.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        synchronized (this) {
+            journal.close();
+        }
+    }
+
+    // --- Delivery ---
+
+    private void enqueue(Message message) throws IOException {
+        Entry entry = new Entry(nextSequence.getAndIncrement(), message);
+        try {
+            JSONObject record = new JSONObject();
+            record.put("Op", "ENQUEUE");
+            record.put("Seq", entry.sequence);
+            record.put("Record", message.toJson());
+            writeJournal(record);
+        } catch (IOException e) {
+            releaseCapacity();
+            throw e;
+        }
+        pending.incrementAndGet();
+        queue.put(entry);
+    }
+
+    private void deliveryLoop() {
+        while (!closed) {
+            Entry entry;
+            try {
+                entry = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            entry.attempts++;
+            try {
+                transport.deliver(entry.message);
+                entry.message.sendMessage();
+                delivered.increment();
+                finish(entry, "DONE");
+            } catch (IOException | RuntimeException e) {
+                if (closed) {
+                    return; // Leave it in the journal for the next run
+                }
+                if (entry.attempts >= options.maxAttempts) {
+                    deadLettered.increment();
+                    finish(entry, "DEAD");
+                } else {
+                    retried.increment();
+                    entry.dueNanos = System.nanoTime() + backoffNanos(entry.attempts);
+                    queue.put(entry);
+                }
+            }
+        }
+    }
+
+    /**
+     * Full-jitter exponential backoff: a random delay between zero and
+     * base * 2^(attempt - 1), capped at the maximum backoff.
+     */
+    private long backoffNanos(int attempt) {
+        long base = options.baseBackoff.toNanos();
+        long ceiling = options.maxBackoff.toNanos();
+        long exponential = attempt >= 31 ? ceiling : Math.min(ceiling, base << (attempt - 1));
+        return ThreadLocalRandom.current().nextLong(exponential + 1);
+    }
+
+    private void finish(Entry entry, String outcome) {
+        try {
+            JSONObject record = new JSONObject();
+            record.put("Op", outcome);
+            record.put("Seq", entry.sequence);
+            writeJournal(record);
+        } catch (IOException e) {
+            // The message is re-delivered after a restart; delivery is at-least-once
+        }
+        pending.decrementAndGet();
+        releaseCapacity();
+    }
+
+    /**
+     * Frees the queue space held by a finished entry. An entry recovered while
+     * the queue was already full never took a permit, so it gives none back;
+     * otherwise the queue would end up allowing more than its capacity.
+     */
+    private void releaseCapacity() {
+        if (overCapacity.getAndUpdate(count -> count > 0 ? count - 1 : 0) == 0) {
+            capacity.release();
+        }
+    }
+
+    // --- Journal ---
+
+    private synchronized void writeJournal(JSONObject record) throws IOException {
+        journal.write(record.toString());
+        journal.newLine();
+        journal.flush();
+    }
+
+    /**
+     * Replays the journal to find messages that were queued but never finished,
+     * rewrites it with just those messages and queues them again.
+     */
+    private void recoverJournal() throws IOException {
+        Map<Long, Message> unfinished = new LinkedHashMap<>();
+        if (Files.exists(journalPath)) {
+            try (BufferedReader reader = Files.newBufferedReader(journalPath, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    try {
+                        JSONObject record = new JSONObject(line);
+                        long sequence = record.getLong("Seq");
+                        if ("ENQUEUE".equals(record.getString("Op"))) {
+                            unfinished.put(sequence, Message.fromJson(record.getJSONObject("Record")));
+                        } else {
+                            unfinished.remove(sequence);
+                        }
+                    } catch (JSONException e) {
+                        // A torn final line from a crash; everything before it is intact
+                    }
+                }
+            }
+        }
+
+        Path compacted = journalPath.resolveSibling(journalPath.getFileName() + ".tmp");
+        journal = Files.newBufferedWriter(compacted, StandardCharsets.UTF_8);
+        for (Message message : unfinished.values()) {
+            // Recovered messages are accepted even if they exceed the configured capacity
+            if (!capacity.tryAcquire()) {
+                overCapacity.incrementAndGet();
+            }
+            enqueue(message);
+        }
+        journal.close();
+        Files.move(compacted, journalPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        journal = Files.newBufferedWriter(journalPath, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * A queued message and its delivery state. Entries become available to the
+     * delivery threads once their due time has passed.
+     */
+    private static final class Entry implements Delayed {
+        final long sequence;
+        final Message message;
+        int attempts;
+        volatile long dueNanos = System.nanoTime();
+
+        Entry(long sequence, Message message) {
+            this.sequence = sequence;
+            this.message = message;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(dueNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(dueNanos, ((Entry) other).dueNanos);
+        }
+    }
+
+    /**
+     * Options for an outbox. Every setter returns this object so that options can
+     * be chained.
+     */
+    public static final class Options {
+        private String journalPath = "outbox.journal";
+        private int capacity = 10_000;
+        private int maxConcurrentDeliveries = 4;
+        private int maxAttempts = 8;
+        private Duration baseBackoff = Duration.ofMillis(100);
+        private Duration maxBackoff = Duration.ofSeconds(30);
+
+        public Options journalPath(String path) { this.journalPath = path; return this; }
+        public Options capacity(int messages) { this.capacity = messages; return this; }
+        public Options maxConcurrentDeliveries(int deliveries) { this.maxConcurrentDeliveries = deliveries; return this; }
+        public Options maxAttempts(int attempts) { this.maxAttempts = attempts; return this; }
+        public Options backoff(Duration base, Duration max) {
+            this.baseBackoff = base;
+            this.maxBackoff = max;
+            return this;
+        }
+    }
+}
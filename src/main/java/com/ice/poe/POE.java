@@ -4,13 +4,23 @@
 package com.ice.poe;
 
 import javax.swing.JOptionPane;
-import java.util.ArrayList;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.List;
-import java.util.HashMap;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.Scanner; // Still needed for console input during registration/initial login
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.function.Consumer;
 
 /**
  * This class serves as the main entry point for the POE application. It handles
@@ -22,18 +32,38 @@ import java.util.regex.Pattern;
  */
 public class POE {
 
-    private static final String JSON_FILE_PATH = "messages.json";
-    private static Map<String, UserDetails> userDetailsMap = new HashMap<>(); // Store registered users
+    private static final String JSON_FILE_PATH = "messages.json"; // Legacy single-file archive
+    private static final String MESSAGE_STORE_DIR = "messages";
+    private static final Duration MESSAGE_RETENTION = Duration.ofDays(365);
+    private static final Duration EXPIRY_INTERVAL = Duration.ofMinutes(1);
+    private static final Duration SCRUB_INTERVAL = Duration.ofHours(6);
+    private static final long SCRUB_BYTES_PER_SECOND = 8L * 1024 * 1024; // Leaves the disk to the dialogs
+    private static IntegrityScrubber integrityScrubber;
+    private static PartitionedMessageStore messageStore;
+    private static final String SHARDED_STORE_DIR = "messages-sharded"; // Used by --batch and --serve with --shards
+    private static final SendRateLimiter SEND_RATE_LIMITER = new SendRateLimiter();
+    private static final Duration DUPLICATE_WINDOW = Duration.ofMinutes(10);
+    private static final DuplicateDetector DUPLICATE_DETECTOR = new DuplicateDetector(100_000, 0.01, DUPLICATE_WINDOW, POE::isRecentDuplicate);
+    private static final MessageAnalytics ANALYTICS = new MessageAnalytics();
+    private static final String SCHEDULE_JOURNAL_PATH = "scheduled.journal";
+    private static MessageScheduler messageScheduler;
+    private static final String SNAPSHOT_FILE = "state.snapshot"; // Kept in the message store directory
+    private static final Duration CHECKPOINT_INTERVAL = Duration.ofMinutes(5);
+    private static SnapshotManager snapshots;
+    private static final int CONVERSATION_PAGE_SIZE = 10;
+    private static final DateTimeFormatter CONVERSATION_TIME_FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm").withZone(ZoneId.systemDefault());
+    private static ConversationTimeline conversationTimeline; // Built on first use, so startup does not read the archive
+    private static final Map<String, UserDetails> userDetailsMap = new ConcurrentHashMap<>(); // Store registered users
     
-    // Declare a list to store sent messages at the class level
-    private static List<Message> sessionSentMessages = new ArrayList<>();
+    // Sent messages of this session, kept column by column to stay small in long sessions.
+    // The scheduler thread adds to it too, so every use holds its lock.
+    private static final MessageTable sessionSentMessages = new MessageTable();
 
     // Methods from POE.java for validation
     public static boolean checkCellPhone(String number) {
-        String pattern = "^\\+27\\d{9}$";
-        Pattern regex = Pattern.compile(pattern);
-        Matcher matcher = regex.matcher(number);
-        return matcher.matches();
+        // "+27" followed by 9 digits; checked character by character since this runs for every message
+        return PhoneNumberCodec.isCellPhone(number);
     }
 
     public static boolean isValidCellPhoneNumber(String cellPhoneNumber) {
@@ -49,8 +79,19 @@ public class POE {
     }
 
     public static void main(String[] args) {
+        if (args.length > 0 && "--batch".equals(args[0])) {
+            System.exit(runBatch(args));
+        }
+        if (args.length > 0 && "--serve".equals(args[0])) {
+            System.exit(runServer(args));
+        }
         // User Registration 
         try (Scanner scanner = new Scanner(System.in)) { // Scanner is used for console input in registration if you revert to it
+            try {
+                getMessageStore(); // Restores the users registered in earlier sessions
+            } catch (IOException e) {
+                JOptionPane.showMessageDialog(null, "Error loading saved messages: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+            }
             JOptionPane.showMessageDialog(null, "Welcome to QuickChat! First, let's register your account.");
 
             String regUsername;
@@ -113,8 +154,12 @@ public class POE {
             JOptionPane.showMessageDialog(null, "Cell phone number successfully added.");
 
             // Store the registered user details
-            userDetailsMap.put(regUsername, new UserDetails(regFirstName, regLastName, regPassword));
-            JOptionPane.showMessageDialog(null, "Registration complete! Now, please log in.");
+            if (registerUser(regUsername, new UserDetails(regFirstName, regLastName, regPassword))) {
+                JOptionPane.showMessageDialog(null, "Registration complete! Now, please log in.");
+            } else {
+                // Registered in an earlier session; the login below checks the password
+                JOptionPane.showMessageDialog(null, "That username is already registered. Please log in with your existing password.");
+            }
 
             // Login Process 
             PoeLogin loginSystem = new PoeLogin(userDetailsMap, 3); // Assuming max 3 login attempts
@@ -122,6 +167,7 @@ public class POE {
 
             if (loginSystem.isLoggedIn()) {
                 JOptionPane.showMessageDialog(null, "Welcome to QuickChat.");
+                startScheduler(); // Also sends anything that came due while the app was closed
 
                 int choice;
                 do {
@@ -129,12 +175,14 @@ public class POE {
                             "Select an option:\n" +
                                     "1) Send Messages\n" +
                                     "2) Show recently sent messages\n" + // Updated menu option
-                                    "3) Quit",
+                                    "3) Message statistics\n" +
+                                    "4) View a conversation\n" +
+                                    "5) Quit",
                             "QuickChat Menu",
                             JOptionPane.QUESTION_MESSAGE);
 
                     if (menuInput == null) { // Handle user clicking cancel or closing dialog
-                        choice = 3; // Treat as quit
+                        choice = 5; // Treat as quit
                     } else {
                         try {
                             choice = Integer.parseInt(menuInput);
@@ -146,13 +194,21 @@ public class POE {
 
                     switch (choice) {
                         case 1:
-                            sendMessagesFlow();
+                            sendMessagesFlow(regUsername);
                             break;
                         case 2:
                             //Call method to show last message ---
                             showAllMessages();
                             break;
                         case 3:
+                            showStatistics();
+                            break;
+                        case 4:
+                            showConversation();
+                            break;
+                        case 5:
+                            closeScheduler();
+                            closeMessageStore();
                             JOptionPane.showMessageDialog(null, "Thank you for using QuickChat. Goodbye!");
                             break;
                         default:
@@ -161,14 +217,16 @@ public class POE {
                             }
                             break;
                     }
-                } while (choice != 3);
+                } while (choice != 5);
             } else {
                 JOptionPane.showMessageDialog(null, "Login failed. Exiting application.", "Error", JOptionPane.ERROR_MESSAGE);
             }
+        } finally {
+            closeMessageStore(); // Also on the early exits, so the snapshot is saved
         }
     }
 
-    private static void sendMessagesFlow() {
+    private static void sendMessagesFlow(String sender) {
         String numMessagesInput = JOptionPane.showInputDialog(null,
                 "How many messages do you wish to enter?",
                 "Number of Messages",
@@ -237,7 +295,7 @@ public class POE {
 
             message.createMessageHash(message.getMessageID(), i, message.getMessageContent());
 
-            String[] options = {"Send Message", "Disregard Message", "Store Message"};
+            String[] options = {"Send Message", "Disregard Message", "Store Message", "Schedule Message"};
             int messageOption = JOptionPane.showOptionDialog(null,
                     "What would you like to do with this message?",
                     "Message Options",
@@ -247,43 +305,573 @@ public class POE {
                     options,
                     options[0]);
 
+            if (messageOption != JOptionPane.NO_OPTION && !confirmIfDuplicate(sender, message)) {
+                JOptionPane.showMessageDialog(null, "Duplicate message disregarded.");
+                continue;
+            }
+
             switch (messageOption) {
                 case JOptionPane.YES_OPTION: // Send Message
+                    if (!SEND_RATE_LIMITER.tryAcquire(sender, message.getRecipientCell())) {
+                        JOptionPane.showMessageDialog(null, "You are sending messages too quickly. Message not sent, please try again shortly.", "Rate Limit", JOptionPane.WARNING_MESSAGE);
+                        break;
+                    }
                     JOptionPane.showMessageDialog(null, message.sendMessage());
+                    recordSent(sender, message); // Add to the class-level list
+                    rememberSubmitted(sender, message);
                     message.printMessages(); // Display details after sending
-                    //  Add to the class-level list ---
-                    sessionSentMessages.add(message);
                     break;
                 case JOptionPane.NO_OPTION: // Disregard Message
                     JOptionPane.showMessageDialog(null, "Message disregarded.");
                     break;
                 case JOptionPane.CANCEL_OPTION: // Store Message
                 case -1: // Dialog closed
-                    message.storeMessage(JSON_FILE_PATH);
+                    if (storeMessage(message)) {
+                        rememberSubmitted(sender, message);
+                    }
                     // If you also want stored messages to be part of "recent", add them here:
                     // sessionSentMessages.add(message);
                     break;
+                case 3: // Schedule Message
+                    if (scheduleMessage(sender, message)) {
+                        rememberSubmitted(sender, message);
+                    }
+                    break;
             }
         }
         JOptionPane.showMessageDialog(null, "Total messages sent: " + Message.getTotalMessagesSent(), "Summary", JOptionPane.INFORMATION_MESSAGE);
     }
 
+    /**
+     * Sends or stores every message in a CSV or NDJSON file without any dialogs:
+     * {@code POE --batch <file|-> --user <username> [--results <file>] [--action send|store] [--chunk-size n] [--threads n] [--shards n]}.
+     * The password is read from the QUICKCHAT_PASSWORD environment variable, or
+     * from the console if it is not set. With {@code --shards} the messages are
+     * stored in the sharded store; see {@link #openShardedStore(int)}.
+     *
+     * @param args The command-line arguments, starting with --batch.
+     * @return The process exit code: 0 if every record went through, 1 if some did not, 2 for a usage error.
+     */
+    private static int runBatch(String[] args) {
+        String usage = "Usage: POE --batch <file|-> --user <username> [--results <file>] [--action send|store] [--chunk-size n] [--threads n] [--shards n]";
+        if (args.length < 2) {
+            System.err.println(usage);
+            return 2;
+        }
+        String input = args[1];
+        String username = null;
+        Path results = Paths.get("-".equals(input) ? "batch-results.ndjson" : input + ".results.ndjson");
+        BatchSender.Options options = new BatchSender.Options();
+        int shards = 0;
+        try {
+            for (int i = 2; i < args.length; i += 2) {
+                String value = i + 1 < args.length ? args[i + 1] : null;
+                if (value == null) {
+                    throw new IllegalArgumentException("Missing value for " + args[i]);
+                }
+                switch (args[i]) {
+                    case "--user":
+                        username = value;
+                        break;
+                    case "--results":
+                        results = Paths.get(value);
+                        break;
+                    case "--action":
+                        options.defaultAction(BatchSender.Action.valueOf(value.toUpperCase(Locale.ROOT)));
+                        break;
+                    case "--chunk-size":
+                        options.chunkSize(Integer.parseInt(value));
+                        break;
+                    case "--threads":
+                        options.parallelism(Integer.parseInt(value));
+                        break;
+                    case "--shards":
+                        shards = parseShardCount(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(usage);
+            return 2;
+        }
+        if (username == null) {
+            System.err.println(usage);
+            return 2;
+        }
+
+        ShardedMessageStore sharded = null;
+        try {
+            MessageStore store = getMessageStore(); // Also restores the registered users
+            if (shards > 0) {
+                store = sharded = openShardedStore(shards);
+            }
+            String password = System.getenv("QUICKCHAT_PASSWORD");
+            if (password == null && System.console() != null) {
+                char[] typed = System.console().readPassword("Password for %s: ", username);
+                password = typed == null ? null : new String(typed);
+            }
+            if (password == null || !checkLogin(username, password)) {
+                System.err.println("Login failed.");
+                return 1;
+            }
+            String sender = username;
+            BatchSender batch = new BatchSender(store, (from, messages) -> {
+                for (Message message : messages) {
+                    message.sendMessage();
+                    ANALYTICS.recordSend(from, message); // Not kept in the session list; a batch can be millions of messages
+                }
+            }, options);
+            BatchSender.Report report = "-".equals(input)
+                    ? batch.run(System.in, results, sender)
+                    : batch.run(Paths.get(input), results, sender);
+            System.out.println(report);
+            System.out.println("Results written to " + results);
+            return report.getRejected() == 0 && report.getFailed() == 0 ? 0 : 1;
+        } catch (IOException e) {
+            System.err.println("Batch failed: " + e.getMessage());
+            return 1;
+        } finally {
+            closeShardedStore(sharded);
+            closeMessageStore(System.err::println); // No dialogs; batch mode may run without a display
+        }
+    }
+
+    /**
+     * Runs a {@link QuickChatServer} for the registered users and the message
+     * store until the process is stopped:
+     * {@code POE --serve <port> [--host <address>] [--shards n]}. The server
+     * listens on the loopback address unless a host is given, and stores in the
+     * sharded store when {@code --shards} is given. A send that repeats one the
+     * user made within the duplicate window is acknowledged without being sent
+     * again. Stopping the process closes the server and saves the snapshot.
+     *
+     * @param args The command-line arguments, starting with --serve.
+     * @return The process exit code: 1 if the server could not start, 2 for a usage error.
+     */
+    private static int runServer(String[] args) {
+        String usage = "Usage: POE --serve <port> [--host <address>] [--shards n]";
+        InetSocketAddress address;
+        int shards = 0;
+        try {
+            if (args.length < 2 || args.length % 2 != 0) {
+                throw new IllegalArgumentException("Expected a port and optional --host and --shards");
+            }
+            int port = Integer.parseInt(args[1]);
+            String host = null;
+            for (int i = 2; i < args.length; i += 2) {
+                switch (args[i]) {
+                    case "--host":
+                        host = args[i + 1];
+                        break;
+                    case "--shards":
+                        shards = parseShardCount(args[i + 1]);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            }
+            address = host != null ? new InetSocketAddress(host, port) : new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(usage);
+            return 2;
+        }
+
+        QuickChatServer server;
+        ShardedMessageStore sharded = null;
+        try {
+            MessageStore store = getMessageStore(); // Also restores the registered users
+            if (shards > 0) {
+                store = sharded = openShardedStore(shards);
+            }
+            server = new QuickChatServer(address, userDetailsMap, store, SEND_RATE_LIMITER);
+            server.enableDuplicateSuppression(DUPLICATE_WINDOW, 100_000);
+            server.start();
+            System.out.println("QuickChat server listening on port " + server.getPort()
+                    + (sharded != null ? " with " + sharded.getShardCount() + " store shards" : ""));
+        } catch (IOException e) {
+            System.err.println("Server failed to start: " + e.getMessage());
+            closeShardedStore(sharded);
+            closeMessageStore(System.err::println);
+            return 1;
+        }
+        ShardedMessageStore openedShards = sharded;
+        CountDownLatch stopped = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.close();
+            } catch (IOException e) {
+                System.err.println("Error closing server: " + e.getMessage());
+            }
+            closeShardedStore(openedShards); // Writes what is still queued before the snapshot is saved
+            closeMessageStore(System.err::println);
+            stopped.countDown();
+        }, "quickchat-shutdown"));
+        try {
+            stopped.await(); // The selector thread is a daemon, so this keeps the process up
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return 0;
+    }
+
+    private static int parseShardCount(String value) {
+        int shards = Integer.parseInt(value);
+        if (shards <= 0) {
+            throw new IllegalArgumentException("--shards must be positive");
+        }
+        return shards;
+    }
+
+    /**
+     * Opens the sharded store used by the headless modes, so that concurrent
+     * batch workers and server connections store in parallel instead of all
+     * waiting on one file. It is kept in its own directory, which the menu's
+     * message views do not read; the statistics do count what it stores.
+     *
+     * @param shards The number of shards if the store is new; an existing store keeps its count.
+     * @return The opened store.
+     * @throws IOException If the store cannot be opened.
+     */
+    private static ShardedMessageStore openShardedStore(int shards) throws IOException {
+        ShardedMessageStore store = new ShardedMessageStore(SHARDED_STORE_DIR, new ShardedMessageStore.Options().shards(shards));
+        store.applyRetention(MESSAGE_RETENTION);
+        store.addListener(ANALYTICS);
+        return store;
+    }
+
+    private static void closeShardedStore(ShardedMessageStore store) {
+        if (store != null) {
+            try {
+                store.close();
+            } catch (IOException e) {
+                System.err.println("Error closing sharded message store: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Stores a message in the partitioned message store, opening the store,
+     * dropping expired partitions and importing the legacy archive on first use.
+     *
+     * @param message The message to store.
+     * @return True if the message was stored.
+     */
+    private static boolean storeMessage(Message message) {
+        try {
+            getMessageStore().append(message);
+            JOptionPane.showMessageDialog(null, "Message stored.");
+            return true;
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(null, "Error storing message: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+            return false;
+        }
+    }
+
+    /**
+     * Asks how long to wait and schedules the message to be sent then.
+     *
+     * @param sender The user sending the message.
+     * @param message The message to schedule.
+     * @return True if the message was scheduled.
+     */
+    private static boolean scheduleMessage(String sender, Message message) {
+        if (messageScheduler == null) {
+            JOptionPane.showMessageDialog(null, "Scheduled sending is not available.", "Error", JOptionPane.ERROR_MESSAGE);
+            return false;
+        }
+        String delayInput = JOptionPane.showInputDialog(null,
+                "Send this message in how many minutes?",
+                "Schedule Message",
+                JOptionPane.QUESTION_MESSAGE);
+        if (delayInput == null) {
+            JOptionPane.showMessageDialog(null, "Message disregarded.");
+            return false;
+        }
+        try {
+            long minutes = Long.parseLong(delayInput.trim());
+            if (minutes <= 0) {
+                JOptionPane.showMessageDialog(null, "Please enter a positive number of minutes. Message disregarded.", "Error", JOptionPane.ERROR_MESSAGE);
+                return false;
+            }
+            Instant sendAt = Instant.now().plus(Duration.ofMinutes(minutes));
+            messageScheduler.schedule(sender, message, sendAt);
+            JOptionPane.showMessageDialog(null, "Message scheduled for " + sendAt + ".");
+            return true;
+        } catch (NumberFormatException e) {
+            JOptionPane.showMessageDialog(null, "Invalid input. Please enter a number. Message disregarded.", "Error", JOptionPane.ERROR_MESSAGE);
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(null, "Error scheduling message: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+        }
+        return false;
+    }
+
+    private static void startScheduler() {
+        try {
+            messageScheduler = new MessageScheduler(POE::deliverScheduled,
+                    new MessageScheduler.Options().journalPath(SCHEDULE_JOURNAL_PATH));
+            messageScheduler.start();
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(null, "Error loading scheduled messages: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    /**
+     * The send path for scheduled messages, called on the scheduler thread with
+     * each batch that fell due.
+     */
+    private static void deliverScheduled(List<MessageScheduler.ScheduledSend> batch) {
+        for (MessageScheduler.ScheduledSend send : batch) {
+            send.getMessage().sendMessage();
+            recordSent(send.getSender(), send.getMessage());
+        }
+    }
+
+    private static void closeScheduler() {
+        if (messageScheduler != null) {
+            try {
+                messageScheduler.close();
+            } catch (IOException e) {
+                JOptionPane.showMessageDialog(null, "Error closing scheduled messages: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+            }
+            messageScheduler = null;
+        }
+    }
+
+    private static PartitionedMessageStore getMessageStore() throws IOException {
+        if (messageStore == null) {
+            messageStore = new PartitionedMessageStore(MESSAGE_STORE_DIR);
+            messageStore.applyRetention(MESSAGE_RETENTION);
+            messageStore.startBackgroundExpiry(EXPIRY_INTERVAL);
+            // Find damaged records before a read trips over them; one throttled worker, so sessions are not slowed down
+            integrityScrubber = new IntegrityScrubber(messageStore,
+                    new IntegrityScrubber.Options().threads(1).maxBytesPerSecond(SCRUB_BYTES_PER_SECOND));
+            integrityScrubber.start(SCRUB_INTERVAL);
+            // Carry over messages stored by older versions; the checkpoint makes this a no-op once done
+            Path legacyArchive = Paths.get(JSON_FILE_PATH);
+            if (Files.exists(legacyArchive)) {
+                new BulkImporter(messageStore, new BulkImporter.Options()).importFile(legacyArchive);
+            }
+            // Restore users and statistics from the last snapshot, replaying only what was stored after it, then keep them current
+            snapshots = new SnapshotManager(Paths.get(MESSAGE_STORE_DIR, SNAPSHOT_FILE), messageStore, ANALYTICS, userDetailsMap);
+            snapshots.restore();
+            messageStore.addListener(ANALYTICS);
+            snapshots.startCheckpoints(CHECKPOINT_INTERVAL);
+        }
+        return messageStore;
+    }
+
+    /**
+     * Flags a message that repeats one recently sent or stored to the same
+     * recipient, and asks the user whether to go ahead with it anyway.
+     *
+     * @param sender The user sending the message.
+     * @param message The message about to be sent or stored.
+     * @return True if the message should go ahead.
+     */
+    private static boolean confirmIfDuplicate(String sender, Message message) {
+        // Only checked here; rememberSubmitted records it once it has gone through, so a retry after a failure is not flagged
+        if (!DUPLICATE_DETECTOR.isDuplicate(sender, message.getRecipientCell(), message.getMessageContent())) {
+            return true;
+        }
+        int answer = JOptionPane.showConfirmDialog(null,
+                "You recently sent this same message to " + message.getRecipientCell() + ".\nDo you want to send it again?",
+                "Possible Duplicate",
+                JOptionPane.YES_NO_OPTION,
+                JOptionPane.WARNING_MESSAGE);
+        return answer == JOptionPane.YES_OPTION;
+    }
+
+    /**
+     * Remembers a message that was sent, stored or scheduled, so a repeat of it
+     * is flagged by {@link #confirmIfDuplicate}.
+     */
+    private static void rememberSubmitted(String sender, Message message) {
+        DUPLICATE_DETECTOR.record(sender, message.getRecipientCell(), message.getMessageContent());
+    }
+
+    /**
+     * Exact duplicate check, only run when the duplicate detector's Bloom filter
+     * reports a hit: looks for the same recipient and content among this
+     * session's sent messages and the recently stored ones. A session has a
+     * single user, so its messages need no telling apart by sender.
+     */
+    private static boolean isRecentDuplicate(String sender, String recipientCell, String content) {
+        synchronized (sessionSentMessages) {
+            for (int row = 0; row < sessionSentMessages.size(); row++) {
+                if (recipientCell.equals(sessionSentMessages.getRecipientCell(row))
+                        && content.equals(sessionSentMessages.getMessageContent(row))) {
+                    return true;
+                }
+            }
+        }
+        try {
+            Instant now = Instant.now();
+            for (Message stored : getMessageStore().query(now.minus(DUPLICATE_WINDOW.multipliedBy(2)), now.plusSeconds(1))) {
+                if (recipientCell.equals(stored.getRecipientCell()) && content.equals(stored.getMessageContent())) {
+                    return true;
+                }
+            }
+        } catch (IOException e) {
+            return true; // Can't confirm, so err on the side of asking the user
+        }
+        return false;
+    }
+
+    private static void closeMessageStore() {
+        closeMessageStore(error -> JOptionPane.showMessageDialog(null, error, "Error", JOptionPane.ERROR_MESSAGE));
+    }
+
+    /**
+     * Saves the snapshot and closes the message store.
+     *
+     * @param reportError Shows an error to the user.
+     */
+    private static void closeMessageStore(Consumer<String> reportError) {
+        if (integrityScrubber != null) {
+            integrityScrubber.close(); // Before the store, so no scrub is reading it as it closes
+            integrityScrubber = null;
+        }
+        if (snapshots != null) {
+            try {
+                snapshots.close(); // Writes the snapshot the next startup reads
+            } catch (IOException e) {
+                reportError.accept("Error saving application state: " + e.getMessage());
+            }
+            snapshots = null;
+        }
+        conversationTimeline = null; // Rebuilt from the store if it is opened again
+        if (messageStore != null) {
+            try {
+                messageStore.close();
+            } catch (IOException e) {
+                reportError.accept("Error closing message store: " + e.getMessage());
+            }
+            messageStore = null;
+        }
+    }
+
+    private static void showStatistics() {
+        try {
+            getMessageStore(); // Make sure stored messages from earlier sessions are counted
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(null, "Error reading stored messages: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+        }
+        JOptionPane.showMessageDialog(null, ANALYTICS.getSummary(), "Message Statistics", JOptionPane.INFORMATION_MESSAGE);
+    }
+
     //Method to show the last sent message ---
     private static void showAllMessages() {
-        if (sessionSentMessages.isEmpty()) {
+        String allMessagesDisplay = null;
+        synchronized (sessionSentMessages) { // Copied out under the lock, so the scheduler is not held up by the dialog
+            if (!sessionSentMessages.isEmpty()) {
+                StringBuilder display = new StringBuilder("--- All Sent Messages ---\n\n");
+                for (int i = 0; i < sessionSentMessages.size(); i++) {
+                    display.append("Message ").append(i + 1).append(":\n");
+                    display.append("  Recipient: ").append(sessionSentMessages.getRecipientCell(i)).append("\n");
+                    display.append("  Message: ").append(sessionSentMessages.getMessageContent(i)).append("\n");
+                    display.append("  Hash: ").append(sessionSentMessages.getMessageHash(i)).append("\n");
+                    display.append("----------------------------\n");
+                }
+                allMessagesDisplay = display.toString();
+            }
+        }
+        if (allMessagesDisplay == null) {
             JOptionPane.showMessageDialog(null, "No messages have been sent yet in this session.", "All Sent Messages", JOptionPane.INFORMATION_MESSAGE);
         } else {
-            StringBuilder allMessagesDisplay = new StringBuilder("--- All Sent Messages ---\n\n");
-            for (int i = 0; i < sessionSentMessages.size(); i++) {
-                Message msg = sessionSentMessages.get(i);
-                allMessagesDisplay.append("Message ").append(i + 1).append(":\n");
-                allMessagesDisplay.append("  Recipient: ").append(msg.getRecipientCell()).append("\n");
-                allMessagesDisplay.append("  Message: ").append(msg.getMessageContent()).append("\n");
-                allMessagesDisplay.append("  Hash: ").append(msg.getMessageHash()).append("\n");
-                allMessagesDisplay.append("----------------------------\n");
-            }
             // JOptionPane can handle longer strings, but it might get truncated or require scrolling for many messages.
-            JOptionPane.showMessageDialog(null, allMessagesDisplay.toString(), "All Sent Messages", JOptionPane.INFORMATION_MESSAGE);
+            JOptionPane.showMessageDialog(null, allMessagesDisplay, "All Sent Messages", JOptionPane.INFORMATION_MESSAGE);
+        }
+    }
+
+    /**
+     * Shows the stored messages to one recipient, newest page first, with a
+     * button to page back to older messages.
+     */
+    private static void showConversation() {
+        String recipient = JOptionPane.showInputDialog(null, "Enter the recipient's cell number:", "View Conversation", JOptionPane.QUESTION_MESSAGE);
+        if (recipient == null || recipient.isBlank()) {
+            return;
+        }
+        recipient = recipient.trim();
+        ConversationTimeline.Page page;
+        try {
+            if (conversationTimeline == null) {
+                conversationTimeline = new ConversationTimeline(getMessageStore());
+            }
+            page = conversationTimeline.latest(recipient, CONVERSATION_PAGE_SIZE);
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(null, "Error reading stored messages: " + e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        if (page.getMessages().isEmpty()) {
+            JOptionPane.showMessageDialog(null, "No stored messages to " + recipient + ".", "View Conversation", JOptionPane.INFORMATION_MESSAGE);
+            return;
         }
+        String[] options = {"Older Messages", "Close"};
+        while (true) {
+            StringBuilder display = new StringBuilder("--- Conversation with ").append(recipient).append(" ---\n\n");
+            for (Message message : page.getMessages()) {
+                Instant storedAt = message.getTimestamp();
+                display.append(storedAt == null ? "Earlier" : CONVERSATION_TIME_FORMAT.format(storedAt))
+                        .append("  ").append(message.getMessageContent()).append("\n");
+            }
+            if (!page.hasMore()) {
+                JOptionPane.showMessageDialog(null, display.toString(), "View Conversation", JOptionPane.INFORMATION_MESSAGE);
+                return;
+            }
+            int answer = JOptionPane.showOptionDialog(null, display.toString(), "View Conversation",
+                    JOptionPane.DEFAULT_OPTION, JOptionPane.INFORMATION_MESSAGE, null, options, options[0]);
+            if (answer != 0) {
+                return;
+            }
+            page = conversationTimeline.pageBefore(recipient, page.getNextCursor(), CONVERSATION_PAGE_SIZE);
+        }
+    }
+
+    // --- Session state, shared with the scheduler thread ---
+
+    /**
+     * Records a sent message in this session's statistics and sent list. Safe
+     * to call from any thread.
+     *
+     * @param sender The user who sent the message.
+     * @param message The message that was sent.
+     */
+    public static void recordSent(String sender, Message message) {
+        ANALYTICS.recordSend(sender, message);
+        synchronized (sessionSentMessages) {
+            sessionSentMessages.add(message);
+        }
+    }
+
+    /**
+     * Returns how many messages this session has sent.
+     */
+    public static int getSessionSentCount() {
+        synchronized (sessionSentMessages) {
+            return sessionSentMessages.size();
+        }
+    }
+
+    /**
+     * Registers a user, unless the username is already taken.
+     *
+     * @param username The username to register.
+     * @param details The user's details and password.
+     * @return True if the user was registered, false if the username was taken.
+     */
+    public static boolean registerUser(String username, UserDetails details) {
+        return userDetailsMap.putIfAbsent(username, details) == null;
+    }
+
+    /**
+     * Checks a username and password against the registered users, without any dialogs.
+     */
+    public static boolean checkLogin(String username, String password) {
+        return new PoeLogin(userDetailsMap, 0).validateLogin(username, password);
     }
 }
\ No newline at end of file
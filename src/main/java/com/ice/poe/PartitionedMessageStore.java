@@ -0,0 +1,846 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.ice.poe;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Stores messages in a directory of rolling partition files instead of one
+ * ever-growing JSON file. Each partition covers a fixed time window (one day by
+ * default) and is rolled early when it reaches a size limit.
+ *
+ * Partition files hold one compact JSON message record per line, so a store is a
+ * single append. A manifest file lists every partition with its time window so
+ * that range queries only open the partitions they need, and retention can drop
+ * whole expired partitions without rewriting any data.
+ *
+ * Every record carries a CRC32C checksum (see {@link RecordChecksum}). Reads
+ * skip records that fail it instead of failing the whole query, and the
+ * {@link IntegrityScrubber} finds and quarantines them in the background.
+ *
+ * Messages with a time to live stop being returned as soon as they expire. An
+ * {@link ExpiryIndex}, saved with the manifest, tracks which partitions hold
+ * expiring messages, so {@link #purgeExpired()} rewrites only those partitions
+ * to reclaim the space; it can run on a background thread with
+ * {@link #startBackgroundExpiry(Duration)}.
+ *
+ * Every message the store accepts is stamped with the next sequence number and
+ * the time it was stored (see {@link Message#getSequence()}). The last number
+ * given out is kept in the manifest, so numbering carries on after a restart.
+ *
+ * @author Simphiwe Jijana
+ */
+public class PartitionedMessageStore implements MessageStore {
+
+    public static final Duration DEFAULT_PARTITION_SPAN = Duration.ofDays(1);
+    public static final long DEFAULT_MAX_PARTITION_BYTES = 8L * 1024 * 1024;
+    public static final Duration EXPIRY_BUCKET = Duration.ofMinutes(1);
+
+    private static final String MANIFEST_FILE = "manifest.json";
+    private static final DateTimeFormatter PARTITION_NAME_FORMAT =
+            DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss").withZone(ZoneOffset.UTC);
+
+    private final Path directory;
+    private final long partitionSpanMillis;
+    private final long maxPartitionBytes;
+    private final Clock clock;
+
+    // Partitions in the order they were created; the last one is the active partition
+    private final List<Partition> partitions = new ArrayList<>();
+    private final List<MessageStoreListener> listeners = new CopyOnWriteArrayList<>();
+    private OutputStream activeOut;
+    private final MessageJsonWriter recordWriter = new MessageJsonWriter(false); // Reused for every record, under the store lock
+    private final LongAdder corruptRecords = new LongAdder();
+    private final ExpiryIndex expiryIndex = new ExpiryIndex(EXPIRY_BUCKET.toMillis());
+    private long lastSequence; // The last sequence number given to a stored message
+    private Thread expiryThread;
+
+    /**
+     * Opens (or creates) a store with daily partitions of up to 8 MB each.
+     *
+     * @param directory The directory holding the partition files and manifest.
+     * @throws IOException If the directory or manifest cannot be read.
+     */
+    public PartitionedMessageStore(String directory) throws IOException {
+        this(directory, DEFAULT_PARTITION_SPAN, DEFAULT_MAX_PARTITION_BYTES, Clock.systemUTC());
+    }
+
+    /**
+     * Opens (or creates) a store.
+     *
+     * @param directory The directory holding the partition files and manifest.
+     * @param partitionSpan The time window covered by one partition.
+     * @param maxPartitionBytes The size at which a partition is rolled early.
+     * @param clock The clock used to assign stored messages to partitions.
+     * @throws IOException If the directory or manifest cannot be read.
+     */
+    public PartitionedMessageStore(String directory, Duration partitionSpan, long maxPartitionBytes, Clock clock) throws IOException {
+        if (partitionSpan.toMillis() <= 0 || maxPartitionBytes <= 0) {
+            throw new IllegalArgumentException("Partition span and size must be positive.");
+        }
+        this.directory = Paths.get(directory);
+        this.partitionSpanMillis = partitionSpan.toMillis();
+        this.maxPartitionBytes = maxPartitionBytes;
+        this.clock = clock;
+        Files.createDirectories(this.directory);
+        loadManifest();
+    }
+
+    /**
+     * Appends a message to the partition for the current time window, rolling to
+     * a new partition when the window changes or the active one is full. The
+     * message is given its sequence number and timestamp first.
+     *
+     * @param message The message to store.
+     * @throws IOException If the record cannot be written.
+     */
+    @Override
+    public synchronized void append(Message message) throws IOException {
+        long now = stampTime();
+        message.stamp(++lastSequence, now);
+        encode(message);
+        Partition partition = activePartitionFor(now, recordWriter.size());
+        write(partition);
+        partition.lastMessageSequence = lastSequence;
+        indexExpiry(partition, message);
+        for (MessageStoreListener listener : listeners) {
+            listener.onStored(message);
+        }
+    }
+
+    /**
+     * Appends a batch of messages. All records are written with a single
+     * timestamp, which keeps the whole batch in as few partitions as possible.
+     *
+     * @param messages The messages to store.
+     * @throws IOException If a record cannot be written.
+     */
+    @Override
+    public synchronized void appendAll(List<Message> messages) throws IOException {
+        long now = stampTime();
+        for (Message message : messages) {
+            message.stamp(++lastSequence, now);
+            encode(message);
+            Partition partition = activePartitionFor(now, recordWriter.size());
+            write(partition);
+            partition.lastMessageSequence = lastSequence;
+            indexExpiry(partition, message);
+        }
+        for (Message message : messages) {
+            for (MessageStoreListener listener : listeners) {
+                listener.onStored(message);
+            }
+        }
+    }
+
+    /**
+     * Returns the messages stored in partitions whose time window overlaps the
+     * given range. Partitions outside the range are skipped using the manifest
+     * alone, without opening their files. Expired messages are left out.
+     *
+     * @param from The start of the range (inclusive).
+     * @param to The end of the range (exclusive).
+     * @return The stored messages, oldest partition first.
+     * @throws IOException If a partition cannot be read.
+     */
+    @Override
+    public List<Message> query(Instant from, Instant to) throws IOException {
+        List<Message> result = new ArrayList<>();
+        for (Partition partition : partitionsOverlapping(from.toEpochMilli(), to.toEpochMilli())) {
+            readPartition(partition, result);
+        }
+        return result;
+    }
+
+    /**
+     * Returns every stored message, oldest partition first.
+     *
+     * @return All stored messages.
+     * @throws IOException If a partition cannot be read.
+     */
+    @Override
+    public List<Message> readAll() throws IOException {
+        return query(Instant.EPOCH, Instant.ofEpochMilli(Long.MAX_VALUE));
+    }
+
+    /**
+     * Finds a stored message by its ID, searching the newest partitions first.
+     *
+     * @param messageId The message ID to look for.
+     * @return The stored message, or null if it is not in the store.
+     * @throws IOException If a partition cannot be read.
+     */
+    @Override
+    public Message findById(String messageId) throws IOException {
+        List<Partition> snapshot = snapshotPartitions();
+        for (int i = snapshot.size() - 1; i >= 0; i--) {
+            List<Message> messages = new ArrayList<>();
+            readPartition(snapshot.get(i), messages);
+            for (int j = messages.size() - 1; j >= 0; j--) {
+                if (messageId.equals(messages.get(j).getMessageID())) {
+                    return messages.get(j);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Deletes a stored message. Only the partition holding the message is
+     * rewritten, so the cost is bounded by the partition size rather than the
+     * size of the whole archive.
+     *
+     * @param messageId The ID of the message to delete.
+     * @return True if the message was found and deleted.
+     * @throws IOException If a partition cannot be read or rewritten.
+     */
+    @Override
+    public synchronized boolean delete(String messageId) throws IOException {
+        for (int i = partitions.size() - 1; i >= 0; i--) {
+            Partition partition = partitions.get(i);
+            Path file = directory.resolve(partition.fileName);
+            if (!Files.exists(file)) {
+                continue;
+            }
+            StringBuilder kept = new StringBuilder();
+            boolean found = false;
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                if (!found && !line.isBlank() && messageId.equals(messageIdOf(line))) {
+                    found = true;
+                } else if (!line.isBlank()) {
+                    kept.append(line).append('\n');
+                }
+            }
+            if (!found) {
+                continue;
+            }
+            if (i == partitions.size() - 1) {
+                closeActive(); // Reopened on the next append
+            }
+            Path temp = directory.resolve(partition.fileName + ".tmp");
+            Files.writeString(temp, kept, StandardCharsets.UTF_8);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            partition.bytes = Files.size(file);
+            partition.rewrites++;
+            for (MessageStoreListener listener : listeners) {
+                listener.onDeleted(messageId);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Moves every damaged record of a partition to a quarantine file and
+     * rewrites the partition without them. A record is damaged when its checksum
+     * does not match, when it has no checksum and cannot be parsed, or when it is
+     * a torn write at the end of the file. Quarantined records are appended to
+     * the quarantine file as they were on disk, one per line.
+     *
+     * @param partitionName The partition file name, as returned by {@link #getPartitionNames()}.
+     * @param quarantineFile The file the damaged records are appended to.
+     * @return The number of records quarantined.
+     * @throws IOException If the partition or the quarantine file cannot be written.
+     */
+    public synchronized int quarantine(String partitionName, Path quarantineFile) throws IOException {
+        Partition partition = null;
+        for (Partition candidate : partitions) {
+            if (candidate.fileName.equals(partitionName)) {
+                partition = candidate;
+            }
+        }
+        Path file = directory.resolve(partitionName);
+        if (partition == null || !Files.exists(file)) {
+            return 0;
+        }
+        if (partition == partitions.get(partitions.size() - 1)) {
+            closeActive(); // Reopened on the next append
+        }
+        byte[] data = Files.readAllBytes(file);
+        byte[] kept = new byte[data.length + 1];
+        int keptLength = 0;
+        int quarantined = 0;
+        try (OutputStream bad = Files.newOutputStream(quarantineFile, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            int lineStart = 0;
+            while (lineStart < data.length) {
+                int lineEnd = lineStart;
+                while (lineEnd < data.length && data[lineEnd] != '\n') {
+                    lineEnd++;
+                }
+                int length = lineEnd - lineStart;
+                if (isBlank(data, lineStart, length)) {
+                    // Nothing to keep
+                } else if (RecordChecksum.decode(data, lineStart, length) == null) {
+                    bad.write(data, lineStart, length);
+                    bad.write('\n');
+                    quarantined++;
+                } else {
+                    System.arraycopy(data, lineStart, kept, keptLength, length);
+                    keptLength += length;
+                    kept[keptLength++] = '\n';
+                }
+                lineStart = lineEnd + 1;
+            }
+        }
+        if (quarantined > 0) {
+            Path temp = directory.resolve(partitionName + ".tmp");
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                out.write(kept, 0, keptLength);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            partition.bytes = keptLength;
+            partition.rewrites++;
+        }
+        return quarantined;
+    }
+
+    /**
+     * Removes expired messages from every partition the expiry index lists as
+     * having something due, and notifies listeners of each one as deleted.
+     *
+     * A partition is read and filtered without holding the store lock. The lock
+     * is only taken at the end, to copy across any records appended in the
+     * meantime and swap the rewritten file in, so appends are not held up by
+     * the rewrite. A partition changed by a delete or quarantine during the pass
+     * is left for the next run.
+     *
+     * @return The number of expired messages removed.
+     * @throws IOException If a partition cannot be read or rewritten.
+     */
+    public int purgeExpired() throws IOException {
+        long now = clock.millis();
+        List<Partition> due = new ArrayList<>();
+        synchronized (this) {
+            for (String name : expiryIndex.duePartitions(now)) {
+                Partition partition = findPartition(name);
+                if (partition != null) {
+                    due.add(partition.copy());
+                }
+            }
+        }
+        int purged = 0;
+        for (Partition snapshot : due) {
+            purged += purgePartition(snapshot, now);
+        }
+        return purged;
+    }
+
+    /**
+     * Runs {@link #purgeExpired()} on a background thread every interval until
+     * the store is closed.
+     *
+     * @param interval The time between the end of one pass and the start of the next.
+     */
+    public synchronized void startBackgroundExpiry(Duration interval) {
+        if (expiryThread != null) {
+            return;
+        }
+        expiryThread = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    purgeExpired();
+                } catch (IOException e) {
+                    System.err.println("Expiring messages failed: " + e.getMessage());
+                }
+                try {
+                    Thread.sleep(interval.toMillis());
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }, "message-expiry");
+        expiryThread.setDaemon(true);
+        expiryThread.start();
+    }
+
+    /**
+     * Returns how many damaged records reads have skipped since the store was
+     * opened. The same record is counted each time it is read.
+     *
+     * @return The number of skipped records.
+     */
+    public long getCorruptRecordCount() {
+        return corruptRecords.sum();
+    }
+
+    /**
+     * Registers a listener for stores, deletes and dropped partitions.
+     *
+     * @param listener The listener to add.
+     */
+    @Override
+    public void addListener(MessageStoreListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Drops every partition whose time window ended before the retention period.
+     * Each expired partition is removed by deleting its file, so the cost does not
+     * depend on how many messages it held.
+     *
+     * @param retention How long stored messages are kept.
+     * @return The number of partitions dropped.
+     * @throws IOException If a partition file or the manifest cannot be updated.
+     */
+    @Override
+    public synchronized int applyRetention(Duration retention) throws IOException {
+        long cutoff = clock.millis() - retention.toMillis();
+        int dropped = 0;
+        while (!partitions.isEmpty() && partitions.get(0).end <= cutoff) {
+            Partition expired = partitions.remove(0);
+            if (partitions.isEmpty()) {
+                closeActive(); // The expired partition was still the active one
+            }
+            Files.deleteIfExists(directory.resolve(expired.fileName));
+            expiryIndex.removePartition(expired.fileName);
+            dropped++;
+            for (MessageStoreListener listener : listeners) {
+                listener.onPartitionDropped(expired.fileName);
+            }
+        }
+        if (dropped > 0) {
+            writeManifest();
+        }
+        return dropped;
+    }
+
+    /**
+     * Returns the names of the partition files currently in the manifest.
+     *
+     * @return The partition file names, oldest first.
+     */
+    public synchronized List<String> getPartitionNames() {
+        List<String> names = new ArrayList<>();
+        for (Partition partition : partitions) {
+            names.add(partition.fileName);
+        }
+        return names;
+    }
+
+    /**
+     * Returns the start of the oldest partition's time window. Every record in
+     * the store was stored at or after this time.
+     *
+     * @return The start in epoch milliseconds, or Long.MAX_VALUE if the store has no partitions.
+     */
+    synchronized long oldestPartitionStart() {
+        return partitions.isEmpty() ? Long.MAX_VALUE : partitions.get(0).start;
+    }
+
+    /**
+     * Returns the directory this store writes to.
+     *
+     * @return The store directory.
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Closes the active partition and writes the manifest.
+     *
+     * @throws IOException If the manifest cannot be written.
+     */
+    @Override
+    public void close() throws IOException {
+        Thread expiry;
+        synchronized (this) {
+            expiry = expiryThread;
+            expiryThread = null;
+        }
+        if (expiry != null) {
+            expiry.interrupt();
+            try {
+                expiry.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            closeActive();
+            writeManifest();
+        }
+    }
+
+    // --- Internal helpers ---
+
+    private void encode(Message message) {
+        recordWriter.reset();
+        recordWriter.write(message).appendChecksum().newLine();
+    }
+
+    private void indexExpiry(Partition partition, Message message) {
+        if (message.expiresAtMillis() != MessageEncoding.NO_EXPIRY) {
+            expiryIndex.add(partition.fileName, message.expiresAtMillis());
+        }
+    }
+
+    private Partition findPartition(String name) {
+        for (Partition partition : partitions) {
+            if (partition.fileName.equals(name)) {
+                return partition;
+            }
+        }
+        return null;
+    }
+
+    private int purgePartition(Partition snapshot, long now) throws IOException {
+        Path file = directory.resolve(snapshot.fileName);
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        byte[] data;
+        try (InputStream in = Files.newInputStream(file)) {
+            data = in.readNBytes((int) Math.min(snapshot.bytes, Integer.MAX_VALUE));
+        }
+
+        // Filter outside the lock; damaged records are kept for the scrubber
+        List<String> expiredIds = new ArrayList<>();
+        List<Long> remaining = new ArrayList<>();
+        Path temp = directory.resolve(snapshot.fileName + ".expiry.tmp");
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            int lineStart = 0;
+            while (lineStart < data.length) {
+                int lineEnd = lineStart;
+                while (lineEnd < data.length && data[lineEnd] != '\n') {
+                    lineEnd++;
+                }
+                int length = lineEnd - lineStart;
+                Message message = isBlank(data, lineStart, length) ? null : RecordChecksum.decode(data, lineStart, length);
+                if (message != null && message.expiresAtMillis() <= now) {
+                    expiredIds.add(message.getMessageID());
+                } else if (!isBlank(data, lineStart, length)) {
+                    if (message != null && message.expiresAtMillis() != MessageEncoding.NO_EXPIRY) {
+                        remaining.add(message.expiresAtMillis());
+                    }
+                    out.write(data, lineStart, length);
+                    out.write('\n');
+                }
+                lineStart = lineEnd + 1;
+            }
+        }
+
+        synchronized (this) {
+            Partition partition = findPartition(snapshot.fileName);
+            if (partition == null || partition.rewrites != snapshot.rewrites || !Files.exists(file)) {
+                Files.deleteIfExists(temp);
+                return 0; // Changed under us; the next pass picks it up again
+            }
+            // Records appended since the snapshot are copied across as they are
+            byte[] tail = new byte[(int) (partition.bytes - snapshot.bytes)];
+            try (RandomAccessFile in = new RandomAccessFile(file.toFile(), "r")) {
+                in.seek(snapshot.bytes);
+                in.readFully(tail);
+            }
+            for (Message message : readRecords(tail)) {
+                if (message.expiresAtMillis() != MessageEncoding.NO_EXPIRY) {
+                    remaining.add(message.expiresAtMillis());
+                }
+            }
+            expiryIndex.replace(partition.fileName, remaining);
+            if (expiredIds.isEmpty()) {
+                Files.deleteIfExists(temp);
+                return 0;
+            }
+            Files.write(temp, tail, StandardOpenOption.APPEND);
+            if (partition == partitions.get(partitions.size() - 1)) {
+                closeActive(); // Reopened on the next append
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            partition.bytes = Files.size(file);
+            partition.rewrites++;
+            for (String messageId : expiredIds) {
+                for (MessageStoreListener listener : listeners) {
+                    listener.onDeleted(messageId);
+                }
+            }
+        }
+        return expiredIds.size();
+    }
+
+    /**
+     * The time to stamp the next message with. If the clock has stepped back
+     * behind the active partition, messages keep going to that partition, so
+     * they are stamped with its start: a message is then never older than the
+     * partition holding it, which is what range reads and retention go by.
+     */
+    private long stampTime() {
+        long now = clock.millis();
+        return partitions.isEmpty() ? now : Math.max(now, partitions.get(partitions.size() - 1).start);
+    }
+
+    private Partition activePartitionFor(long now, int recordBytes) throws IOException {
+        long windowStart = now - Math.floorMod(now, partitionSpanMillis);
+        Partition active = partitions.isEmpty() ? null : partitions.get(partitions.size() - 1);
+        // Only moves forward: an earlier window, from a clock stepped back, stays in the active partition
+        if (active == null || windowStart > active.start
+                || (active.bytes > 0 && active.bytes + recordBytes > maxPartitionBytes)) {
+            closeActive();
+            int sequence = (active != null && active.start == windowStart) ? active.sequence + 1 : 0;
+            active = new Partition(partitionName(windowStart, sequence), windowStart,
+                    windowStart + partitionSpanMillis, sequence);
+            partitions.add(active);
+            writeManifest(); // Only written when the set of partitions changes
+        }
+        if (activeOut == null) {
+            activeOut = new FileOutputStream(directory.resolve(active.fileName).toFile(), true);
+        }
+        return active;
+    }
+
+    private void write(Partition partition) throws IOException {
+        recordWriter.writeTo(activeOut);
+        partition.bytes += recordWriter.size();
+    }
+
+    private void closeActive() throws IOException {
+        if (activeOut != null) {
+            activeOut.close();
+            activeOut = null;
+        }
+    }
+
+    /**
+     * Copies the manifest, so callers can read partitions without holding the
+     * store lock. Each copy's size only covers records that were complete when
+     * the snapshot was taken.
+     */
+    synchronized List<Partition> snapshotPartitions() {
+        List<Partition> snapshot = new ArrayList<>(partitions.size());
+        for (Partition partition : partitions) {
+            snapshot.add(partition.copy());
+        }
+        return snapshot;
+    }
+
+    private List<Partition> partitionsOverlapping(long from, long to) {
+        List<Partition> matching = new ArrayList<>();
+        for (Partition partition : snapshotPartitions()) {
+            if (partition.start < to && partition.end > from) {
+                matching.add(partition);
+            }
+        }
+        return matching;
+    }
+
+    private void readPartition(Partition partition, List<Message> into) throws IOException {
+        Path file = directory.resolve(partition.fileName);
+        if (!Files.exists(file)) {
+            return; // Dropped by retention after the snapshot was taken
+        }
+        byte[] data;
+        try (InputStream in = Files.newInputStream(file)) {
+            data = in.readNBytes((int) Math.min(partition.bytes, Integer.MAX_VALUE));
+        }
+        long now = clock.millis();
+        for (Message message : readRecords(data)) {
+            if (message.expiresAtMillis() > now) { // Expired messages are dropped here until they are purged
+                into.add(message);
+            }
+        }
+    }
+
+    /**
+     * Reads the records of a partition from a byte offset up to the size in the
+     * given copy, expired ones included. Used to replay what was stored after a
+     * snapshot was taken.
+     *
+     * @param partition A copy from {@link #snapshotPartitions()}.
+     * @param offset Where to start; must be the start of a record.
+     */
+    List<Message> readFrom(Partition partition, long offset) throws IOException {
+        Path file = directory.resolve(partition.fileName);
+        if (!Files.exists(file) || offset >= partition.bytes) {
+            return new ArrayList<>();
+        }
+        byte[] data;
+        try (InputStream in = Files.newInputStream(file)) {
+            in.skipNBytes(offset);
+            data = in.readNBytes((int) Math.min(partition.bytes - offset, Integer.MAX_VALUE));
+        }
+        return readRecords(data);
+    }
+
+    /**
+     * Parses the records in a block of partition data, skipping damaged ones.
+     */
+    private List<Message> readRecords(byte[] data) {
+        List<Message> messages = new ArrayList<>();
+        int lineStart = 0;
+        while (lineStart < data.length) {
+            int lineEnd = lineStart;
+            while (lineEnd < data.length && data[lineEnd] != '\n') {
+                lineEnd++;
+            }
+            int length = lineEnd - lineStart;
+            if (!isBlank(data, lineStart, length)) {
+                Message message = RecordChecksum.decode(data, lineStart, length);
+                if (message != null) {
+                    messages.add(message);
+                } else {
+                    corruptRecords.increment();
+                }
+            }
+            lineStart = lineEnd + 1;
+        }
+        return messages;
+    }
+
+    private static boolean isBlank(byte[] data, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            if (data[i] != ' ' && data[i] != '\t' && data[i] != '\r') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String messageIdOf(String line) {
+        try {
+            return new JSONObject(line).optString("MessageID");
+        } catch (JSONException e) {
+            return null; // A damaged record is kept for the scrubber to quarantine
+        }
+    }
+
+    private String partitionName(long windowStart, int sequence) {
+        return String.format("messages-%s-%03d.ndjson",
+                PARTITION_NAME_FORMAT.format(Instant.ofEpochMilli(windowStart)), sequence);
+    }
+
+    private void loadManifest() throws IOException {
+        Path manifest = directory.resolve(MANIFEST_FILE);
+        if (!Files.exists(manifest)) {
+            return;
+        }
+        try {
+            JSONArray entries = new JSONArray(Files.readString(manifest, StandardCharsets.UTF_8));
+            for (int i = 0; i < entries.length(); i++) {
+                JSONObject entry = entries.getJSONObject(i);
+                Partition partition = new Partition(entry.getString("File"), entry.getLong("Start"),
+                        entry.getLong("End"), entry.getInt("Sequence"));
+                partition.lastMessageSequence = entry.optLong("LastMessageSequence", MessageEncoding.NO_SEQUENCE);
+                lastSequence = Math.max(lastSequence, partition.lastMessageSequence);
+                Path file = directory.resolve(partition.fileName);
+                if (Files.exists(file)) {
+                    // The manifest is only rewritten on roll, so take sizes from the files themselves
+                    partition.bytes = Files.size(file);
+                    partitions.add(partition);
+                    JSONArray expiries = entry.optJSONArray("Expiries");
+                    for (int j = 0; expiries != null && j < expiries.length(); j++) {
+                        expiryIndex.addBucket(partition.fileName, expiries.getLong(j));
+                    }
+                }
+            }
+            if (!partitions.isEmpty()) {
+                Partition active = partitions.get(partitions.size() - 1);
+                endTornRecord(active);
+                // Appends since the manifest was last written may have added expiring messages and used up sequence numbers
+                List<Message> activeMessages;
+                try (InputStream in = Files.newInputStream(directory.resolve(active.fileName))) {
+                    activeMessages = readRecords(in.readNBytes((int) Math.min(active.bytes, Integer.MAX_VALUE)));
+                }
+                for (Message message : activeMessages) {
+                    indexExpiry(active, message);
+                    active.lastMessageSequence = Math.max(active.lastMessageSequence, message.getSequence());
+                }
+                lastSequence = Math.max(lastSequence, active.lastMessageSequence);
+            }
+        } catch (JSONException e) {
+            throw new IOException("Partition manifest is corrupted: " + manifest, e);
+        }
+    }
+
+    /**
+     * A crash in the middle of an append leaves the active partition without its
+     * final line break. End the torn record there, so the next append starts a
+     * fresh line instead of being glued onto it; the torn record then fails its
+     * checksum on its own.
+     */
+    private void endTornRecord(Partition partition) throws IOException {
+        if (partition.bytes == 0) {
+            return;
+        }
+        try (RandomAccessFile file = new RandomAccessFile(directory.resolve(partition.fileName).toFile(), "rw")) {
+            file.seek(partition.bytes - 1);
+            if (file.read() != '\n') {
+                file.write('\n');
+                partition.bytes++;
+            }
+        }
+    }
+
+    private void writeManifest() throws IOException {
+        JSONArray entries = new JSONArray();
+        for (Partition partition : partitions) {
+            JSONObject entry = new JSONObject();
+            entry.put("File", partition.fileName);
+            entry.put("Start", partition.start);
+            entry.put("End", partition.end);
+            entry.put("Sequence", partition.sequence);
+            if (partition.lastMessageSequence != MessageEncoding.NO_SEQUENCE) {
+                entry.put("LastMessageSequence", partition.lastMessageSequence);
+            }
+            if (!expiryIndex.bucketsOf(partition.fileName).isEmpty()) {
+                entry.put("Expiries", new JSONArray(expiryIndex.bucketsOf(partition.fileName)));
+            }
+            entries.put(entry);
+        }
+        Path manifest = directory.resolve(MANIFEST_FILE);
+        Path temp = directory.resolve(MANIFEST_FILE + ".tmp");
+        Files.writeString(temp, entries.toString(4), StandardCharsets.UTF_8);
+        Files.move(temp, manifest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * One partition file and the time window it covers.
+     */
+    static final class Partition {
+        final String fileName;
+        final long start;
+        final long end;
+        final int sequence;
+        long bytes;
+        int rewrites; // Bumped whenever the file is rewritten rather than appended to
+        long lastMessageSequence; // The highest sequence number written to the partition
+
+        Partition(String fileName, long start, long end, int sequence) {
+            this.fileName = fileName;
+            this.start = start;
+            this.end = end;
+            this.sequence = sequence;
+        }
+
+        Partition copy() {
+            Partition copy = new Partition(fileName, start, end, sequence);
+            copy.bytes = bytes;
+            copy.rewrites = rewrites;
+            copy.lastMessageSequence = lastMessageSequence;
+            return copy;
+        }
+    }
+}
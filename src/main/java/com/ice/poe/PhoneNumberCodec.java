@@ -0,0 +1,125 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.ice.poe;
+
+/**
+ * Packs phone numbers of the form "+" followed by digits into a single
+ * {@code long}, so that recipients can be compared, hashed and used as map keys
+ * without strings.
+ *
+ * The packed value holds the number of digits in its top six bits, so leading
+ * zeros survive, and the digits themselves as a number in the bits below. Up to
+ * 17 digits fit, which covers every valid cell number ("+27" and 9 digits) as
+ * well as the shorter numbers found in older archives. Two numbers are equal
+ * exactly when their packed values are equal. No valid number packs to
+ * {@link #NOT_A_NUMBER}.
+ *
+ * @author Simphiwe Jijana
+ */
+public final class PhoneNumberCodec {
+
+    /** Returned for text that is not "+" followed by 1 to 17 digits. */
+    public static final long NOT_A_NUMBER = 0;
+    public static final int MAX_DIGITS = 17;
+
+    private static final int DIGIT_COUNT_SHIFT = 58;
+    private static final long DIGITS_MASK = (1L << DIGIT_COUNT_SHIFT) - 1;
+
+    private PhoneNumberCodec() {
+    }
+
+    /**
+     * Packs a number into a long.
+     *
+     * @param number The number, for example "+27821234567".
+     * @return The packed number, or {@link #NOT_A_NUMBER} if it cannot be packed.
+     */
+    public static long encode(String number) {
+        if (number == null) {
+            return NOT_A_NUMBER;
+        }
+        int digits = number.length() - 1;
+        if (digits < 1 || digits > MAX_DIGITS || number.charAt(0) != '+') {
+            return NOT_A_NUMBER;
+        }
+        long value = 0;
+        for (int i = 1; i <= digits; i++) {
+            char c = number.charAt(i);
+            if (c < '0' || c > '9') {
+                return NOT_A_NUMBER;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return ((long) digits << DIGIT_COUNT_SHIFT) | value;
+    }
+
+    /**
+     * Unpacks a number packed by {@link #encode(String)}.
+     *
+     * @param packed The packed number.
+     * @return The number as text.
+     * @throws IllegalArgumentException If the value is not a packed number.
+     */
+    public static String decode(long packed) {
+        int digits = digitCount(packed);
+        if (digits < 1 || digits > MAX_DIGITS) {
+            throw new IllegalArgumentException("Not a packed phone number: " + packed);
+        }
+        long value = digitValue(packed);
+        char[] text = new char[digits + 1];
+        text[0] = '+';
+        for (int i = digits; i >= 1; i--) {
+            text[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return new String(text);
+    }
+
+    /**
+     * Returns the number of digits of a packed number, for writers that format
+     * the digits themselves.
+     */
+    static int digitCount(long packed) {
+        return (int) (packed >>> DIGIT_COUNT_SHIFT);
+    }
+
+    /**
+     * Returns the digits of a packed number as a number.
+     */
+    static long digitValue(long packed) {
+        return packed & DIGITS_MASK;
+    }
+
+    /**
+     * Checks whether a number is a valid South African cell number: "+27"
+     * followed by exactly 9 digits. Same rule as {@link POE#checkCellPhone(String)},
+     * without a regular expression.
+     *
+     * @param number The number to check.
+     * @return True if the number is valid.
+     */
+    public static boolean isCellPhone(String number) {
+        if (number == null || number.length() != 12 || !number.startsWith("+27")) {
+            return false;
+        }
+        for (int i = 3; i < 12; i++) {
+            char c = number.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Packs a valid cell number, rejecting anything else.
+     *
+     * @param number The number to pack.
+     * @return The packed number, or {@link #NOT_A_NUMBER} if it is not a valid cell number.
+     */
+    public static long encodeCellPhone(String number) {
+        return isCellPhone(number) ? encode(number) : NOT_A_NUMBER;
+    }
+}
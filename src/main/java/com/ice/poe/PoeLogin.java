@@ -95,13 +95,24 @@ public class PoeLogin {
      * @return true if the username and password match a registered user, false otherwise.
      */
     public boolean validateLogin(String username, String password) {
-        // Check if the username exists in the registeredUsers map
-        if (registeredUsers.containsKey(username)) {
-            UserDetails userDetails = registeredUsers.get(username);
-            // Compare the entered password with the stored password
-            return userDetails.getPassword().equals(password);
+        // One lookup, so a user registered or removed by another thread cannot slip in between a check and a get
+        UserDetails userDetails = registeredUsers.get(username);
+        if (userDetails == null) {
+            return false; // Username not found
         }
-        return false; // Username not found
+        // Compare the entered password with the stored password hash
+        if (!userDetails.matchesPassword(password)) {
+            return false;
+        }
+        if (userDetails.needsRehash()) {
+            // Only now is the password known, so this is when an old hash can be replaced; skipped if the user changed meanwhile
+            try {
+                registeredUsers.replace(username, userDetails, new UserDetails(userDetails.getFirstName(), userDetails.getLastName(), password));
+            } catch (UnsupportedOperationException e) {
+                // A read-only user map keeps the old hash; the login still succeeds
+            }
+        }
+        return true;
     }
 
     /**
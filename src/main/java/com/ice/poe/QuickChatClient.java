@@ -0,0 +1,138 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.ice.poe;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.json.JSONObject;
+
+/**
+ * A small blocking client for {@link QuickChatServer}. Requests can be sent one at
+ * a time, or pipelined: several requests are written before any response is read,
+ * which removes a network round trip per message.
+ *
+ * @author Simphiwe Jijana
+ */
+public class QuickChatClient implements AutoCloseable {
+
+    private final Socket socket;
+    private final DataOutputStream out;
+    private final DataInputStream in;
+
+    /**
+     * Connects to a QuickChat server.
+     *
+     * @param host The server host.
+     * @param port The server port.
+     * @throws IOException If the connection cannot be made.
+     */
+    public QuickChatClient(String host, int port) throws IOException {
+        this.socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 64 * 1024));
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+    }
+
+    /**
+     * Logs in and waits for the response.
+     *
+     * @param username The username.
+     * @param password The password.
+     * @return The server's response.
+     * @throws IOException If the request fails.
+     */
+    public JSONObject login(String username, String password) throws IOException {
+        return call(loginRequest(username, password));
+    }
+
+    /**
+     * Sends (or stores) one message and waits for the response.
+     *
+     * @param recipient The recipient's cell number.
+     * @param message The message content.
+     * @param store True to store the message instead of sending it.
+     * @return The server's response, including the MessageID and MessageHash on success.
+     * @throws IOException If the request fails.
+     */
+    public JSONObject send(String recipient, String message, boolean store) throws IOException {
+        return call(sendRequest(recipient, message, store));
+    }
+
+    /**
+     * Writes every request before reading any response.
+     *
+     * @param requests The requests to send, in order.
+     * @return The responses, in the same order as the requests.
+     * @throws IOException If a request fails.
+     */
+    public List<JSONObject> pipeline(List<JSONObject> requests) throws IOException {
+        for (JSONObject request : requests) {
+            writeFrame(request);
+        }
+        out.flush();
+        List<JSONObject> responses = new ArrayList<>(requests.size());
+        for (int i = 0; i < requests.size(); i++) {
+            responses.add(readFrame());
+        }
+        return responses;
+    }
+
+    /**
+     * Builds a login request.
+     *
+     * @param username The username.
+     * @param password The password.
+     * @return The request object.
+     */
+    public static JSONObject loginRequest(String username, String password) {
+        return new JSONObject().put("Op", "LOGIN").put("Username", username).put("Password", password);
+    }
+
+    /**
+     * Builds a send-message request.
+     *
+     * @param recipient The recipient's cell number.
+     * @param message The message content.
+     * @param store True to store the message instead of sending it.
+     * @return The request object.
+     */
+    public static JSONObject sendRequest(String recipient, String message, boolean store) {
+        return new JSONObject().put("Op", "SEND").put("Recipient", recipient).put("Message", message).put("Store", store);
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    private JSONObject call(JSONObject request) throws IOException {
+        writeFrame(request);
+        out.flush();
+        return readFrame();
+    }
+
+    private void writeFrame(JSONObject request) throws IOException {
+        byte[] payload = request.toString().getBytes(StandardCharsets.UTF_8);
+        if (payload.length > QuickChatServer.MAX_FRAME_BYTES) {
+            throw new IOException("Request is larger than " + QuickChatServer.MAX_FRAME_BYTES + " bytes.");
+        }
+        out.writeInt(payload.length);
+        out.write(payload);
+    }
+
+    private JSONObject readFrame() throws IOException {
+        int length = in.readInt();
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        return new JSONObject(new String(payload, StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,573 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.ice.poe;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * A non-blocking TCP server that lets QuickChat clients log in and send messages
+ * without going through the dialogs in {@link POE}. One selector thread serves
+ * every connection.
+ *
+ * Requests and responses are framed as a 4-byte big-endian length followed by a
+ * UTF-8 JSON object. Clients may pipeline requests: every complete frame in a
+ * read is handled in order and the responses are written back in the same order.
+ * A connection stops being read while a few buffers of its responses are still
+ * waiting to be written, so a client that sends without reading its responses
+ * cannot make the server queue without limit. Stores run on worker threads so a
+ * slow disk does not hold up the other connections; the connection that asked
+ * for the store waits for it before its next request is handled.
+ * Requests go through the same checks as the interactive flow
+ * ({@link PoeLogin#validateLogin}, {@link POE#checkCellPhone},
+ * {@link Message#checkMessageLength}, {@link Message#createMessageHash}) before a
+ * message is sent or stored.
+ *
+ * <pre>
+ * {"Op":"LOGIN","Username":"ab_c","Password":"P@ssw0rd!"}
+ * {"Op":"SEND","Recipient":"+27821234567","Message":"Hello","Store":false}
+ * </pre>
+ *
+ * {@code POE --serve <port>} runs a server for the registered users and the
+ * application's message store.
+ *
+ * @author Simphiwe Jijana
+ */
+public class QuickChatServer implements AutoCloseable {
+
+    public static final int MAX_FRAME_BYTES = 16 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_QUEUED_WRITE_BUFFERS = 4; // Per connection, before it stops being read
+    private static final int STORE_THREADS = 4;
+
+    private final InetSocketAddress address;
+    private final PoeLogin login;
+    private final MessageStore store;
+    private final SendRateLimiter rateLimiter;
+    private final BufferPool bufferPool = new BufferPool(BUFFER_SIZE, 1024);
+    private volatile DuplicateDetector duplicateDetector;
+    private volatile RecentSends recentSends;
+    private final ExecutorService storeWorkers;
+    private final ConcurrentLinkedQueue<Runnable> selectorTasks = new ConcurrentLinkedQueue<>();
+
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private Thread selectorThread;
+    private volatile boolean running;
+
+    /**
+     * Creates a server. Call {@link #start()} to begin accepting connections.
+     *
+     * @param address The address to listen on; port 0 picks a free port.
+     * @param registeredUsers The users allowed to log in.
+     * @param store The store used for messages sent with "Store": true, or null to disable storing.
+     */
+    public QuickChatServer(InetSocketAddress address, Map<String, UserDetails> registeredUsers, MessageStore store) {
+        this(address, registeredUsers, store, null);
+    }
+
+    /**
+     * Creates a server that rate limits sends per sender and per recipient.
+     *
+     * @param address The address to listen on; port 0 picks a free port.
+     * @param registeredUsers The users allowed to log in.
+     * @param store The store used for messages sent with "Store": true, or null to disable storing.
+     * @param rateLimiter The limiter applied to sends, or null for no limit.
+     */
+    public QuickChatServer(InetSocketAddress address, Map<String, UserDetails> registeredUsers, MessageStore store, SendRateLimiter rateLimiter) {
+        this.address = address;
+        this.login = new PoeLogin(registeredUsers, 1);
+        this.store = store;
+        this.rateLimiter = rateLimiter;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.storeWorkers = Executors.newFixedThreadPool(STORE_THREADS, task -> {
+            Thread worker = new Thread(task, "quickchat-store-" + threadNumber.incrementAndGet());
+            worker.setDaemon(true);
+            return worker;
+        });
+    }
+
+    /**
+     * Binds the server socket and starts the selector thread.
+     *
+     * @throws IOException If the address cannot be bound.
+     */
+    public void start() throws IOException {
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(address);
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        running = true;
+        selectorThread = new Thread(this::selectLoop, "quickchat-selector");
+        selectorThread.setDaemon(true);
+        selectorThread.start();
+    }
+
+    /**
+     * Returns the port the server is listening on.
+     *
+     * @return The bound port.
+     * @throws IOException If the server socket is not bound.
+     */
+    public int getPort() throws IOException {
+        return ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+    }
+
+    /**
+     * Enables duplicate suppression: a send that repeats a user's recent
+     * successful send to the same recipient with the same content is
+     * acknowledged but not sent or stored again, so clients can safely resubmit
+     * requests whose response they did not receive.
+     *
+     * A Bloom filter hit is only a suspicion, so before anything is suppressed
+     * it is confirmed against an exact list of each user's recent sends. A
+     * filter false positive therefore never drops a real message.
+     *
+     * @param window How long a send is remembered (between one and two windows).
+     * @param expectedPerWindow The number of sends expected in one window, to size the filter.
+     */
+    public void enableDuplicateSuppression(Duration window, int expectedPerWindow) {
+        RecentSends recent = new RecentSends(window.multipliedBy(2));
+        recentSends = recent;
+        duplicateDetector = new DuplicateDetector(expectedPerWindow, 0.01, window, recent);
+    }
+
+    /**
+     * Returns the detector used for duplicate suppression.
+     *
+     * @return The detector, or null if suppression is not enabled.
+     */
+    public DuplicateDetector getDuplicateDetector() {
+        return duplicateDetector;
+    }
+
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    /**
+     * Stops the selector thread and closes every connection.
+     *
+     * @throws IOException If the server socket cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        storeWorkers.shutdown();
+        try {
+            storeWorkers.awaitTermination(2, TimeUnit.SECONDS); // Let stores in progress finish writing
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (selector != null) {
+            selector.wakeup();
+            try {
+                selectorThread.join(2000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof Connection) {
+                    ((Connection) key.attachment()).close();
+                }
+            }
+            selector.close();
+            serverChannel.close();
+        }
+    }
+
+    // --- Selector loop ---
+
+    private void selectLoop() {
+        while (running) {
+            try {
+                selector.select();
+                Runnable task;
+                while ((task = selectorTasks.poll()) != null) {
+                    task.run();
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Connection connection = (Connection) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            connection.read();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.handleFrames(); // Handles any requests held back while the responses were queued
+                        }
+                    } catch (IOException e) {
+                        connection.close();
+                    }
+                }
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("QuickChat server error: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+            key.attach(new Connection(channel, key));
+        }
+    }
+
+    // --- Request handling ---
+
+    private JSONObject handle(Connection connection, JSONObject request) {
+        String op = request.optString("Op", "");
+        switch (op) {
+            case "LOGIN":
+                return handleLogin(connection, request);
+            case "SEND":
+                return handleSend(connection, request);
+            default:
+                return error("Unknown operation: " + op);
+        }
+    }
+
+    private JSONObject handleLogin(Connection connection, JSONObject request) {
+        String username = request.optString("Username", "");
+        if (login.validateLogin(username, request.optString("Password", ""))) {
+            connection.username = username;
+            return new JSONObject().put("Ok", true).put("Status", "Login successful!");
+        }
+        return error("Incorrect username or password.");
+    }
+
+    private JSONObject handleSend(Connection connection, JSONObject request) {
+        if (connection.username == null) {
+            return error("Please log in before sending messages.");
+        }
+        String recipient = request.optString("Recipient", "");
+        String content = request.optString("Message", null);
+
+        Message message = new Message(connection.messageIndex);
+        if (!POE.checkCellPhone(recipient)) {
+            return error("Invalid recipient number. Must start with '+27' and be followed by 9 digits.");
+        }
+        if (!message.checkMessageLength(content)) {
+            return error("Please enter a message of less than 250 characters.");
+        }
+        DuplicateDetector detector = duplicateDetector;
+        // Only checked here; the send is remembered once it has gone through, so a retry after an error is not suppressed
+        if (detector != null && detector.isDuplicate(connection.username, recipient, content)) {
+            return new JSONObject().put("Ok", true).put("Status", "Duplicate suppressed").put("Duplicate", true);
+        }
+        message.setRecipientCell(recipient);
+        message.setMessageContent(content);
+        message.createMessageHash(message.getMessageID(), connection.messageIndex, content);
+
+        if (request.optBoolean("Store", false)) {
+            if (store == null) {
+                return error("Storing messages is not enabled on this server.");
+            }
+            return storeInBackground(connection, message, recipient, content);
+        }
+        if (rateLimiter != null && !rateLimiter.tryAcquire(connection.username, recipient)) {
+            return error("Rate limit reached. Please try again shortly.");
+        }
+        return accepted(connection, message, recipient, content, message.sendMessage());
+    }
+
+    /**
+     * Stores a message on a worker thread. The connection handles no further
+     * requests until the store finishes and its response is queued.
+     *
+     * @return Null, as the response is queued later; or an error if the server is closing.
+     */
+    private JSONObject storeInBackground(Connection connection, Message message, String recipient, String content) {
+        connection.storing = true;
+        try {
+            storeWorkers.execute(() -> {
+                String failure = null;
+                try {
+                    store.append(message);
+                } catch (IOException | RuntimeException e) {
+                    failure = e.getMessage();
+                }
+                String storeError = failure;
+                runOnSelector(() -> connection.finishStore(storeError == null
+                        ? accepted(connection, message, recipient, content, "Message stored")
+                        : error("Error storing message: " + storeError)));
+            });
+        } catch (RejectedExecutionException e) {
+            connection.storing = false;
+            return error("The server is shutting down.");
+        }
+        return null;
+    }
+
+    /**
+     * Remembers a message that went through and builds its response. Runs on
+     * the selector thread.
+     */
+    private JSONObject accepted(Connection connection, Message message, String recipient, String content, String status) {
+        DuplicateDetector detector = duplicateDetector;
+        if (detector != null) {
+            detector.record(connection.username, recipient, content);
+            recentSends.record(connection.username, recipient, content);
+        }
+        connection.messageIndex++;
+        return new JSONObject()
+                .put("Ok", true)
+                .put("Status", status)
+                .put("MessageID", message.getMessageID())
+                .put("MessageHash", message.getMessageHash());
+    }
+
+    private void runOnSelector(Runnable task) {
+        selectorTasks.add(task);
+        selector.wakeup();
+    }
+
+    private static JSONObject error(String reason) {
+        return new JSONObject().put("Ok", false).put("Error", reason);
+    }
+
+    /**
+     * Per-connection state: a pooled read buffer, a queue of pooled write buffers
+     * and the logged-in user. Only used from the selector thread.
+     */
+    private final class Connection {
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private ByteBuffer readBuffer = bufferPool.acquire();
+        private final ArrayDeque<ByteBuffer> writeQueue = new ArrayDeque<>();
+        private String username;
+        private int messageIndex;
+        private boolean storing; // A store is running on a worker; later requests wait for it
+
+        Connection(SocketChannel channel, SelectionKey key) {
+            this.channel = channel;
+            this.key = key;
+        }
+
+        void read() throws IOException {
+            int read = channel.read(readBuffer);
+            if (read < 0) {
+                close();
+                return;
+            }
+            handleFrames();
+        }
+
+        /**
+         * Handles the complete frames in the read buffer, in order, and writes
+         * the responses. Stops while a store is running or too many responses
+         * are waiting to be written; the rest stays in the buffer until then.
+         */
+        void handleFrames() throws IOException {
+            boolean heldBack;
+            do {
+                heldBack = false;
+                readBuffer.flip();
+                // A partial frame stays in the buffer for the next read
+                while (readBuffer.remaining() >= 4) {
+                    if (storing || writeQueue.size() >= MAX_QUEUED_WRITE_BUFFERS) {
+                        heldBack = !storing;
+                        break;
+                    }
+                    int length = readBuffer.getInt(readBuffer.position());
+                    if (length < 0 || length > MAX_FRAME_BYTES) {
+                        close();
+                        return;
+                    }
+                    if (readBuffer.remaining() < 4 + length) {
+                        break;
+                    }
+                    readBuffer.getInt();
+                    byte[] payload = new byte[length];
+                    readBuffer.get(payload);
+                    JSONObject response;
+                    try {
+                        response = handle(this, new JSONObject(new String(payload, StandardCharsets.UTF_8)));
+                    } catch (JSONException e) {
+                        response = error("Malformed request: " + e.getMessage());
+                    }
+                    if (response != null) { // Null while a store runs; its response is queued when it finishes
+                        queueFrame(response.toString().getBytes(StandardCharsets.UTF_8));
+                    }
+                }
+                readBuffer.compact();
+                flush();
+                // Writing may have made room for the requests that were held back
+            } while (heldBack && key.isValid() && writeQueue.size() < MAX_QUEUED_WRITE_BUFFERS);
+        }
+
+        /**
+         * Queues the response of a finished store and carries on with the
+         * requests that waited for it. Runs on the selector thread.
+         */
+        void finishStore(JSONObject response) {
+            storing = false;
+            if (!key.isValid()) {
+                return; // Closed while the store ran
+            }
+            queueFrame(response.toString().getBytes(StandardCharsets.UTF_8));
+            try {
+                handleFrames();
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        void queueFrame(byte[] payload) {
+            ByteBuffer tail = writeQueue.peekLast();
+            if (tail == null || tail.remaining() < 4) {
+                tail = bufferPool.acquire();
+                writeQueue.addLast(tail);
+            }
+            tail.putInt(payload.length);
+            int offset = 0;
+            while (offset < payload.length) {
+                if (!tail.hasRemaining()) {
+                    tail = bufferPool.acquire();
+                    writeQueue.addLast(tail);
+                }
+                int chunk = Math.min(tail.remaining(), payload.length - offset);
+                tail.put(payload, offset, chunk);
+                offset += chunk;
+            }
+        }
+
+        void flush() throws IOException {
+            while (!writeQueue.isEmpty()) {
+                ByteBuffer head = writeQueue.peekFirst();
+                head.flip();
+                channel.write(head);
+                if (head.hasRemaining()) {
+                    head.compact(); // Socket is full; wait for OP_WRITE
+                    updateInterest(true);
+                    return;
+                }
+                bufferPool.release(writeQueue.pollFirst());
+            }
+            updateInterest(false);
+        }
+
+        /**
+         * Reads only while the connection can take more requests, so a client
+         * that does not read its responses is not read from either.
+         */
+        private void updateInterest(boolean waitingToWrite) {
+            int ops = waitingToWrite ? SelectionKey.OP_WRITE : 0;
+            if (!storing && writeQueue.size() < MAX_QUEUED_WRITE_BUFFERS) {
+                ops |= SelectionKey.OP_READ;
+            }
+            key.interestOps(ops);
+        }
+
+        void close() {
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Already closed by the peer
+            }
+            if (readBuffer != null) {
+                bufferPool.release(readBuffer);
+                readBuffer = null;
+            }
+            while (!writeQueue.isEmpty()) {
+                bufferPool.release(writeQueue.pollFirst());
+            }
+        }
+    }
+
+    /**
+     * The exact check behind duplicate suppression: the most recent sends of
+     * each user, with the time they were made. Bounded per user, so a busy
+     * user's oldest sends are forgotten first.
+     */
+    private static final class RecentSends implements DuplicateDetector.Verifier {
+        private static final int MAX_PER_SENDER = 256;
+
+        private final long keepNanos;
+        private final Map<String, ArrayDeque<Send>> bySender = new HashMap<>();
+
+        RecentSends(Duration keep) {
+            this.keepNanos = keep.toNanos();
+        }
+
+        synchronized void record(String sender, String recipientCell, String content) {
+            ArrayDeque<Send> sends = bySender.computeIfAbsent(sender, key -> new ArrayDeque<>());
+            long now = System.nanoTime();
+            dropExpired(sends, now);
+            if (sends.size() == MAX_PER_SENDER) {
+                sends.pollFirst();
+            }
+            sends.addLast(new Send(recipientCell, content, now));
+        }
+
+        @Override
+        public synchronized boolean isDuplicate(String sender, String recipientCell, String content) {
+            ArrayDeque<Send> sends = bySender.get(sender);
+            if (sends == null) {
+                return false;
+            }
+            dropExpired(sends, System.nanoTime());
+            for (Send send : sends) {
+                if (send.recipientCell.equals(recipientCell) && send.content.equals(content)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void dropExpired(ArrayDeque<Send> sends, long now) {
+            while (!sends.isEmpty() && now - sends.peekFirst().nanos > keepNanos) {
+                sends.pollFirst();
+            }
+        }
+
+        private static final class Send {
+            final String recipientCell;
+            final String content;
+            final long nanos;
+
+            Send(String recipientCell, String content, long nanos) {
+                this.recipientCell = recipientCell;
+                this.content = content;
+                this.nanos = nanos;
+            }
+        }
+    }
+}
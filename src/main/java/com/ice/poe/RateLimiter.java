@@ -0,0 +1,139 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.ice.poe;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * A token-bucket rate limiter with one bucket per key (for example a username or
+ * a recipient number).
+ *
+ * Each bucket is a single {@link AtomicLong} holding its "theoretical arrival
+ * time" (the generic cell rate algorithm): the bucket is full when that time is
+ * in the past, and every permit pushes it forward by one emission interval. A
+ * check is therefore a map lookup and one compare-and-set, with no locks and no
+ * allocation once the bucket exists.
+ *
+ * Buckets that have been full for longer than the idle timeout are evicted by a
+ * sweep that piggybacks on {@link #tryAcquire(String)} calls, so no extra thread
+ * is needed.
+ *
+ * @author Simphiwe Jijana
+ */
+public class RateLimiter {
+
+    private static final int SWEEP_CHECK_MASK = 1023; // Look at the sweep clock every 1024 calls
+
+    private final long emissionIntervalNanos;
+    private final long burstNanos;
+    private final long idleTimeoutNanos;
+    private final LongSupplier nanoClock;
+    private final ConcurrentHashMap<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong lastSweepNanos;
+
+    /**
+     * Creates a rate limiter using the system nano clock.
+     *
+     * @param permitsPerSecond The sustained rate allowed per key.
+     * @param burst The number of permits a key can use at once after being idle.
+     * @param idleTimeout How long a full bucket is kept before it is evicted.
+     */
+    public RateLimiter(double permitsPerSecond, int burst, Duration idleTimeout) {
+        this(permitsPerSecond, burst, idleTimeout, System::nanoTime);
+    }
+
+    /**
+     * Creates a rate limiter.
+     *
+     * @param permitsPerSecond The sustained rate allowed per key.
+     * @param burst The number of permits a key can use at once after being idle.
+     * @param idleTimeout How long a full bucket is kept before it is evicted.
+     * @param nanoClock The source of the current time in nanoseconds.
+     */
+    public RateLimiter(double permitsPerSecond, int burst, Duration idleTimeout, LongSupplier nanoClock) {
+        if (permitsPerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("Rate and burst must be positive.");
+        }
+        this.emissionIntervalNanos = Math.max(1, (long) (1_000_000_000.0 / permitsPerSecond));
+        this.burstNanos = emissionIntervalNanos * burst;
+        this.idleTimeoutNanos = idleTimeout.toNanos();
+        this.nanoClock = nanoClock;
+        this.lastSweepNanos = new AtomicLong(nanoClock.getAsLong());
+    }
+
+    /**
+     * Takes one permit for the key if one is available.
+     *
+     * @param key The key to rate limit.
+     * @return True if the permit was granted, false if the key is over its rate.
+     */
+    public boolean tryAcquire(String key) {
+        long now = nanoClock.getAsLong();
+        if ((calls.incrementAndGet() & SWEEP_CHECK_MASK) == 0) {
+            maybeSweep(now);
+        }
+        AtomicLong bucket = buckets.get(key);
+        if (bucket == null) {
+            bucket = buckets.computeIfAbsent(key, k -> new AtomicLong(now));
+        }
+        while (true) {
+            long arrival = bucket.get();
+            long next = Math.max(arrival, now) + emissionIntervalNanos;
+            if (next - now > burstNanos) {
+                return false;
+            }
+            if (bucket.compareAndSet(arrival, next)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Gives back a permit taken by {@link #tryAcquire(String)}, for example when a
+     * second limiter refused the same request.
+     *
+     * @param key The key the permit was taken for.
+     */
+    public void release(String key) {
+        AtomicLong bucket = buckets.get(key);
+        if (bucket != null) {
+            bucket.addAndGet(-emissionIntervalNanos);
+        }
+    }
+
+    /**
+     * Removes buckets that have been full for longer than the idle timeout. A
+     * thread that is using a bucket while it is evicted may get one extra permit,
+     * because the replacement bucket also starts full.
+     *
+     * @return The number of buckets removed.
+     */
+    public int evictIdle() {
+        long cutoff = nanoClock.getAsLong() - idleTimeoutNanos;
+        int before = buckets.size();
+        buckets.values().removeIf(bucket -> bucket.get() - cutoff < 0);
+        return before - buckets.size();
+    }
+
+    /**
+     * Returns the number of keys currently tracked.
+     *
+     * @return The bucket count.
+     */
+    public int getTrackedKeys() {
+        return buckets.size();
+    }
+
+    private void maybeSweep(long now) {
+        long last = lastSweepNanos.get();
+        if (now - last >= idleTimeoutNanos && lastSweepNanos.compareAndSet(last, now)) {
+            evictIdle();
+        }
+    }
+}
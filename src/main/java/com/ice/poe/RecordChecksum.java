@@ -0,0 +1,132 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.ice.poe;
+
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32C;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Adds and checks the CRC32C checksum carried by each stored message record.
+ *
+ * The checksum is the last field of the record, {@code ,"Checksum":"xxxxxxxx"}
+ * with eight lowercase hex digits, and covers the record as it was before the
+ * field was added. Checking a record therefore needs no JSON parsing: drop the
+ * fixed-length suffix, put back the closing brace and compare checksums.
+ * Readers that do not know about the field simply ignore it.
+ *
+ * @author Simphiwe Jijana
+ */
+final class RecordChecksum {
+
+    /** The outcome of checking one record. */
+    enum Status {
+        /** The checksum matches. */
+        VALID,
+        /** The record has no checksum, for example one written before checksums were added. */
+        UNCHECKED,
+        /** The checksum does not match, or the checksum field itself is damaged. */
+        CORRUPT
+    }
+
+    static final String FIELD = "Checksum";
+
+    private static final byte[] PREFIX = (",\"" + FIELD + "\":\"").getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] FIELD_NAME = ("\"" + FIELD + "\":").getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    /** Length of the {@code ,"Checksum":"xxxxxxxx"} field plus the closing brace. */
+    static final int SUFFIX_LENGTH = PREFIX.length + 8 + 2;
+
+    private RecordChecksum() {
+    }
+
+    /**
+     * Computes the checksum of a record.
+     */
+    static int compute(byte[] record, int offset, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(record, offset, length);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Writes the checksum field for a record whose checksum has been computed.
+     * The caller has already removed the record's closing brace.
+     *
+     * @return The new end of the data in the buffer.
+     */
+    static int writeSuffix(int checksum, byte[] buffer, int at) {
+        System.arraycopy(PREFIX, 0, buffer, at, PREFIX.length);
+        at += PREFIX.length;
+        for (int shift = 28; shift >= 0; shift -= 4) {
+            buffer[at++] = HEX[(checksum >>> shift) & 0xF];
+        }
+        buffer[at++] = '"';
+        buffer[at++] = '}';
+        return at;
+    }
+
+    /**
+     * Checks one record, given without its line break.
+     */
+    static Status verify(byte[] line, int offset, int length) {
+        int suffixStart = offset + length - SUFFIX_LENGTH;
+        if (length < SUFFIX_LENGTH + 2 || !matches(line, suffixStart, PREFIX)
+                || line[offset + length - 2] != '"' || line[offset + length - 1] != '}') {
+            // No intact checksum field; if the field name still appears, the field itself was damaged
+            return indexOf(line, offset, length, FIELD_NAME) >= 0 ? Status.CORRUPT : Status.UNCHECKED;
+        }
+        int stored = 0;
+        for (int i = suffixStart + PREFIX.length; i < suffixStart + PREFIX.length + 8; i++) {
+            int digit = Character.digit(line[i], 16);
+            if (digit < 0) {
+                return Status.CORRUPT;
+            }
+            stored = (stored << 4) | digit;
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(line, offset, suffixStart - offset);
+        crc.update('}');
+        return (int) crc.getValue() == stored ? Status.VALID : Status.CORRUPT;
+    }
+
+    /**
+     * Checks and parses one record, given without its line break.
+     *
+     * @return The message, or null if the record is corrupt or cannot be parsed.
+     */
+    static Message decode(byte[] line, int offset, int length) {
+        if (verify(line, offset, length) == Status.CORRUPT) {
+            return null;
+        }
+        try {
+            return Message.fromJson(new JSONObject(new String(line, offset, length, StandardCharsets.UTF_8)));
+        } catch (JSONException e) {
+            return null; // An unchecked record that was torn or damaged
+        }
+    }
+
+    private static boolean matches(byte[] data, int at, byte[] expected) {
+        if (at < 0) {
+            return false;
+        }
+        for (int i = 0; i < expected.length; i++) {
+            if (data[at + i] != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOf(byte[] data, int offset, int length, byte[] needle) {
+        for (int i = offset; i <= offset + length - needle.length; i++) {
+            if (matches(data, i, needle)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
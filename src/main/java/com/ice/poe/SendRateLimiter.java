@@ -0,0 +1,71 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.ice.poe;
+
+import java.time.Duration;
+import java.util.function.LongSupplier;
+
+/**
+ * Rate limits the send path on two axes: how fast one sender may send, and how
+ * fast one recipient may receive. A message is only allowed when both its sender
+ * and its recipient have a permit available.
+ *
+ * @author Simphiwe Jijana
+ */
+public class SendRateLimiter {
+
+    private final RateLimiter senders;
+    private final RateLimiter recipients;
+
+    /**
+     * Creates a limiter with default limits: 5 messages per second per sender
+     * (burst of 20) and 2 per second per recipient (burst of 10).
+     */
+    public SendRateLimiter() {
+        this(5, 20, 2, 10, System::nanoTime);
+    }
+
+    /**
+     * Creates a limiter.
+     *
+     * @param senderRate Sustained messages per second allowed per sender.
+     * @param senderBurst Messages a sender may send at once after being idle.
+     * @param recipientRate Sustained messages per second allowed per recipient.
+     * @param recipientBurst Messages a recipient may receive at once after being idle.
+     * @param nanoClock The source of the current time in nanoseconds.
+     */
+    public SendRateLimiter(double senderRate, int senderBurst, double recipientRate, int recipientBurst, LongSupplier nanoClock) {
+        Duration idle = Duration.ofMinutes(5);
+        this.senders = new RateLimiter(senderRate, senderBurst, idle, nanoClock);
+        this.recipients = new RateLimiter(recipientRate, recipientBurst, idle, nanoClock);
+    }
+
+    /**
+     * Checks whether a sender may send a message to a recipient right now, and
+     * takes a permit from both buckets if so.
+     *
+     * @param sender The sender's username.
+     * @param recipientCell The recipient's cell number.
+     * @return True if the message may be sent, false if either limit was reached.
+     */
+    public boolean tryAcquire(String sender, String recipientCell) {
+        if (!senders.tryAcquire(sender)) {
+            return false;
+        }
+        if (!recipients.tryAcquire(recipientCell)) {
+            senders.release(sender); // Don't charge the sender for a message that was refused
+            return false;
+        }
+        return true;
+    }
+
+    public RateLimiter getSenderLimiter() {
+        return senders;
+    }
+
+    public RateLimiter getRecipientLimiter() {
+        return recipients;
+    }
+}
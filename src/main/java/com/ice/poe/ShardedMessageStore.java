@@ -0,0 +1,556 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.ice.poe;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Spreads stored messages over several {@link PartitionedMessageStore} shards,
+ * chosen by a hash of the recipient, so that stores are not all serialized on
+ * one file.
+ *
+ * Each shard has its own queue and writer thread. A writer takes everything
+ * queued for its shard and stores it with one {@code appendAll}, so writes to
+ * different shards run in parallel and a busy shard writes in larger batches.
+ * All messages to one recipient go to the same shard, through one queue and one
+ * writer, so they are stored in the order they were submitted. The queues are
+ * bounded: when a shard falls behind, submitters wait for space.
+ *
+ * Reads are sent to every shard at once and the results merged by the time
+ * each message was stored. Each shard numbers its own messages, so sequence
+ * numbers only order messages within a shard, which includes every
+ * conversation; see {@link #shardFor(String)}.
+ *
+ * The number of shards is saved with the store and kept when it is opened
+ * again, because a different count would send a recipient's new messages to a
+ * different shard than the old ones.
+ *
+ * @author Simphiwe Jijana
+ */
+public class ShardedMessageStore implements MessageStore {
+
+    private static final String LAYOUT_FILE = "shards.json";
+    private static final PendingWrite STOP = new PendingWrite(null);
+
+    private final Path directory;
+    private final List<PartitionedMessageStore> shards = new ArrayList<>();
+    private final List<BlockingQueue<PendingWrite>> queues = new ArrayList<>();
+    private final List<Thread> writers = new ArrayList<>();
+    private final ExecutorService readers;
+    private final int maxBatch;
+    // Submitters hold the read lock while queueing, so nothing is queued behind a writer's stop marker
+    private final ReentrantReadWriteLock lifecycle = new ReentrantReadWriteLock();
+    private boolean closed;
+
+    /**
+     * Opens (or creates) a sharded store.
+     *
+     * @param directory The directory holding one subdirectory per shard.
+     * @param options The shard, queue and partition options.
+     * @throws IOException If the directory or a shard cannot be opened.
+     */
+    public ShardedMessageStore(String directory, Options options) throws IOException {
+        if (options.shards <= 0 || options.queueCapacity <= 0 || options.maxBatch <= 0) {
+            throw new IllegalArgumentException("Shards, queue capacity and batch size must be positive.");
+        }
+        this.directory = Paths.get(directory);
+        this.maxBatch = options.maxBatch;
+        Files.createDirectories(this.directory);
+        int shardCount = loadLayout(options.shards);
+        try {
+            for (int i = 0; i < shardCount; i++) {
+                shards.add(new PartitionedMessageStore(this.directory.resolve(String.format("shard-%02d", i)).toString(),
+                        options.partitionSpan, options.maxPartitionBytes, options.clock));
+            }
+        } catch (IOException e) {
+            for (PartitionedMessageStore shard : shards) {
+                shard.close();
+            }
+            throw e;
+        }
+        for (int i = 0; i < shardCount; i++) {
+            BlockingQueue<PendingWrite> queue = new LinkedBlockingQueue<>(options.queueCapacity);
+            PartitionedMessageStore shard = shards.get(i);
+            queues.add(queue);
+            Thread writer = new Thread(() -> writeLoop(shard, queue), "shard-writer-" + i);
+            writer.setDaemon(true);
+            writers.add(writer);
+            writer.start();
+        }
+        AtomicInteger readerNumber = new AtomicInteger();
+        readers = Executors.newFixedThreadPool(shardCount, task -> {
+            Thread thread = new Thread(task, "shard-reader-" + readerNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Queues a message for its shard's writer, waiting for space if the queue is
+     * full. The message is given its shard's next sequence number when it is
+     * written.
+     *
+     * @param message The message to store.
+     * @return Completes with the message once it is written, or with the error that stopped it.
+     * @throws InterruptedException If interrupted while waiting for space.
+     * @throws IllegalStateException If the store is closed.
+     */
+    public CompletableFuture<Message> submit(Message message) throws InterruptedException {
+        PendingWrite write = new PendingWrite(message);
+        lifecycle.readLock().lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("The message store is closed.");
+            }
+            queues.get(shardIndex(message.packedRecipient(), message.recipientText())).put(write);
+        } finally {
+            lifecycle.readLock().unlock();
+        }
+        return write.done;
+    }
+
+    /**
+     * Stores a message and waits until it is written.
+     */
+    @Override
+    public void append(Message message) throws IOException {
+        try {
+            await(Collections.singletonList(submit(message)));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while queueing a message.");
+        }
+    }
+
+    /**
+     * Stores a batch of messages and waits until all are written. Messages to
+     * the same recipient are stored in list order; the batch is not atomic, so
+     * if one shard fails the others may still have written their part.
+     */
+    @Override
+    public void appendAll(List<Message> messages) throws IOException {
+        List<CompletableFuture<Message>> pending = new ArrayList<>(messages.size());
+        try {
+            for (Message message : messages) {
+                pending.add(submit(message));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while queueing messages.");
+        }
+        await(pending);
+    }
+
+    /**
+     * Queries every shard at once and merges the results by the time each
+     * message was stored. Messages still queued for writing are not included.
+     */
+    @Override
+    public List<Message> query(Instant from, Instant to) throws IOException {
+        return gather(shard -> shard.query(from, to));
+    }
+
+    @Override
+    public List<Message> readAll() throws IOException {
+        return gather(PartitionedMessageStore::readAll);
+    }
+
+    /**
+     * Looks for a message in every shard at once.
+     */
+    @Override
+    public Message findById(String messageId) throws IOException {
+        for (List<Message> found : scatter(shard -> {
+            Message message = shard.findById(messageId);
+            return message == null ? Collections.<Message>emptyList() : Collections.singletonList(message);
+        })) {
+            if (!found.isEmpty()) {
+                return found.get(0);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Deletes a message from whichever shard holds it. The shard is not known
+     * from the ID, so every shard is searched at once.
+     */
+    @Override
+    public boolean delete(String messageId) throws IOException {
+        boolean deleted = false;
+        for (List<Boolean> result : scatter(shard -> Collections.singletonList(shard.delete(messageId)))) {
+            deleted |= result.get(0);
+        }
+        return deleted;
+    }
+
+    @Override
+    public int applyRetention(Duration retention) throws IOException {
+        int dropped = 0;
+        for (PartitionedMessageStore shard : shards) {
+            dropped += shard.applyRetention(retention);
+        }
+        return dropped;
+    }
+
+    /**
+     * Removes expired messages from every shard.
+     *
+     * @return The number of expired messages removed.
+     * @throws IOException If a partition cannot be read or rewritten.
+     */
+    public int purgeExpired() throws IOException {
+        int purged = 0;
+        for (PartitionedMessageStore shard : shards) {
+            purged += shard.purgeExpired();
+        }
+        return purged;
+    }
+
+    /**
+     * Adds the listener to every shard. Shards write in parallel, so the
+     * listener is called from several writer threads at once and must be
+     * thread-safe.
+     */
+    @Override
+    public void addListener(MessageStoreListener listener) {
+        for (PartitionedMessageStore shard : shards) {
+            shard.addListener(listener);
+        }
+    }
+
+    /**
+     * Returns the shard that holds every message to a recipient, for example to
+     * build a {@link ConversationTimeline} over it.
+     *
+     * @param recipient The recipient's cell number.
+     * @return The recipient's shard.
+     */
+    public PartitionedMessageStore shardFor(String recipient) {
+        long packed = PhoneNumberCodec.encode(recipient);
+        return shards.get(shardIndex(packed, packed == MessageEncoding.NO_RECIPIENT ? recipient : null));
+    }
+
+    /**
+     * Returns the shards, in shard order.
+     *
+     * @return The shard stores.
+     */
+    public List<PartitionedMessageStore> getShards() {
+        return Collections.unmodifiableList(shards);
+    }
+
+    public int getShardCount() {
+        return shards.size();
+    }
+
+    /**
+     * Returns how many messages are queued and not yet written, across all shards.
+     *
+     * @return The number of queued messages.
+     */
+    public int getQueuedCount() {
+        int queued = 0;
+        for (BlockingQueue<PendingWrite> queue : queues) {
+            queued += queue.size();
+        }
+        return queued;
+    }
+
+    public long getCorruptRecordCount() {
+        long corrupt = 0;
+        for (PartitionedMessageStore shard : shards) {
+            corrupt += shard.getCorruptRecordCount();
+        }
+        return corrupt;
+    }
+
+    /**
+     * Writes everything still queued, stops the writer threads and closes the
+     * shards.
+     *
+     * @throws IOException If a shard cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        lifecycle.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        } finally {
+            lifecycle.writeLock().unlock();
+        }
+        boolean interrupted = false;
+        for (BlockingQueue<PendingWrite> queue : queues) {
+            while (true) {
+                try {
+                    queue.put(STOP); // Behind everything already queued; the writer is still draining it
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true; // Keep going, so queued messages are not lost
+                }
+            }
+        }
+        for (Thread writer : writers) {
+            while (writer.isAlive()) {
+                try {
+                    writer.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        readers.shutdownNow();
+        IOException failure = null;
+        for (PartitionedMessageStore shard : shards) {
+            try {
+                shard.close();
+            } catch (IOException e) {
+                failure = failure == null ? e : failure;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    // --- Internal helpers ---
+
+    /**
+     * Picks a shard from the packed recipient, or from the text of a recipient
+     * that is not "+" and digits. The packed number is mixed first, because
+     * numbers that differ only in their last digits would otherwise land on
+     * neighbouring shards in a fixed pattern.
+     */
+    private int shardIndex(long packedRecipient, String recipientText) {
+        long key = packedRecipient != MessageEncoding.NO_RECIPIENT ? packedRecipient
+                : recipientText == null ? 0 : recipientText.hashCode();
+        long mixed = key * 0x9E3779B97F4A7C15L;
+        mixed ^= mixed >>> 32;
+        return (int) Math.floorMod(mixed, (long) shards.size());
+    }
+
+    private void writeLoop(PartitionedMessageStore shard, BlockingQueue<PendingWrite> queue) {
+        List<PendingWrite> batch = new ArrayList<>(maxBatch);
+        List<Message> messages = new ArrayList<>(maxBatch);
+        boolean stop = false;
+        while (!stop) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                continue; // Only the stop marker ends the loop, so nothing queued is dropped
+            }
+            queue.drainTo(batch, maxBatch - 1);
+            for (PendingWrite write : batch) {
+                if (write == STOP) {
+                    stop = true;
+                } else {
+                    messages.add(write.message);
+                }
+            }
+            if (!messages.isEmpty()) {
+                try {
+                    shard.appendAll(messages);
+                    for (PendingWrite write : batch) {
+                        if (write != STOP) {
+                            write.done.complete(write.message);
+                        }
+                    }
+                } catch (IOException | RuntimeException e) {
+                    for (PendingWrite write : batch) {
+                        if (write != STOP) {
+                            write.done.completeExceptionally(e);
+                        }
+                    }
+                }
+            }
+            batch.clear();
+            messages.clear();
+        }
+    }
+
+    private static void await(List<CompletableFuture<Message>> pending) throws IOException {
+        boolean interrupted = false;
+        IOException failure = null;
+        for (CompletableFuture<Message> write : pending) {
+            while (true) {
+                try {
+                    write.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true; // The write is already queued, so see it through
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause() instanceof IOException ? (IOException) e.getCause()
+                                : new IOException("Storing a message failed: " + e.getCause(), e.getCause());
+                    }
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * A read run against one shard.
+     */
+    private interface ShardRead<T> {
+
+        List<T> read(PartitionedMessageStore shard) throws IOException;
+    }
+
+    /**
+     * Runs a read against every shard at once and returns the results in shard order.
+     */
+    private <T> List<List<T>> scatter(ShardRead<T> read) throws IOException {
+        List<Future<List<T>>> parts = new ArrayList<>(shards.size());
+        for (PartitionedMessageStore shard : shards) {
+            parts.add(readers.submit(() -> read.read(shard)));
+        }
+        List<List<T>> results = new ArrayList<>(shards.size());
+        try {
+            for (Future<List<T>> part : parts) {
+                results.add(part.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading the message store.");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Reading a shard failed: " + e.getCause(), e.getCause());
+        }
+        return results;
+    }
+
+    /**
+     * Reads every shard at once and merges the results. Each shard's messages
+     * are already in the order they were stored, so they are merged by
+     * timestamp with a heap over the shards' next messages; ties keep shard order.
+     */
+    private List<Message> gather(ShardRead<Message> read) throws IOException {
+        List<List<Message>> parts = scatter(read);
+        int total = 0;
+        for (List<Message> part : parts) {
+            total += part.size();
+        }
+        int[] next = new int[parts.size()];
+        PriorityQueue<Integer> heads = new PriorityQueue<>((a, b) -> {
+            int byTime = Long.compare(parts.get(a).get(next[a]).timestampMillis(), parts.get(b).get(next[b]).timestampMillis());
+            return byTime != 0 ? byTime : Integer.compare(a, b);
+        });
+        for (int i = 0; i < parts.size(); i++) {
+            if (!parts.get(i).isEmpty()) {
+                heads.add(i);
+            }
+        }
+        List<Message> merged = new ArrayList<>(total);
+        while (!heads.isEmpty()) {
+            int shard = heads.poll();
+            merged.add(parts.get(shard).get(next[shard]++));
+            if (next[shard] < parts.get(shard).size()) {
+                heads.add(shard);
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Reads the saved shard count, or saves the requested one for a new store.
+     */
+    private int loadLayout(int requestedShards) throws IOException {
+        Path layout = directory.resolve(LAYOUT_FILE);
+        if (Files.exists(layout)) {
+            int saved;
+            try {
+                saved = new JSONObject(Files.readString(layout, StandardCharsets.UTF_8)).getInt("Shards");
+            } catch (JSONException e) {
+                throw new IOException("Shard layout is corrupted: " + layout, e);
+            }
+            if (saved <= 0) {
+                throw new IOException("Shard layout is corrupted: " + layout);
+            }
+            return saved;
+        }
+        Files.writeString(layout, new JSONObject().put("Shards", requestedShards).toString(4), StandardCharsets.UTF_8);
+        return requestedShards;
+    }
+
+    /**
+     * A message waiting in a shard's queue.
+     */
+    private static final class PendingWrite {
+        final Message message;
+        final CompletableFuture<Message> done = new CompletableFuture<>();
+
+        PendingWrite(Message message) {
+            this.message = message;
+        }
+    }
+
+    /**
+     * Options for a sharded store.
+     */
+    public static final class Options {
+        private int shards = Runtime.getRuntime().availableProcessors();
+        private int queueCapacity = 10_000;
+        private int maxBatch = 1_000;
+        private Duration partitionSpan = PartitionedMessageStore.DEFAULT_PARTITION_SPAN;
+        private long maxPartitionBytes = PartitionedMessageStore.DEFAULT_MAX_PARTITION_BYTES;
+        private Clock clock = Clock.systemUTC();
+
+        /**
+         * The number of shards of a new store. An existing store keeps the count it was created with.
+         */
+        public Options shards(int count) { this.shards = count; return this; }
+
+        /**
+         * The most messages queued for one shard before submitters wait.
+         */
+        public Options queueCapacity(int messages) { this.queueCapacity = messages; return this; }
+
+        /**
+         * The most messages a writer stores in one batch.
+         */
+        public Options maxBatch(int messages) { this.maxBatch = messages; return this; }
+        public Options partitionSpan(Duration span) { this.partitionSpan = span; return this; }
+        public Options maxPartitionBytes(long bytes) { this.maxPartitionBytes = bytes; return this; }
+        public Options clock(Clock clock) { this.clock = clock; return this; }
+    }
+}
@@ -0,0 +1,491 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.ice.poe;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+/**
+ * Saves the state that is expensive to rebuild (registered users and the
+ * message statistics) to a compact snapshot file, so that startup reads the
+ * snapshot instead of the whole message archive.
+ *
+ * Next to the state, a snapshot records a cursor into the
+ * {@link PartitionedMessageStore}: how far the partition that was active at the
+ * time had been written. On startup only the records written after the cursor
+ * are replayed, so the time to start depends on how much was stored since the
+ * last snapshot, not on the size of the archive. Snapshots are written at
+ * shutdown and at regular checkpoints; see {@link #startCheckpoints(Duration)}.
+ *
+ * The file starts with a format version and a CRC32C of its contents, and is
+ * memory-mapped and checked before anything is restored from it. Writing one
+ * keeps the one before it as a fallback. If neither can be used, because it is
+ * missing, damaged, of another version or its cursor no longer matches the
+ * store, the statistics are rebuilt from the whole archive the way they were
+ * before snapshots existed. Users are saved with their salted password hashes,
+ * never the passwords, and the file is created readable only by its owner where
+ * the file system allows it.
+ *
+ * @author Simphiwe Jijana
+ */
+public class SnapshotManager implements AutoCloseable {
+
+    public static final int FORMAT_VERSION = 3;
+
+    private static final int PLAINTEXT_PASSWORD_VERSION = 1; // Still read, so its users are not lost
+    private static final int SHA256_PASSWORD_VERSION = 2; // Still read; its users are rehashed when they log in
+
+    private static final int MAGIC = 0x504F4553; // "POES"
+    private static final int HEADER_BYTES = 16; // Magic, version, body length, CRC32C of the body
+    private static final int TAIL_CHECK_BYTES = 4096;
+
+    /**
+     * Where the state was restored from.
+     */
+    public enum Source {
+        SNAPSHOT,
+        PREVIOUS_SNAPSHOT,
+        FULL_REBUILD
+    }
+
+    private final Path file;
+    private final Path previousFile;
+    private final PartitionedMessageStore store;
+    private final MessageAnalytics analytics;
+    private final Map<String, UserDetails> users;
+
+    private List<Long> lastCheckpointStamp;
+    private Thread checkpointThread;
+    private volatile boolean closed;
+
+    /**
+     * Creates a manager for the state of one store.
+     *
+     * @param file The snapshot file. The previous snapshot is kept next to it.
+     * @param store The message store the statistics are built from.
+     * @param analytics The statistics to save and restore.
+     * @param users The registered users to save and restore.
+     */
+    public SnapshotManager(Path file, PartitionedMessageStore store, MessageAnalytics analytics, Map<String, UserDetails> users) {
+        this.file = file;
+        this.previousFile = file.resolveSibling(file.getFileName() + ".prev");
+        this.store = store;
+        this.analytics = analytics;
+        this.users = users;
+    }
+
+    /**
+     * Restores the users and statistics from the newest usable snapshot and
+     * replays the records stored after it. Call this once on startup, before
+     * the statistics are registered as a store listener.
+     *
+     * @return What was restored and how much had to be replayed.
+     * @throws IOException If the store cannot be read.
+     */
+    public RestoreReport restore() throws IOException {
+        RestoreReport report = new RestoreReport();
+        Snapshot usersOnly = null;
+        for (Path candidate : List.of(file, previousFile)) {
+            Snapshot snapshot;
+            try {
+                snapshot = load(candidate);
+            } catch (IOException | IllegalArgumentException e) {
+                report.addProblem(candidate.getFileName() + ": " + e.getMessage());
+                continue;
+            }
+            if (snapshot == null) {
+                continue;
+            }
+            List<Message> replay = replayAfter(snapshot);
+            if (replay == null) {
+                report.addProblem(candidate.getFileName() + ": the store has been rewritten since it was taken");
+                if (usersOnly == null) {
+                    usersOnly = snapshot; // Users do not depend on the store
+                }
+                continue;
+            }
+            analytics.readState(snapshot.analyticsState);
+            analytics.backfill(replay);
+            snapshot.users.forEach(users::putIfAbsent);
+            report.source = candidate.equals(file) ? Source.SNAPSHOT : Source.PREVIOUS_SNAPSHOT;
+            report.replayed = replay.size();
+            report.users = snapshot.users.size();
+            return report;
+        }
+
+        // Fall back to rebuilding the statistics from every stored message
+        List<Message> all = store.readAll();
+        analytics.backfill(all);
+        if (usersOnly != null) {
+            usersOnly.users.forEach(users::putIfAbsent);
+            report.users = usersOnly.users.size();
+        }
+        report.source = Source.FULL_REBUILD;
+        report.replayed = all.size();
+        return report;
+    }
+
+    /**
+     * Writes a snapshot of the current state. The previous snapshot is kept as
+     * a fallback.
+     *
+     * @throws IOException If the snapshot cannot be written.
+     */
+    public synchronized void checkpoint() throws IOException {
+        ByteArrayOutputStream bodyBytes = new ByteArrayOutputStream(8192);
+        DataOutputStream body = new DataOutputStream(bodyBytes);
+        body.writeLong(System.currentTimeMillis());
+
+        // The cursor and the statistics must describe the same moment. Appends
+        // notify listeners under the store lock, so take both under it.
+        synchronized (store) {
+            List<PartitionedMessageStore.Partition> partitions = store.snapshotPartitions();
+            body.writeInt(partitions.size());
+            for (PartitionedMessageStore.Partition partition : partitions) {
+                writeString(body, partition.fileName);
+            }
+            if (partitions.isEmpty()) {
+                writeString(body, null);
+            } else {
+                PartitionedMessageStore.Partition active = partitions.get(partitions.size() - 1);
+                writeString(body, active.fileName);
+                body.writeLong(active.bytes);
+                body.writeInt(tailChecksum(active.fileName, active.bytes));
+            }
+            analytics.writeState(body);
+        }
+
+        List<Map.Entry<String, UserDetails>> registered = new ArrayList<>(users.entrySet());
+        body.writeInt(registered.size());
+        for (Map.Entry<String, UserDetails> user : registered) {
+            writeString(body, user.getKey());
+            writeString(body, user.getValue().getFirstName());
+            writeString(body, user.getValue().getLastName());
+            writeString(body, user.getValue().getPasswordHash());
+        }
+        body.flush();
+
+        byte[] content = bodyBytes.toByteArray();
+        CRC32C crc = new CRC32C();
+        crc.update(content);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(content.length).putInt((int) crc.getValue()).flip();
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        createOwnerOnly(temp);
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer contentBuffer = ByteBuffer.wrap(content);
+            while (header.hasRemaining() || contentBuffer.hasRemaining()) {
+                channel.write(new ByteBuffer[]{header, contentBuffer});
+            }
+            channel.force(true); // On disk before it replaces the last good snapshot
+        }
+        if (Files.exists(file)) {
+            Files.move(file, previousFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        lastCheckpointStamp = currentStamp();
+    }
+
+    /**
+     * Starts a background thread that writes a snapshot at the given interval
+     * whenever something has changed since the last one.
+     *
+     * @param interval How often to check for changes.
+     */
+    public synchronized void startCheckpoints(Duration interval) {
+        if (checkpointThread != null) {
+            return;
+        }
+        long intervalMillis = Math.max(1, interval.toMillis());
+        checkpointThread = new Thread(() -> {
+            while (!closed) {
+                try {
+                    Thread.sleep(intervalMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                try {
+                    synchronized (this) {
+                        if (!closed && !currentStamp().equals(lastCheckpointStamp)) {
+                            checkpoint();
+                        }
+                    }
+                } catch (IOException e) {
+                    // Tried again at the next interval; the last good snapshot is still in place
+                }
+            }
+        }, "snapshot-checkpoint");
+        checkpointThread.setDaemon(true);
+        checkpointThread.start();
+    }
+
+    /**
+     * Stops the checkpoint thread and writes a final snapshot. Call this before
+     * closing the store.
+     *
+     * @throws IOException If the final snapshot cannot be written.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        Thread running;
+        synchronized (this) {
+            running = checkpointThread;
+            checkpointThread = null;
+        }
+        if (running != null) {
+            running.interrupt();
+            try {
+                running.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        checkpoint();
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    // --- Reading ---
+
+    /**
+     * Maps a snapshot file and checks it before parsing.
+     *
+     * @return The snapshot, or null if there is no such file.
+     * @throws IllegalArgumentException If the file is damaged or of another version.
+     */
+    private Snapshot load(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return null;
+        }
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES || channel.size() > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("not a snapshot");
+            }
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (mapped.getInt() != MAGIC) {
+            throw new IllegalArgumentException("not a snapshot");
+        }
+        int version = mapped.getInt();
+        if (version != FORMAT_VERSION && version != SHA256_PASSWORD_VERSION && version != PLAINTEXT_PASSWORD_VERSION) {
+            throw new IllegalArgumentException("format version " + version + " is not supported");
+        }
+        int length = mapped.getInt();
+        int expectedCrc = mapped.getInt();
+        if (length != mapped.remaining()) {
+            throw new IllegalArgumentException("truncated");
+        }
+        ByteBuffer body = mapped.slice();
+        CRC32C crc = new CRC32C();
+        crc.update(body.duplicate());
+        if ((int) crc.getValue() != expectedCrc) {
+            throw new IllegalArgumentException("checksum mismatch");
+        }
+
+        try {
+            Snapshot snapshot = new Snapshot();
+            body.getLong(); // Written at
+            int partitionCount = body.getInt();
+            for (int i = 0; i < partitionCount; i++) {
+                snapshot.partitions.add(readString(body));
+            }
+            snapshot.activePartition = readString(body);
+            if (snapshot.activePartition != null) {
+                snapshot.activeBytes = body.getLong();
+                snapshot.activeTailChecksum = body.getInt();
+            }
+            // The statistics are parsed by the engine itself. Reading them into a throwaway engine
+            // finds their end and checks them, so restoring them later cannot fail half way.
+            int analyticsStart = body.position();
+            new MessageAnalytics().readState(body);
+            snapshot.analyticsState = body.duplicate().position(analyticsStart).limit(body.position()).slice();
+            int userCount = body.getInt();
+            for (int i = 0; i < userCount; i++) {
+                String username = readString(body);
+                String firstName = readString(body);
+                String lastName = readString(body);
+                String password = readString(body);
+                snapshot.users.put(username, version == PLAINTEXT_PASSWORD_VERSION
+                        ? new UserDetails(firstName, lastName, password)
+                        : UserDetails.fromPasswordHash(firstName, lastName, password)); // Reads both hash forms
+            }
+            return snapshot;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("truncated", e);
+        }
+    }
+
+    /**
+     * Finds the records stored after a snapshot was taken. Only the partition
+     * that was active then, and partitions created since, can hold any: older
+     * partitions were sealed and are never appended to again.
+     *
+     * @return The records to replay, or null if the cursor no longer matches the store.
+     */
+    private List<Message> replayAfter(Snapshot snapshot) throws IOException {
+        List<Message> replay = new ArrayList<>();
+        for (PartitionedMessageStore.Partition partition : store.snapshotPartitions()) {
+            String name = partition.fileName;
+            if (name.equals(snapshot.activePartition)) {
+                if (partition.bytes < snapshot.activeBytes
+                        || tailChecksum(name, snapshot.activeBytes) != snapshot.activeTailChecksum) {
+                    return null; // Rewritten by a delete or purge after the snapshot
+                }
+                replay.addAll(store.readFrom(partition, snapshot.activeBytes));
+            } else if (!snapshot.partitions.contains(name)) {
+                // Partition names sort by creation, so a new one must sort after the snapshot's active partition
+                if (snapshot.activePartition != null && name.compareTo(snapshot.activePartition) < 0) {
+                    return null;
+                }
+                replay.addAll(store.readFrom(partition, 0));
+            }
+        }
+        return replay;
+    }
+
+    /**
+     * A checksum of the bytes just before the cursor, to tell whether the file
+     * is still the one the snapshot saw.
+     */
+    private int tailChecksum(String partitionName, long bytes) throws IOException {
+        CRC32C crc = new CRC32C();
+        Path partitionFile = store.getDirectory().resolve(partitionName);
+        if (bytes > 0 && Files.exists(partitionFile)) {
+            long from = Math.max(0, bytes - TAIL_CHECK_BYTES);
+            try (InputStream in = Files.newInputStream(partitionFile)) {
+                in.skipNBytes(from);
+                crc.update(in.readNBytes((int) (bytes - from)));
+            } catch (EOFException e) {
+                return ~0; // Shorter than the cursor
+            }
+        }
+        return (int) crc.getValue();
+    }
+
+    /**
+     * A cheap summary of the state, to skip checkpoints when nothing changed.
+     */
+    private List<Long> currentStamp() {
+        long partitionBytes = 0;
+        List<PartitionedMessageStore.Partition> partitions = store.snapshotPartitions();
+        for (PartitionedMessageStore.Partition partition : partitions) {
+            partitionBytes += partition.bytes;
+        }
+        return List.of(analytics.getSentCount(), analytics.getStoredCount(), analytics.getDeletedCount(),
+                (long) users.size(), (long) partitions.size(), partitionBytes);
+    }
+
+    /**
+     * Creates an empty file that only its owner can read. The permissions are
+     * set as the file is created, so there is no moment when others could open it.
+     */
+    private static void createOwnerOnly(Path path) throws IOException {
+        Files.deleteIfExists(path); // Left by a checkpoint that failed part way
+        try {
+            Files.createFile(path, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } catch (UnsupportedOperationException e) {
+            // Not a POSIX file system; the file keeps the default permissions
+            Files.createFile(path);
+        }
+    }
+
+    // --- Encoding, shared with the state writers ---
+
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > in.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A snapshot read back from disk.
+     */
+    private static final class Snapshot {
+        final List<String> partitions = new ArrayList<>();
+        String activePartition;
+        long activeBytes;
+        int activeTailChecksum;
+        ByteBuffer analyticsState;
+        final Map<String, UserDetails> users = new HashMap<>();
+    }
+
+    /**
+     * What {@link #restore()} did.
+     */
+    public static final class RestoreReport {
+        Source source;
+        long replayed;
+        int users;
+        final List<String> problems = new ArrayList<>();
+
+        void addProblem(String problem) {
+            problems.add(problem);
+        }
+
+        public Source getSource() {
+            return source;
+        }
+
+        /**
+         * Returns how many stored records had to be read: those written after
+         * the snapshot, or the whole archive after a full rebuild.
+         */
+        public long getReplayed() {
+            return replayed;
+        }
+
+        public int getUsers() {
+            return users;
+        }
+
+        /**
+         * Returns why snapshots were passed over, if any were.
+         */
+        public List<String> getProblems() {
+            return problems;
+        }
+    }
+}
@@ -0,0 +1,25 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Interface.java to edit this template
+ */
+package com.ice.poe;
+
+import java.io.IOException;
+
+/**
+ * Delivers a message to its recipient. Implementations are called by the
+ * {@link Outbox} from a small, fixed pool of delivery threads and must be safe to
+ * call concurrently.
+ *
+ * @author Simphiwe Jijana
+ */
+public interface Transport {
+
+    /**
+     * Delivers one message.
+     *
+     * @param message The message to deliver.
+     * @throws IOException If delivery failed and may be retried later.
+     */
+    void deliver(Message message) throws IOException;
+}
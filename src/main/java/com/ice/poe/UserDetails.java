@@ -4,18 +4,49 @@
  */
 package com.ice.poe;
 
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.security.spec.KeySpec;
+import java.util.Base64;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
 /**
  * Represents the details of a user, including their first name, last name, and
  * password. This class is immutable as the fields are final and set only in the
  * constructor.
  *
+ * The password itself is not kept: only a salted PBKDF2-HMAC-SHA256 hash of it,
+ * which is what gets saved with the user and what a login is checked against.
+ * The iteration count is saved with the hash, so it can be raised later without
+ * locking out users saved with the old count. Users saved by older versions,
+ * with a single salted SHA-256, can still log in; see {@link #needsRehash()}.
+ *
  * @author Simphiwe Jijana
  */
 public class UserDetails {
 
+    /**
+     * The PBKDF2 iterations for new hashes. Each login costs this many HMACs, so
+     * it is what makes guessing passwords from a stolen snapshot slow. The
+     * {@code quickchat.passwordIterations} system property overrides it, for
+     * example to keep test runs that register many users quick.
+     */
+    public static final int PASSWORD_ITERATIONS = Integer.getInteger("quickchat.passwordIterations", 210_000);
+
+    private static final String ALGORITHM = "pbkdf2";
+    private static final int LEGACY_SHA256 = 0; // Iteration count of hashes saved before PBKDF2
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
     public final String firstName;
     public final String lastName;
-    public final String password;
+    private final int iterations;
+    private final byte[] salt;
+    private final byte[] passwordHash;
 
     /**
      * Constructs a new UserDetails object with the provided first name, last
@@ -26,9 +57,49 @@ public class UserDetails {
      * @param password The password of the user.
      */
     public UserDetails(String firstName, String lastName, String password) {
+        if (PASSWORD_ITERATIONS <= 0) {
+            throw new IllegalStateException("quickchat.passwordIterations must be positive");
+        }
+        this.firstName = firstName;
+        this.lastName = lastName;
+        this.iterations = PASSWORD_ITERATIONS;
+        this.salt = new byte[SALT_BYTES];
+        RANDOM.nextBytes(salt);
+        this.passwordHash = hash(iterations, salt, password);
+    }
+
+    private UserDetails(String firstName, String lastName, int iterations, byte[] salt, byte[] passwordHash) {
         this.firstName = firstName;
         this.lastName = lastName;
-        this.password = password;
+        this.iterations = iterations;
+        this.salt = salt;
+        this.passwordHash = passwordHash;
+    }
+
+    /**
+     * Recreates a user saved with {@link #getPasswordHash()}, or with the
+     * {@code salt$hash} form older versions saved.
+     *
+     * @param firstName The first name of the user.
+     * @param lastName The last name of the user.
+     * @param passwordHash The saved algorithm, iteration count, salt and password hash.
+     * @return The user.
+     * @throws IllegalArgumentException If the saved hash is malformed.
+     */
+    public static UserDetails fromPasswordHash(String firstName, String lastName, String passwordHash) {
+        String[] parts = passwordHash == null ? new String[0] : passwordHash.split("\\$");
+        Base64.Decoder decoder = Base64.getDecoder();
+        if (parts.length == 2) {
+            return new UserDetails(firstName, lastName, LEGACY_SHA256, decoder.decode(parts[0]), decoder.decode(parts[1]));
+        }
+        if (parts.length != 4 || !ALGORITHM.equals(parts[0])) {
+            throw new IllegalArgumentException("malformed password hash");
+        }
+        int iterations = Integer.parseInt(parts[1]);
+        if (iterations <= 0) {
+            throw new IllegalArgumentException("malformed password hash");
+        }
+        return new UserDetails(firstName, lastName, iterations, decoder.decode(parts[2]), decoder.decode(parts[3]));
     }
 
     /**
@@ -50,11 +121,53 @@ public class UserDetails {
     }
 
     /**
-     * Returns the last name of the user.
+     * Returns the algorithm, iteration count, salt and password hash in the
+     * form they are saved in.
      *
-     * @return The last name.
+     * @return {@code pbkdf2$<iterations>$<salt>$<hash>} with a Base64 salt and hash,
+     *         or the older {@code <salt>$<hash>} for a user not yet rehashed.
+     */
+    public String getPasswordHash() {
+        Base64.Encoder encoder = Base64.getEncoder();
+        String saltAndHash = encoder.encodeToString(salt) + "$" + encoder.encodeToString(passwordHash);
+        return iterations == LEGACY_SHA256 ? saltAndHash : ALGORITHM + "$" + iterations + "$" + saltAndHash;
+    }
+
+    /**
+     * Checks a password against the stored hash.
+     *
+     * @param password The password entered by the user.
+     * @return true if it is the user's password, false otherwise.
      */
-    public String getPassword() {
-        return password;
+    public boolean matchesPassword(String password) {
+        // Compares every byte, so the time taken does not show how much of the hash matched
+        return password != null && MessageDigest.isEqual(passwordHash, hash(iterations, salt, password));
+    }
+
+    /**
+     * Tells whether the hash is weaker than a new one would be: an old SHA-256
+     * hash, or fewer iterations than {@link #PASSWORD_ITERATIONS}. After a
+     * successful login such a user can be replaced by one made from the
+     * password, which is the only time the password is known.
+     *
+     * @return true if the user should be rehashed.
+     */
+    public boolean needsRehash() {
+        return iterations < PASSWORD_ITERATIONS;
+    }
+
+    private static byte[] hash(int iterations, byte[] salt, String password) {
+        String text = password == null ? "" : password;
+        try {
+            if (iterations == LEGACY_SHA256) {
+                MessageDigest digest = MessageDigest.getInstance("SHA-256");
+                digest.update(salt);
+                return digest.digest(text.getBytes(StandardCharsets.UTF_8));
+            }
+            KeySpec spec = new PBEKeySpec(text.toCharArray(), salt, iterations, HASH_BITS);
+            return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Password hashing is not available", e); // Every Java platform must provide both
+        }
     }
 }
@@ -0,0 +1,149 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.ice.poe.Test;
+
+import com.ice.poe.BatchSender;
+import com.ice.poe.Message;
+import com.ice.poe.PartitionedMessageStore;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.json.JSONObject;
+
+/**
+ *
+ * @author Simphiwe Jijana
+ */
+@DisplayName("BatchSender Tests")
+public class BatchSenderTest {
+
+    @TempDir
+    Path tempDir;
+
+    private List<JSONObject> readResults(Path resultFile) throws IOException {
+        List<JSONObject> results = new ArrayList<>();
+        for (String line : Files.readAllLines(resultFile, StandardCharsets.UTF_8)) {
+            results.add(new JSONObject(line));
+        }
+        return results;
+    }
+
+    @Test
+    @DisplayName("CSV and NDJSON records are validated, hashed, and sent or stored")
+    void testMixedInput() throws IOException {
+        String input = String.join("\n",
+                "Recipient,Message,Action",
+                "+27821234567,Hello there,send",
+                "+27821234567,\"Hi, it's \"\"me\"\" again\",store",
+                "0821234567,Bad number,send",
+                "",
+                "{\"Recipient\":\"+27829876543\",\"Message\":\"From json\"}",
+                "{\"Recipient\":\"+27829876543\",\"Message\":\"" + "x".repeat(251) + "\"}",
+                "+27821234567,\"Unclosed quote",
+                "+27821234567,Later,shout",
+                "{broken json");
+        List<Message> sent = new CopyOnWriteArrayList<>();
+        Path results = tempDir.resolve("results.ndjson");
+        BatchSender.Report report;
+        try (PartitionedMessageStore store = new PartitionedMessageStore(tempDir.resolve("store").toString())) {
+            BatchSender batch = new BatchSender(store, (sender, messages) -> sent.addAll(messages), new BatchSender.Options());
+            report = batch.run(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), results, "ab_c");
+
+            List<Message> stored = store.readAll();
+            assertEquals(1, stored.size());
+            assertEquals("Hi, it's \"me\" again", stored.get(0).getMessageContent());
+        }
+        assertEquals(8, report.getRecords());
+        assertEquals(2, report.getSent());
+        assertEquals(1, report.getStored());
+        assertEquals(5, report.getRejected());
+
+        assertEquals("Hello there", sent.get(0).getMessageContent());
+        assertEquals("From json", sent.get(1).getMessageContent());
+        assertEquals(sent.get(0).getMessageID().substring(0, 2) + ":0:HELLOTHERE", sent.get(0).getMessageHash());
+
+        List<JSONObject> lines = readResults(results);
+        assertEquals(8, lines.size());
+        assertEquals(2, lines.get(0).getLong("Line"), "The header is line 1.");
+        assertEquals("SENT", lines.get(0).getString("Status"));
+        assertEquals(sent.get(0).getMessageID(), lines.get(0).getString("MessageID"));
+        assertEquals("STORED", lines.get(1).getString("Status"));
+        assertTrue(lines.get(2).getString("Reason").contains("+27"));
+        assertEquals(6, lines.get(3).getLong("Line"), "Blank lines are skipped but still counted.");
+        assertTrue(lines.get(4).getString("Reason").contains("250"));
+        assertEquals("Unterminated quote", lines.get(5).getString("Reason"));
+        assertEquals("Action must be send or store", lines.get(6).getString("Reason"));
+        assertTrue(lines.get(7).getString("Reason").startsWith("Malformed JSON"));
+    }
+
+    @Test
+    @DisplayName("A large file is processed in parallel chunks without losing input order")
+    void testLargeFileKeepsOrder() throws IOException {
+        int records = 50_000;
+        Path input = tempDir.resolve("batch.csv");
+        try (BufferedWriter writer = Files.newBufferedWriter(input, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < records; i++) {
+                writer.write("+2782123456" + (i % 10) + ",Message number " + i + "," + (i % 4 == 0 ? "store" : "send"));
+                writer.newLine();
+            }
+        }
+        List<Message> sent = new ArrayList<>(); // Sends are made one chunk at a time, so no locking is needed
+        Path results = tempDir.resolve("batch.results");
+        BatchSender.Report report;
+        try (PartitionedMessageStore store = new PartitionedMessageStore(tempDir.resolve("store").toString())) {
+            BatchSender.Options options = new BatchSender.Options().chunkSize(1_000).parallelism(4);
+            report = new BatchSender(store, (sender, messages) -> sent.addAll(messages), options).run(input, results, "ab_c");
+            assertEquals(records / 4, store.readAll().size());
+        }
+        assertEquals(records, report.getRecords());
+        assertEquals(records * 3 / 4, report.getSent());
+        assertEquals(0, report.getRejected());
+
+        int expected = 0;
+        for (Message message : sent) {
+            while (expected % 4 == 0) {
+                expected++; // Stored, not sent
+            }
+            assertEquals("Message number " + expected, message.getMessageContent());
+            assertEquals(expected + 1, message.getNumMessagesSent());
+            expected++;
+        }
+        List<JSONObject> lines = readResults(results);
+        assertEquals(records, lines.size());
+        for (int i = 0; i < records; i++) {
+            assertEquals(i + 1, lines.get(i).getLong("Line"));
+        }
+    }
+
+    @Test
+    @DisplayName("A batch the send path rejects is reported as failed")
+    void testSendFailure() throws IOException {
+        String input = "+27821234567,First\n+27821234567,Second,store\n";
+        Path results = tempDir.resolve("results.ndjson");
+        try (PartitionedMessageStore store = new PartitionedMessageStore(tempDir.resolve("store").toString())) {
+            BatchSender batch = new BatchSender(store, (sender, messages) -> {
+                throw new IOException("Network down");
+            }, new BatchSender.Options());
+            BatchSender.Report report = batch.run(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), results, "ab_c");
+            assertEquals(1, report.getFailed());
+            assertEquals(1, report.getStored());
+        }
+        List<JSONObject> lines = readResults(results);
+        assertEquals("FAILED", lines.get(0).getString("Status"));
+        assertTrue(lines.get(0).getString("Reason").contains("Network down"));
+        assertEquals("STORED", lines.get(1).getString("Status"));
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.ice.poe.Test;
+
+import com.ice.poe.BulkImporter;
+import com.ice.poe.Message;
+import com.ice.poe.PartitionedMessageStore;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ *
+ * @author Simphiwe Jijana
+ */
+@DisplayName("BulkImporter Tests")
+public class BulkImporterTest {
+
+    @TempDir
+    Path dir;
+
+    private static String record(int i) {
+        return String.format("{\"Message\": \"Imported {message} \\\"%d\\\"\", \"NumMessagesSent\": 1, "
+                + "\"Recipient\": \"+27821234567\", \"MessageHash\": \"17:0:IMPORTED%d\", \"MessageID\": \"%010d\"}", i, i, i);
+    }
+
+    private Path writeArchive(String content) throws Exception {
+        Path archive = dir.resolve("messages.json");
+        Files.writeString(archive, content, StandardCharsets.UTF_8);
+        return archive;
+    }
+
+    @Test
+    @DisplayName("A bare legacy record followed by a trailing comma is imported")
+    void testLegacySample() throws Exception {
+        Path archive = writeArchive("{\n    \"Message\": \"Okay\",\n    \"NumMessagesSent\": 1,\n    \"Recipient\": \"+278463768\",\n"
+                + "    \"MessageHash\": \"17:0:OKAYOKAY\",\n    \"MessageID\": \"1734138583\"\n},\n");
+        try (PartitionedMessageStore store = new PartitionedMessageStore(dir.resolve("store").toString())) {
+            BulkImporter.Report report = new BulkImporter(store, new BulkImporter.Options()).importFile(archive);
+            assertTrue(report.isComplete());
+            assertEquals(1, report.getImported());
+            assertEquals(0, report.getRejected());
+            assertEquals("Okay", store.findById("1734138583").getMessageContent());
+        }
+    }
+
+    @Test
+    @DisplayName("Malformed and invalid records are logged and skipped")
+    void testRejectsBadRecords() throws Exception {
+        StringBuilder archive = new StringBuilder("[\n");
+        for (int i = 0; i < 1000; i++) {
+            archive.append(record(i)).append(",\n");
+            if (i % 100 == 0) {
+                archive.append("{\"Message\": \"no closing quote, \"MessageID\": 5},\n"); // Malformed JSON
+                archive.append("{\"Message\": \"Bad id\", \"NumMessagesSent\": 1, \"Recipient\": \"+27821234567\", \"MessageID\": \"12\"},\n");
+            }
+        }
+        archive.append("]\n{\"Message\": \"cut off");
+        Path file = writeArchive(archive.toString());
+
+        try (PartitionedMessageStore store = new PartitionedMessageStore(dir.resolve("store").toString())) {
+            BulkImporter.Report report = new BulkImporter(store, new BulkImporter.Options().chunkSize(64).parallelism(4)).importFile(file);
+            assertEquals(1000, report.getImported());
+            assertEquals(21, report.getRejected());
+            assertEquals(21, Files.readAllLines(BulkImporter.rejectLogFor(file)).size());
+
+            List<Message> all = store.readAll();
+            assertEquals(1000, all.size());
+            for (int i = 0; i < all.size(); i++) {
+                assertEquals(String.format("%010d", i), all.get(i).getMessageID(), "Records must be stored in file order.");
+            }
+            assertEquals("Imported {message} \"7\"", store.findById("0000000007").getMessageContent());
+        }
+    }
+
+    @Test
+    @DisplayName("An interrupted import resumes from its checkpoint without duplicates")
+    void testResume() throws Exception {
+        StringBuilder archive = new StringBuilder("[");
+        for (int i = 0; i < 500; i++) {
+            archive.append(i == 0 ? "" : ",").append(record(i));
+        }
+        Path file = writeArchive(archive.append("]").toString());
+
+        try (PartitionedMessageStore store = new PartitionedMessageStore(dir.resolve("store").toString())) {
+            BulkImporter.Options slice = new BulkImporter.Options().chunkSize(50).parallelism(2).maxChunks(3);
+            BulkImporter.Report first = new BulkImporter(store, slice).importFile(file);
+            assertFalse(first.isComplete());
+            assertEquals(150, first.getImported());
+
+            BulkImporter.Report second = new BulkImporter(store, new BulkImporter.Options()).importFile(file);
+            assertTrue(second.isComplete());
+            assertTrue(second.getResumedFromOffset() > 0);
+            assertEquals(500, second.getImported());
+
+            BulkImporter.Report again = new BulkImporter(store, new BulkImporter.Options()).importFile(file);
+            assertEquals(500, again.getImported(), "A finished import is not repeated.");
+
+            Set<String> ids = new HashSet<>();
+            for (Message message : store.readAll()) {
+                assertTrue(ids.add(message.getMessageID()), "Duplicate " + message.getMessageID());
+            }
+            assertEquals(500, ids.size());
+        }
+    }
+}
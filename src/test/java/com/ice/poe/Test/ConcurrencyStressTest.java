@@ -0,0 +1,234 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.ice.poe.Test;
+
+import com.ice.poe.Message;
+import com.ice.poe.POE;
+import com.ice.poe.PartitionedMessageStore;
+import com.ice.poe.PoeLogin;
+import com.ice.poe.UserDetails;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.json.JSONArray;
+
+/**
+ * Runs many threads at once against sending, storing, ID generation and login,
+ * and checks that nothing is lost, counted twice or handed out twice.
+ *
+ * The load can be changed from the command line, e.g.
+ * {@code mvn test -Dtest=ConcurrencyStressTest -Dstress.threads=64 -Dstress.iterations=5000 -Dstress.seed=7}.
+ * Each thread draws its data from {@code new Random(seed + thread)}, so a
+ * failing run can be repeated with the same seed.
+ *
+ * @author Simphiwe Jijana
+ */
+@DisplayName("Concurrency stress Tests")
+public class ConcurrencyStressTest {
+
+    private static final int THREADS = Integer.getInteger("stress.threads", Math.max(8, Runtime.getRuntime().availableProcessors()));
+    private static final int ITERATIONS = Integer.getInteger("stress.iterations", 1000);
+    private static final long SEED = Long.getLong("stress.seed", 42L);
+
+    @TempDir
+    Path tempDir;
+
+    /**
+     * The body of one stress thread.
+     */
+    private interface Worker {
+
+        void run(int thread, Random random) throws Exception;
+    }
+
+    /**
+     * Starts every thread at once, so they contend from the first iteration,
+     * and rethrows the first failure of any of them.
+     */
+    private static void runConcurrently(Worker worker) throws Exception {
+        CountDownLatch ready = new CountDownLatch(THREADS);
+        CountDownLatch go = new CountDownLatch(1);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>(THREADS);
+        for (int t = 0; t < THREADS; t++) {
+            final int thread = t;
+            Thread runner = new Thread(() -> {
+                ready.countDown();
+                try {
+                    go.await();
+                    worker.run(thread, new Random(SEED + thread));
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }, "stress-" + thread);
+            runner.setDaemon(true);
+            threads.add(runner);
+            runner.start();
+        }
+        ready.await();
+        go.countDown();
+        for (Thread runner : threads) {
+            runner.join(Duration.ofMinutes(2).toMillis());
+            assertFalse(runner.isAlive(), runner.getName() + " did not finish.");
+        }
+        if (failure.get() != null) {
+            throw new AssertionError("A stress thread failed (seed " + SEED + ")", failure.get());
+        }
+    }
+
+    private static Message newMessage(int index, Random random) {
+        return TestMessages.newMessage(index, "+2782" + (1_000_000 + random.nextInt(9_000_000)),
+                "Stress message " + index + " " + Long.toHexString(random.nextLong()));
+    }
+
+    @Test
+    @DisplayName("The total of messages sent is exact under contention")
+    void testSendTotalIsExact() throws Exception {
+        int before = Message.getTotalMessagesSent();
+        runConcurrently((thread, random) -> {
+            Message message = newMessage(thread, random);
+            for (int i = 0; i < ITERATIONS; i++) {
+                message.sendMessage();
+            }
+        });
+        assertEquals(before + THREADS * ITERATIONS, Message.getTotalMessagesSent());
+    }
+
+    @Test
+    @DisplayName("Message IDs are unique across threads")
+    void testMessageIdsAreUnique() throws Exception {
+        Set<String> ids = ConcurrentHashMap.newKeySet();
+        AtomicInteger generated = new AtomicInteger();
+        runConcurrently((thread, random) -> {
+            Message message = new Message(thread);
+            for (int i = 0; i < ITERATIONS * 10; i++) {
+                String id = message.generateMessageID();
+                assertTrue(id.matches("\\d{10}"), "Not a ten-digit ID: " + id);
+                ids.add(id);
+                generated.incrementAndGet();
+            }
+        });
+        assertEquals(generated.get(), ids.size(), "Some message IDs were handed out twice.");
+    }
+
+    @Test
+    @DisplayName("Concurrent stores to one JSON file lose and duplicate nothing")
+    void testJsonFileStoresAreNotLost() throws Exception {
+        Path file = tempDir.resolve("stored_messages.json");
+        int perThread = Math.max(1, ITERATIONS / 20); // Every store rewrites the whole array
+        Set<String> expected = ConcurrentHashMap.newKeySet();
+        runConcurrently((thread, random) -> {
+            for (int i = 0; i < perThread; i++) {
+                Message message = newMessage(i, random);
+                assertNull(message.appendToJsonFile(file.toString()), "The file should never be seen half-written.");
+                expected.add(message.getMessageID());
+            }
+        });
+        JSONArray stored = new JSONArray(Files.readString(file, StandardCharsets.UTF_8));
+        Set<String> storedIds = new HashSet<>();
+        for (int i = 0; i < stored.length(); i++) {
+            assertTrue(storedIds.add(stored.getJSONObject(i).getString("MessageID")), "Stored twice.");
+        }
+        assertEquals(THREADS * perThread, stored.length());
+        assertEquals(expected, storedIds);
+    }
+
+    @Test
+    @DisplayName("Concurrent appends to the partitioned store lose and duplicate nothing, even across rollovers")
+    void testPartitionedStoreAppendsAreNotLost() throws Exception {
+        Set<String> expected = ConcurrentHashMap.newKeySet();
+        // Small partitions, so writers also race with rolling over to a new partition
+        try (PartitionedMessageStore store = new PartitionedMessageStore(tempDir.resolve("store").toString(),
+                Duration.ofDays(1), 16 * 1024, Clock.systemUTC())) {
+            runConcurrently((thread, random) -> {
+                for (int i = 0; i < ITERATIONS; i++) {
+                    Message message = newMessage(i, random);
+                    if (random.nextInt(4) == 0) {
+                        store.appendAll(List.of(message));
+                    } else {
+                        store.append(message);
+                    }
+                    expected.add(message.getMessageID());
+                    if (i % 100 == 0) {
+                        store.readAll(); // Readers run alongside the writers
+                    }
+                }
+            });
+            List<Message> stored = store.readAll();
+            Set<String> storedIds = new HashSet<>();
+            for (Message message : stored) {
+                assertTrue(storedIds.add(message.getMessageID()), "Stored twice: " + message.getMessageID());
+            }
+            assertEquals(THREADS * ITERATIONS, stored.size());
+            assertEquals(expected, storedIds);
+            assertEquals(0, store.getCorruptRecordCount());
+            assertTrue(store.getPartitionNames().size() > 1, "The store should have rolled over.");
+        }
+    }
+
+    @Test
+    @DisplayName("Session sends recorded from many threads are all kept")
+    void testSessionStateIsExact() throws Exception {
+        int before = POE.getSessionSentCount();
+        runConcurrently((thread, random) -> {
+            for (int i = 0; i < ITERATIONS; i++) {
+                Message message = newMessage(i, random);
+                message.sendMessage();
+                POE.recordSent("stress-user-" + thread, message);
+            }
+        });
+        assertEquals(before + THREADS * ITERATIONS, POE.getSessionSentCount());
+    }
+
+    @Test
+    @DisplayName("Each username registers once, and logins see only complete registrations")
+    void testRegistrationAndLoginRace() throws Exception {
+        int users = Math.max(1, ITERATIONS / 10);
+        String run = Long.toHexString(SEED) + "-" + System.nanoTime(); // Registrations stay for the rest of the JVM
+        AtomicInteger registered = new AtomicInteger();
+        Map<String, UserDetails> localUsers = new ConcurrentHashMap<>();
+        runConcurrently((thread, random) -> {
+            PoeLogin login = new PoeLogin(localUsers, 3);
+            for (int i = 0; i < users; i++) {
+                // Every thread races for the same usernames, in its own order
+                int user = (i + random.nextInt(users)) % users;
+                String username = "u" + user + "_" + run;
+                String password = "Passw0rd!" + user;
+                if (POE.registerUser(username, new UserDetails("Stress", "User" + user, password))) {
+                    registered.incrementAndGet();
+                }
+                localUsers.putIfAbsent(username, new UserDetails("Stress", "User" + user, password));
+                assertTrue(POE.checkLogin(username, password));
+                assertTrue(login.validateLogin(username, password));
+                assertFalse(login.validateLogin(username, password + "x"));
+                assertFalse(login.validateLogin("missing_" + username, password));
+            }
+        });
+        int distinct = 0;
+        for (int user = 0; user < users; user++) {
+            if (POE.checkLogin("u" + user + "_" + run, "Passw0rd!" + user)) {
+                distinct++;
+            }
+        }
+        assertEquals(distinct, registered.get(), "A username was registered more than once.");
+    }
+}
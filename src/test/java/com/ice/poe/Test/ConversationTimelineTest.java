@@ -0,0 +1,172 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.ice.poe.Test;
+
+import com.ice.poe.ConversationTimeline;
+import com.ice.poe.Message;
+import com.ice.poe.PartitionedMessageStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static com.ice.poe.Test.TestMessages.newMessage;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ *
+ * @author Simphiwe Jijana
+ */
+@DisplayName("ConversationTimeline Tests")
+public class ConversationTimelineTest {
+
+    private static final Instant START = Instant.parse("2025-01-01T10:00:00Z");
+    private static final String ANN = "+27821234567";
+    private static final String BEN = "+27829876543";
+
+    @TempDir
+    Path storeDir;
+
+    private PartitionedMessageStoreTest.MutableClock clock;
+
+    @BeforeEach
+    void setUp() {
+        clock = new PartitionedMessageStoreTest.MutableClock(START);
+    }
+
+    private PartitionedMessageStore openStore() throws IOException {
+        return new PartitionedMessageStore(storeDir.toString(), Duration.ofDays(1), 64 * 1024, clock);
+    }
+
+    /**
+     * Pages through a whole conversation, newest page first, and returns its
+     * contents oldest first.
+     */
+    private static List<String> readConversation(ConversationTimeline timeline, String recipient, int pageSize) {
+        List<String> contents = new ArrayList<>();
+        ConversationTimeline.Page page = timeline.latest(recipient, pageSize);
+        while (true) {
+            List<String> pageContents = new ArrayList<>();
+            for (Message message : page.getMessages()) {
+                pageContents.add(message.getMessageContent());
+            }
+            contents.addAll(0, pageContents);
+            if (!page.hasMore()) {
+                return contents;
+            }
+            assertEquals(pageSize, page.getMessages().size(), "Only the last page may be short.");
+            page = timeline.pageBefore(recipient, page.getNextCursor(), pageSize);
+        }
+    }
+
+    @Test
+    @DisplayName("Stored messages get increasing sequence numbers that carry on after a restart")
+    void testSequenceAndTimestamp() throws IOException {
+        Message first = newMessage(0, ANN, "First");
+        Message second = newMessage(1, ANN, "Second");
+        try (PartitionedMessageStore store = openStore()) {
+            assertEquals(0, first.getSequence());
+            assertNull(first.getTimestamp());
+            store.append(first);
+            store.appendAll(List.of(second, newMessage(2, BEN, "Third")));
+        }
+        assertEquals(1, first.getSequence());
+        assertEquals(2, second.getSequence());
+        assertEquals(START, first.getTimestamp(), "The clock did not move, but the sequence still orders them.");
+
+        clock.advance(Duration.ofMinutes(5));
+        try (PartitionedMessageStore store = openStore()) {
+            Message fourth = newMessage(3, BEN, "Fourth");
+            store.append(fourth);
+            assertEquals(4, fourth.getSequence());
+
+            List<Message> stored = store.readAll();
+            assertEquals(List.of(1L, 2L, 3L, 4L), stored.stream().map(Message::getSequence).toList());
+            assertEquals(START.plus(Duration.ofMinutes(5)), stored.get(3).getTimestamp());
+        }
+    }
+
+    @Test
+    @DisplayName("A conversation reads back page by page, in order, among other conversations")
+    void testPaging() throws IOException {
+        List<String> expected = new ArrayList<>();
+        try (PartitionedMessageStore store = openStore()) {
+            for (int i = 0; i < 300; i++) {
+                if (i % 3 == 0) {
+                    store.append(newMessage(i, BEN, "To Ben " + i));
+                } else {
+                    store.append(newMessage(i, ANN, "To Ann " + i));
+                    expected.add("To Ann " + i);
+                }
+                if (i % 50 == 0) {
+                    clock.advance(Duration.ofHours(12)); // Spread over several partitions
+                }
+            }
+            ConversationTimeline timeline = new ConversationTimeline(store, clock);
+            assertTrue(store.getPartitionNames().size() > 1);
+
+            ConversationTimeline.Page latest = timeline.latest(ANN, 3);
+            assertEquals(List.of("To Ann 296", "To Ann 298", "To Ann 299"),
+                    latest.getMessages().stream().map(Message::getMessageContent).toList());
+            assertEquals(expected, readConversation(timeline, ANN, 17));
+            assertEquals(100, readConversation(timeline, BEN, 100).size());
+            assertTrue(timeline.latest("+27830000000", 10).getMessages().isEmpty());
+
+            // Messages stored after the timeline was built are added as they are stored
+            store.append(newMessage(300, ANN, "Latest"));
+            assertEquals("Latest", timeline.latest(ANN, 1).getMessages().get(0).getMessageContent());
+            ConversationTimeline.Page older = timeline.pageBefore(ANN, latest.getNextCursor(), 2);
+            assertEquals(List.of("To Ann 293", "To Ann 295"),
+                    older.getMessages().stream().map(Message::getMessageContent).toList(),
+                    "A cursor still points at the same place after new messages arrive.");
+        }
+    }
+
+    @Test
+    @DisplayName("Deleted, expired and dropped messages are left out")
+    void testRemovedMessagesAreLeftOut() throws IOException {
+        try (PartitionedMessageStore store = openStore()) {
+            ConversationTimeline timeline = new ConversationTimeline(store, clock);
+            List<Message> old = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                Message message = newMessage(i, ANN, "Old " + i);
+                store.append(message);
+                old.add(message);
+            }
+            for (int i = 0; i < 1500; i++) {
+                store.append(newMessage(i, BEN, "Old to Ben " + i));
+            }
+            clock.advance(Duration.ofDays(10));
+            Message expiring = newMessage(5, ANN, "Expiring");
+            expiring.setExpiresAt(clock.instant().plus(Duration.ofMinutes(1)));
+            store.append(expiring);
+            for (int i = 6; i < 606; i++) {
+                store.append(newMessage(i, i % 2 == 0 ? ANN : BEN, "New " + i));
+            }
+            assertEquals(306, readConversation(timeline, ANN, 50).size());
+
+            store.delete(old.get(2).getMessageID());
+            assertEquals(305, readConversation(timeline, ANN, 50).size());
+            clock.advance(Duration.ofMinutes(2));
+            List<String> afterExpiry = readConversation(timeline, ANN, 50);
+            assertEquals(304, afterExpiry.size());
+            assertFalse(afterExpiry.contains("Expiring"));
+
+            // Dropping the old partitions leaves most rows dead, so the timeline is compacted
+            assertTrue(store.applyRetention(Duration.ofDays(5)) > 0);
+            assertEquals(600, timeline.size(), "Only the live rows should be left after compaction.");
+            List<String> afterRetention = readConversation(timeline, ANN, 50);
+            assertEquals(300, afterRetention.size());
+            assertEquals("New 6", afterRetention.get(0));
+            assertEquals("New 605", readConversation(timeline, BEN, 50).get(299));
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.ice.poe.Test;
+
+import com.ice.poe.DuplicateDetector;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *
+ * @author Simphiwe Jijana
+ */
+@DisplayName("DuplicateDetector Tests")
+public class DuplicateDetectorTest {
+
+    private static final long MINUTE = 60_000_000_000L;
+
+    private final AtomicLong now = new AtomicLong();
+
+    @Test
+    @DisplayName("The same recipient and content is flagged on resubmission")
+    void testResubmissionFlagged() {
+        DuplicateDetector detector = new DuplicateDetector(1000, 0.01, Duration.ofMinutes(10), null, now::get);
+        assertFalse(detector.checkAndRecord("+27821234567", "See you at noon"));
+        assertTrue(detector.checkAndRecord("+27821234567", "See you at noon"));
+        assertFalse(detector.checkAndRecord("+27609876543", "See you at noon"), "A different recipient is not a duplicate.");
+        assertFalse(detector.checkAndRecord("+27821234567", "See you at one"), "Different content is not a duplicate.");
+    }
+
+    @Test
+    @DisplayName("Submissions are forgotten after two windows")
+    void testWindowRotation() {
+        DuplicateDetector detector = new DuplicateDetector(1000, 0.01, Duration.ofMinutes(10), null, now::get);
+        detector.checkAndRecord("+27821234567", "Running late");
+        now.addAndGet(15 * MINUTE);
+        assertTrue(detector.checkAndRecord("+27821234567", "Running late"), "Still remembered in the previous window.");
+        now.addAndGet(25 * MINUTE);
+        assertFalse(detector.checkAndRecord("+27821234567", "Running late"), "Forgotten once both windows have passed.");
+    }
+
+    @Test
+    @DisplayName("Filter hits are confirmed by the exact check, so false positives are not flagged")
+    void testVerifierRejectsFalsePositives() {
+        Set<String> submitted = new HashSet<>();
+        DuplicateDetector detector = new DuplicateDetector(1000, 0.05, Duration.ofMinutes(10),
+                (sender, recipient, content) -> submitted.contains(recipient + content), now::get);
+        int flagged = 0;
+        for (int i = 0; i < 5000; i++) {
+            String recipient = String.format("+27%09d", i);
+            if (detector.checkAndRecord(recipient, "Hello")) {
+                flagged++;
+            }
+            submitted.add(recipient + "Hello");
+        }
+        assertEquals(0, flagged, "Unique messages must never be flagged.");
+        assertTrue(detector.getFalsePositiveCount() > 0, "An overfilled filter should have produced some false positives.");
+        assertEquals(detector.getFilterHitCount(), detector.getFalsePositiveCount());
+    }
+
+    @Test
+    @DisplayName("The false-positive rate stays near the configured rate at the expected load")
+    void testFalsePositiveRate() {
+        DuplicateDetector detector = new DuplicateDetector(10_000, 0.01, Duration.ofMinutes(10), null, now::get);
+        int falsePositives = 0;
+        for (int i = 0; i < 10_000; i++) {
+            if (detector.checkAndRecord(String.format("+27%09d", i), "Message " + i)) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < 200, "Expected roughly 1% false positives, got " + falsePositives);
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.ice.poe.Test;
+
+import com.ice.poe.IntegrityScrubber;
+import com.ice.poe.Message;
+import com.ice.poe.PartitionedMessageStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static com.ice.poe.Test.TestMessages.newMessage;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ *
+ * @author Simphiwe Jijana
+ */
+@DisplayName("IntegrityScrubber Tests")
+public class IntegrityScrubberTest {
+
+    @TempDir
+    Path storeDir;
+
+    private PartitionedMessageStoreTest.MutableClock clock;
+
+    @BeforeEach
+    void setUp() {
+        clock = new PartitionedMessageStoreTest.MutableClock(Instant.parse("2025-01-01T10:00:00Z"));
+    }
+
+    private PartitionedMessageStore openStore() throws IOException {
+        return new PartitionedMessageStore(storeDir.toString(), Duration.ofDays(1),
+                PartitionedMessageStore.DEFAULT_MAX_PARTITION_BYTES, clock);
+    }
+
+    /** Writes three days of five messages each, one partition per day. */
+    private List<String> fillStore() throws IOException {
+        try (PartitionedMessageStore store = openStore()) {
+            for (int day = 0; day < 3; day++) {
+                for (int i = 0; i < 5; i++) {
+                    store.append(newMessage(i, "Day " + day + " message number " + i));
+                }
+                clock.advance(Duration.ofDays(1));
+            }
+            return store.getPartitionNames();
+        }
+    }
+
+    private static int offsetOfLine(byte[] data, int line) {
+        int offset = 0;
+        for (int i = 0; i < line; i++) {
+            while (data[offset] != '\n') {
+                offset++;
+            }
+            offset++;
+        }
+        return offset;
+    }
+
+    @Test
+    @DisplayName("A flipped byte is reported, skipped by reads and quarantined")
+    void testFlippedByteIsQuarantined() throws IOException {
+        List<String> partitions = fillStore();
+        Path file = storeDir.resolve(partitions.get(0));
+        byte[] data = Files.readAllBytes(file);
+        int damaged = offsetOfLine(data, 1);
+        data[damaged + 14] ^= 0x01; // A letter inside the message content
+        Files.write(file, data);
+
+        try (PartitionedMessageStore store = openStore();
+                IntegrityScrubber scrubber = new IntegrityScrubber(store, new IntegrityScrubber.Options().threads(2).quarantine(false))) {
+            assertEquals(14, store.readAll().size(), "Reads should skip the damaged record, not fail.");
+            assertEquals(1, store.getCorruptRecordCount());
+
+            IntegrityScrubber.Report report = scrubber.scrub();
+            assertEquals(3, report.getPartitions());
+            assertEquals(15, report.getRecords());
+            assertEquals(14, report.getValid());
+            assertEquals(1, report.getProblems().size());
+            IntegrityScrubber.Problem problem = report.getProblems().get(0);
+            assertEquals(partitions.get(0), problem.getPartition());
+            assertEquals(damaged, problem.getOffset());
+            assertEquals(IntegrityScrubber.CHECKSUM_MISMATCH, problem.getReason());
+            assertEquals(0, report.getQuarantined(), "Quarantine was turned off.");
+        }
+
+        try (PartitionedMessageStore store = openStore();
+                IntegrityScrubber scrubber = new IntegrityScrubber(store)) {
+            assertEquals(1, scrubber.scrub().getQuarantined());
+            Path quarantined = storeDir.resolve("quarantine").resolve(partitions.get(0) + ".bad");
+            assertEquals(1, Files.readAllLines(quarantined).size());
+
+            IntegrityScrubber.Report again = scrubber.scrub();
+            assertTrue(again.getProblems().isEmpty(), "The quarantined partition should now be clean.");
+            assertEquals(14, again.getValid());
+            assertEquals(14, store.readAll().size());
+            assertEquals(0, store.getCorruptRecordCount());
+            assertSame(again, scrubber.getLastReport());
+        }
+    }
+
+    @Test
+    @DisplayName("A record cut off at the end of a partition is reported as a torn write")
+    void testTornWrite() throws IOException {
+        List<String> partitions = fillStore();
+        Path sealed = storeDir.resolve(partitions.get(0));
+        byte[] data = Files.readAllBytes(sealed);
+        Files.write(sealed, Arrays.copyOf(data, data.length - 10));
+        Path active = storeDir.resolve(partitions.get(2));
+        byte[] activeData = Files.readAllBytes(active);
+        Files.write(active, Arrays.copyOf(activeData, activeData.length - 10));
+
+        try (PartitionedMessageStore store = openStore();
+                IntegrityScrubber scrubber = new IntegrityScrubber(store, new IntegrityScrubber.Options().quarantine(false))) {
+            // The next append must not be glued onto the torn record in the active partition
+            clock.advance(Duration.ofDays(-1));
+            store.append(newMessage(9, "Written after the crash"));
+            assertEquals(14, store.readAll().size());
+
+            IntegrityScrubber.Report report = scrubber.scrub();
+            assertEquals(2, report.getProblems().size());
+            assertEquals(partitions.get(0), report.getProblems().get(0).getPartition());
+            assertEquals(offsetOfLine(data, 4), report.getProblems().get(0).getOffset());
+            assertEquals(IntegrityScrubber.TORN_WRITE, report.getProblems().get(0).getReason());
+            assertEquals(partitions.get(2), report.getProblems().get(1).getPartition());
+            assertEquals(IntegrityScrubber.CHECKSUM_MISMATCH, report.getProblems().get(1).getReason());
+        }
+    }
+
+    @Test
+    @DisplayName("Records written before checksums existed are counted as unchecked")
+    void testLegacyRecordsAreUnchecked() throws IOException {
+        List<String> partitions = fillStore();
+        Path file = storeDir.resolve(partitions.get(1));
+        Message legacy = new Message("1734138583", 1, "+278463768", "Okay", "17:0:OKAYOKAY");
+        Files.writeString(file, legacy.toJson().toString() + "\n{\"Message\":\"half a rec\n",
+                StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+        try (PartitionedMessageStore store = openStore();
+                IntegrityScrubber scrubber = new IntegrityScrubber(store, new IntegrityScrubber.Options().quarantine(false))) {
+            IntegrityScrubber.Report report = scrubber.scrub();
+            assertEquals(15, report.getValid());
+            assertEquals(1, report.getUnchecked());
+            assertEquals(1, report.getProblems().size());
+            assertEquals(IntegrityScrubber.MALFORMED_RECORD, report.getProblems().get(0).getReason());
+            assertNotNull(store.findById("1734138583"), "An unchecked record that parses is still readable.");
+        }
+    }
+
+    @Test
+    @DisplayName("Reads are throttled to the configured byte rate")
+    void testThrottle() throws IOException {
+        try (PartitionedMessageStore store = openStore()) {
+            for (int i = 0; i < 2000; i++) {
+                store.append(newMessage(i, "A message long enough to fill a few read chunks of the partition file."));
+            }
+        }
+        try (PartitionedMessageStore store = openStore()) {
+            long bytes = Files.size(storeDir.resolve(store.getPartitionNames().get(0)));
+            IntegrityScrubber.Options options = new IntegrityScrubber.Options().maxBytesPerSecond(bytes * 2);
+            try (IntegrityScrubber scrubber = new IntegrityScrubber(store, options)) {
+                long start = System.nanoTime();
+                IntegrityScrubber.Report report = scrubber.scrub();
+                double seconds = (System.nanoTime() - start) / 1e9;
+                assertEquals(2000, report.getValid());
+                assertEquals(bytes, report.getBytes());
+                // The first chunk is free, the rest take about half a second at this rate
+                assertTrue(seconds > 0.3, "Expected the scrub to be throttled, took " + seconds + " s");
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.ice.poe.Test;
+
+import com.ice.poe.LoadGenerator;
+import com.ice.poe.Message;
+import com.ice.poe.POE;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ *
+ * @author Simphiwe Jijana
+ */
+@DisplayName("LoadGenerator Tests")
+public class LoadGeneratorTest {
+
+    @TempDir
+    Path workDir;
+
+    @Test
+    @DisplayName("Generated users, recipients and messages pass the application's validation")
+    void testGeneratedDataIsValid() {
+        Random random = new Random(7);
+        Message validator = new Message(0);
+        Set<String> usernames = new HashSet<>();
+        for (int i = 0; i < 5000; i++) {
+            String username = LoadGenerator.generateUsername(i);
+            assertTrue(POE.isValidUsername(username), "Invalid username: " + username);
+            assertTrue(usernames.add(username), "Usernames should be unique: " + username);
+            assertTrue(POE.isValidPassword(LoadGenerator.generatePassword(random)));
+            assertTrue(POE.checkCellPhone(LoadGenerator.generateRecipient(random)));
+        }
+        for (int length = 1; length <= 250; length++) {
+            String body = LoadGenerator.generateMessage(random, length);
+            assertEquals(length, body.length());
+            assertTrue(validator.checkMessageLength(body));
+        }
+    }
+
+    @Test
+    @DisplayName("A recorded closed-loop run can be replayed with the same operations")
+    void testRecordAndReplay() throws Exception {
+        Path workload = workDir.resolve("workload.ndjson");
+        LoadGenerator.Report recorded = new LoadGenerator(new LoadGenerator.Options()
+                .threads(2)
+                .maxOperations(500)
+                .durationSeconds(0)
+                .storeDir(workDir.resolve("store").toString())
+                .recordTo(workload.toString()))
+                .run();
+
+        assertEquals(500, recorded.getTotalOperations());
+        assertEquals(0, recorded.getErrors(), "Generated operations should never fail validation.");
+        assertEquals(500, Files.readAllLines(workload).size());
+
+        LoadGenerator.Report replayed = new LoadGenerator(new LoadGenerator.Options()
+                .threads(2)
+                .durationSeconds(0)
+                .storeDir(workDir.resolve("replay-store").toString())
+                .replayFrom(workload.toString())
+                .replaySpeed(0))
+                .run();
+
+        assertEquals(500, replayed.getTotalOperations());
+        assertEquals(0, replayed.getErrors());
+        for (LoadGenerator.Operation operation : LoadGenerator.Operation.values()) {
+            assertEquals(recorded.getOperations(operation), replayed.getOperations(operation));
+        }
+        assertTrue(replayed.getLatency(LoadGenerator.Operation.SEND).getPercentileNanos(99) > 0);
+    }
+}
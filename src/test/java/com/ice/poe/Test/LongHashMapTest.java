@@ -0,0 +1,107 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.ice.poe.Test;
+
+import com.ice.poe.LongHashMap;
+import com.ice.poe.PhoneNumberCodec;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ *
+ * @author Simphiwe Jijana
+ */
+@DisplayName("LongHashMap and PhoneNumberCodec Tests")
+public class LongHashMapTest {
+
+    @Test
+    @DisplayName("Phone numbers round-trip through their packed form")
+    void testCodecRoundTrip() {
+        for (String number : new String[]{"+27821234567", "+27000000000", "+278463768", "+1", "+00042", "+12345678901234567"}) {
+            long packed = PhoneNumberCodec.encode(number);
+            assertNotEquals(PhoneNumberCodec.NOT_A_NUMBER, packed, number);
+            assertEquals(number, PhoneNumberCodec.decode(packed));
+        }
+        assertNotEquals(PhoneNumberCodec.encode("+0042"), PhoneNumberCodec.encode("+042"), "Leading zeros must be kept.");
+        for (String invalid : new String[]{null, "", "+", "27821234567", "+27 82 123", "+123456789012345678", "reception"}) {
+            assertEquals(PhoneNumberCodec.NOT_A_NUMBER, PhoneNumberCodec.encode(invalid), String.valueOf(invalid));
+        }
+        assertThrows(IllegalArgumentException.class, () -> PhoneNumberCodec.decode(PhoneNumberCodec.NOT_A_NUMBER));
+    }
+
+    @Test
+    @DisplayName("Only +27 followed by nine digits is accepted as a cell number")
+    void testCellPhoneRule() {
+        assertTrue(PhoneNumberCodec.isCellPhone("+27821234567"));
+        assertFalse(PhoneNumberCodec.isCellPhone("+2782123456"));
+        assertFalse(PhoneNumberCodec.isCellPhone("+26821234567"));
+        assertFalse(PhoneNumberCodec.isCellPhone("+27٨21234567"), "Only ASCII digits are allowed, as with the \\d pattern.");
+        assertEquals(PhoneNumberCodec.NOT_A_NUMBER, PhoneNumberCodec.encodeCellPhone("+278463768"));
+    }
+
+    @Test
+    @DisplayName("The map behaves like a HashMap under random puts and removes")
+    void testMatchesHashMap() {
+        Random random = new Random(11);
+        LongHashMap<Integer> map = new LongHashMap<>();
+        Map<Long, Integer> model = new HashMap<>();
+        for (int i = 0; i < 200_000; i++) {
+            // A small key range forces long probe runs, collisions and wrap-around
+            long key = random.nextInt(4) == 0 ? random.nextInt(3) : PhoneNumberCodec.encode(String.format("+27%09d", random.nextInt(5000)));
+            if (random.nextInt(3) == 0) {
+                assertEquals(model.remove(key), map.remove(key));
+            } else {
+                assertEquals(model.put(key, i), map.put(key, i));
+            }
+            assertEquals(model.size(), map.size());
+        }
+        for (Map.Entry<Long, Integer> entry : model.entrySet()) {
+            assertEquals(entry.getValue(), map.get(entry.getKey()));
+        }
+        int[] visited = new int[1];
+        map.forEach((key, value) -> {
+            assertEquals(model.get(key), value);
+            visited[0]++;
+        });
+        assertEquals(model.size(), visited[0]);
+    }
+
+    @Test
+    @DisplayName("Every key is still found after removing half of them")
+    void testBackwardShiftDelete() {
+        LongHashMap<String> map = new LongHashMap<>(4);
+        for (long key = 1; key <= 10_000; key++) {
+            map.put(key, "v" + key);
+        }
+        for (long key = 2; key <= 10_000; key += 2) {
+            assertEquals("v" + key, map.remove(key));
+        }
+        for (long key = 1; key <= 10_000; key++) {
+            assertEquals(key % 2 == 1 ? "v" + key : null, map.get(key));
+        }
+        assertEquals(5_000, map.size());
+        assertEquals("v3", map.computeIfAbsent(3, key -> "other"));
+        assertEquals("new", map.computeIfAbsent(4, key -> "new"));
+        assertThrows(NullPointerException.class, () -> map.put(5, null));
+    }
+
+    @Test
+    @DisplayName("The map uses much less memory than a HashMap keyed by number strings")
+    void testFootprint() {
+        LongHashMap<Object> map = new LongHashMap<>(1_000_000);
+        Object value = new Object();
+        for (int i = 0; i < 1_000_000; i++) {
+            map.put(PhoneNumberCodec.encode(String.format("+27%09d", i * 7L)), value);
+        }
+        // A HashMap<String, V> needs a node, a key string and its byte array for each entry: about 100 bytes
+        long perEntry = map.estimateHeapBytes() / map.size();
+        assertTrue(perEntry <= 32, "Expected at most 32 bytes per entry, got " + perEntry);
+    }
+}
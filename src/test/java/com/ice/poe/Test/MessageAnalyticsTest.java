@@ -0,0 +1,125 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.ice.poe.Test;
+
+import com.ice.poe.Message;
+import com.ice.poe.MessageAnalytics;
+import com.ice.poe.PartitionedMessageStore;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ *
+ * @author Simphiwe Jijana
+ */
+@DisplayName("MessageAnalytics Tests")
+public class MessageAnalyticsTest {
+
+    @TempDir
+    Path storeDir;
+
+    private final PartitionedMessageStoreTest.MutableClock clock =
+            new PartitionedMessageStoreTest.MutableClock(Instant.parse("2025-01-01T10:15:00Z"));
+
+    private static Message newMessage(int index, String recipient, int length) {
+        return TestMessages.newMessage(index, recipient, "x".repeat(length));
+    }
+
+    /**
+     * A skewed workload: recipient 0 gets a third of the messages, the rest are spread over 500 recipients.
+     */
+    private static List<Message> skewedMessages(int count) {
+        Random random = new Random(7);
+        List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            int recipient = i % 3 == 0 ? 0 : 1 + random.nextInt(500);
+            messages.add(newMessage(i, String.format("+27%09d", recipient), random.nextInt(251)));
+        }
+        return messages;
+    }
+
+    @Test
+    @DisplayName("The most messaged recipient is found by the heavy-hitters sketch")
+    void testTopRecipients() {
+        MessageAnalytics analytics = new MessageAnalytics(32, 10, clock);
+        for (Message message : skewedMessages(9000)) {
+            analytics.recordSend("alice", message);
+        }
+        MessageAnalytics.RecipientCount top = analytics.getTopRecipients(1).get(0);
+        assertEquals("+27000000000", top.getRecipient());
+        assertTrue(top.getCount() - top.getMaxError() <= 3000 && 3000 <= top.getCount(),
+                "The real count must lie within the reported error bound.");
+    }
+
+    @Test
+    @DisplayName("Length quantiles are exact and the longest messages are kept")
+    void testLengthsAndLongest() {
+        MessageAnalytics analytics = new MessageAnalytics(32, 3, clock);
+        for (int length = 1; length <= 100; length++) {
+            analytics.onStored(newMessage(length, "+27821234567", length));
+        }
+        assertEquals(50, analytics.getLengthPercentile(50));
+        assertEquals(95, analytics.getLengthPercentile(95));
+        assertEquals(100, analytics.getLengthPercentile(100));
+        assertEquals(50.5, analytics.getMeanLength(), 1e-9);
+        assertEquals(1, analytics.getLengthHistogram()[42]);
+
+        List<Message> longest = analytics.getLongestMessages();
+        assertEquals(3, longest.size());
+        assertEquals(100, longest.get(0).getMessageContent().length());
+        assertEquals(98, longest.get(2).getMessageContent().length());
+    }
+
+    @Test
+    @DisplayName("Sends are counted per user per hour for the last 24 hours")
+    void testHourlySends() {
+        MessageAnalytics analytics = new MessageAnalytics(32, 10, clock);
+        analytics.recordSend("alice", newMessage(0, "+27821234567", 10));
+        analytics.recordSend("alice", newMessage(1, "+27821234567", 10));
+        clock.advance(Duration.ofHours(2));
+        analytics.recordSend("alice", newMessage(2, "+27821234567", 10));
+        analytics.recordSend("bob", newMessage(3, "+27821234567", 10));
+
+        long[] alice = analytics.getHourlySends("alice");
+        assertEquals(1, alice[23]);
+        assertEquals(0, alice[22]);
+        assertEquals(2, alice[21]);
+        assertEquals(1, analytics.getHourlySends("bob")[23]);
+
+        clock.advance(Duration.ofHours(23));
+        assertEquals(1, analytics.getHourlySends("alice")[0], "Only the last send is still within 24 hours.");
+        assertEquals(1, Arrays.stream(analytics.getHourlySends("alice")).sum());
+    }
+
+    @Test
+    @DisplayName("A parallel backfill from the store matches counting the messages live")
+    void testBackfillMatchesLive() throws Exception {
+        List<Message> messages = skewedMessages(20_000);
+        MessageAnalytics live = new MessageAnalytics(32, 10, clock);
+        try (PartitionedMessageStore store = new PartitionedMessageStore(storeDir.toString())) {
+            store.addListener(live);
+            store.appendAll(messages);
+
+            MessageAnalytics rebuilt = new MessageAnalytics(32, 10, clock);
+            rebuilt.backfill(store);
+            assertEquals(live.getStoredCount(), rebuilt.getStoredCount());
+            assertArrayEquals(live.getLengthHistogram(), rebuilt.getLengthHistogram());
+            assertEquals(live.getLengthPercentile(99), rebuilt.getLengthPercentile(99));
+            assertEquals(live.getLongestMessages().get(0).getMessageContent().length(),
+                    rebuilt.getLongestMessages().get(0).getMessageContent().length());
+            assertEquals("+27000000000", rebuilt.getTopRecipients(1).get(0).getRecipient());
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.ice.poe.Test;
+
+import com.ice.poe.Message;
+import com.ice.poe.MessageCache;
+import com.ice.poe.PartitionedMessageStore;
+import com.ice.poe.ShardedMessageStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ *
+ * @author Simphiwe Jijana
+ */
+@DisplayName("MessageCache Tests")
+public class MessageCacheTest {
+
+    @TempDir
+    Path storeDir;
+
+    private PartitionedMessageStore store;
+    private final List<Message> stored = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        store = new PartitionedMessageStore(storeDir.toString());
+        for (int i = 0; i < 50; i++) {
+            Message message = TestMessages.newMessage(i, "Cached message number " + i);
+            store.append(message);
+            stored.add(message);
+        }
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        store.close();
+    }
+
+    @Test
+    @DisplayName("The second read of a message is served from the cache")
+    void testReadThrough() throws Exception {
+        MessageCache cache = new MessageCache(store, 100, 1_000_000);
+        String id = stored.get(3).getMessageID();
+
+        assertEquals("Cached message number 3", cache.get(id).getMessageContent());
+        assertEquals(1, cache.getMissCount());
+        assertEquals("Cached message number 3", cache.get(id).getMessageContent());
+        assertEquals(1, cache.getHitCount());
+        assertNull(cache.get("0000000000"), "Unknown IDs read through and return null.");
+    }
+
+    @Test
+    @DisplayName("The cache never holds more than its entry and byte limits")
+    void testBounds() throws Exception {
+        MessageCache byCount = new MessageCache(store, 10, Long.MAX_VALUE);
+        MessageCache byBytes = new MessageCache(store, Integer.MAX_VALUE, 2_000);
+        for (Message message : stored) {
+            byCount.get(message.getMessageID());
+            byBytes.get(message.getMessageID());
+        }
+        assertEquals(10, byCount.size());
+        assertEquals(40, byCount.getEvictionCount());
+        assertTrue(byBytes.getEstimatedBytes() <= 2_000);
+        assertTrue(byBytes.getEvictionCount() > 0);
+    }
+
+    @Test
+    @DisplayName("A one-off scan does not push hot messages out of the cache")
+    void testScanResistance() throws Exception {
+        MessageCache cache = new MessageCache(store, 10, Long.MAX_VALUE);
+        List<String> hot = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            hot.add(stored.get(i).getMessageID());
+        }
+        for (int round = 0; round < 2; round++) {
+            for (String id : hot) {
+                cache.get(id);
+            }
+        }
+        for (int i = 5; i < stored.size(); i++) {
+            cache.get(stored.get(i).getMessageID()); // Scan of cold messages
+        }
+
+        long hitsBefore = cache.getHitCount();
+        for (String id : hot) {
+            cache.get(id);
+        }
+        assertEquals(hitsBefore + hot.size(), cache.getHitCount(), "Hot messages should survive the scan.");
+    }
+
+    @Test
+    @DisplayName("Deleting or re-storing a message invalidates it")
+    void testInvalidation() throws Exception {
+        MessageCache cache = new MessageCache(store, 100, 1_000_000);
+        Message first = stored.get(0);
+        Message second = stored.get(1);
+        cache.get(first.getMessageID());
+        cache.get(second.getMessageID());
+
+        assertTrue(store.delete(first.getMessageID()));
+        assertNull(cache.get(first.getMessageID()), "A deleted message must not be served from the cache.");
+
+        store.append(second);
+        long missesBefore = cache.getMissCount();
+        assertNotNull(cache.get(second.getMessageID()));
+        assertEquals(missesBefore + 1, cache.getMissCount(), "A re-stored message should be read from the store again.");
+    }
+
+    @Test
+    @DisplayName("An expired message is dropped from the cache instead of being returned")
+    void testExpiredEntriesAreNotReturned() throws Exception {
+        PartitionedMessageStoreTest.MutableClock clock = new PartitionedMessageStoreTest.MutableClock(Instant.now());
+        MessageCache cache = new MessageCache(store, 100, 1_000_000, clock);
+        List<String> expiring = new ArrayList<>();
+        for (int i = 50; i < 52; i++) {
+            Message message = TestMessages.newMessage(i, "Expiring message number " + i);
+            message.setExpiresAt(clock.instant().plus(Duration.ofMinutes(1)));
+            store.append(message);
+            expiring.add(message.getMessageID());
+        }
+        cache.get(expiring.get(0));
+        cache.get(expiring.get(0)); // Promoted to the protected segment
+        cache.get(expiring.get(1)); // Still on probation
+        assertEquals(2, cache.size());
+
+        clock.advance(Duration.ofMinutes(2));
+        assertNull(cache.get(expiring.get(0)));
+        assertNull(cache.get(expiring.get(1)));
+        assertEquals(0, cache.size(), "Expired entries should be evicted, not kept or loaded again.");
+        assertNotNull(cache.get(stored.get(0).getMessageID()), "Messages without a time to live do not expire.");
+    }
+
+    @Test
+    @DisplayName("A cache in front of a sharded store reads through and drops deleted messages")
+    void testShardedStore() throws Exception {
+        try (ShardedMessageStore sharded = new ShardedMessageStore(storeDir.resolve("sharded").toString(),
+                new ShardedMessageStore.Options().shards(3))) {
+            MessageCache cache = new MessageCache(sharded, 100, 1_000_000);
+            List<Message> messages = new ArrayList<>();
+            for (int i = 0; i < 6; i++) {
+                Message message = TestMessages.newMessage(i, "+2782123456" + i, "Sharded message " + i);
+                sharded.append(message);
+                messages.add(message);
+            }
+            for (Message message : messages) {
+                assertEquals(message.getMessageContent(), cache.get(message.getMessageID()).getMessageContent());
+                cache.get(message.getMessageID());
+            }
+            assertEquals(6, cache.getHitCount());
+
+            String deleted = messages.get(4).getMessageID();
+            assertTrue(sharded.delete(deleted));
+            assertNull(cache.get(deleted), "The shard's delete should drop the cached entry.");
+        }
+    }
+}
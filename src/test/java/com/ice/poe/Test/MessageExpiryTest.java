@@ -0,0 +1,205 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.ice.poe.Test;
+
+import com.ice.poe.Message;
+import com.ice.poe.MessageStoreListener;
+import com.ice.poe.MessageTable;
+import com.ice.poe.PartitionedMessageStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ *
+ * @author Simphiwe Jijana
+ */
+@DisplayName("Message expiry Tests")
+public class MessageExpiryTest {
+
+    private static final Instant START = Instant.parse("2025-01-01T10:00:00Z");
+
+    @TempDir
+    Path storeDir;
+
+    private PartitionedMessageStoreTest.MutableClock clock;
+
+    @BeforeEach
+    void setUp() {
+        clock = new PartitionedMessageStoreTest.MutableClock(START);
+    }
+
+    private PartitionedMessageStore openStore() throws IOException {
+        return new PartitionedMessageStore(storeDir.toString(), Duration.ofDays(1),
+                PartitionedMessageStore.DEFAULT_MAX_PARTITION_BYTES, clock);
+    }
+
+    private static Message newMessage(int index, String content, Duration timeToLive) {
+        Message message = TestMessages.newMessage(index, content);
+        if (timeToLive != null) {
+            message.setExpiresAt(START.plus(timeToLive));
+        }
+        return message;
+    }
+
+    private long storeBytes(PartitionedMessageStore store) throws IOException {
+        long bytes = 0;
+        for (String partition : store.getPartitionNames()) {
+            bytes += Files.size(storeDir.resolve(partition));
+        }
+        return bytes;
+    }
+
+    @Test
+    @DisplayName("The expiry time survives JSON and the message table")
+    void testExpiryRoundTrip() {
+        Message otp = newMessage(0, "Your code is 4821", Duration.ofMinutes(5));
+        assertEquals(START.plus(Duration.ofMinutes(5)), Message.fromJson(otp.toJson()).getExpiresAt());
+        assertFalse(otp.isExpired(START.plus(Duration.ofMinutes(4))));
+        assertTrue(otp.isExpired(START.plus(Duration.ofMinutes(5))));
+
+        Message plain = newMessage(1, "Hello", null);
+        assertNull(plain.getExpiresAt());
+        assertFalse(plain.isExpired(Instant.MAX));
+        assertFalse(plain.toJson().has("ExpiresAt"));
+
+        MessageTable table = new MessageTable();
+        table.add(otp);
+        table.add(plain);
+        assertEquals(otp.getExpiresAt(), table.get(0).getExpiresAt());
+        assertNull(table.get(1).getExpiresAt());
+    }
+
+    @Test
+    @DisplayName("Expired messages stop being returned as soon as they expire")
+    void testExpiredMessagesAreHiddenOnRead() throws IOException {
+        try (PartitionedMessageStore store = openStore()) {
+            Message otp = newMessage(0, "Your code is 4821", Duration.ofMinutes(5));
+            store.append(otp);
+            store.append(newMessage(1, "Dinner at seven", null));
+            assertEquals(2, store.readAll().size());
+            assertNotNull(store.findById(otp.getMessageID()));
+
+            clock.advance(Duration.ofMinutes(5));
+            assertEquals(1, store.readAll().size());
+            assertNull(store.findById(otp.getMessageID()));
+        }
+    }
+
+    @Test
+    @DisplayName("Purging reclaims the space of expired messages, and the index survives a restart")
+    void testPurgeReclaimsSpace() throws IOException {
+        List<String> deleted = new CopyOnWriteArrayList<>();
+        try (PartitionedMessageStore store = openStore()) {
+            for (int i = 0; i < 50; i++) {
+                store.append(newMessage(i, "Alert number " + i, Duration.ofMinutes(10 + i % 5)));
+                store.append(newMessage(i, "Keep number " + i, null));
+            }
+            clock.advance(Duration.ofDays(1)); // Seal the first partition
+            store.append(newMessage(99, "A new day", null));
+        }
+
+        try (PartitionedMessageStore store = openStore()) {
+            store.addListener(new MessageStoreListener() {
+                @Override
+                public void onStored(Message message) {
+                }
+
+                @Override
+                public void onDeleted(String messageId) {
+                    deleted.add(messageId);
+                }
+
+                @Override
+                public void onPartitionDropped(String partitionName) {
+                }
+            });
+            long before = storeBytes(store);
+            assertEquals(51, store.readAll().size(), "Every alert has expired by now.");
+            assertEquals(50, store.purgeExpired());
+            assertEquals(50, deleted.size());
+            assertTrue(storeBytes(store) < before * 2 / 3, "The expired records should be gone from disk.");
+            assertEquals(51, store.readAll().size());
+            assertEquals(0, store.purgeExpired(), "Nothing is left to purge.");
+        }
+    }
+
+    @Test
+    @DisplayName("Only the messages that are due are purged")
+    void testPurgeOnlyDue() throws IOException {
+        try (PartitionedMessageStore store = openStore()) {
+            store.append(newMessage(0, "Short lived", Duration.ofMinutes(1)));
+            store.append(newMessage(1, "Long lived", Duration.ofHours(2)));
+            assertEquals(0, store.purgeExpired(), "Nothing has expired yet.");
+
+            clock.advance(Duration.ofMinutes(30));
+            assertEquals(1, store.purgeExpired());
+            assertEquals(1, store.readAll().size());
+
+            clock.advance(Duration.ofHours(2));
+            assertEquals(1, store.purgeExpired());
+            assertTrue(store.readAll().isEmpty());
+        }
+    }
+
+    @Test
+    @DisplayName("Appends made while a purge runs are kept")
+    void testPurgeDoesNotLoseConcurrentAppends() throws Exception {
+        try (PartitionedMessageStore store = openStore()) {
+            for (int i = 0; i < 2000; i++) {
+                store.append(newMessage(i, "Expiring " + i, Duration.ofSeconds(1)));
+            }
+            clock.advance(Duration.ofSeconds(2));
+
+            AtomicReference<Exception> failure = new AtomicReference<>();
+            Thread writer = new Thread(() -> {
+                try {
+                    for (int i = 0; i < 500; i++) {
+                        store.append(newMessage(i, "Kept " + i, null));
+                    }
+                } catch (IOException e) {
+                    failure.set(e);
+                }
+            });
+            writer.start();
+            int purged = 0;
+            while (writer.isAlive() || purged < 2000) {
+                purged += store.purgeExpired();
+            }
+            writer.join();
+            assertNull(failure.get());
+            assertEquals(2000, purged);
+            assertEquals(500, store.readAll().size());
+            assertEquals(0, store.getCorruptRecordCount());
+        }
+    }
+
+    @Test
+    @DisplayName("Background expiry purges without being called")
+    void testBackgroundExpiry() throws Exception {
+        try (PartitionedMessageStore store = openStore()) {
+            store.append(newMessage(0, "Short lived", Duration.ofMinutes(1)));
+            long before = storeBytes(store);
+            clock.advance(Duration.ofMinutes(2));
+            store.startBackgroundExpiry(Duration.ofMillis(10));
+            long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+            while (storeBytes(store) == before && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+            assertEquals(0, storeBytes(store));
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.ice.poe.Test;
+
+import com.ice.poe.Message;
+import com.ice.poe.MessageTable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.IntFunction;
+
+/**
+ * Measures the heap used per message by the old all-strings layout, by compact
+ * {@link Message} objects and by a {@link MessageTable}. Run it directly, for
+ * example with {@code -Xmx2g}:
+ * <pre>
+ * java -cp target/classes:target/test-classes:&lt;org.json jar&gt; com.ice.poe.Test.MessageFootprintBenchmark 1000000
+ * </pre>
+ * Heap use is read from the runtime after forcing garbage collection, so the
+ * numbers are approximate; run with a fixed heap size for stable results.
+ *
+ * @author Simphiwe Jijana
+ */
+public class MessageFootprintBenchmark {
+
+    /**
+     * The layout Message used before it was made compact: four strings and an int.
+     */
+    static final class StringMessage {
+        final String messageID;
+        final int numMessagesSent;
+        final String recipientCell;
+        final String messageContent;
+        final String messageHash;
+
+        StringMessage(Message message) {
+            // Copies, so that none of the strings are shared with the source message
+            this.messageID = new String(message.getMessageID());
+            this.numMessagesSent = message.getNumMessagesSent();
+            this.recipientCell = new String(message.getRecipientCell());
+            this.messageContent = new String(message.getMessageContent());
+            this.messageHash = new String(message.getMessageHash());
+        }
+    }
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 500_000;
+        Random random = new Random(42);
+        IntFunction<Message> source = i -> {
+            Message message = new Message(i % 50);
+            message.setRecipientCell(String.format("+27%09d", random.nextInt(1_000_000_000)));
+            message.setMessageContent(randomContent(random));
+            message.createMessageHash(message.getMessageID(), i % 50, message.getMessageContent());
+            return message;
+        };
+
+        System.out.printf("Heap per message over %,d messages%n", count);
+        System.out.printf("%-26s %10s%n", "Layout", "Bytes");
+
+        long before = usedHeap();
+        List<StringMessage> strings = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            strings.add(new StringMessage(source.apply(i)));
+        }
+        print("Strings (old Message)", usedHeap() - before, count, strings.size());
+        strings = null;
+
+        before = usedHeap();
+        List<Message> compact = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            compact.add(source.apply(i));
+        }
+        print("Compact Message", usedHeap() - before, count, compact.size());
+        compact = null;
+
+        before = usedHeap();
+        MessageTable table = new MessageTable();
+        for (int i = 0; i < count; i++) {
+            table.add(source.apply(i));
+        }
+        print("MessageTable", usedHeap() - before, count, table.size());
+    }
+
+    private static String randomContent(Random random) {
+        String[] words = {"see", "you", "at", "the", "usual", "place", "running", "late", "call", "me", "tonight", "thanks"};
+        StringBuilder content = new StringBuilder();
+        int length = 3 + random.nextInt(12);
+        for (int i = 0; i < length; i++) {
+            content.append(i == 0 ? "" : " ").append(words[random.nextInt(words.length)]);
+        }
+        return content.toString();
+    }
+
+    private static void print(String layout, long bytes, int count, int kept) {
+        // 'kept' makes sure the collection is still reachable when the heap is measured
+        System.out.printf("%-26s %10.1f%n", layout, (double) bytes / Math.max(1, Math.min(count, kept)));
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.ice.poe.Test;
+
+import com.ice.poe.Message;
+import com.ice.poe.MessageJsonWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.function.ToIntFunction;
+
+/**
+ * Compares writing message records through {@code JSONObject} with the
+ * {@link MessageJsonWriter}, in compact and pretty mode. Reports the time and
+ * the bytes allocated per record. Run it directly:
+ * <pre>
+ * java -cp target/classes:target/test-classes:&lt;org.json jar&gt; com.ice.poe.Test.MessageJsonWriterBenchmark
+ * </pre>
+ * Each case is warmed up before it is measured, and the measured loop is
+ * repeated several times with the best run reported.
+ *
+ * @author Simphiwe Jijana
+ */
+public class MessageJsonWriterBenchmark {
+
+    private static final int MESSAGES = 10_000;
+    private static final int ROUNDS = 50;
+    private static final int RUNS = 5;
+
+    private static int sink; // Keeps results alive so the work is not optimised away
+
+    public static void main(String[] args) {
+        Message[] messages = new Message[MESSAGES];
+        Random random = new Random(42);
+        String[] words = {"see", "you", "at", "the", "usual", "place", "running", "late", "call", "me", "tonight", "\"thanks\""};
+        for (int i = 0; i < MESSAGES; i++) {
+            StringBuilder content = new StringBuilder();
+            for (int w = 0, length = 3 + random.nextInt(20); w < length; w++) {
+                content.append(w == 0 ? "" : " ").append(words[random.nextInt(words.length)]);
+            }
+            messages[i] = new Message(i % 50);
+            messages[i].setRecipientCell(String.format("+27%09d", random.nextInt(1_000_000_000)));
+            messages[i].setMessageContent(content.toString());
+            messages[i].createMessageHash(messages[i].getMessageID(), i % 50, content.toString());
+        }
+
+        MessageJsonWriter compact = new MessageJsonWriter(false);
+        MessageJsonWriter pretty = new MessageJsonWriter(true);
+        System.out.printf("%-28s %10s %14s%n", "Case", "ns/record", "bytes alloc/record");
+        run("JSONObject.toString()", messages, m -> m.toJson().toString().getBytes(StandardCharsets.UTF_8).length);
+        run("JSONObject.toString(4)", messages, m -> m.toJson().toString(4).getBytes(StandardCharsets.UTF_8).length);
+        run("MessageJsonWriter compact", messages, m -> {
+            compact.reset();
+            return compact.write(m).size();
+        });
+        run("MessageJsonWriter pretty", messages, m -> {
+            pretty.reset();
+            return pretty.write(m).size();
+        });
+        System.out.println(sink == 42 ? "" : "done");
+    }
+
+    private static void run(String name, Message[] messages, ToIntFunction<Message> encode) {
+        for (int round = 0; round < ROUNDS; round++) {
+            for (Message message : messages) {
+                sink += encode.applyAsInt(message); // Warm-up
+            }
+        }
+        double bestNanos = Double.MAX_VALUE;
+        double bestBytes = Double.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++) {
+            long allocatedBefore = allocatedBytes();
+            long start = System.nanoTime();
+            for (int round = 0; round < ROUNDS; round++) {
+                for (Message message : messages) {
+                    sink += encode.applyAsInt(message);
+                }
+            }
+            long elapsed = System.nanoTime() - start;
+            long allocated = allocatedBytes() - allocatedBefore;
+            bestNanos = Math.min(bestNanos, (double) elapsed / (ROUNDS * messages.length));
+            bestBytes = Math.min(bestBytes, (double) allocated / (ROUNDS * messages.length));
+        }
+        System.out.printf("%-28s %10.1f %14.1f%n", name, bestNanos, bestBytes);
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().threadId());
+        }
+        return 0;
+    }
+}
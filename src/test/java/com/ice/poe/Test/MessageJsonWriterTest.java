@@ -0,0 +1,92 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.ice.poe.Test;
+
+import com.ice.poe.Message;
+import com.ice.poe.MessageJsonWriter;
+import org.json.JSONObject;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ *
+ * @author Simphiwe Jijana
+ */
+@DisplayName("MessageJsonWriter Tests")
+public class MessageJsonWriterTest {
+
+    private static List<Message> sampleMessages() {
+        List<Message> messages = new ArrayList<>();
+        String[] contents = {
+            "Hi Mike, can you join us for dinner tonight?",
+            "Quote \" backslash \\ slash / and </script>",
+            "Tabs\tnew\nlines\rand\bcontrol\f\u0001\u001f chars",
+            "Latin-1 café naïve ¡olé! \u0085 next-line   nbsp",
+            "Beyond Latin-1: ✓ Ω   separator € euro 🎉 emoji",
+            "Unpaired \ud800 surrogate",
+            ""
+        };
+        for (int i = 0; i < contents.length; i++) {
+            messages.add(TestMessages.newMessage(i, contents[i]));
+        }
+        messages.add(new Message("1734138583", 1, "+278463768", "Okay", "17:0:OKAYOKAY"));
+        messages.add(new Message("abc\"def", 2, "front \"desk\"", "Foreign hash", "not/derived"));
+        messages.add(new Message("0000000001", 3, null, "No recipient or hash", null));
+        messages.add(new Message(null, 4, null, null, null));
+        Message expiring = new Message("1734138584", 5, "+27821234567", "Your code is 4821", null);
+        expiring.setExpiresAt(java.time.Instant.ofEpochMilli(1735725600000L));
+        messages.add(expiring);
+        messages.add(Message.fromJson(new org.json.JSONObject(expiring.toJson().toString())
+                .put("Sequence", 42).put("Timestamp", 1735722000000L)));
+        return messages;
+    }
+
+    @Test
+    @DisplayName("Compact output is byte for byte what JSONObject writes")
+    void testCompactMatchesJsonObject() {
+        MessageJsonWriter writer = new MessageJsonWriter(false);
+        for (Message message : sampleMessages()) {
+            writer.reset();
+            writer.write(message);
+            assertArrayEquals(message.toJson().toString().getBytes(StandardCharsets.UTF_8), writer.toByteArray(),
+                    "Mismatch for " + message.getMessageContent());
+        }
+    }
+
+    @Test
+    @DisplayName("Pretty output is byte for byte what JSONObject.toString(4) writes")
+    void testPrettyMatchesJsonObject() {
+        MessageJsonWriter writer = new MessageJsonWriter(true);
+        for (Message message : sampleMessages()) {
+            writer.reset();
+            writer.write(message);
+            assertEquals(message.toJson().toString(4), writer.toString());
+        }
+    }
+
+    @Test
+    @DisplayName("Records written back to back read back as the same messages")
+    void testReadBack() throws Exception {
+        MessageJsonWriter writer = new MessageJsonWriter(false);
+        List<Message> messages = sampleMessages();
+        for (Message message : messages) {
+            writer.write(message).newLine();
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.writeTo(out);
+        String[] lines = out.toString(StandardCharsets.UTF_8).split("\n");
+        assertEquals(messages.size(), lines.length);
+        for (int i = 0; i < lines.length; i++) {
+            JSONObject parsed = new JSONObject(lines[i]);
+            assertTrue(messages.get(i).toJson().similar(parsed), lines[i]);
+        }
+    }
+}
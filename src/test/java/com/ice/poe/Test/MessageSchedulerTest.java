@@ -0,0 +1,220 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.ice.poe.Test;
+
+import com.ice.poe.HierarchicalTimerWheel;
+import com.ice.poe.MessageScheduler;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static com.ice.poe.Test.TestMessages.newMessage;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ *
+ * @author Simphiwe Jijana
+ */
+@DisplayName("HierarchicalTimerWheel and MessageScheduler Tests")
+public class MessageSchedulerTest {
+
+    private static final Instant START = Instant.parse("2025-01-01T10:00:00Z");
+
+    @TempDir
+    Path tempDir;
+
+    private PartitionedMessageStoreTest.MutableClock clock;
+
+    @BeforeEach
+    void setUp() {
+        clock = new PartitionedMessageStoreTest.MutableClock(START);
+    }
+
+    private MessageScheduler.Options options() {
+        return new MessageScheduler.Options()
+                .journalPath(tempDir.resolve("scheduled.journal").toString())
+                .tick(Duration.ofMillis(10))
+                .clock(clock);
+    }
+
+    @Test
+    @DisplayName("Timers fire at their deadline, never early, across every wheel level")
+    void testWheelFiresInOrder() {
+        HierarchicalTimerWheel<Long> wheel = new HierarchicalTimerWheel<>(10, 0);
+        Random random = new Random(7);
+        List<Long> deadlines = new ArrayList<>();
+        List<HierarchicalTimerWheel.Timeout<Long>> cancelled = new ArrayList<>();
+        for (int i = 0; i < 20_000; i++) {
+            // From a few ticks out to well beyond the range of the top wheel
+            long deadline = (long) Math.pow(10, 1 + random.nextDouble() * 11);
+            HierarchicalTimerWheel.Timeout<Long> timeout = wheel.schedule(deadline, deadline);
+            if (i % 10 == 0) {
+                cancelled.add(timeout);
+            } else {
+                deadlines.add(deadline);
+            }
+        }
+        for (HierarchicalTimerWheel.Timeout<Long> timeout : cancelled) {
+            assertTrue(wheel.cancel(timeout));
+            assertFalse(wheel.cancel(timeout), "A timer can only be cancelled once.");
+        }
+        assertEquals(deadlines.size(), wheel.size());
+
+        List<Long> fired = new ArrayList<>();
+        long now = 0;
+        while (!wheel.isEmpty()) {
+            now += 1 + (long) (random.nextDouble() * (1L << random.nextInt(36))); // Uneven steps, some very large
+            List<Long> due = new ArrayList<>();
+            wheel.advanceTo(now, due);
+            for (long deadline : due) {
+                assertTrue(deadline <= now, "Fired early: " + deadline + " at " + now);
+            }
+            fired.addAll(due);
+        }
+        Collections.sort(deadlines);
+        List<Long> sortedFired = new ArrayList<>(fired);
+        Collections.sort(sortedFired);
+        assertEquals(deadlines, sortedFired, "Every timer not cancelled should fire exactly once.");
+    }
+
+    @Test
+    @DisplayName("Stepping tick by tick fires each timer within one tick of its deadline")
+    void testWheelPrecision() {
+        HierarchicalTimerWheel<Long> wheel = new HierarchicalTimerWheel<>(10, 1_000);
+        Random random = new Random(11);
+        for (int i = 0; i < 5_000; i++) {
+            long deadline = 1_000 + random.nextInt(2_000_000);
+            wheel.schedule(deadline, deadline);
+        }
+        List<Long> due = new ArrayList<>();
+        for (long now = 1_000; !wheel.isEmpty(); now += 10) {
+            due.clear();
+            wheel.advanceTo(now, due);
+            for (long deadline : due) {
+                assertTrue(deadline <= now && deadline > now - 10, "Deadline " + deadline + " fired at " + now);
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Due sends are handed over in batches and cancelled ones are not")
+    void testDispatchAndCancel() throws IOException {
+        List<List<MessageScheduler.ScheduledSend>> batches = new CopyOnWriteArrayList<>();
+        try (MessageScheduler scheduler = new MessageScheduler(batch -> batches.add(new ArrayList<>(batch)), options().maxBatch(4))) {
+            long cancelled = -1;
+            for (int i = 0; i < 10; i++) {
+                long id = scheduler.schedule("alice", newMessage(i, "Later " + i), START.plusSeconds(60));
+                if (i == 3) {
+                    cancelled = id;
+                }
+            }
+            long tomorrow = scheduler.schedule("bob", newMessage(10, "Tomorrow"), START.plus(Duration.ofDays(1)));
+            assertTrue(scheduler.cancel(cancelled));
+            assertFalse(scheduler.cancel(cancelled));
+
+            clock.advance(Duration.ofSeconds(59));
+            assertEquals(0, scheduler.dispatchDue(), "Nothing is due yet.");
+            clock.advance(Duration.ofSeconds(1));
+            assertEquals(9, scheduler.dispatchDue());
+            assertEquals(3, batches.size(), "Nine sends in batches of at most four.");
+            assertEquals(1, scheduler.getPendingCount());
+            for (List<MessageScheduler.ScheduledSend> batch : batches) {
+                for (MessageScheduler.ScheduledSend send : batch) {
+                    assertEquals("alice", send.getSender());
+                    assertNotEquals("Later 3", send.getMessage().getMessageContent());
+                }
+            }
+
+            clock.advance(Duration.ofDays(1));
+            assertEquals(1, scheduler.dispatchDue());
+            assertEquals(tomorrow, batches.get(3).get(0).getId());
+            assertEquals(10, scheduler.getDispatchedCount());
+        }
+    }
+
+    @Test
+    @DisplayName("Pending sends survive a restart and overdue ones go out on the first tick")
+    void testSurvivesRestart() throws IOException {
+        List<MessageScheduler.ScheduledSend> delivered = new CopyOnWriteArrayList<>();
+        long cancelled;
+        try (MessageScheduler scheduler = new MessageScheduler(delivered::addAll, options())) {
+            scheduler.schedule("alice", newMessage(0, "In a minute"), START.plusSeconds(60));
+            scheduler.schedule("alice", newMessage(1, "In an hour"), START.plus(Duration.ofHours(1)));
+            cancelled = scheduler.schedule("alice", newMessage(2, "Never"), START.plusSeconds(30));
+            scheduler.cancel(cancelled);
+        }
+
+        clock.advance(Duration.ofMinutes(5)); // Down for five minutes
+        try (MessageScheduler scheduler = new MessageScheduler(delivered::addAll, options())) {
+            assertEquals(2, scheduler.getPendingCount());
+            clock.advance(Duration.ofMillis(10));
+            assertEquals(1, scheduler.dispatchDue());
+            assertEquals("In a minute", delivered.get(0).getMessage().getMessageContent());
+            long next = scheduler.schedule("bob", newMessage(3, "New"), START.plus(Duration.ofDays(2)));
+            assertTrue(next > cancelled, "IDs are not reused after a restart.");
+        }
+
+        try (MessageScheduler scheduler = new MessageScheduler(delivered::addAll, options())) {
+            assertEquals(2, scheduler.getPendingCount(), "The finished send should not come back.");
+            assertEquals(2, Files.readAllLines(tempDir.resolve("scheduled.journal")).size(),
+                    "The journal is compacted to the pending sends on startup.");
+        }
+    }
+
+    @Test
+    @DisplayName("A batch the send path rejects is retried later")
+    void testFailedBatchIsRetried() throws IOException {
+        AtomicBoolean failing = new AtomicBoolean(true);
+        List<MessageScheduler.ScheduledSend> delivered = new CopyOnWriteArrayList<>();
+        MessageScheduler.DeliveryHandler handler = batch -> {
+            if (failing.get()) {
+                throw new IOException("Network down");
+            }
+            delivered.addAll(batch);
+        };
+        try (MessageScheduler scheduler = new MessageScheduler(handler, options().retryDelay(Duration.ofSeconds(30)))) {
+            scheduler.schedule("alice", newMessage(0, "Retry me"), START.plusSeconds(1));
+            clock.advance(Duration.ofSeconds(1));
+            assertEquals(0, scheduler.dispatchDue());
+            assertEquals(1, scheduler.getFailedBatchCount());
+            assertEquals(1, scheduler.getPendingCount());
+
+            failing.set(false);
+            clock.advance(Duration.ofSeconds(29));
+            assertEquals(0, scheduler.dispatchDue(), "Not retried before the retry delay.");
+            clock.advance(Duration.ofSeconds(1));
+            assertEquals(1, scheduler.dispatchDue());
+            assertEquals(1, delivered.size());
+        }
+    }
+
+    @Test
+    @DisplayName("The driver thread dispatches sends without being called")
+    void testDriverThread() throws Exception {
+        List<MessageScheduler.ScheduledSend> delivered = new CopyOnWriteArrayList<>();
+        try (MessageScheduler scheduler = new MessageScheduler(delivered::addAll, options())) {
+            scheduler.schedule("alice", newMessage(0, "Soon"), START.plusSeconds(1));
+            scheduler.start();
+            clock.advance(Duration.ofSeconds(1));
+            long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+            while (delivered.isEmpty() && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+            assertEquals(1, delivered.size());
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.ice.poe.Test;
+
+import com.ice.poe.Message;
+import com.ice.poe.MessageTable;
+import org.json.JSONObject;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import static com.ice.poe.Test.TestMessages.newMessage;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ *
+ * @author Simphiwe Jijana
+ */
+@DisplayName("MessageTable and compact Message Tests")
+public class MessageTableTest {
+
+    private static void assertSameFields(Message expected, Message actual) {
+        assertEquals(expected.getMessageID(), actual.getMessageID());
+        assertEquals(expected.getNumMessagesSent(), actual.getNumMessagesSent());
+        assertEquals(expected.getRecipientCell(), actual.getRecipientCell());
+        assertEquals(expected.getMessageContent(), actual.getMessageContent());
+        assertEquals(expected.getMessageHash(), actual.getMessageHash());
+    }
+
+    @Test
+    @DisplayName("Compact fields read back exactly as they were set")
+    void testCompactRoundTrip() {
+        Message message = newMessage(2, "+27821234567", "Did you get the cake?");
+        assertTrue(message.getMessageID().matches("\\d{10}"));
+        assertEquals("+27821234567", message.getRecipientCell());
+        assertEquals("Did you get the cake?", message.getMessageContent());
+        assertEquals(message.getMessageID().substring(0, 2) + ":2:DIDCAKE?", message.getMessageHash());
+
+        Message unusual = new Message("00042", 1, "reception desk", "Ünïcödé ✓ 🎉", "custom-hash");
+        assertEquals("00042", unusual.getMessageID());
+        assertEquals("reception desk", unusual.getRecipientCell());
+        assertEquals("Ünïcödé ✓ 🎉", unusual.getMessageContent());
+        assertEquals("custom-hash", unusual.getMessageHash());
+
+        Message leadingZeros = new Message("0000000007", 1, "+007", null, null);
+        assertEquals("0000000007", leadingZeros.getMessageID());
+        assertEquals("+007", leadingZeros.getRecipientCell());
+        assertNull(leadingZeros.getMessageContent());
+        assertNull(leadingZeros.getMessageHash());
+    }
+
+    @Test
+    @DisplayName("A hash keeps its value when the content changes afterwards")
+    void testHashSurvivesContentChange() {
+        Message message = newMessage(0, "+27821234567", "Hello there");
+        String hash = message.getMessageHash();
+        message.setMessageContent("Goodbye now");
+        assertEquals(hash, message.getMessageHash());
+    }
+
+    @Test
+    @DisplayName("Hashes are built from the same first and last words as a whitespace split")
+    void testHashWordRule() {
+        String[] contents = {"one", "  padded  words  ", "tab\tseparated\nlines", "\u0001control\u0002 edge\u0003",
+            "non\u00a0breaking space", "x\u000by", "trailing.  ", "many   spaces   between   words"};
+        Message message = new Message(0);
+        for (String content : contents) {
+            String[] words = content.trim().split("\\s+");
+            String expected = message.getMessageID().substring(0, 2) + ":3:"
+                    + words[0].toUpperCase() + words[words.length - 1].toUpperCase();
+            assertEquals(expected, message.createMessageHash(message.getMessageID(), 3, content), content);
+        }
+    }
+
+    @Test
+    @DisplayName("Stored JSON records round-trip through the compact form")
+    void testJsonRoundTrip() {
+        JSONObject legacy = new JSONObject()
+                .put("Message", "Okay").put("NumMessagesSent", 1).put("Recipient", "+278463768")
+                .put("MessageHash", "17:0:OKAYOKAY").put("MessageID", "1734138583");
+        Message message = Message.fromJson(legacy);
+        assertEquals(legacy.toString(), message.toJson().toString());
+
+        JSONObject foreignHash = new JSONObject(legacy.toString()).put("MessageHash", "99:5:SOMETHINGELSE");
+        assertEquals("99:5:SOMETHINGELSE", Message.fromJson(foreignHash).getMessageHash());
+    }
+
+    @Test
+    @DisplayName("The table returns every field of every row")
+    void testTableRows() {
+        MessageTable table = new MessageTable();
+        Message[] messages = new Message[1000];
+        for (int i = 0; i < messages.length; i++) {
+            String content = i % 7 == 0 ? "Café ☕ number " + i : "Message number " + i;
+            messages[i] = newMessage(i, i % 5 == 0 ? "front desk" : String.format("+27%09d", i), content);
+            assertEquals(i, table.add(messages[i]));
+        }
+        table.add(new Message("abc", 3, null, null, "free text"));
+
+        assertEquals(1001, table.size());
+        for (int i = 0; i < messages.length; i++) {
+            assertSameFields(messages[i], table.get(i));
+            assertEquals(messages[i].getRecipientCell(), table.getRecipientCell(i));
+            assertEquals(messages[i].getMessageContent(), table.getMessageContent(i));
+            assertEquals(messages[i].getMessageHash(), table.getMessageHash(i));
+        }
+        assertEquals("abc", table.getMessageID(1000));
+        assertNull(table.getRecipientCell(1000));
+        assertNull(table.getMessageContent(1000));
+        assertEquals("free text", table.getMessageHash(1000));
+        assertThrows(IndexOutOfBoundsException.class, () -> table.get(1001));
+
+        int count = 0;
+        for (Message message : table) {
+            count++;
+        }
+        assertEquals(1001, count);
+    }
+
+    @Test
+    @DisplayName("The table uses far less than the old per-string layout")
+    void testTableFootprint() {
+        MessageTable table = new MessageTable();
+        for (int i = 0; i < 10_000; i++) {
+            table.add(newMessage(i, String.format("+27%09d", i), "See you at the usual place at " + (i % 24) + ":00"));
+        }
+        // The old layout took roughly 250 bytes plus the content for each message
+        assertTrue(table.estimateHeapBytes() / table.size() < 120,
+                "Expected under 120 bytes per message, got " + table.estimateHeapBytes() / table.size());
+    }
+}
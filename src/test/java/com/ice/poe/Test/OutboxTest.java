@@ -0,0 +1,130 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.ice.poe.Test;
+
+import com.ice.poe.InProcessTransport;
+import com.ice.poe.Message;
+import com.ice.poe.Outbox;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ * @author Simphiwe Jijana
+ */
+@DisplayName("Outbox Tests")
+public class OutboxTest {
+
+    @TempDir
+    Path workDir;
+
+    private Outbox.Options options() {
+        return new Outbox.Options()
+                .journalPath(workDir.resolve("outbox.journal").toString())
+                .backoff(Duration.ofMillis(1), Duration.ofMillis(10));
+    }
+
+    private static Message newMessage(int index) {
+        return TestMessages.newMessage(index, "Outbox message " + index);
+    }
+
+    @Test
+    @DisplayName("A burst larger than the outbox is turned away instead of queued without limit")
+    void testBackpressureRejectsWhenFull() throws Exception {
+        InProcessTransport slow = new InProcessTransport(50, 0);
+        try (Outbox outbox = new Outbox(slow, options().capacity(10).maxConcurrentDeliveries(2))) {
+            int accepted = 0;
+            for (int i = 0; i < 100; i++) {
+                if (outbox.offer(newMessage(i), 0, TimeUnit.MILLISECONDS)) {
+                    accepted++;
+                }
+            }
+            assertTrue(accepted <= 12, "No more than the capacity (plus any already delivered) should be accepted.");
+            assertEquals(100 - accepted, outbox.getRejectedCount());
+            assertTrue(outbox.awaitDrained(Duration.ofSeconds(10)));
+            assertEquals(accepted, slow.getDelivered().size());
+        }
+    }
+
+    @Test
+    @DisplayName("Failed deliveries are retried and concurrent deliveries are capped")
+    void testRetriesAndConcurrencyCap() throws Exception {
+        InProcessTransport flaky = new InProcessTransport(2, 5);
+        try (Outbox outbox = new Outbox(flaky, options().maxConcurrentDeliveries(3))) {
+            for (int i = 0; i < 50; i++) {
+                outbox.submit(newMessage(i));
+            }
+            assertTrue(outbox.awaitDrained(Duration.ofSeconds(10)));
+            assertEquals(50, outbox.getDeliveredCount());
+            assertEquals(5, outbox.getRetryCount(), "Each simulated failure should cause exactly one retry.");
+            assertEquals(0, outbox.getDeadLetterCount());
+            assertTrue(flaky.getMaxInFlight() <= 3, "Deliveries should never exceed the concurrency cap.");
+        }
+    }
+
+    @Test
+    @DisplayName("Messages that keep failing are dead-lettered after the attempt limit")
+    void testDeadLetterAfterMaxAttempts() throws Exception {
+        InProcessTransport broken = new InProcessTransport(0, Integer.MAX_VALUE);
+        try (Outbox outbox = new Outbox(broken, options().maxAttempts(3))) {
+            outbox.submit(newMessage(0));
+            assertTrue(outbox.awaitDrained(Duration.ofSeconds(10)));
+            assertEquals(1, outbox.getDeadLetterCount());
+            assertEquals(3, broken.getAttempts());
+        }
+    }
+
+    @Test
+    @DisplayName("Undelivered messages survive a restart through the journal")
+    void testPendingMessagesRecoveredFromJournal() throws Exception {
+        Message pending = newMessage(0);
+        try (Outbox outbox = new Outbox(new InProcessTransport(0, Integer.MAX_VALUE),
+                options().backoff(Duration.ofMinutes(1), Duration.ofMinutes(1)))) {
+            outbox.submit(pending);
+        }
+
+        InProcessTransport working = new InProcessTransport();
+        try (Outbox reopened = new Outbox(working, options())) {
+            assertTrue(reopened.awaitDrained(Duration.ofSeconds(10)));
+            assertEquals(1, working.getDelivered().size());
+            assertEquals(pending.getMessageID(), working.getDelivered().get(0).getMessageID());
+        }
+
+        try (Outbox again = new Outbox(new InProcessTransport(), options())) {
+            assertEquals(0, again.getPendingCount(), "Delivered messages should not be re-queued.");
+        }
+    }
+
+    @Test
+    @DisplayName("Recovering more messages than the capacity does not raise the capacity")
+    void testRecoveryBeyondCapacity() throws Exception {
+        try (Outbox outbox = new Outbox(new InProcessTransport(0, Integer.MAX_VALUE),
+                options().backoff(Duration.ofMinutes(1), Duration.ofMinutes(1)))) {
+            for (int i = 0; i < 5; i++) {
+                outbox.submit(newMessage(i));
+            }
+        }
+
+        InProcessTransport slow = new InProcessTransport(50, 0);
+        try (Outbox reopened = new Outbox(slow, options().capacity(2).maxConcurrentDeliveries(1))) {
+            assertEquals(5, reopened.getPendingCount(), "Everything in the journal is recovered.");
+            assertTrue(reopened.awaitDrained(Duration.ofSeconds(10)));
+            int accepted = 0;
+            for (int i = 5; i < 15; i++) {
+                if (reopened.offer(newMessage(i), 0, TimeUnit.MILLISECONDS)) {
+                    accepted++;
+                }
+            }
+            assertEquals(2, accepted, "Only the configured capacity should be free once the recovered messages are delivered.");
+            assertTrue(reopened.awaitDrained(Duration.ofSeconds(10)));
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.ice.poe.Test;
+
+import com.ice.poe.Message;
+import com.ice.poe.PartitionedMessageStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static com.ice.poe.Test.TestMessages.newMessage;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+
+/**
+ *
+ * @author Simphiwe Jijana
+ */
+@DisplayName("PartitionedMessageStore Tests")
+public class PartitionedMessageStoreTest {
+
+    private static final Instant DAY_ONE = Instant.parse("2025-01-01T10:00:00Z");
+
+    @TempDir
+    Path storeDir;
+
+    private MutableClock clock;
+
+    @BeforeEach
+    void setUp() {
+        clock = new MutableClock(DAY_ONE);
+    }
+
+    private PartitionedMessageStore openStore(long maxBytes) throws IOException {
+        return new PartitionedMessageStore(storeDir.toString(), Duration.ofDays(1), maxBytes, clock);
+    }
+
+    @Test
+    @DisplayName("Messages stored on different days go to different partitions")
+    void testRollsPartitionPerDay() throws IOException {
+        try (PartitionedMessageStore store = openStore(PartitionedMessageStore.DEFAULT_MAX_PARTITION_BYTES)) {
+            store.append(newMessage(0, "First day"));
+            clock.advance(Duration.ofDays(1));
+            store.append(newMessage(1, "Second day"));
+
+            assertEquals(2, store.getPartitionNames().size(), "Each day should have its own partition.");
+            assertEquals(2, store.readAll().size());
+        }
+    }
+
+    @Test
+    @DisplayName("A full partition is rolled within the same day")
+    void testRollsPartitionBySize() throws IOException {
+        try (PartitionedMessageStore store = openStore(200)) {
+            for (int i = 0; i < 5; i++) {
+                store.append(newMessage(i, "A message that takes up some room in the partition."));
+            }
+            assertTrue(store.getPartitionNames().size() > 1, "Partitions should roll when they reach the size limit.");
+            assertEquals(5, store.readAll().size(), "No message should be lost across rolled partitions.");
+        }
+    }
+
+    @Test
+    @DisplayName("Range queries only return partitions inside the range")
+    void testQuerySkipsPartitionsOutsideRange() throws IOException {
+        try (PartitionedMessageStore store = openStore(PartitionedMessageStore.DEFAULT_MAX_PARTITION_BYTES)) {
+            Message first = newMessage(0, "Old news");
+            store.append(first);
+            clock.advance(Duration.ofDays(2));
+            Message second = newMessage(1, "Fresh news");
+            store.append(second);
+
+            List<Message> recent = store.query(clock.instant().minus(Duration.ofHours(1)), clock.instant().plus(Duration.ofHours(1)));
+            assertEquals(1, recent.size());
+            assertEquals(second.getMessageID(), recent.get(0).getMessageID());
+            assertEquals("Fresh news", recent.get(0).getMessageContent());
+            assertEquals(second.getMessageHash(), recent.get(0).getMessageHash());
+        }
+    }
+
+    @Test
+    @DisplayName("Retention drops whole expired partitions")
+    void testRetentionDropsExpiredPartitions() throws IOException {
+        try (PartitionedMessageStore store = openStore(PartitionedMessageStore.DEFAULT_MAX_PARTITION_BYTES)) {
+            Message expired = newMessage(0, "Expires soon");
+            store.append(expired);
+            String expiredPartition = store.getPartitionNames().get(0);
+            clock.advance(Duration.ofDays(10));
+            store.append(newMessage(1, "Still here"));
+
+            assertEquals(1, store.applyRetention(Duration.ofDays(7)), "Only the old partition should be dropped.");
+            assertFalse(Files.exists(storeDir.resolve(expiredPartition)), "The expired partition file should be deleted.");
+            assertNull(store.findById(expired.getMessageID()));
+            assertEquals(1, store.readAll().size());
+        }
+    }
+
+    @Test
+    @DisplayName("Reopening the store keeps stored messages and appends to the active partition")
+    void testReopenRecoversFromManifest() throws IOException {
+        Message first = newMessage(0, "Before restart");
+        try (PartitionedMessageStore store = openStore(PartitionedMessageStore.DEFAULT_MAX_PARTITION_BYTES)) {
+            store.append(first);
+        }
+        try (PartitionedMessageStore store = openStore(PartitionedMessageStore.DEFAULT_MAX_PARTITION_BYTES)) {
+            store.append(newMessage(1, "After restart"));
+            assertEquals(1, store.getPartitionNames().size());
+            assertEquals(2, store.readAll().size());
+            assertNotNull(store.findById(first.getMessageID()));
+        }
+    }
+
+    @Test
+    @DisplayName("A clock stepping back keeps writing to the active partition")
+    void testClockSteppingBack() throws IOException {
+        try (PartitionedMessageStore store = openStore(PartitionedMessageStore.DEFAULT_MAX_PARTITION_BYTES)) {
+            store.append(newMessage(0, "Before midnight"));
+            clock.advance(Duration.ofDays(1));
+            store.append(newMessage(1, "After midnight"));
+            clock.advance(Duration.ofDays(-1)); // Back across the day boundary
+            Message late = newMessage(2, "Clock stepped back");
+            store.append(late);
+            store.appendAll(List.of(newMessage(3, "Batch after the step")));
+
+            List<String> names = store.getPartitionNames();
+            assertEquals(2, names.size(), "No partition should be opened for the earlier day.");
+            assertEquals(names, names.stream().sorted().toList(), "Partitions should stay in time order.");
+            assertFalse(late.getTimestamp().isBefore(DAY_ONE.plus(Duration.ofDays(1)).truncatedTo(ChronoUnit.DAYS)),
+                    "The message should not be older than the partition holding it.");
+            List<Message> secondDay = store.query(DAY_ONE.plus(Duration.ofDays(1)).truncatedTo(ChronoUnit.DAYS),
+                    DAY_ONE.plus(Duration.ofDays(2)).truncatedTo(ChronoUnit.DAYS));
+            assertEquals(3, secondDay.size(), "Messages written after the step should be found in the active partition's range.");
+
+            clock.advance(Duration.ofDays(2));
+            store.append(newMessage(4, "Next day"));
+            assertEquals(3, store.getPartitionNames().size(), "Moving forward again should still roll.");
+            assertEquals(5, store.readAll().size());
+        }
+    }
+
+    /**
+     * A clock that only moves when the test advances it.
+     */
+    static final class MutableClock extends Clock {
+        private Instant now;
+
+        MutableClock(Instant start) {
+            this.now = start;
+        }
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
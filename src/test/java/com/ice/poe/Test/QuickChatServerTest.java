@@ -0,0 +1,269 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.ice.poe.Test;
+
+import com.ice.poe.DuplicateDetector;
+import com.ice.poe.Message;
+import com.ice.poe.PartitionedMessageStore;
+import com.ice.poe.QuickChatClient;
+import com.ice.poe.QuickChatServer;
+import com.ice.poe.UserDetails;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ *
+ * @author Simphiwe Jijana
+ */
+@DisplayName("QuickChatServer Tests")
+public class QuickChatServerTest {
+
+    @TempDir
+    Path storeDir;
+
+    private PartitionedMessageStore store;
+    private QuickChatServer server;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        Map<String, UserDetails> users = new HashMap<>();
+        users.put("ab_c", new UserDetails("Test", "User", "P@ssw0rd!"));
+        users.put("de_f", new UserDetails("Other", "User", "P@ssw0rd!"));
+        store = new PartitionedMessageStore(storeDir.toString());
+        server = new QuickChatServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), users, store);
+        server.start();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        server.close();
+        store.close();
+    }
+
+    private QuickChatClient connect() throws Exception {
+        return new QuickChatClient(InetAddress.getLoopbackAddress().getHostAddress(), server.getPort());
+    }
+
+    @Test
+    @DisplayName("Requests go through login and message validation")
+    void testValidation() throws Exception {
+        try (QuickChatClient client = connect()) {
+            assertFalse(client.send("+27821234567", "Too early", false).getBoolean("Ok"), "Sending requires a login.");
+            assertFalse(client.login("ab_c", "wrong").getBoolean("Ok"));
+            assertTrue(client.login("ab_c", "P@ssw0rd!").getBoolean("Ok"));
+            assertFalse(client.send("0821234567", "Bad number", false).getBoolean("Ok"));
+            assertFalse(client.send("+27821234567", "a".repeat(251), false).getBoolean("Ok"));
+
+            JSONObject sent = client.send("+27821234567", "Hi there friend", false);
+            assertTrue(sent.getBoolean("Ok"));
+            assertEquals("Message sent", sent.getString("Status"));
+            assertEquals(sent.getString("MessageID").substring(0, 2) + ":0:HIFRIEND", sent.getString("MessageHash"));
+
+            JSONObject stored = client.send("+27821234567", "Keep this one", true);
+            assertEquals("Message stored", stored.getString("Status"));
+            assertNotNull(store.findById(stored.getString("MessageID")));
+        }
+    }
+
+    @Test
+    @DisplayName("Only successful sends are remembered as duplicates, per sender")
+    void testDuplicateSuppression() throws Exception {
+        QuickChatServer noStore = new QuickChatServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+                Map.of("ab_c", new UserDetails("Test", "User", "P@ssw0rd!")), null);
+        noStore.enableDuplicateSuppression(Duration.ofMinutes(5), 1000);
+        noStore.start();
+        try (QuickChatClient client = new QuickChatClient(InetAddress.getLoopbackAddress().getHostAddress(), noStore.getPort())) {
+            client.login("ab_c", "P@ssw0rd!");
+            assertFalse(client.send("+27821234567", "Retry me", true).getBoolean("Ok"), "This server cannot store.");
+            assertEquals("Message sent", client.send("+27821234567", "Retry me", false).getString("Status"),
+                    "A failed send must not make its retry look like a duplicate.");
+            assertTrue(client.send("+27821234567", "Retry me", false).optBoolean("Duplicate"));
+        } finally {
+            noStore.close();
+        }
+
+        server.enableDuplicateSuppression(Duration.ofMinutes(5), 1000);
+        try (QuickChatClient first = connect(); QuickChatClient second = connect()) {
+            first.login("ab_c", "P@ssw0rd!");
+            second.login("de_f", "P@ssw0rd!");
+            assertEquals("Message sent", first.send("+27821234567", "Same words", false).getString("Status"));
+            assertEquals("Message sent", second.send("+27821234567", "Same words", false).getString("Status"),
+                    "Another user sending the same message is not a duplicate.");
+            assertTrue(first.send("+27821234567", "Same words", false).optBoolean("Duplicate"));
+        }
+    }
+
+    @Test
+    @DisplayName("A Bloom filter false positive never drops a real message")
+    void testFilterFalsePositivesAreSent() throws Exception {
+        server.enableDuplicateSuppression(Duration.ofMinutes(5), 1); // Far too small, so the filter fills up
+        try (QuickChatClient client = connect()) {
+            client.login("ab_c", "P@ssw0rd!");
+            for (int i = 0; i < 200; i++) {
+                assertEquals("Message sent", client.send("+27821234567", "Distinct message " + i, false).getString("Status"));
+            }
+        }
+        DuplicateDetector detector = server.getDuplicateDetector();
+        assertTrue(detector.getFalsePositiveCount() > 0, "The full filter should report sends it has not seen.");
+        assertEquals(0, detector.getDuplicateCount());
+    }
+
+    @Test
+    @DisplayName("A client that does not read its responses is not read from either")
+    void testBackpressure() throws Exception {
+        int requests = 300_000;
+        int allocatedBefore = server.getBufferPool().getAllocatedCount();
+        try (Socket socket = new Socket()) {
+            socket.setReceiveBufferSize(4096); // So the kernel does not soak up the responses the test leaves unread
+            socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getPort()));
+            byte[] frame = "{\"Op\":\"SEND\",\"Recipient\":\"+27821234567\",\"Message\":\"Not logged in\"}"
+                    .getBytes(StandardCharsets.UTF_8);
+            AtomicReference<Exception> failure = new AtomicReference<>();
+            Thread writer = new Thread(() -> {
+                try {
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                    for (int i = 0; i < requests; i++) {
+                        out.writeInt(frame.length);
+                        out.write(frame);
+                    }
+                    out.flush();
+                } catch (IOException e) {
+                    failure.set(e);
+                }
+            }, "backpressure-writer");
+            writer.start();
+            writer.join(1000); // Blocks once the server stops reading
+
+            assertTrue(writer.isAlive(), "The server should stop reading a client that does not read its responses.");
+            assertTrue(server.getBufferPool().getAllocatedCount() - allocatedBefore <= 8,
+                    "Queued responses should be capped, not grow with the requests sent.");
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            for (int i = 0; i < requests; i++) {
+                byte[] response = new byte[in.readInt()];
+                in.readFully(response);
+                assertFalse(new JSONObject(new String(response, StandardCharsets.UTF_8)).getBoolean("Ok"));
+            }
+            writer.join();
+            assertNull(failure.get());
+        }
+    }
+
+    @Test
+    @DisplayName("A slow store holds up only the connection that asked for it")
+    void testSlowStoreDoesNotBlockOthers() throws Exception {
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        PartitionedMessageStore slowStore = new PartitionedMessageStore(storeDir.resolve("slow").toString()) {
+            @Override
+            public void append(Message message) throws IOException {
+                entered.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                super.append(message);
+            }
+        };
+        QuickChatServer slowServer = new QuickChatServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+                Map.of("ab_c", new UserDetails("Test", "User", "P@ssw0rd!")), slowStore);
+        slowServer.start();
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try (QuickChatClient storing = new QuickChatClient(InetAddress.getLoopbackAddress().getHostAddress(), slowServer.getPort());
+                QuickChatClient sending = new QuickChatClient(InetAddress.getLoopbackAddress().getHostAddress(), slowServer.getPort())) {
+            storing.login("ab_c", "P@ssw0rd!");
+            sending.login("ab_c", "P@ssw0rd!");
+            Future<List<JSONObject>> stored = pool.submit(() -> storing.pipeline(List.of(
+                    QuickChatClient.sendRequest("+27821234567", "Slow to store", true),
+                    QuickChatClient.sendRequest("+27821234567", "Sent after the store", false))));
+            assertTrue(entered.await(10, TimeUnit.SECONDS));
+
+            assertEquals("Message sent", sending.send("+27821234567", "Not held up", false).getString("Status"),
+                    "Other connections are served while a store is running.");
+            assertFalse(stored.isDone());
+
+            release.countDown();
+            List<JSONObject> responses = stored.get(10, TimeUnit.SECONDS);
+            assertEquals("Message stored", responses.get(0).getString("Status"));
+            assertEquals("Message sent", responses.get(1).getString("Status"), "Responses keep the order of the requests.");
+            assertNotEquals(responses.get(0).getString("MessageHash").split(":")[1], responses.get(1).getString("MessageHash").split(":")[1],
+                    "The stored message counts towards the connection's message number.");
+        } finally {
+            release.countDown();
+            pool.shutdownNow();
+            slowServer.close();
+            slowStore.close();
+        }
+    }
+
+    @Test
+    @DisplayName("Many concurrent clients can pipeline requests over localhost")
+    void testPipelinedThroughput() throws Exception {
+        int clients = 8;
+        int messagesPerClient = 2000;
+        int batch = 100;
+        ExecutorService pool = Executors.newFixedThreadPool(clients);
+        long start = System.nanoTime();
+        List<Future<Integer>> results = new ArrayList<>();
+        for (int c = 0; c < clients; c++) {
+            results.add(pool.submit(() -> {
+                int ok = 0;
+                try (QuickChatClient client = connect()) {
+                    client.login("ab_c", "P@ssw0rd!");
+                    for (int sent = 0; sent < messagesPerClient; sent += batch) {
+                        List<JSONObject> requests = new ArrayList<>();
+                        for (int i = 0; i < batch; i++) {
+                            requests.add(QuickChatClient.sendRequest("+27821234567", "Pipelined message " + (sent + i), false));
+                        }
+                        for (JSONObject response : client.pipeline(requests)) {
+                            if (response.getBoolean("Ok")) {
+                                ok++;
+                            }
+                        }
+                    }
+                }
+                return ok;
+            }));
+        }
+        int total = 0;
+        for (Future<Integer> result : results) {
+            total += result.get();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        pool.shutdown();
+
+        assertEquals(clients * messagesPerClient, total, "Every pipelined request should get a successful response.");
+        System.out.printf("QuickChatServer: %d messages from %d clients in %.2f s (%.0f msg/s), %d buffers allocated%n",
+                total, clients, seconds, total / seconds, server.getBufferPool().getAllocatedCount());
+    }
+}
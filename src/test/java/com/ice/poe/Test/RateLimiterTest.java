@@ -0,0 +1,108 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.ice.poe.Test;
+
+import com.ice.poe.RateLimiter;
+import com.ice.poe.SendRateLimiter;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *
+ * @author Simphiwe Jijana
+ */
+@DisplayName("RateLimiter Tests")
+public class RateLimiterTest {
+
+    private static final long SECOND = 1_000_000_000L;
+
+    private final AtomicLong now = new AtomicLong(1_000 * SECOND);
+
+    @Test
+    @DisplayName("A key gets its burst at once, then permits refill at the configured rate")
+    void testBurstThenRefill() {
+        RateLimiter limiter = new RateLimiter(2, 3, Duration.ofMinutes(1), now::get);
+        assertTrue(limiter.tryAcquire("ab_c"));
+        assertTrue(limiter.tryAcquire("ab_c"));
+        assertTrue(limiter.tryAcquire("ab_c"));
+        assertFalse(limiter.tryAcquire("ab_c"), "The fourth permit exceeds the burst.");
+        assertTrue(limiter.tryAcquire("de_f"), "Other keys have their own bucket.");
+
+        now.addAndGet(SECOND / 2);
+        assertTrue(limiter.tryAcquire("ab_c"), "One permit refills every half second at 2 per second.");
+        assertFalse(limiter.tryAcquire("ab_c"));
+    }
+
+    @Test
+    @DisplayName("A flooded recipient is protected even when the senders are different")
+    void testRecipientLimitAcrossSenders() {
+        SendRateLimiter limiter = new SendRateLimiter(100, 100, 1, 2, now::get);
+        assertTrue(limiter.tryAcquire("ab_c", "+27821234567"));
+        assertTrue(limiter.tryAcquire("de_f", "+27821234567"));
+        assertFalse(limiter.tryAcquire("gh_i", "+27821234567"));
+        assertTrue(limiter.tryAcquire("gh_i", "+27609876543"));
+    }
+
+    @Test
+    @DisplayName("A refused recipient does not use up the sender's permit")
+    void testSenderPermitReturnedWhenRecipientRefuses() {
+        SendRateLimiter limiter = new SendRateLimiter(1, 1, 1, 1, now::get);
+        assertTrue(limiter.tryAcquire("ab_c", "+27821234567"));
+        assertFalse(limiter.tryAcquire("de_f", "+27821234567"), "The recipient has no permits left.");
+        assertTrue(limiter.tryAcquire("de_f", "+27609876543"), "The refused attempt should not have used de_f's only permit.");
+    }
+
+    @Test
+    @DisplayName("Idle buckets are evicted")
+    void testIdleBucketsEvicted() {
+        RateLimiter limiter = new RateLimiter(10, 5, Duration.ofSeconds(30), now::get);
+        limiter.tryAcquire("ab_c");
+        limiter.tryAcquire("de_f");
+        now.addAndGet(10 * SECOND);
+        assertEquals(0, limiter.evictIdle(), "Buckets idle for less than the timeout are kept.");
+        limiter.tryAcquire("de_f");
+        now.addAndGet(25 * SECOND);
+        assertEquals(1, limiter.evictIdle());
+        assertEquals(1, limiter.getTrackedKeys());
+    }
+
+    @Test
+    @DisplayName("Concurrent callers never get more permits than the burst")
+    void testConcurrentAcquireIsExact() throws InterruptedException {
+        RateLimiter limiter = new RateLimiter(1, 500, Duration.ofMinutes(1), now::get);
+        AtomicInteger granted = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < 1000; i++) {
+                    if (limiter.tryAcquire("ab_c")) {
+                        granted.incrementAndGet();
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(500, granted.get());
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.ice.poe.Test;
+
+import com.ice.poe.Message;
+import com.ice.poe.PartitionedMessageStore;
+import com.ice.poe.ShardedMessageStore;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static com.ice.poe.Test.TestMessages.newMessage;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ *
+ * @author Simphiwe Jijana
+ */
+@DisplayName("ShardedMessageStore Tests")
+public class ShardedMessageStoreTest {
+
+    @TempDir
+    Path storeDir;
+
+    private static String recipient(int number) {
+        return String.format("+2782%07d", number);
+    }
+
+    @Test
+    @DisplayName("Concurrent writers keep each recipient's messages in one shard and in order")
+    void testPerRecipientOrder() throws Exception {
+        int threads = 8;
+        int perThread = 2_000;
+        try (ShardedMessageStore store = new ShardedMessageStore(storeDir.toString(), new ShardedMessageStore.Options().shards(4))) {
+            AtomicReference<Throwable> failure = new AtomicReference<>();
+            List<Thread> writers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                Thread writer = new Thread(() -> {
+                    try {
+                        List<Message> batch = new ArrayList<>();
+                        for (int i = 0; i < perThread; i++) {
+                            // Each thread has its own recipients, so the order it stores in is the order to keep
+                            Message message = newMessage(i, recipient(thread * 10 + i % 10), thread + ":" + i);
+                            if (i % 3 == 0) {
+                                batch.add(message);
+                            } else {
+                                store.appendAll(batch);
+                                batch.clear();
+                                store.append(message);
+                            }
+                        }
+                        store.appendAll(batch);
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }, "sharded-test-" + t);
+                writers.add(writer);
+                writer.start();
+            }
+            for (Thread writer : writers) {
+                writer.join();
+            }
+            assertNull(failure.get());
+
+            List<Message> stored = store.readAll();
+            assertEquals(threads * perThread, stored.size());
+            Map<String, Integer> lastIndex = new HashMap<>();
+            for (Message message : stored) {
+                String[] parts = message.getMessageContent().split(":");
+                Integer previous = lastIndex.put(message.getRecipientCell(), Integer.parseInt(parts[1]));
+                assertTrue(previous == null || previous < Integer.parseInt(parts[1]),
+                        "Out of order for " + message.getRecipientCell());
+            }
+
+            int shardsUsed = 0;
+            for (PartitionedMessageStore shard : store.getShards()) {
+                List<Message> inShard = shard.readAll();
+                shardsUsed += inShard.isEmpty() ? 0 : 1;
+                for (int i = 0; i < inShard.size(); i++) {
+                    assertEquals(i + 1, inShard.get(i).getSequence(), "Each shard numbers its own messages.");
+                    assertSame(shard, store.shardFor(inShard.get(i).getRecipientCell()));
+                }
+            }
+            assertTrue(shardsUsed > 1, "The recipients should be spread over the shards.");
+            assertEquals(0, store.getQueuedCount());
+        }
+    }
+
+    @Test
+    @DisplayName("Reads merge the shards by time, and the shard count is kept on reopening")
+    void testScatterGatherReads() throws IOException {
+        PartitionedMessageStoreTest.MutableClock clock = new PartitionedMessageStoreTest.MutableClock(Instant.parse("2025-01-01T10:00:00Z"));
+        List<String> expected = new ArrayList<>();
+        String deletedId;
+        try (ShardedMessageStore store = new ShardedMessageStore(storeDir.toString(),
+                new ShardedMessageStore.Options().shards(3).clock(clock))) {
+            for (int i = 0; i < 60; i++) {
+                Message message = newMessage(i, recipient(i % 7), "Message " + i);
+                store.append(message);
+                expected.add(message.getMessageContent());
+                clock.advance(Duration.ofSeconds(1));
+            }
+            deletedId = store.readAll().get(10).getMessageID();
+            assertEquals("Message 10", store.findById(deletedId).getMessageContent());
+            assertTrue(store.delete(deletedId));
+            assertFalse(store.delete(deletedId));
+            expected.remove("Message 10");
+        }
+
+        try (ShardedMessageStore store = new ShardedMessageStore(storeDir.toString(),
+                new ShardedMessageStore.Options().shards(8).clock(clock))) {
+            assertEquals(3, store.getShardCount(), "A store keeps the shard count it was created with.");
+            List<String> contents = new ArrayList<>();
+            for (Message message : store.readAll()) {
+                contents.add(message.getMessageContent());
+            }
+            assertEquals(expected, contents);
+            assertNull(store.findById(deletedId));
+
+            Instant start = Instant.parse("2025-01-01T10:00:00Z");
+            assertEquals(59, store.query(start, start.plus(Duration.ofDays(1))).size());
+        }
+    }
+
+    @Test
+    @DisplayName("Closing the store writes everything still queued")
+    void testCloseDrainsQueues() throws Exception {
+        List<CompletableFuture<Message>> pending = new ArrayList<>();
+        ShardedMessageStore store = new ShardedMessageStore(storeDir.toString(),
+                new ShardedMessageStore.Options().shards(2).queueCapacity(100).maxBatch(7));
+        for (int i = 0; i < 1_000; i++) {
+            pending.add(store.submit(newMessage(i, recipient(i % 5), "Queued " + i)));
+        }
+        store.close();
+        for (CompletableFuture<Message> write : pending) {
+            assertTrue(write.isDone() && !write.isCompletedExceptionally());
+        }
+        assertThrows(IllegalStateException.class, () -> store.submit(newMessage(0, recipient(0), "Too late")));
+
+        try (ShardedMessageStore reopened = new ShardedMessageStore(storeDir.toString(), new ShardedMessageStore.Options())) {
+            assertEquals(1_000, reopened.readAll().size());
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.ice.poe.Test;
+
+import com.ice.poe.Message;
+import com.ice.poe.MessageAnalytics;
+import com.ice.poe.PartitionedMessageStore;
+import com.ice.poe.SnapshotManager;
+import com.ice.poe.UserDetails;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ *
+ * @author Simphiwe Jijana
+ */
+@DisplayName("SnapshotManager Tests")
+public class SnapshotManagerTest {
+
+    private static final Instant START = Instant.parse("2025-01-01T10:00:00Z");
+
+    @TempDir
+    Path storeDir;
+
+    private PartitionedMessageStoreTest.MutableClock clock;
+
+    @BeforeEach
+    void setUp() {
+        clock = new PartitionedMessageStoreTest.MutableClock(START);
+    }
+
+    /**
+     * The state of one run of the application.
+     */
+    private final class Session implements AutoCloseable {
+        final PartitionedMessageStore store;
+        final MessageAnalytics analytics = new MessageAnalytics(8, 3, clock);
+        final Map<String, UserDetails> users = new ConcurrentHashMap<>();
+        final SnapshotManager snapshots;
+        final SnapshotManager.RestoreReport report;
+
+        Session() throws IOException {
+            store = new PartitionedMessageStore(storeDir.toString(), Duration.ofDays(1), 4096, clock);
+            snapshots = new SnapshotManager(storeDir.resolve("state.snapshot"), store, analytics, users);
+            report = snapshots.restore();
+            store.addListener(analytics);
+        }
+
+        void store(int count, String prefix) throws IOException {
+            for (int i = 0; i < count; i++) {
+                store.append(newMessage(i, prefix + " message number " + i + "!".repeat(i % 40)));
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            snapshots.close();
+            store.close();
+        }
+    }
+
+    private static Message newMessage(int index, String content) {
+        return TestMessages.newMessage(index, "+2782123456" + (index % 5), content);
+    }
+
+    private static void assertSameStatistics(MessageAnalytics expected, MessageAnalytics actual) {
+        assertEquals(expected.getStoredCount(), actual.getStoredCount());
+        assertEquals(expected.getSentCount(), actual.getSentCount());
+        assertArrayEquals(expected.getLengthHistogram(), actual.getLengthHistogram());
+        assertEquals(expected.getTopRecipients(5).size(), actual.getTopRecipients(5).size());
+        for (int i = 0; i < expected.getTopRecipients(5).size(); i++) {
+            assertEquals(expected.getTopRecipients(5).get(i).getCount(), actual.getTopRecipients(5).get(i).getCount());
+        }
+        assertEquals(expected.getLongestMessages().size(), actual.getLongestMessages().size());
+        for (int i = 0; i < expected.getLongestMessages().size(); i++) {
+            assertEquals(expected.getLongestMessages().get(i).getMessageContent(), actual.getLongestMessages().get(i).getMessageContent());
+        }
+    }
+
+    @Test
+    @DisplayName("Users and statistics come back from the snapshot without reading the archive")
+    void testRestoreFromSnapshot() throws IOException {
+        MessageAnalytics before;
+        try (Session first = new Session()) {
+            assertEquals(SnapshotManager.Source.FULL_REBUILD, first.report.getSource(), "There is no snapshot yet.");
+            first.users.put("ab_c", new UserDetails("Ann", "Bell", "Secret@123"));
+            first.store(200, "Archived");
+            first.analytics.recordSend("ab_c", newMessage(1, "Sent just now"));
+            before = first.analytics;
+        }
+
+        try (Session second = new Session()) {
+            assertEquals(SnapshotManager.Source.SNAPSHOT, second.report.getSource());
+            assertEquals(0, second.report.getReplayed(), "Nothing was stored after the snapshot.");
+            assertTrue(second.users.get("ab_c").matchesPassword("Secret@123"));
+            assertFalse(second.users.get("ab_c").matchesPassword("Secret@124"));
+            byte[] saved = Files.readAllBytes(second.snapshots.getFile());
+            assertFalse(new String(saved, StandardCharsets.UTF_8).contains("Secret@123"), "Only the password hash is saved.");
+            if (Files.getFileStore(second.snapshots.getFile()).supportsFileAttributeView("posix")) {
+                assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(second.snapshots.getFile())));
+            }
+            assertSameStatistics(before, second.analytics);
+            assertEquals(1, second.analytics.getHourlySends("ab_c")[23]);
+        }
+    }
+
+    @Test
+    @DisplayName("Only records stored after the snapshot are replayed, including new partitions")
+    void testReplaysOnlyNewRecords() throws IOException {
+        Session first = new Session();
+        first.store(100, "Before");
+        first.snapshots.checkpoint();
+        first.store(30, "After"); // Enough to roll over to new partitions
+        first.store.close(); // A crash: no final snapshot is written
+
+        try (Session second = new Session()) {
+            assertEquals(SnapshotManager.Source.SNAPSHOT, second.report.getSource());
+            assertEquals(30, second.report.getReplayed());
+            assertEquals(130, second.analytics.getStoredCount());
+
+            MessageAnalytics rebuilt = new MessageAnalytics(8, 3, clock);
+            rebuilt.backfill(second.store);
+            assertSameStatistics(rebuilt, second.analytics);
+        }
+    }
+
+    @Test
+    @DisplayName("A damaged snapshot falls back to the previous one, then to a full rebuild")
+    void testDamagedSnapshotFallsBack() throws IOException {
+        try (Session first = new Session()) {
+            first.users.put("ab_c", new UserDetails("Ann", "Bell", "Secret@123"));
+            first.store(50, "Stored");
+            first.snapshots.checkpoint();
+            first.store(5, "More");
+        }
+        Path current = storeDir.resolve("state.snapshot");
+        Path previous = storeDir.resolve("state.snapshot.prev");
+        byte[] damaged = Files.readAllBytes(current);
+        damaged[damaged.length / 2] ^= 0x40;
+        Files.write(current, damaged);
+
+        try (Session second = new Session()) {
+            assertEquals(SnapshotManager.Source.PREVIOUS_SNAPSHOT, second.report.getSource());
+            assertEquals(5, second.report.getReplayed());
+            assertEquals(55, second.analytics.getStoredCount());
+            assertTrue(second.report.getProblems().get(0).contains("checksum"));
+        }
+
+        Files.write(previous, Arrays.copyOf(Files.readAllBytes(previous), 40)); // Truncated
+        Files.write(current, new byte[]{1, 2, 3});
+        try (Session third = new Session()) {
+            assertEquals(SnapshotManager.Source.FULL_REBUILD, third.report.getSource());
+            assertEquals(55, third.analytics.getStoredCount());
+            assertEquals(2, third.report.getProblems().size());
+            assertTrue(third.users.isEmpty(), "Neither snapshot could be read.");
+        }
+    }
+
+    @Test
+    @DisplayName("A store rewritten after the snapshot is rebuilt in full, but users are kept")
+    void testRewrittenStoreIsRebuilt() throws IOException {
+        Session first = new Session();
+        first.users.put("ab_c", new UserDetails("Ann", "Bell", "Secret@123"));
+        first.store(3, "Stored");
+        first.snapshots.checkpoint();
+        first.store.delete(first.store.readAll().get(1).getMessageID());
+        first.store.append(newMessage(9, "Appended where the deleted record used to be"));
+        first.store.close(); // A crash: no final snapshot is written
+
+        try (Session second = new Session()) {
+            assertEquals(SnapshotManager.Source.FULL_REBUILD, second.report.getSource());
+            assertEquals(3, second.analytics.getStoredCount());
+            assertNotNull(second.users.get("ab_c"));
+        }
+    }
+
+    @Test
+    @DisplayName("A snapshot of another format version is not used")
+    void testOtherVersionIsIgnored() throws IOException {
+        try (Session first = new Session()) {
+            first.store(10, "Stored");
+        }
+        Path current = storeDir.resolve("state.snapshot");
+        byte[] bytes = Files.readAllBytes(current);
+        bytes[7] = (byte) (SnapshotManager.FORMAT_VERSION + 1);
+        Files.write(current, bytes);
+
+        try (Session second = new Session()) {
+            assertEquals(SnapshotManager.Source.FULL_REBUILD, second.report.getSource());
+            assertEquals(10, second.analytics.getStoredCount());
+            assertTrue(second.report.getProblems().get(0).contains("version"));
+        }
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.ice.poe.Test;
+
+import com.ice.poe.Message;
+
+/**
+ * Builds the messages the tests store, send and schedule, with a hash made
+ * the way the interactive flow makes it.
+ *
+ * @author Simphiwe Jijana
+ */
+final class TestMessages {
+
+    static final String RECIPIENT = "+27821234567";
+
+    private TestMessages() {
+    }
+
+    /**
+     * Creates a message to the default test recipient.
+     *
+     * @param index The message index.
+     * @param content The message content.
+     * @return The message, with its hash.
+     */
+    static Message newMessage(int index, String content) {
+        return newMessage(index, RECIPIENT, content);
+    }
+
+    /**
+     * Creates a message.
+     *
+     * @param index The message index.
+     * @param recipient The recipient's cell number.
+     * @param content The message content.
+     * @return The message, with its hash.
+     */
+    static Message newMessage(int index, String recipient, String content) {
+        Message message = new Message(index);
+        message.setRecipientCell(recipient);
+        message.setMessageContent(content);
+        message.createMessageHash(message.getMessageID(), index, content);
+        return message;
+    }
+}
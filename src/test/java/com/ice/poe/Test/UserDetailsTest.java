@@ -0,0 +1,91 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Classes/Class.java to edit this template
+ */
+package com.ice.poe.Test;
+
+import com.ice.poe.PoeLogin;
+import com.ice.poe.UserDetails;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ *
+ * @author Simphiwe Jijana
+ */
+@DisplayName("UserDetails Tests")
+public class UserDetailsTest {
+
+    private static final byte[] SALT = "0123456789abcdef".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    @DisplayName("Test the saved hash names PBKDF2 and its iteration count")
+    void testSavedForm() {
+        UserDetails user = new UserDetails("Ann", "Bell", "Secret@123");
+        String saved = user.getPasswordHash();
+        assertTrue(saved.startsWith("pbkdf2$" + UserDetails.PASSWORD_ITERATIONS + "$"), saved);
+        assertFalse(saved.contains("Secret@123"));
+
+        UserDetails restored = UserDetails.fromPasswordHash("Ann", "Bell", saved);
+        assertTrue(restored.matchesPassword("Secret@123"));
+        assertFalse(restored.matchesPassword("Secret@124"));
+        assertFalse(restored.needsRehash());
+        assertEquals(saved, restored.getPasswordHash());
+    }
+
+    @Test
+    @DisplayName("Test a hash is checked with the iteration count saved with it")
+    void testSavedIterationCount() throws Exception {
+        int iterations = 210_000;
+        byte[] hash = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256")
+                .generateSecret(new PBEKeySpec("Secret@123".toCharArray(), SALT, iterations, 256)).getEncoded();
+        Base64.Encoder encoder = Base64.getEncoder();
+        UserDetails user = UserDetails.fromPasswordHash("Ann", "Bell",
+                "pbkdf2$" + iterations + "$" + encoder.encodeToString(SALT) + "$" + encoder.encodeToString(hash));
+
+        assertTrue(user.matchesPassword("Secret@123"));
+        assertFalse(user.matchesPassword("secret@123"));
+    }
+
+    @Test
+    @DisplayName("Test an old SHA-256 hash still logs in and is replaced by a PBKDF2 one")
+    void testLegacyHashIsRehashed() throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        digest.update(SALT);
+        byte[] hash = digest.digest("Secret@123".getBytes(StandardCharsets.UTF_8));
+        Base64.Encoder encoder = Base64.getEncoder();
+        UserDetails legacy = UserDetails.fromPasswordHash("Ann", "Bell", encoder.encodeToString(SALT) + "$" + encoder.encodeToString(hash));
+        assertTrue(legacy.needsRehash());
+
+        Map<String, UserDetails> users = new HashMap<>(Map.of("ab_c", legacy));
+        PoeLogin login = new PoeLogin(users, 3);
+        assertFalse(login.validateLogin("ab_c", "Secret@124"));
+        assertSame(legacy, users.get("ab_c")); // Not rehashed without the right password
+
+        assertTrue(login.validateLogin("ab_c", "Secret@123"));
+        UserDetails rehashed = users.get("ab_c");
+        assertNotSame(legacy, rehashed);
+        assertTrue(rehashed.getPasswordHash().startsWith("pbkdf2$"));
+        assertFalse(rehashed.needsRehash());
+        assertEquals("Ann", rehashed.getFirstName());
+        assertTrue(login.validateLogin("ab_c", "Secret@123"));
+    }
+
+    @Test
+    @DisplayName("Test malformed saved hashes are rejected")
+    void testMalformed() {
+        assertThrows(IllegalArgumentException.class, () -> UserDetails.fromPasswordHash("A", "B", "nohash"));
+        assertThrows(IllegalArgumentException.class, () -> UserDetails.fromPasswordHash("A", "B", "md5$1$AAAA$AAAA"));
+        assertThrows(IllegalArgumentException.class, () -> UserDetails.fromPasswordHash("A", "B", "pbkdf2$0$AAAA$AAAA"));
+        assertThrows(IllegalArgumentException.class, () -> UserDetails.fromPasswordHash("A", "B", "pbkdf2$x$AAAA$AAAA"));
+    }
+}